@@ -24,13 +24,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FileExistsException;
 import org.apache.commons.io.FileUtils;
@@ -43,10 +52,21 @@ import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.util.MethodInvoker;
 
 import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.CompressionCodecs;
 import de.tudarmstadt.ukp.dkpro.lab.task.Discriminable;
 
 public class Util
 {
+	/**
+	 * Maximum length of a string produced by {@link #toBoundedString(Object)}.
+	 */
+	public static final int MAX_VALUE_LENGTH = 16 * 1024;
+
+	/**
+	 * Prefix of values which have been replaced by their hash.
+	 */
+	public static final String HASHED_VALUE_PREFIX = "#sha1:";
+
 	private static Map<URL, File> urlFileCache;
 
 	static {
@@ -275,14 +295,63 @@ public class Util
 		}
 	}
 
+	/**
+	 * Render the given object like {@link #toString(Object)}, but replace the result by
+	 * {@value #HASHED_VALUE_PREFIX} followed by the SHA-1 hash of the full string if it is longer
+	 * than {@link #MAX_VALUE_LENGTH} characters.
+	 *
+	 * @since 0.12.0
+	 */
+	public static String toBoundedString(final Object aObject)
+	{
+		return bound(toString(aObject));
+	}
+
+	/**
+	 * Replace the given string by {@value #HASHED_VALUE_PREFIX} followed by its SHA-1 hash if it
+	 * is longer than {@link #MAX_VALUE_LENGTH} characters.
+	 *
+	 * @since 0.12.0
+	 */
+	public static String bound(final String aValue)
+	{
+		if (aValue == null || aValue.length() <= MAX_VALUE_LENGTH) {
+			return aValue;
+		}
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder sb = new StringBuilder(HASHED_VALUE_PREFIX);
+		for (byte b : digest.digest(aValue.getBytes(StandardCharsets.UTF_8))) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Check if the given value has been replaced by its hash.
+	 *
+	 * @see #bound(String)
+	 * @since 0.12.0
+	 */
+	public static boolean isHashedValue(final String aValue)
+	{
+		return aValue != null && aValue.startsWith(HASHED_VALUE_PREFIX);
+	}
+
 	public static <T extends StreamReader> T retrieveBinary(final File aFile, final T aConsumer)
 	{
 		InputStream is = null;
 		try {
 			is = new FileInputStream(aFile);
-			if (aFile.getName().toLowerCase().endsWith(".gz")) {
-				is = new GZIPInputStream(is);
-			}
+			// File names have always been matched case-insensitively here
+			is = CompressionCodecs.decompress(aFile.getName().toLowerCase(Locale.US), is);
 			aConsumer.read(is);
 			return aConsumer;
 		}
@@ -294,6 +363,38 @@ public class Util
 		}
 	}
 	
+	/**
+	 * Map the given file into memory for reading. Files larger than {@link Integer#MAX_VALUE}
+	 * bytes are mapped in multiple consecutive chunks.
+	 *
+	 * @param aFile the file.
+	 * @return read-only buffers covering the file in order.
+	 * @throws IOException if the file cannot be mapped.
+	 */
+	public static List<MappedByteBuffer> map(final File aFile)
+		throws IOException
+	{
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(aFile, "r");
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			List<MappedByteBuffer> buffers = new ArrayList<MappedByteBuffer>();
+			long position = 0;
+			do {
+				long length = java.lang.Math.min(Integer.MAX_VALUE, size - position);
+				buffers.add(channel.map(MapMode.READ_ONLY, position, length));
+				position += length;
+			}
+			while (position < size);
+			// Mappings remain valid after the channel has been closed
+			return buffers;
+		}
+		finally {
+			close(raf);
+		}
+	}
+
 	public static boolean isWindows()
 	{
 		return (System.getProperty("os.name").toLowerCase().indexOf("win") >= 0);
@@ -20,6 +20,8 @@ package de.tudarmstadt.ukp.dkpro.lab.engine;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.MappedByteBuffer;
+import java.util.List;
 
 import de.tudarmstadt.ukp.dkpro.lab.logging.LoggingService;
 import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
@@ -122,6 +124,14 @@ public interface TaskContext
 	
 	boolean containsKey(String aKey);
 
+	/**
+	 * Map the data of the specified key into memory for reading, taking into account imports.
+	 * Resources stored in the context are preferred to imported resources.
+	 *
+	 * @see StorageService#map(String, String)
+	 */
+	List<MappedByteBuffer> map(String aKey);
+
 	/**
 	 * Retrieve a resource taking into account imports. Resources stored in the context are
 	 * preferred to imported resources.
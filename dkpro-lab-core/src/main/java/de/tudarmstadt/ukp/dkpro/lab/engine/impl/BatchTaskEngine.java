@@ -28,6 +28,7 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -35,6 +36,12 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -68,6 +75,13 @@ public class BatchTaskEngine
 {    
     private TaskContextFactory contextFactory;
 
+    private boolean prefetch = true;
+
+    // Resolves the imports to prefetch off the dispatching thread. Guarded by this.
+    private ThreadPoolExecutor prefetchExecutor;
+
+    private IntermediateDataTracker intermediates;
+
     private final Log log = LogFactory.getLog(getClass());
 
     /**
@@ -112,22 +126,25 @@ public class BatchTaskEngine
 
                 // A subtask execution may apply to multiple parameter space coordinates!
                 Set<String> executedSubtasks = new LinkedHashSet<String>();
+
+                // Intermediate data is tracked across configurations, since an execution of an
+                // intermediate task may be reused by a later configuration
+                intermediates = new IntermediateDataTracker(cfg.getTasks());
+                if (intermediates.isActive()) {
+                    for (Map<String, Object> config : parameterSpace) {
+                        intermediates.addConfiguration(addBatchConfiguration(cfg, config));
+                    }
+                }
                 
                 ProgressMeter progress = new ProgressMeter(estimatedSize);
                 for (Map<String, Object> config : parameterSpace) {
-                    if (cfg.getConfiguration() != null) {
-                        for (Entry<String, Object> e : cfg.getConfiguration().entrySet()) {
-                            if (!config.containsKey(e.getKey())) {
-                                config.put(e.getKey(), e.getValue());
-                            }
-                        }
-                    }
+                    addBatchConfiguration(cfg, config);
                     
                     log.info("== Running new configuration [" + ctx.getId() + "] ==");
                     List<String> keys = new ArrayList<String>(config.keySet());
                     for (String key : keys) {
                         log.info("[" + key + "]: ["
-                                + StringUtils.abbreviateMiddle(Util.toString(config.get(key)), "…", 150)
+                                + StringUtils.abbreviateMiddle(Util.toBoundedString(config.get(key)), "…", 150)
                                 + "]");
                     }
                     
@@ -161,17 +178,59 @@ public class BatchTaskEngine
             return ctx.getId();
         }
         finally {
+            intermediates = null;
             if (ctx != null) {
                 ctx.destroy();
             }
         }
     }
     
+    private static Map<String, Object> addBatchConfiguration(BatchTask aConfiguration,
+            Map<String, Object> aConfig)
+    {
+        if (aConfiguration.getConfiguration() != null) {
+            for (Entry<String, Object> e : aConfiguration.getConfiguration().entrySet()) {
+                if (!aConfig.containsKey(e.getKey())) {
+                    aConfig.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return aConfig;
+    }
+
+    /**
+     * Get the tracker for the intermediate data of the batch task being run. If no batch task is
+     * being run, a tracker only covering the given configuration is created.
+     */
+    protected IntermediateDataTracker getIntermediateDataTracker(BatchTask aConfiguration)
+    {
+        if (intermediates == null) {
+            return new IntermediateDataTracker(aConfiguration.getTasks());
+        }
+        return intermediates;
+    }
+    
     @Override
     public void setContextFactory(TaskContextFactory aContextFactory)
     {
         contextFactory = aContextFactory;
     }
+
+    /**
+     * Whether to announce the imports of the next subtask to the storage while the current
+     * subtask is running, so the storage can load the imported data in the background.
+     *
+     * @see StorageService#prefetch(String, String)
+     */
+    public void setPrefetch(boolean aPrefetch)
+    {
+        prefetch = aPrefetch;
+    }
+
+    public boolean isPrefetch()
+    {
+        return prefetch;
+    }
     
     /**
      * Locate the latest task execution compatible with the given task configuration.
@@ -211,6 +270,8 @@ public class BatchTaskEngine
         }
 
         Queue<Task> queue = new LinkedList<Task>(aConfiguration.getTasks());
+        IntermediateDataTracker intermediates = getIntermediateDataTracker(aConfiguration);
+        intermediates.beginConfiguration();
         Set<Task> loopDetection = new HashSet<Task>();
 
         List<UnresolvedImportException> deferralReasons = new ArrayList<UnresolvedImportException>();
@@ -231,8 +292,18 @@ public class BatchTaskEngine
                     if (task instanceof BatchTask) {
                         ((BatchTask) task).setScope(scope);
                     }
-                    
-                    execution = runNewExecution(aContext, task, aConfig, aExecutedSubtasks);
+
+                    // Do not create a context for the task if it would fail to resolve its
+                    // imports anyway
+                    Map<String, TaskContextMetadata> resolved = checkImports(aContext, task,
+                            aConfig, aExecutedSubtasks);
+
+                    if (!queue.isEmpty()) {
+                        prefetchImports(aContext, queue.peek(), aConfig, aExecutedSubtasks);
+                    }
+
+                    execution = runNewExecution(aContext, task, aConfig, aExecutedSubtasks,
+                            resolved);
                 }                    
                 else {
                     log.debug("Using existing execution [" + execution.getId() + "]");
@@ -243,6 +314,10 @@ public class BatchTaskEngine
                 scope.add(execution.getId());
                 loopDetection.clear();
                 deferralReasons.clear();
+
+                // Delete intermediate data this task was the last consumer of
+                intermediates.finished(task, execution, aContext.getStorageService(),
+                        aExecutedSubtasks);
             }
             catch (UnresolvedImportException e) {
                 // Add task back to queue
@@ -280,32 +355,210 @@ public class BatchTaskEngine
      *            the discriminators of the task context to find.
      * @param aConfig
      *            the current parameter configuration.
+     * @param aFingerprint
+     *            the fingerprint of the discriminators of the task context to find or
+     *            {@code null} if the discriminators are only constraints.
      * @throws TaskContextNotFoundException
      *             if a matching task context could not be found.
      * @see ImportUtil#matchConstraints(Map, Map, boolean)
+     * @see TaskContextMetadata#fingerprint(Map)
      */
     private TaskContextMetadata getLatestExecution(TaskContext aContext, String aType,
-            Map<String, String> aDiscriminators, Map<String, Object> aConfig)
+            Map<String, String> aDiscriminators, Map<String, Object> aConfig,
+            String aFingerprint)
     {
         // Convert parameter values to strings
         Map<String, String> config = new HashMap<String, String>();
         for (Entry<String, Object> e : aConfig.entrySet()) {
-            config.put(e.getKey(), Util.toString(e.getValue()));
+            config.put(e.getKey(), Util.toBoundedString(e.getValue()));
         }
 
+        ConstraintMatcher matcher = new ConstraintMatcher(config);
+
         StorageService storage = aContext.getStorageService();
-        List<TaskContextMetadata> metas = storage.getContexts(aType, aDiscriminators);
-        for (TaskContextMetadata meta : metas) {
-            Map<String, String> discriminators = storage.retrieveBinary(meta.getId(),
-                    Task.DISCRIMINATORS_KEY, new PropertiesAdapter()).getMap();
-            // Check if the task is compatible with the current configuration. To do this, we
-            // interpret the discriminators as constraints on the current configuration.
-            if (ImportUtil.matchConstraints(discriminators, config, false)) {
-                return meta;
+        // Contexts are checked newest first, so we can stop at the first compatible one
+        if (aFingerprint != null) {
+            // This includes contexts created before fingerprints were introduced. Their
+            // discriminators may differ, so they are checked like in a scan.
+            for (TaskContextMetadata meta : storage.getContextsByFingerprint(aType, aFingerprint)) {
+                if (isReusable(storage, meta, matcher,
+                        meta.getFingerprint() == null ? aDiscriminators : null)) {
+                    return meta;
+                }
+            }
+        }
+        else {
+            Iterator<TaskContextMetadata> metas = storage.iterateContexts(aType, aDiscriminators,
+                    0);
+            while (metas.hasNext()) {
+                TaskContextMetadata meta = metas.next();
+                if (isReusable(storage, meta, matcher, null)) {
+                    return meta;
+                }
             }
         }
         throw ImportUtil.createContextNotFoundException(aType, aDiscriminators);
+    }
+
+    /**
+     * @param aConstraints
+     *            constraints the discriminators of the context must match or {@code null}.
+     */
+    private boolean isReusable(StorageService aStorage, TaskContextMetadata aMeta,
+            ConstraintMatcher aMatcher, Map<String, String> aConstraints)
+    {
+        // Intermediate data has been removed from this context, so it cannot be reused
+        if (aStorage.containsKey(aMeta.getId(), IntermediateDataTracker.CLEANED_KEY)) {
+            return false;
+        }
 
+        Map<String, String> discriminators = aStorage.retrieveBinary(aMeta.getId(),
+                Task.DISCRIMINATORS_KEY, new PropertiesAdapter()).getMap();
+        if (aConstraints != null && !aConstraints.isEmpty()
+                && !ImportUtil.matchConstraints(discriminators, aConstraints, true)) {
+            return false;
+        }
+
+        // Check if the task is compatible with the current configuration. To do this, we
+        // interpret the discriminators as constraints on the current configuration.
+        return aMatcher.matches(discriminators, false);
+    }
+
+    /**
+     * Announce the imports of the given task to the storage, so it can load the imported data in
+     * the background. The imports are resolved in the background as well, since this may require
+     * scanning the storage. Imports which cannot be resolved yet, e.g. because they are produced
+     * by a task which has not been executed yet, are skipped.
+     * 
+     * @param aContext
+     *            the context of the current batch task.
+     * @param aTask
+     *            the task which is expected to be executed next.
+     * @param aConfig
+     *            the current parameter configuration.
+     * @param aScope
+     *            the contexts from which the task may import.
+     */
+    protected void prefetchImports(TaskContext aContext, Task aTask, Map<String, Object> aConfig,
+            Set<String> aScope)
+    {
+        if (!prefetch) {
+            return;
+        }
+
+        // The scope keeps growing while the imports are resolved, so use a copy
+        final ScopedTaskContext ctx = createScopedContext(aContext, aTask, aConfig,
+                new HashSet<String>(aScope), null);
+        getPrefetchExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (String value : ctx.getMetadata().getImports().values()) {
+                    URI uri = URI.create(value);
+                    if (!LATEST_CONTEXT_SCHEME.equals(uri.getScheme())
+                            && !CONTEXT_ID_SCHEME.equals(uri.getScheme())) {
+                        continue;
+                    }
+
+                    try {
+                        TaskContextMetadata meta = ctx.resolve(uri);
+                        ctx.getStorageService().prefetch(meta.getId(), uri.getPath());
+                    }
+                    catch (UnresolvedImportException e) {
+                        log.trace("Not prefetching [" + value + "]: " + e.getMessage());
+                    }
+                    catch (RuntimeException e) {
+                        log.debug("Unable to prefetch [" + value + "]", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private synchronized ExecutorService getPrefetchExecutor()
+    {
+        if (prefetchExecutor == null) {
+            // Only the latest request is kept waiting. Imports of a subtask which has already
+            // been dispatched are not worth resolving anymore.
+            prefetchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(1), new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable aRunnable)
+                        {
+                            Thread thread = new Thread(aRunnable, "import-prefetch");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.DiscardOldestPolicy());
+            prefetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * Check that all imports of the given task can be resolved before a context is created for
+     * the task. Imports are resolved exactly as they are by the context of the task, but without
+     * creating and initializing a context, so a task which cannot run yet is deferred before any
+     * work is done for it.
+     * 
+     * @param aContext
+     *            the context of the current batch task.
+     * @param aTask
+     *            the task to check.
+     * @param aConfig
+     *            the current parameter configuration.
+     * @param aScope
+     *            the contexts from which the task may import.
+     * @return the contexts the imports have been resolved to. Pass them to
+     *         {@link #runNewExecution(TaskContext, Task, Map, Set, Map)}, so the context of the
+     *         task does not resolve the imports again.
+     * @throws UnresolvedImportException
+     *             if an import cannot be resolved.
+     */
+    protected Map<String, TaskContextMetadata> checkImports(TaskContext aContext, Task aTask,
+            Map<String, Object> aConfig, Set<String> aScope)
+    {
+        Map<String, TaskContextMetadata> resolved =
+                new ConcurrentHashMap<String, TaskContextMetadata>();
+
+        // The subtasks of a batch task are checked by the engine running the batch task
+        if (aTask instanceof BatchTask) {
+            return resolved;
+        }
+
+        ScopedTaskContext ctx = createScopedContext(aContext, aTask, aConfig, aScope, resolved);
+        for (Entry<String, String> e : aTask.getImports().entrySet()) {
+            URI uri = URI.create(e.getValue());
+            if (LATEST_CONTEXT_SCHEME.equals(uri.getScheme())
+                    || CONTEXT_ID_SCHEME.equals(uri.getScheme())) {
+                TaskContextMetadata meta = ctx.resolve(uri);
+                // Same check as when the context of the task resolves its imports
+                if (!aContext.getStorageService().containsKey(meta.getId(), uri.getPath())) {
+                    throw new UnresolvedImportException(ctx, e.getKey(), e.getValue(),
+                            "Key not found");
+                }
+            }
+        }
+        return resolved;
+    }
+
+    private ScopedTaskContext createScopedContext(TaskContext aContext, Task aTask,
+            Map<String, Object> aConfig, Set<String> aScope,
+            Map<String, TaskContextMetadata> aResolved)
+    {
+        ScopedTaskContext ctx = new ScopedTaskContext(contextFactory);
+        // Identifies the task in messages about unresolved imports
+        TaskContextMetadata metadata = new TaskContextMetadata();
+        metadata.setType(aTask.getType());
+        metadata.setImports(aTask.getImports());
+        ctx.setMetadata(metadata);
+        ctx.setStorageService(aContext.getStorageService());
+        ctx.setConfig(aConfig);
+        ctx.setScope(aScope);
+        ctx.setResolved(aResolved);
+        return ctx;
     }
 
     /**
@@ -322,11 +575,33 @@ public class BatchTaskEngine
     protected TaskContextMetadata runNewExecution(TaskContext aContext, Task aTask, Map<String, Object> aConfig,
             Set<String> aScope)
         throws ExecutionException, LifeCycleException
+    {
+        return runNewExecution(aContext, aTask, aConfig, aScope, null);
+    }
+
+    /**
+     * Execute the given task with the given task configuration.
+     * 
+     * @param aContext
+     *            the context of the current batch task.
+     * @param aTask
+     *            the the task whose task to be executed.
+     * @param aConfig
+     *            the current parameter configuration.
+     * @param aResolved
+     *            the contexts the imports of the task have already been resolved to as
+     *            returned by {@link #checkImports} or {@code null}.
+     * @return the context meta data.
+     */
+    protected TaskContextMetadata runNewExecution(TaskContext aContext, Task aTask,
+            Map<String, Object> aConfig, Set<String> aScope,
+            Map<String, TaskContextMetadata> aResolved)
+        throws ExecutionException, LifeCycleException
     {
         TaskExecutionService execService = aContext.getExecutionService();
         TaskExecutionEngine engine = execService.createEngine(aTask);
         engine.setContextFactory(new ScopedTaskContextFactory(execService
-                .getContextFactory(), aConfig, aScope));
+                .getContextFactory(), aConfig, aScope, aResolved));
         String uuid = engine.run(aTask);
         return aContext.getStorageService().getContext(uuid);
     }
@@ -351,8 +626,9 @@ public class BatchTaskEngine
         }
 
         try {
+            Map<String, String> discriminators = aTask.getDescriminators();
             TaskContextMetadata meta = getLatestExecution(aContext, aTask.getType(),
-                    aTask.getDescriminators(), aConfig);
+                    discriminators, aConfig, TaskContextMetadata.fingerprint(discriminators));
 
             // If the task was already executed within the scope of this aggregate, do not execute
             // it again. Catching this here saves us from running tasks with the same configuration
@@ -421,13 +697,26 @@ public class BatchTaskEngine
         private final DefaultTaskContextFactory contextFactory;
         private final Map<String, Object> config;
         private final Set<String> scope;
+        private final Map<String, TaskContextMetadata> resolved;
 
         public ScopedTaskContextFactory(TaskContextFactory aContextFactory,
                 Map<String, Object> aConfig, Set<String> aScope)
+        {
+            this(aContextFactory, aConfig, aScope, null);
+        }
+
+        /**
+         * @param aResolved
+         *            contexts imports have already been resolved to or {@code null}.
+         */
+        public ScopedTaskContextFactory(TaskContextFactory aContextFactory,
+                Map<String, Object> aConfig, Set<String> aScope,
+                Map<String, TaskContextMetadata> aResolved)
         {
             contextFactory = (DefaultTaskContextFactory) aContextFactory;
             config = aConfig;
             scope = aScope;
+            resolved = aResolved;
         }
 
         @Override
@@ -441,6 +730,7 @@ public class BatchTaskEngine
             ctx.setMetadata(aMetadata);
             ctx.setConfig(config);
             ctx.setScope(scope);
+            ctx.setResolved(resolved);
             return ctx;
         }
 
@@ -492,6 +782,8 @@ public class BatchTaskEngine
     {
         private Map<String, Object> config;
         private Set<String> scope;
+        // Contexts by the part of the import URI identifying them. The key does not matter here.
+        private Map<String, TaskContextMetadata> resolved;
 
         public ScopedTaskContext(TaskContextFactory aOwner)
         {
@@ -508,15 +800,39 @@ public class BatchTaskEngine
             scope = aScope;
         }
 
+        public void setResolved(Map<String, TaskContextMetadata> aResolved)
+        {
+            resolved = aResolved;
+        }
+
         @Override
         public TaskContextMetadata resolve(URI aUri)
+        {
+            if (resolved == null) {
+                return resolveInScope(aUri);
+            }
+
+            String contextUri = aUri.getScheme() + "://" + aUri.getRawAuthority()
+                    + (aUri.getRawQuery() != null ? "?" + aUri.getRawQuery() : "");
+            TaskContextMetadata meta = resolved.get(contextUri);
+            if (meta == null) {
+                meta = resolveInScope(aUri);
+                resolved.put(contextUri, meta);
+                // Once the imports of a context have been resolved, they refer to the ID
+                resolved.put(CONTEXT_ID_SCHEME + "://" + meta.getId(), meta);
+            }
+            return meta;
+        }
+
+        private TaskContextMetadata resolveInScope(URI aUri)
         {
             TaskContextMetadata meta;
             StorageService storage = getStorageService();
             if (LATEST_CONTEXT_SCHEME.equals(aUri.getScheme())) {
                 Map<String, String> constraints = extractConstraints(aUri);
                 try {
-                    meta = getLatestExecution(this, aUri.getAuthority(), constraints, config);
+                    meta = getLatestExecution(this, aUri.getAuthority(), constraints, config,
+                            null);
                 }
                 catch (TaskContextNotFoundException e) {
                     throw new UnresolvedImportException(this, aUri.toString(), e);
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.engine.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Discriminator constraints compiled for repeated matching against the discriminators of many
+ * contexts. Constraint keys are usually either full names ({@code class|field}) or short names
+ * ({@code field}) which match any discriminator key ending in {@code |field}. Such keys are
+ * resolved through hash lookups on the discriminator key and on the part of it following the
+ * last {@code |}. Only constraint keys containing other regular expression syntax are matched
+ * using a (cached) pattern.
+ * <p>
+ * As before, the first discriminator key in iteration order matching a constraint key decides
+ * whether the constraint is fulfilled.
+ *
+ * @see ImportUtil#matchConstraints(Map, Map, boolean)
+ * @since 0.12.0
+ */
+public class ConstraintMatcher
+{
+	private static final Log log = LogFactory.getLog(ConstraintMatcher.class);
+
+	private static final String PIPE = Pattern.quote("|");
+
+	private static final int PATTERN_CACHE_SIZE = 1024;
+
+	// Guarded by itself
+	private static final Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>(16,
+			0.75f, true)
+	{
+		private static final long serialVersionUID = 2468519146016218533L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Pattern> aEldest)
+		{
+			return size() > PATTERN_CACHE_SIZE;
+		}
+	};
+
+	private final String[] keys;
+	private final String[] values;
+	private final Map<String, int[]> byKey = new HashMap<String, int[]>();
+	private final Map<String, int[]> bySuffix = new HashMap<String, int[]>();
+	private final List<Integer> byPattern = new ArrayList<Integer>();
+	private final Pattern[] compiled;
+
+	public ConstraintMatcher(Map<String, String> aConstraints)
+	{
+		keys = new String[aConstraints.size()];
+		values = new String[aConstraints.size()];
+		compiled = new Pattern[aConstraints.size()];
+
+		int i = 0;
+		for (Entry<String, String> e : aConstraints.entrySet()) {
+			keys[i] = e.getKey();
+			values[i] = e.getValue();
+			add(byKey, keys[i], i);
+
+			if (isLiteral(keys[i])) {
+				// The constraint key is used as a regular expression after ".*\|", so any
+				// pipe in it acts as an alternative. The first alternative matches keys ending
+				// in "|" followed by it, the other alternatives match keys equal to them.
+				String[] alternatives = keys[i].split("\\|", -1);
+				add(bySuffix, alternatives[0], i);
+				for (int a = 1; a < alternatives.length; a++) {
+					add(byKey, alternatives[a], i);
+				}
+			}
+			else {
+				// If a property is not specified with a full class name, then we only use the
+				// simple property name for matching
+				compiled[i] = getPattern(keys[i].contains(PIPE) ? "^" + keys[i] + "$" : "^.*"
+						+ PIPE + keys[i] + "$");
+				byPattern.add(i);
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * Check if the given discriminators fulfill the constraints.
+	 *
+	 * @param aDiscriminators the discriminators.
+	 * @param aStrict if a constraint which matches no discriminator causes the match to fail.
+	 */
+	public boolean matches(Map<String, String> aDiscriminators, boolean aStrict)
+	{
+		boolean[] decided = new boolean[keys.length];
+		int remaining = keys.length;
+		for (Entry<String, String> e : aDiscriminators.entrySet()) {
+			if (remaining == 0) {
+				break;
+			}
+
+			String key = e.getKey();
+			int matched = decide(byKey.get(key), decided, key, e.getValue());
+			if (matched == -1) {
+				return false;
+			}
+			remaining -= matched;
+
+			int pipe = key.lastIndexOf('|');
+			if (pipe != -1) {
+				matched = decide(bySuffix.get(key.substring(pipe + 1)), decided, key,
+						e.getValue());
+				if (matched == -1) {
+					return false;
+				}
+				remaining -= matched;
+			}
+
+			for (int c : byPattern) {
+				if (!decided[c] && compiled[c].matcher(key).matches()) {
+					if (!check(c, key, e.getValue())) {
+						return false;
+					}
+					decided[c] = true;
+					remaining--;
+				}
+			}
+		}
+
+		if (aStrict && remaining > 0) {
+			if (log.isDebugEnabled()) {
+				for (int c = 0; c < keys.length; c++) {
+					if (!decided[c]) {
+						log.debug("Missing key: [" + keys[c] + "]");
+					}
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decide the given constraints which have not been decided yet using the given discriminator.
+	 *
+	 * @return the number of constraints decided or {@code -1} if a constraint is not fulfilled.
+	 */
+	private int decide(int[] aConstraints, boolean[] aDecided, String aKey, String aValue)
+	{
+		if (aConstraints == null) {
+			return 0;
+		}
+
+		int count = 0;
+		for (int c : aConstraints) {
+			if (!aDecided[c]) {
+				if (!check(c, aKey, aValue)) {
+					return -1;
+				}
+				aDecided[c] = true;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private boolean check(int aConstraint, String aKey, String aValue)
+	{
+		// Issue 12 - Bug when using maps or empty arrays as parameters
+		//            Pattern matching disabled.
+		if (!values[aConstraint].equals(aValue)) {
+			log.debug("No value match: [" + aKey + "] [" + values[aConstraint] + "] [" + aValue
+					+ "]");
+			return false;
+		}
+		log.trace("Match: [" + aKey + "] [" + aValue + "]");
+		return true;
+	}
+
+	/**
+	 * Check if the given constraint key can be matched literally. Dots are taken literally as
+	 * they are part of class names and not meant as wildcards.
+	 */
+	private static boolean isLiteral(String aKey)
+	{
+		for (int i = 0; i < aKey.length(); i++) {
+			if ("\\^$*+?()[]{}".indexOf(aKey.charAt(i)) != -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void add(Map<String, int[]> aIndex, String aKey, int aConstraint)
+	{
+		int[] existing = aIndex.get(aKey);
+		if (existing == null) {
+			aIndex.put(aKey, new int[] { aConstraint });
+		}
+		else if (existing[existing.length - 1] != aConstraint) {
+			int[] extended = Arrays.copyOf(existing, existing.length + 1);
+			extended[existing.length] = aConstraint;
+			aIndex.put(aKey, extended);
+		}
+	}
+
+	private static Pattern getPattern(String aRegex)
+	{
+		synchronized (patterns) {
+			Pattern pattern = patterns.get(aRegex);
+			if (pattern == null) {
+				pattern = Pattern.compile(aRegex);
+				patterns.put(aRegex, pattern);
+			}
+			return pattern;
+		}
+	}
+}
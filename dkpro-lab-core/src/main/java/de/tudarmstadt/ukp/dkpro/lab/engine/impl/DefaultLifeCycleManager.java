@@ -29,7 +29,9 @@ import de.tudarmstadt.ukp.dkpro.lab.engine.LifeCycleException;
 import de.tudarmstadt.ukp.dkpro.lab.engine.LifeCycleManager;
 import de.tudarmstadt.ukp.dkpro.lab.engine.TaskContext;
 import de.tudarmstadt.ukp.dkpro.lab.reporting.Report;
+import de.tudarmstadt.ukp.dkpro.lab.storage.filesystem.StorageStatistics;
 import de.tudarmstadt.ukp.dkpro.lab.task.Task;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextManifest;
 import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
 
 public class DefaultLifeCycleManager
@@ -40,6 +42,13 @@ public class DefaultLifeCycleManager
 			Task aConfiguration)
 		throws LifeCycleException
 	{
+		// I/O of the task, including reading imported data, is accounted to its context
+		StorageStatistics.enterContext(aContext.getId());
+
+		// Allows later runs to find this context by its discriminators without scanning
+		aContext.getMetadata().setFingerprint(
+				TaskContextMetadata.fingerprint(aConfiguration.getDescriminators()));
+
 		try {
 			aConfiguration.persist(aContext);
 		}
@@ -102,6 +111,16 @@ public class DefaultLifeCycleManager
 			}
 		}
 		
+		// Data may be written asynchronously, but the context must only be marked as complete
+		// once all its data is durable. Data of other contexts is none of our business here.
+		try {
+			aContext.getStorageService().flush(aContext.getId());
+		}
+		catch (Throwable e) {
+			throw new LifeCycleException("Unable to write data of task ["
+					+ aConfiguration.getType() + "]", e);
+		}
+
 		// This is a critical file as it marks if a task has completed successfully or not. If
 		// this file cannot be created properly, e.g. because the disk is full, then there will be
 		// subsequent and hard to debug errors. Thus, if the file cannot be created properly, any
@@ -114,6 +133,23 @@ public class DefaultLifeCycleManager
 			throw new LifeCycleException("Unable to write [" + TaskContextMetadata.METADATA_KEY
 					+ "] to mark context as complete.", e);
 		}
+
+		// The manifest only speeds up reading the metadata, properties and discriminators of the
+		// context later. The context is complete even if it cannot be written.
+		try {
+			aContext.storeBinary(TaskContextManifest.MANIFEST_KEY,
+					TaskContextManifest.create(aContext));
+		}
+		catch (Throwable e) {
+			aContext.error("Unable to write [" + TaskContextManifest.MANIFEST_KEY + "]", e);
+			try {
+				aContext.getStorageService().delete(aContext.getId(),
+						TaskContextManifest.MANIFEST_KEY);
+			}
+			catch (DataAccessResourceFailureException e1) {
+				// Readers fall back to the text files if the manifest cannot be read
+			}
+		}
 		aContext.message("Completed task ["+aConfiguration.getType()+"]");
 	}
 
@@ -134,6 +170,7 @@ public class DefaultLifeCycleManager
 	@Override
 	public void destroy(TaskContext aContext)
 	{
+		StorageStatistics.leaveContext(aContext.getId());
 		aContext.message("Shut down task");
 	}
 }
@@ -28,10 +28,14 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.dao.DataAccessResourceFailureException;
 
+import de.tudarmstadt.ukp.dkpro.lab.Util;
 import de.tudarmstadt.ukp.dkpro.lab.engine.LifeCycleManager;
 import de.tudarmstadt.ukp.dkpro.lab.engine.TaskContext;
 import de.tudarmstadt.ukp.dkpro.lab.engine.TaskContextFactory;
@@ -57,6 +61,12 @@ public class DefaultTaskContext
 	private TaskContextMetadata metadata;
 	private TaskExecutionService executionService;
 
+	// Locations of keys resolved in READONLY mode. Imports do not change during the lifetime of
+	// the context, so they only become invalid if the key is stored locally.
+	private final Map<String, StorageKey> resolvedKeys = new ConcurrentHashMap<String, StorageKey>();
+	private final Map<String, File> resolvedFiles = new ConcurrentHashMap<String, File>();
+	private final Map<String, File> resolvedFolders = new ConcurrentHashMap<String, File>();
+
 	public DefaultTaskContext(final TaskContextFactory aOwner)
 	{
 		owner = aOwner;
@@ -149,6 +159,7 @@ public class DefaultTaskContext
 	{
 		// Data is always stored to the current context. No need to resolve.
 		getStorageService().storeBinary(getId(), aPath, aStreamWriter);
+		invalidate(aPath);
 	}
 
 	@Override
@@ -156,6 +167,7 @@ public class DefaultTaskContext
 	{
 		// Data is always stored to the current context. No need to resolve.
 		getStorageService().storeBinary(getId(), aPath, aStream);
+		invalidate(aPath);
 	}
 
 	@Override
@@ -172,9 +184,35 @@ public class DefaultTaskContext
 		return getStorageService().retrieveBinary(key.contextId, key.key, aReader);
 	}
 
+	@Override
+	public List<MappedByteBuffer> map(String aKey)
+	{
+		String imported = getMetadata().getImports().get(aKey);
+		if (imported != null && imported.startsWith("file:")
+				&& !getStorageService().containsKey(getId(), aKey)) {
+			try {
+				return Util.map(new File(new URI(imported)));
+			}
+			catch (URISyntaxException e) {
+				throw new DataAccessResourceFailureException("Imported key [" + aKey
+						+ "] resolves to illegal URL [" + imported + "]", e);
+			}
+			catch (IOException e) {
+				throw new DataAccessResourceFailureException("Unable to map imported key ["
+						+ aKey + "] from [" + imported + "]", e);
+			}
+		}
+
+		StorageKey key = resolve(aKey, AccessMode.READONLY, false);
+		return getStorageService().map(key.contextId, key.key);
+	}
+
 	public void setMetadata(TaskContextMetadata aMetadata)
 	{
 		metadata = aMetadata;
+		resolvedKeys.clear();
+		resolvedFiles.clear();
+		resolvedFolders.clear();
 	}
 
 	@Override
@@ -192,6 +230,23 @@ public class DefaultTaskContext
 	
 	@Override
 	public File getFile(String aKey, AccessMode aMode)
+	{
+		if (aMode != AccessMode.READONLY) {
+			invalidate(aKey);
+			return locateFile(aKey, aMode);
+		}
+
+		File file = resolvedFiles.get(aKey);
+		if (file == null) {
+			file = locateFile(aKey, aMode);
+			if (file.exists()) {
+				resolvedFiles.put(aKey, file);
+			}
+		}
+		return file;
+	}
+
+	private File locateFile(String aKey, AccessMode aMode)
 	{
         StorageKey key;
 
@@ -243,6 +298,21 @@ public class DefaultTaskContext
 	
 	@Override
 	public File getFolder(String aKey, AccessMode aMode)
+	{
+		if (aMode != AccessMode.READONLY) {
+			invalidate(aKey);
+			return locateFolder(aKey, aMode);
+		}
+
+		File folder = resolvedFolders.get(aKey);
+		if (folder == null) {
+			folder = locateFolder(aKey, aMode);
+			resolvedFolders.put(aKey, folder);
+		}
+		return folder;
+	}
+
+	private File locateFolder(String aKey, AccessMode aMode)
 	{
         StorageKey key;
 
@@ -324,13 +394,23 @@ public class DefaultTaskContext
 	public
 	StorageKey resolve(String aKey, AccessMode aMode, boolean aAllowMissing)
 	{
+		if (aMode == AccessMode.READONLY) {
+			StorageKey key = resolvedKeys.get(aKey);
+			if (key != null) {
+				return key;
+			}
+		}
+		else {
+			invalidate(aKey);
+		}
+
 		StorageService storage = getStorageService();
 		Map<String, String> imports = getMetadata().getImports();
 
 		if (storage.containsKey(getId(), aKey)) {
 			// If the context contains the key, we do nothing. Locally available data always
 			// supersedes imported data.
-			return new StorageKey(getId(), aKey);
+			return remember(aKey, new StorageKey(getId(), aKey));
 		}
 		else if (imports.containsKey(aKey)) {
 			URI uri;
@@ -360,7 +440,7 @@ public class DefaultTaskContext
 					storage.copy(getId(), aKey, key, aMode);
 					return new StorageKey(getId(), aKey);
 				case READONLY:
-					return key;
+					return remember(aKey, key);
 				}
 			}
 
@@ -390,4 +470,30 @@ public class DefaultTaskContext
 
 		throw new DataAccessResourceFailureException("No resource bound to key [" + aKey + "]");
 	}
+
+	private StorageKey remember(String aKey, StorageKey aResolved)
+	{
+		resolvedKeys.put(aKey, aResolved);
+		return aResolved;
+	}
+
+	/**
+	 * Forget the resolved locations of the given key and of the keys containing it. Once data
+	 * has been stored locally, it supersedes imported data.
+	 */
+	private void invalidate(String aKey)
+	{
+		String key = aKey;
+		while (true) {
+			resolvedKeys.remove(key);
+			resolvedFiles.remove(key);
+			resolvedFolders.remove(key);
+
+			int sep = key.lastIndexOf('/');
+			if (sep <= 0) {
+				break;
+			}
+			key = key.substring(0, sep);
+		}
+	}
 }
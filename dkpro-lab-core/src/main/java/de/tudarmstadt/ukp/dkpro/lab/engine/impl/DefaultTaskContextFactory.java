@@ -21,6 +21,8 @@ import static de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.CONTEXT_ID_SCH
 import static de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.LATEST_CONTEXT_SCHEME;
 
 import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -117,6 +119,14 @@ public class DefaultTaskContextFactory
 		contexts.remove(aContext.getId());
 	}
 
+	/**
+	 * Get the contexts currently registered with this factory, i.e. the contexts in use.
+	 */
+	public Collection<TaskContext> getRegisteredContexts()
+	{
+		return Collections.unmodifiableCollection(contexts.values());
+	}
+
 	/**
 	 * This can be overwritten by subclasses to create different {@link TaskContext}
 	 * implementations.
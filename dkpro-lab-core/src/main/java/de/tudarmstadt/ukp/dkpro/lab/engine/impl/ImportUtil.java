@@ -20,73 +20,91 @@ package de.tudarmstadt.ukp.dkpro.lab.engine.impl;
 import java.net.URI;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
-import java.util.regex.Pattern;
 
 import javax.ws.rs.core.MultivaluedMap;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
 import de.tudarmstadt.ukp.dkpro.lab.resteasy.UriInfoImpl;
 import de.tudarmstadt.ukp.dkpro.lab.storage.TaskContextNotFoundException;
 
 public class ImportUtil
 {
-	private static final Log log = LogFactory.getLog(ImportUtil.class);
+	private static final int CACHE_SIZE = 1024;
+
+	// Guarded by itself
+	private static final Map<URI, Map<String, String>> constraintsByUri = createCache();
+
+	// Guarded by itself
+	private static final Map<Map<String, String>, ConstraintMatcher> matchers = createCache();
+
+	private static <K, V> Map<K, V> createCache()
+	{
+		return new LinkedHashMap<K, V>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = -5281727357930916218L;
 
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> aEldest)
+			{
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Check if the given discriminators fulfill the given constraints. When checking the
+	 * discriminators of many contexts against the same constraints, better use
+	 * {@link #compileConstraints(Map)} once.
+	 *
+	 * @see ConstraintMatcher
+	 */
 	public static boolean matchConstraints(Map<String, String> aDiscriminators,
 			Map<String, String> aConstraints, boolean aStrict)
 	{
-		nextconstraint: for (Entry<String, String> e : aConstraints.entrySet()) {
-			String keyPattern = e.getKey();
-			String valuePattern = "^" + e.getValue() + "$";
-
-			// If a property is not specified with a full class name, then we only use the
-			// simple property name for matching
-			if (!keyPattern.contains(Pattern.quote("|"))) {
-				keyPattern = ".*" + Pattern.quote("|") + keyPattern;
-			}
-			keyPattern = "^"+keyPattern+"$";
-
-			Set<String> keys = aDiscriminators.keySet();
-			nextKey: for (String key : keys) {
-				// Pattern matching must remain active here!!
-				if (!(e.getKey().equals(key) || Pattern.matches(keyPattern, key) )) {
-					// key pattern does not match or equal the key. Try next key
-					log.trace("No key match: ["+keyPattern+"] ["+key+"]");
-					continue nextKey;
-				}
-
-				String val = aDiscriminators.get(key);
-				// Issue 12 - Bug when using maps or empty arrays as parameters
-				//            Pattern matching disabled.
-				if (!(e.getValue().equals(val) /* || Pattern.matches(valuePattern, val)*/ )) {
-					// value pattern does not match or equal the property value, this is
-					// not the context we look for
-					log.debug("No value match: ["+key+"] ["+valuePattern+"] ["+val+"]");
-					return false;
-				}
-				else {
-					// Ok, this key matched, so we can continue with the next constraint
-					log.trace("Match: ["+key+"] ["+val+"]");
-					continue nextconstraint;
-				}
-			}
+		return compileConstraints(aConstraints).matches(aDiscriminators, aStrict);
+	}
 
-			// If we get here no key has matched the constraint, thus this is not the
-			// context we look for
-			if (aStrict) {
-				log.debug("Missing key: ["+keyPattern+"]");
-				return false;
+	/**
+	 * Get the compiled form of the given constraints. Compiled constraints are cached, so the
+	 * constraints of an import are only compiled once.
+	 */
+	public static ConstraintMatcher compileConstraints(Map<String, String> aConstraints)
+	{
+		synchronized (matchers) {
+			ConstraintMatcher matcher = matchers.get(aConstraints);
+			if (matcher == null) {
+				// Copy the key, the caller may still modify the map
+				Map<String, String> key = new LinkedHashMap<String, String>(aConstraints);
+				matcher = new ConstraintMatcher(key);
+				matchers.put(key, matcher);
 			}
+			return matcher;
 		}
-		return true;
 	}
 
+	/**
+	 * Get the constraints from the query of the given import URI. Parsed constraints are cached
+	 * per URI.
+	 */
 	public static Map<String, String> extractConstraints(URI aUri)
+	{
+		Map<String, String> constraints;
+		synchronized (constraintsByUri) {
+			constraints = constraintsByUri.get(aUri);
+		}
+		if (constraints == null) {
+			constraints = parseConstraints(aUri);
+			synchronized (constraintsByUri) {
+				constraintsByUri.put(aUri, constraints);
+			}
+		}
+		// The caller may modify the result
+		return new HashMap<String, String>(constraints);
+	}
+
+	private static Map<String, String> parseConstraints(URI aUri)
 	{
 		@SuppressWarnings("unchecked")
 		UriInfoImpl uriInfo = new UriInfoImpl(aUri, null, "", aUri.getRawQuery(),
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.engine.impl;
+
+import static de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.LATEST_CONTEXT_SCHEME;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessException;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.task.Task;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskFactory;
+
+/**
+ * Tracks the consumers of {@link Task#isIntermediate() intermediate} data within a batch task
+ * and deletes the data once the last consumer has finished.
+ * <p>
+ * A consumer is a task of the batch importing from the latest execution of an intermediate task
+ * type. Intermediate tasks without consumers in the batch are left alone, since their data may be
+ * used outside the batch. A single tracker is used for all configurations of a batch task. An
+ * execution of an intermediate task is kept as long as a later configuration configures the task
+ * with the same discriminators, since that configuration would reuse the execution.
+ *
+ * @since 0.12.0
+ */
+public class IntermediateDataTracker
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * Written to a task context from which intermediate keys have been deleted. Such contexts
+	 * are not reused by the batch engine.
+	 */
+	public static final String CLEANED_KEY = "INTERMEDIATE_CLEANED.txt";
+
+	private final Map<String, Task> producers = new HashMap<String, Task>();
+	private final Map<String, Integer> consumers = new HashMap<String, Integer>();
+	private final Map<String, Integer> pendingConsumers = new HashMap<String, Integer>();
+	private final Map<String, String> executions = new HashMap<String, String>();
+
+	// Fingerprints of the producers in the upcoming configurations by producer type
+	private final Map<String, List<String>> upcoming = new HashMap<String, List<String>>();
+
+	// Executions kept for reuse by a later configuration, mapped to their producer type
+	private final Map<String, String> kept = new LinkedHashMap<String, String>();
+	private final Map<String, String> fingerprints = new HashMap<String, String>();
+
+	public IntermediateDataTracker(Collection<Task> aTasks)
+	{
+		for (Task task : aTasks) {
+			if (task.isIntermediate()) {
+				producers.put(task.getType(), task);
+			}
+		}
+
+		if (producers.isEmpty()) {
+			return;
+		}
+
+		for (Task task : aTasks) {
+			for (String type : getImportedTypes(task)) {
+				if (producers.containsKey(type)) {
+					Integer count = consumers.get(type);
+					consumers.put(type, count == null ? 1 : count + 1);
+				}
+			}
+		}
+
+		for (String type : consumers.keySet()) {
+			upcoming.put(type, new LinkedList<String>());
+		}
+	}
+
+	/**
+	 * Whether there is intermediate data this tracker may delete. If not, configurations do not
+	 * need to be {@link #addConfiguration(Map) announced}.
+	 */
+	public boolean isActive()
+	{
+		return !consumers.isEmpty();
+	}
+
+	/**
+	 * Announce an upcoming configuration of the batch task. All configurations must be announced
+	 * in the order they are executed before the first one is {@link #beginConfiguration()
+	 * started}. Mind that this configures the intermediate tasks of the batch.
+	 *
+	 * @param aConfig the parameter configuration.
+	 */
+	public synchronized void addConfiguration(Map<String, Object> aConfig)
+	{
+		for (Entry<String, List<String>> e : upcoming.entrySet()) {
+			Task producer = producers.get(e.getKey());
+			TaskFactory.configureTask(producer, aConfig);
+			e.getValue().add(TaskContextMetadata.fingerprint(producer.getDescriminators()));
+		}
+	}
+
+	/**
+	 * Start tracking the next configuration. The tasks of the batch must already be configured.
+	 */
+	public synchronized void beginConfiguration()
+	{
+		pendingConsumers.clear();
+		pendingConsumers.putAll(consumers);
+		executions.clear();
+		for (List<String> fps : upcoming.values()) {
+			if (!fps.isEmpty()) {
+				fps.remove(0);
+			}
+		}
+	}
+
+	/**
+	 * Record that the given task has finished (or that an existing execution is used) and delete
+	 * intermediate data no longer needed.
+	 *
+	 * @param aTask the task.
+	 * @param aExecution the execution of the task.
+	 * @param aStorage the storage holding the data.
+	 * @param aExecutedSubtasks the subtasks executed by the batch task. Deleted contexts are
+	 *            removed from this set.
+	 */
+	public synchronized void finished(Task aTask, TaskContextMetadata aExecution,
+			StorageService aStorage, Set<String> aExecutedSubtasks)
+	{
+		if (pendingConsumers.isEmpty()) {
+			return;
+		}
+
+		if (pendingConsumers.containsKey(aTask.getType())) {
+			executions.put(aTask.getType(), aExecution.getId());
+			fingerprints.put(aExecution.getId(),
+					TaskContextMetadata.fingerprint(aTask.getDescriminators()));
+		}
+
+		for (String type : getImportedTypes(aTask)) {
+			Integer count = pendingConsumers.get(type);
+			if (count == null) {
+				continue;
+			}
+
+			if (count > 1) {
+				pendingConsumers.put(type, count - 1);
+			}
+			else {
+				pendingConsumers.remove(type);
+				String id = executions.get(type);
+				if (id != null) {
+					kept.put(id, type);
+				}
+				cleanup(type, aStorage, aExecutedSubtasks);
+			}
+		}
+	}
+
+	/**
+	 * Delete the executions of the given producer type which no later configuration can reuse.
+	 */
+	private void cleanup(String aType, StorageService aStorage, Set<String> aExecutedSubtasks)
+	{
+		List<String> fps = upcoming.get(aType);
+		for (Iterator<Entry<String, String>> i = kept.entrySet().iterator(); i.hasNext();) {
+			Entry<String, String> e = i.next();
+			if (!aType.equals(e.getValue())) {
+				continue;
+			}
+
+			String fingerprint = fingerprints.get(e.getKey());
+			if (fingerprint != null && fps.contains(fingerprint)) {
+				log.debug("Keeping intermediate context [" + e.getKey()
+						+ "] for reuse by a later configuration");
+				continue;
+			}
+
+			i.remove();
+			fingerprints.remove(e.getKey());
+			cleanup(producers.get(aType), e.getKey(), aStorage, aExecutedSubtasks);
+		}
+	}
+
+	private void cleanup(Task aProducer, String aContextId, StorageService aStorage,
+			Set<String> aExecutedSubtasks)
+	{
+		try {
+			Set<String> keys = aProducer.getIntermediateKeys();
+			if (keys.isEmpty()) {
+				log.info("Deleting intermediate context [" + aContextId + "]");
+				aStorage.delete(aContextId);
+				aExecutedSubtasks.remove(aContextId);
+			}
+			else {
+				log.info("Deleting intermediate keys " + keys + " from context [" + aContextId
+						+ "]");
+				// Mark the context first, so it is not reused while data is already missing
+				aStorage.storeBinary(aContextId, CLEANED_KEY, new StringAdapter(keys.toString()));
+				for (String key : keys) {
+					if (aStorage.containsKey(aContextId, key)) {
+						aStorage.delete(aContextId, key);
+					}
+				}
+			}
+		}
+		catch (DataAccessException e) {
+			log.warn("Unable to delete intermediate data from context [" + aContextId + "]", e);
+		}
+	}
+
+	private static Set<String> getImportedTypes(Task aTask)
+	{
+		Set<String> types = new HashSet<String>();
+		for (String rawUri : aTask.getImports().values()) {
+			try {
+				URI uri = URI.create(rawUri);
+				if (LATEST_CONTEXT_SCHEME.equals(uri.getScheme())) {
+					types.add(uri.getAuthority());
+				}
+			}
+			catch (IllegalArgumentException e) {
+				// Not an import from another task
+			}
+		}
+		return types;
+	}
+}
@@ -17,9 +17,11 @@
  */
 package de.tudarmstadt.ukp.dkpro.lab.engine.impl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -80,6 +82,8 @@ public class MultiThreadBatchTaskEngine
         }
 
         Queue<Task> queue = new LinkedList<>(aConfiguration.getTasks());
+        IntermediateDataTracker intermediates = getIntermediateDataTracker(aConfiguration);
+        intermediates.beginConfiguration();
         //        Set<Task> loopDetection = new HashSet<>();
         //        List<UnresolvedImportException> deferralReasons = new ArrayList<>();
 
@@ -92,6 +96,7 @@ public class MultiThreadBatchTaskEngine
         // main loop
         do {
             Map<Task, ExecutionThread> threads = new HashMap<>();
+            List<Task> deferred = new ArrayList<>();
 
             ExecutorService executor = Executors.newFixedThreadPool(2);
 
@@ -120,6 +125,24 @@ public class MultiThreadBatchTaskEngine
                         ((BatchTask) task).setScope(scope);
                     }
 
+                    // Do not create a context for the task if it would fail to resolve its
+                    // imports anyway
+                    Map<String, TaskContextMetadata> resolved;
+                    try {
+                        resolved = checkImports(aContext, task, aConfig, aExecutedSubtasks);
+                    }
+                    catch (UnresolvedImportException e) {
+                        log.debug("Deferring execution of task [" + task.getType() + "]: "
+                                + e.getMessage());
+                        exceptionsFromCurrentLoop.put(task, e);
+                        deferred.add(task);
+                        continue;
+                    }
+
+                    if (!queue.isEmpty()) {
+                        prefetchImports(aContext, queue.peek(), aConfig, aExecutedSubtasks);
+                    }
+
                     //                    try {
                     //                    execution = runNewExecution(aContext, task, aConfig, aExecutedSubtasks);
 
@@ -127,7 +150,7 @@ public class MultiThreadBatchTaskEngine
                     //                            aExecutedSubtasks));
 
                     ExecutionThread thread = new ExecutionThread(aContext, task, aConfig,
-                            aExecutedSubtasks);
+                            aExecutedSubtasks, resolved);
 
                     //                    TaskUncaughtExceptionHandler exceptionHandler = new TaskUncaughtExceptionHandler(
                     //                            exceptionsFromCurrentLoop, task);
@@ -186,6 +209,8 @@ public class MultiThreadBatchTaskEngine
                     // Record new/existing execution
                     aExecutedSubtasks.add(execution.getId());
                     scope.add(execution.getId());
+                    intermediates.finished(task, execution, aContext.getStorageService(),
+                            aExecutedSubtasks);
                     //                    loopDetection.clear();
                     //                    deferralReasons.clear();
                 }
@@ -243,9 +268,13 @@ public class MultiThreadBatchTaskEngine
                     // Record new/existing execution
                     aExecutedSubtasks.add(execution.getId());
                     scope.add(execution.getId());
+                    intermediates.finished(task, execution, aContext.getStorageService(),
+                            aExecutedSubtasks);
                 }
             }
 
+            // Tasks which could not resolve their imports are tried again in the next loop
+            queue.addAll(deferred);
         }
         // finish if the same tasks failed again
         while (!exceptionsFromCurrentLoop.keySet().equals(exceptionsFromLastLoop.keySet()));
@@ -278,16 +307,24 @@ public class MultiThreadBatchTaskEngine
         private final Task task;
         private final Map<String, Object> aConfig;
         private final Set<String> scope;
+        private final Map<String, TaskContextMetadata> resolved;
 
         private TaskContextMetadata taskContextMetadata;
 
         public ExecutionThread(TaskContext aContext, Task aTask, Map<String, Object> aConfig,
                 Set<String> aScope)
+        {
+            this(aContext, aTask, aConfig, aScope, null);
+        }
+
+        public ExecutionThread(TaskContext aContext, Task aTask, Map<String, Object> aConfig,
+                Set<String> aScope, Map<String, TaskContextMetadata> aResolved)
         {
             this.aContext = aContext;
             this.task = aTask;
             this.aConfig = aConfig;
             this.scope = aScope;
+            this.resolved = aResolved;
         }
 
         @Override public void run()
@@ -295,7 +332,7 @@ public class MultiThreadBatchTaskEngine
             TaskExecutionService execService = aContext.getExecutionService();
             TaskExecutionEngine engine = execService.createEngine(task);
             engine.setContextFactory(new ScopedTaskContextFactory(execService
-                    .getContextFactory(), aConfig, scope));
+                    .getContextFactory(), aConfig, scope, resolved));
             String uuid;
             try {
                 uuid = engine.run(task);
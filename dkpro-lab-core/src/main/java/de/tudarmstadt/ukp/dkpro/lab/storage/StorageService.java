@@ -19,10 +19,13 @@ package de.tudarmstadt.ukp.dkpro.lab.storage;
 
 import java.io.File;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import de.tudarmstadt.ukp.dkpro.lab.reporting.Report;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.CompressionCodecs;
 import de.tudarmstadt.ukp.dkpro.lab.task.Task;
 import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
 
@@ -129,12 +132,44 @@ public interface StorageService
 	 */
 	List<TaskContextMetadata> getContexts(String aTaskType, Map<String, String> aConstraints);
 
+	/**
+	 * Iterate over the executions of the given type matching the given constraints, most recent
+	 * first. Contexts are loaded and checked only as the iteration proceeds, so callers looking
+	 * for the most recent match should stop iterating as soon as they have found it.
+	 *
+	 * @param aTaskType the task type or {@code null} to iterate over all types.
+	 * @param aConstraints constraints as for {@link #getLatestContext(String, Map)} or
+	 *            {@code null}.
+	 * @param aLimit the maximum number of contexts to return or {@code 0} for no limit.
+	 * @return an iterator over the matching contexts.
+	 * @since 0.12.0
+	 */
+	Iterator<TaskContextMetadata> iterateContexts(String aTaskType,
+			Map<String, String> aConstraints, int aLimit);
+
+	/**
+	 * Get the executions of the given type with the given discriminator fingerprint, most recent
+	 * first. Executions created before fingerprints were introduced have no fingerprint and are
+	 * returned as well, since they may match. The caller has to check their discriminators.
+	 *
+	 * @param aTaskType the task type.
+	 * @param aFingerprint the fingerprint.
+	 * @return the matching contexts.
+	 * @see TaskContextMetadata#fingerprint(Map)
+	 * @since 0.12.0
+	 */
+	List<TaskContextMetadata> getContextsByFingerprint(String aTaskType, String aFingerprint);
+
 	/**
 	 * @since 0.2.0
 	 */
 	void delete(String aContextId);
 
 	/**
+	 * Delete the given key from the given context. The key may denote a single file or a folder,
+	 * e.g. one obtained via {@link #getStorageFolder(String, String)}. Up to version 0.11.0, the
+	 * file system storage only deleted folders.
+	 *
 	 * @since 0.2.0
 	 */
 	void delete(String aContextId, String aKey);
@@ -167,15 +202,31 @@ public interface StorageService
      */
     File locateKey(String aContextId, String aKey);
 
+	/**
+	 * Map the data stored under the given key into memory for reading. The data is not copied
+	 * onto the heap but read directly from the operating system's page cache, which can be shared
+	 * between concurrently running tasks. Files larger than {@link Integer#MAX_VALUE} bytes are
+	 * mapped as multiple consecutive buffers. Compressed keys (see {@link CompressionCodecs})
+	 * cannot be mapped.
+	 *
+	 * @param aContextId a context ID.
+	 * @param aKey a storage key.
+	 * @return read-only buffers covering the data in order.
+	 * @since 0.12.0
+	 */
+	List<MappedByteBuffer> map(String aContextId, String aKey);
+
 	/**
 	 * Read a binary stream. If the path ends in ".gz" the stream is uncompressed upon reading.
+	 * Other compression formats can be registered with {@link CompressionCodecs}.
 	 */
 	<T extends StreamReader> T retrieveBinary(String aContextId, String aKey, T aConsumer);
 
 	/**
 	 * Store all data available from the given stream into the storage. The
 	 * stream is closed afterwards, even in case an exception is thrown.
-	 * If the key ends in ".gz" the stream is stored compressed.
+	 * If the key ends in ".gz" the stream is stored compressed. Other compression formats can be
+	 * registered with {@link CompressionCodecs}.
 	 * @since 0.2.0
 	 */
 	void storeBinary(String aContextId, String aKey, InputStream aStream);
@@ -188,6 +239,37 @@ public interface StorageService
 	 */
 	void storeBinary(String aContextId, String aKey, StreamWriter aStreamProducer);
 
+	/**
+	 * Announce that the given key is going to be read soon. Implementations may use this to load
+	 * the data in the background, e.g. into a cache or into the page cache of the operating
+	 * system. This method must return quickly and must not fail if the key cannot be loaded.
+	 * Implementations not benefiting from prefetching do nothing here.
+	 *
+	 * @param aContextId the context ID.
+	 * @param aKey the key. It may denote a file or a folder.
+	 * @since 0.12.0
+	 */
+	void prefetch(String aContextId, String aKey);
+
+	/**
+	 * Block until all data previously stored has been written persistently. Implementations may
+	 * write data asynchronously and must not consider such data durable before this method has
+	 * returned. Implementations writing data synchronously do nothing here.
+	 *
+	 * @since 0.12.0
+	 */
+	void flush();
+
+	/**
+	 * Block until all data previously stored in the given context has been written persistently.
+	 * Unlike {@link #flush()}, this neither waits for nor fails because of data stored in other
+	 * contexts.
+	 *
+	 * @param aContextId the context ID.
+	 * @since 0.12.0
+	 */
+	void flush(String aContextId);
+
 	public static class StorageKey {
 		public String contextId;
 		public String key;
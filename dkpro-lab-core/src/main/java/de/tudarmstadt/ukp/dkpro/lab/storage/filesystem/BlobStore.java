@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+
+/**
+ * Content-addressed store for the files of a {@link FileSystemStorageService}. Every blob is kept
+ * exactly once under the hash of its content and is hard-linked into the contexts using it. Blobs
+ * are made read-only, so a blob cannot be modified in place through any of its links. Replacing
+ * a key in a context (as {@link FileSystemStorageService#storeBinary} does) only replaces the
+ * link and never touches the blob.
+ *
+ * @since 0.12.0
+ */
+public class BlobStore
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * Name of the folder below the storage root which holds the blobs. The folder does not
+	 * contain a {@link de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata#METADATA_KEY} and
+	 * is thus never mistaken for a task context.
+	 */
+	public static final String BLOB_FOLDER = ".blobs";
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	private final File root;
+
+	public BlobStore(File aStorageRoot)
+	{
+		root = new File(aStorageRoot, BLOB_FOLDER);
+	}
+
+	public File getRoot()
+	{
+		return root;
+	}
+
+	/**
+	 * Create a new digest suitable to calculate the hash under which data is stored.
+	 */
+	public static MessageDigest createDigest()
+	{
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Render the given digest as the hexadecimal string used to address blobs.
+	 */
+	public static String toHex(byte[] aDigest)
+	{
+		StringBuilder sb = new StringBuilder(aDigest.length * 2);
+		for (byte b : aDigest) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Calculate the hash of the given file.
+	 */
+	public static String hash(File aFile)
+		throws IOException
+	{
+		MessageDigest digest = createDigest();
+		InputStream is = null;
+		try {
+			is = new FileInputStream(aFile);
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		finally {
+			Util.close(is);
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Get the location of the blob with the given hash. The blob may not exist.
+	 */
+	public File getBlob(String aHash)
+	{
+		return new File(new File(root, aHash.substring(0, 2)), aHash.substring(2));
+	}
+
+	/**
+	 * Move the given file into the store and replace it with a link to the blob. If a blob with
+	 * the same hash already exists, the file is simply replaced by a link to the existing blob.
+	 * If the file cannot be linked, e.g. because the blob store resides on a different file system,
+	 * the file is left as it is.
+	 *
+	 * @param aFile the file to absorb.
+	 * @param aHash the hash of the file content.
+	 * @return whether the file has been replaced with a link.
+	 */
+	public boolean absorb(File aFile, String aHash)
+		throws IOException
+	{
+		File blob = getBlob(aHash);
+		if (publish(aFile, aHash)) {
+			// The file itself has become the blob
+			return true;
+		}
+		// If the blob is purged before we get to link to it, linking fails and the file is left
+		// as it is.
+		return blob.exists() && link(blob, aFile, true);
+	}
+
+	/**
+	 * Link the given file into the store unless a blob with the same hash already exists. The
+	 * blob is created using {@link Files#createLink} which - unlike a rename - never replaces an
+	 * existing blob, so concurrent publishers of the same content cannot clobber each other.
+	 *
+	 * @return {@code true} if the file has become the blob, {@code false} if a blob with the same
+	 *         hash already existed or the file could not be linked into the store.
+	 */
+	public boolean publish(File aFile, String aHash)
+		throws IOException
+	{
+		File blob = getBlob(aHash);
+		if (blob.exists()) {
+			return false;
+		}
+
+		blob.getParentFile().mkdirs();
+		try {
+			Files.createLink(blob.toPath(), aFile.toPath());
+		}
+		catch (FileAlreadyExistsException e) {
+			return false;
+		}
+		catch (IOException e) {
+			log.debug("Unable to link [" + aFile + "] into blob store: " + e.getMessage());
+			return false;
+		}
+		catch (UnsupportedOperationException e) {
+			return false;
+		}
+		blob.setWritable(false, false);
+		return true;
+	}
+
+	/**
+	 * Store the given temporary file as the given target using the blob with the given hash. The
+	 * temporary file is only deleted once the target has been linked to the blob. Thus, the blob
+	 * has at least two links at all times and cannot be removed by a concurrent {@link #purge()}.
+	 * Should the blob vanish anyway before the target is linked, e.g. because it was purged before
+	 * the temporary file was linked into the store, the temporary file is published again.
+	 *
+	 * @param aFile the temporary file.
+	 * @param aTarget the target file, which must not exist.
+	 * @param aHash the hash of the file content.
+	 * @return whether the target has been created. If not, the temporary file still exists.
+	 */
+	public boolean store(File aFile, File aTarget, String aHash)
+		throws IOException
+	{
+		File blob = getBlob(aHash);
+		for (int attempt = 0; attempt < 3; attempt++) {
+			publish(aFile, aHash);
+			if (!blob.exists()) {
+				// Could not be linked into the store at all
+				return false;
+			}
+			if (link(blob, aTarget, false)) {
+				aFile.delete();
+				return true;
+			}
+			if (blob.exists()) {
+				// Linking failed for other reasons than the blob being purged
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create a hard link to the given blob. If the target exists and {@code aReplace} is set, it
+	 * is replaced. Otherwise, an existing target causes an exception.
+	 *
+	 * @return whether the link could be created.
+	 */
+	public boolean link(File aBlob, File aTarget, boolean aReplace)
+		throws IOException
+	{
+		File tmp = aReplace ? new File(aTarget.getPath() + ".lnk") : aTarget;
+		try {
+			tmp.delete();
+			Files.createLink(tmp.toPath(), aBlob.toPath());
+		}
+		catch (IOException e) {
+			log.debug("Unable to link [" + aTarget + "] to blob [" + aBlob + "]: "
+					+ e.getMessage());
+			return false;
+		}
+		catch (UnsupportedOperationException e) {
+			return false;
+		}
+
+		if (aReplace) {
+			Files.move(tmp.toPath(), aTarget.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		return true;
+	}
+
+	/**
+	 * Recursively absorb all regular files in the given folder into the store.
+	 *
+	 * @param aFolder the folder.
+	 * @param aExclude names of files directly within the folder which should be left alone.
+	 * @return the number of bytes that were found to be duplicates of existing blobs.
+	 */
+	public long absorbAll(File aFolder, String... aExclude)
+		throws IOException
+	{
+		long saved = 0;
+		File[] children = aFolder.listFiles();
+		if (children == null) {
+			return saved;
+		}
+
+		nextChild: for (File child : children) {
+			for (String exclude : aExclude) {
+				if (exclude.equals(child.getName())) {
+					continue nextChild;
+				}
+			}
+
+			if (Files.isSymbolicLink(child.toPath())) {
+				continue;
+			}
+			else if (child.isDirectory()) {
+				saved += absorbAll(child);
+			}
+			else if (child.isFile() && linkCount(child) == 1) {
+				String hash = hash(child);
+				boolean duplicate = getBlob(hash).exists();
+				if (absorb(child, hash) && duplicate) {
+					saved += child.length();
+				}
+			}
+		}
+		return saved;
+	}
+
+	/**
+	 * Delete all blobs which are no longer linked from any context. This is safe to run while
+	 * data is being published, because a blob which is in the process of being linked into a
+	 * context always has a second link (see {@link #store(File, File, String)}) and a blob
+	 * which is purged just before a file is linked to it causes the link to fail instead of
+	 * losing data (see {@link #absorb(File, String)}).
+	 *
+	 * @return the number of bytes freed.
+	 */
+	public long purge()
+	{
+		long freed = 0;
+		File[] buckets = root.listFiles();
+		if (buckets == null) {
+			return freed;
+		}
+
+		for (File bucket : buckets) {
+			File[] blobs = bucket.listFiles();
+			if (blobs == null) {
+				continue;
+			}
+			for (File blob : blobs) {
+				if (linkCount(blob) == 1) {
+					long size = blob.length();
+					if (blob.delete()) {
+						freed += size;
+					}
+				}
+			}
+			// Only succeeds if the bucket is empty
+			bucket.delete();
+		}
+		return freed;
+	}
+
+	/**
+	 * Get the number of hard links to the given file. If this information is not available on the
+	 * current platform, {@code -1} is returned.
+	 */
+	public static int linkCount(File aFile)
+	{
+		try {
+			return ((Number) Files.getAttribute(aFile.toPath(), "unix:nlink")).intValue();
+		}
+		catch (UnsupportedOperationException e) {
+			return -1;
+		}
+		catch (IllegalArgumentException e) {
+			return -1;
+		}
+		catch (IOException e) {
+			return -1;
+		}
+	}
+}
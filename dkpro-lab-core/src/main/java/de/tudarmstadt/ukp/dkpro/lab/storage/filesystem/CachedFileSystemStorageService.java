@@ -20,13 +20,28 @@ package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
 import static de.tudarmstadt.ukp.dkpro.lab.task.Task.DISCRIMINATORS_KEY;
 import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
 
 import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
 import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
@@ -35,6 +50,13 @@ import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
 
 /**
  * File system-based storage service which caches task contexts and discriminators.
+ * <p>
+ * The metadata of all contexts in the repository is read once by a scan which runs in parallel
+ * on a bounded pool (see {@link #setScanThreads(int)}). The scan starts on the first call to
+ * {@link #getContexts()} or explicitly through {@link #startScan()}. While it is running, results
+ * become available as they arrive. Lookups of individual contexts and iteration do not wait for
+ * the scan, only listing all contexts does. While the scan is running, iteration takes the
+ * contexts already scanned from memory and reads the remaining ones from disk.
  *
  * @author Richard Eckart de Castilho
  * @author Erik-Lân Do Dinh
@@ -42,14 +64,125 @@ import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
 public class CachedFileSystemStorageService
     extends FileSystemStorageService
 {
+	private final Log log = LogFactory.getLog(getClass());
+
 	private Map<String, TaskContextMetadata> contexts;
 	private Map<String, Map<String, String>> discriminators;
-	private boolean scannedFiles = false;
+	private ConcurrentMap<String, Set<String>> fingerprints;
+	private int scanThreads = 8;
+	private FutureTask<Void> scan;
 
 	public CachedFileSystemStorageService()
 	{
-		contexts = new HashMap<String, TaskContextMetadata>();
-		discriminators = new HashMap<String, Map<String, String>>();
+		contexts = new ConcurrentHashMap<String, TaskContextMetadata>();
+		discriminators = new ConcurrentHashMap<String, Map<String, String>>();
+		fingerprints = new ConcurrentHashMap<String, Set<String>>();
+	}
+
+	/**
+	 * The number of threads reading context metadata during the initial scan of the repository.
+	 */
+	public void setScanThreads(int aScanThreads)
+	{
+		scanThreads = Math.max(1, aScanThreads);
+	}
+
+	public int getScanThreads()
+	{
+		return scanThreads;
+	}
+
+	/**
+	 * Start scanning the repository in the background unless this has already happened.
+	 */
+	public void startScan()
+	{
+		FutureTask<Void> task;
+		synchronized (this) {
+			if (scan != null) {
+				return;
+			}
+			task = new FutureTask<Void>(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+					throws Exception
+				{
+					scan();
+					return null;
+				}
+			});
+			scan = task;
+		}
+
+		Thread thread = new Thread(task, "storage-scan");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void scan()
+		throws InterruptedException, ExecutionException
+	{
+		File[] children = getStorageRoot().listFiles();
+		if (children == null) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(scanThreads, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable aRunnable)
+			{
+				Thread thread = new Thread(aRunnable, "storage-scan-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(children.length);
+			for (final File child : children) {
+				tasks.add(new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					{
+						scan(child);
+						return null;
+					}
+				});
+			}
+			for (Future<Void> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		log.debug("Scanned [" + children.length + "] entries in [" + getStorageRoot() + "] in ["
+		        + (System.currentTimeMillis() - start) + "] ms");
+	}
+
+	private void scan(File aChild)
+	{
+		String id = getCompletedContextId(aChild);
+		if (id == null || contexts.containsKey(id)) {
+			return;
+		}
+
+		try {
+			TaskContextMetadata meta = super.retrieveBinary(id, METADATA_KEY,
+			        new TaskContextMetadata());
+			// Do not override newer data or resurrect contexts deleted in the meantime
+			if (!contexts.containsKey(id) && super.containsContext(id)) {
+				cache(id, meta);
+			}
+		}
+		catch (DataAccessResourceFailureException e) {
+			if (super.containsContext(id)) {
+				throw e;
+			}
+		}
 	}
 
 	@Override
@@ -57,23 +190,18 @@ public class CachedFileSystemStorageService
 	{
 		super.delete(aContextId);
 
-		contexts.remove(aContextId);
+		uncache(aContextId);
 		discriminators.remove(aContextId);
 	}
 
 	@Override
 	public List<TaskContextMetadata> getContexts()
 	{
-		if (!scannedFiles) {
-			// If we are using an existing run, we need to have all the context metadata available.
-			// To avoid pulling these from the FS every time we need the list, we fetch them once.
-			// If new contexts are added, it is ensured by storeBinary that those are put into the
-			// cache.
-			for (TaskContextMetadata meta : super.getContexts()) {
-				contexts.put(meta.getId(), meta);
-			}
-			scannedFiles = true;
-		}
+		// If we are using an existing run, we need to have all the context metadata available.
+		// To avoid pulling these from the FS every time we need the list, we fetch them once.
+		// If new contexts are added, it is ensured by storeBinary that those are put into the
+		// cache.
+		awaitScan();
 
 		List<TaskContextMetadata> contextList = new ArrayList<TaskContextMetadata>(
 		        contexts.values());
@@ -88,6 +216,89 @@ public class CachedFileSystemStorageService
 		return contextList;
 	}
 
+	/**
+	 * Uses an index of the fingerprints of all contexts, so only the metadata of the matching
+	 * contexts is accessed. While the scan is running, the contexts are iterated instead.
+	 */
+	@Override
+	public List<TaskContextMetadata> getContextsByFingerprint(String aTaskType,
+	        String aFingerprint)
+	{
+		if (!isScanComplete()) {
+			return super.getContextsByFingerprint(aTaskType, aFingerprint);
+		}
+
+		List<TaskContextMetadata> result = new ArrayList<TaskContextMetadata>();
+		// Contexts without a fingerprint are indexed under null
+		for (String fingerprint : new String[] { aFingerprint, null }) {
+			Set<String> ids = fingerprints.get(fingerprintKey(aTaskType, fingerprint));
+			if (ids == null) {
+				continue;
+			}
+			for (String id : ids) {
+				TaskContextMetadata meta = contexts.get(id);
+				// The index may lag behind the contexts when they change concurrently
+				if (meta != null && aTaskType.equals(meta.getType())
+				        && (fingerprint == null ? meta.getFingerprint() == null
+				                : fingerprint.equals(meta.getFingerprint()))) {
+					result.add(meta);
+				}
+			}
+		}
+		Collections.sort(result, NEWEST_FIRST);
+		return result;
+	}
+
+	/**
+	 * Start the scan unless it is running and check if it has completed.
+	 */
+	private boolean isScanComplete()
+	{
+		startScan();
+		synchronized (this) {
+			return scan != null && scan.isDone();
+		}
+	}
+
+	private void awaitScan()
+	{
+		startScan();
+		FutureTask<Void> task;
+		synchronized (this) {
+			task = scan;
+		}
+		try {
+			task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataAccessResourceFailureException("Interrupted while scanning ["
+			        + getStorageRoot() + "]", e);
+		}
+		catch (ExecutionException e) {
+			// Allow the next call to try again
+			synchronized (this) {
+				if (scan == task) {
+					scan = null;
+				}
+			}
+			throw new DataAccessResourceFailureException("Unable to scan [" + getStorageRoot()
+			        + "]", e.getCause());
+		}
+	}
+
+	@Override
+	protected Iterator<TaskContextMetadata> iterateContexts()
+	{
+		// Once the scan is complete, all metadata is in memory
+		if (isScanComplete()) {
+			return getContexts().iterator();
+		}
+
+		// Metadata which has not been scanned yet is read from disk and cached by retrieveBinary
+		return super.iterateContexts();
+	}
+
 	@Override
 	public boolean containsContext(String aContextId)
 	{
@@ -137,7 +348,7 @@ public class CachedFileSystemStorageService
 
 		if (isStorageFolder(aResolvedKey.contextId, aResolvedKey.key)) {
 			if (aResolvedKey.key.equals(METADATA_KEY) && aKey.equals(METADATA_KEY)) {
-				contexts.put(aContextId, getContext(aResolvedKey.contextId));
+				cache(aContextId, getContext(aResolvedKey.contextId));
 			}
 			else if (aResolvedKey.key.equals(DISCRIMINATORS_KEY) && aKey.equals(DISCRIMINATORS_KEY)) {
 				discriminators.put(aContextId, getDiscriminators(aResolvedKey.contextId));
@@ -158,13 +369,54 @@ public class CachedFileSystemStorageService
 	private void storeInCache(String aContextId, String aKey, Object aMeta)
 	{
 		if (aMeta instanceof TaskContextMetadata && aKey.equals(METADATA_KEY)) {
-			contexts.put(aContextId, (TaskContextMetadata) aMeta);
+			cache(aContextId, (TaskContextMetadata) aMeta);
 		}
 		else if (aMeta instanceof PropertiesAdapter && aKey.equals(DISCRIMINATORS_KEY)) {
 			discriminators.put(aContextId, ((PropertiesAdapter) aMeta).getMap());
 		}
 	}
 
+	private void cache(String aContextId, TaskContextMetadata aMeta)
+	{
+		TaskContextMetadata old = contexts.put(aContextId, aMeta);
+		if (old != null) {
+			unindex(aContextId, old);
+		}
+		String key = fingerprintKey(aMeta.getType(), aMeta.getFingerprint());
+		Set<String> ids = fingerprints.get(key);
+		if (ids == null) {
+			Set<String> created = Collections
+			        .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			ids = fingerprints.putIfAbsent(key, created);
+			if (ids == null) {
+				ids = created;
+			}
+		}
+		ids.add(aContextId);
+	}
+
+	private void uncache(String aContextId)
+	{
+		TaskContextMetadata old = contexts.remove(aContextId);
+		if (old != null) {
+			unindex(aContextId, old);
+		}
+	}
+
+	private void unindex(String aContextId, TaskContextMetadata aMeta)
+	{
+		Set<String> ids = fingerprints.get(fingerprintKey(aMeta.getType(),
+		        aMeta.getFingerprint()));
+		if (ids != null) {
+			ids.remove(aContextId);
+		}
+	}
+
+	private static String fingerprintKey(String aTaskType, String aFingerprint)
+	{
+		return aTaskType + '|' + aFingerprint;
+	}
+
 	private Map<String, String> getDiscriminators(String aContextId)
 	{
 		return retrieveBinary(aContextId, DISCRIMINATORS_KEY, new PropertiesAdapter()).getMap();
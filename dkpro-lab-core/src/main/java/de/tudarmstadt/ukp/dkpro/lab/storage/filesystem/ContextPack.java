@@ -0,0 +1,428 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+
+/**
+ * Read-only archive holding all files of a completed context in a single file. The archive
+ * consists of the data of all files, followed by an index and a fixed-size footer:
+ *
+ * <pre>
+ * data:   file data, concatenated
+ * index:  int count, count * (int length, UTF-8 key, long offset, long length)
+ * footer: long index offset, int magic
+ * </pre>
+ *
+ * Keys are the paths of the files relative to the context folder using {@code /} as separator.
+ * Folders are stored as entries with a trailing {@code /} and a length of {@code -1}, so empty
+ * folders survive packing. In packs written by earlier versions (identified by a different
+ * magic number), folders are not stored - a key denotes a folder if other keys start with it.
+ * <p>
+ * The index is only read when it is first needed, so opening a pack is cheap.
+ *
+ * @since 0.12.0
+ */
+public class ContextPack
+{
+	public static final String SUFFIX = ".pack";
+
+	private static final int MAGIC_V1 = 0x444b4c50; // DKLP
+	private static final int MAGIC = 0x444b4c32; // DKL2
+	private static final int FOOTER_SIZE = 12;
+
+	private final File file;
+	private volatile Map<String, long[]> index;
+	private volatile boolean folderEntries;
+
+	/**
+	 * Open an existing pack. The index is read lazily.
+	 */
+	public ContextPack(File aFile)
+	{
+		file = aFile;
+	}
+
+	private Map<String, long[]> getIndex()
+	{
+		Map<String, long[]> idx = index;
+		if (idx == null) {
+			synchronized (this) {
+				if (index == null) {
+					try {
+						readIndex();
+					}
+					catch (IOException e) {
+						throw new DataAccessResourceFailureException(
+								"Unable to read index of pack [" + file + "]", e);
+					}
+				}
+				idx = index;
+			}
+		}
+		return idx;
+	}
+
+	private void readIndex()
+		throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long size = raf.length();
+			if (size < FOOTER_SIZE) {
+				throw new IOException("[" + file + "] is not a context pack");
+			}
+			raf.seek(size - FOOTER_SIZE);
+			long indexOffset = raf.readLong();
+			int magic = raf.readInt();
+			if (magic != MAGIC && magic != MAGIC_V1) {
+				throw new IOException("[" + file + "] is not a context pack");
+			}
+
+			raf.seek(indexOffset);
+			DataInputStream is = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(raf.getFD())));
+			int count = is.readInt();
+			Map<String, long[]> entries = new LinkedHashMap<String, long[]>(count * 2);
+			for (int i = 0; i < count; i++) {
+				byte[] key = new byte[is.readInt()];
+				is.readFully(key);
+				entries.put(new String(key, StandardCharsets.UTF_8),
+						new long[] { is.readLong(), is.readLong() });
+			}
+			folderEntries = magic == MAGIC;
+			index = Collections.unmodifiableMap(entries);
+		}
+		finally {
+			Util.close(raf);
+		}
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Get all keys in the pack. Keys of folders end in {@code /}.
+	 */
+	public Set<String> getKeys()
+	{
+		return getIndex().keySet();
+	}
+
+	/**
+	 * Check if the pack contains the given key, either as a file or as a folder.
+	 */
+	public boolean containsKey(String aKey)
+	{
+		return getIndex().containsKey(normalize(aKey)) || isFolder(aKey);
+	}
+
+	public boolean isFolder(String aKey)
+	{
+		Map<String, long[]> idx = getIndex();
+		String prefix = normalize(aKey) + "/";
+		if (folderEntries) {
+			return prefix.length() == 1 || idx.containsKey(prefix);
+		}
+		for (String key : idx.keySet()) {
+			if (key.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the keys of the files stored under the given key. If the key denotes a file, only the
+	 * key itself is returned. If it denotes a folder, all files below the folder are returned.
+	 */
+	public List<String> listFiles(String aKey)
+	{
+		Map<String, long[]> idx = getIndex();
+		String key = normalize(aKey);
+		List<String> files = new ArrayList<String>();
+		if (idx.containsKey(key)) {
+			files.add(key);
+			return files;
+		}
+		String prefix = key + "/";
+		for (String k : idx.keySet()) {
+			if (k.startsWith(prefix) && !k.endsWith("/")) {
+				files.add(k);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Open the data of the given key for reading.
+	 */
+	public InputStream open(String aKey)
+		throws IOException
+	{
+		long[] entry = getEntry(aKey);
+		FileInputStream is = new FileInputStream(file);
+		try {
+			is.getChannel().position(entry[0]);
+		}
+		catch (IOException e) {
+			Util.close(is);
+			throw e;
+		}
+		return new BoundedInputStream(is, entry[1]);
+	}
+
+	/**
+	 * Map the data of the given key into memory. The data is directly mapped from the pack.
+	 */
+	public List<MappedByteBuffer> map(String aKey)
+		throws IOException
+	{
+		long[] entry = getEntry(aKey);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			List<MappedByteBuffer> buffers = new ArrayList<MappedByteBuffer>();
+			long position = 0;
+			do {
+				long length = Math.min(Integer.MAX_VALUE, entry[1] - position);
+				buffers.add(raf.getChannel().map(MapMode.READ_ONLY, entry[0] + position, length));
+				position += length;
+			}
+			while (position < entry[1]);
+			return buffers;
+		}
+		finally {
+			Util.close(raf);
+		}
+	}
+
+	/**
+	 * Extract the given key to the target. If the key denotes a folder, all files and folders in
+	 * the folder are extracted below the target. Files which already exist below the target are
+	 * assumed to have been extracted before. Each file only appears under its final name once
+	 * it is complete.
+	 */
+	public void extract(String aKey, File aTarget)
+		throws IOException
+	{
+		Map<String, long[]> idx = getIndex();
+		String key = normalize(aKey);
+		if (idx.containsKey(key)) {
+			if (!aTarget.exists()) {
+				extractFile(key, aTarget);
+			}
+		}
+		else {
+			aTarget.mkdirs();
+			String prefix = key.isEmpty() ? "" : key + "/";
+			for (String k : idx.keySet()) {
+				if (k.startsWith(prefix) && k.length() > prefix.length()) {
+					File target = new File(aTarget, k.substring(prefix.length()));
+					if (k.endsWith("/")) {
+						target.mkdirs();
+					}
+					else if (!target.exists()) {
+						extractFile(k, target);
+					}
+				}
+			}
+		}
+	}
+
+	private void extractFile(String aKey, File aTarget)
+		throws IOException
+	{
+		aTarget.getParentFile().mkdirs();
+		// Other threads or processes may extract the same file concurrently, so each needs its
+		// own temporary file
+		File tmp = File.createTempFile(aTarget.getName() + ".", ".tmp", aTarget.getParentFile());
+		try {
+			InputStream is = null;
+			FileOutputStream os = null;
+			try {
+				is = open(aKey);
+				os = new FileOutputStream(tmp);
+				Util.shove(is, os);
+			}
+			finally {
+				Util.close(is);
+				Util.close(os);
+			}
+			// A concurrent extractor may have won the race, but its file has the same content
+			if (!tmp.renameTo(aTarget) && !aTarget.exists()) {
+				throw new IOException("Unable to rename [" + tmp + "] to [" + aTarget + "]");
+			}
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	private long[] getEntry(String aKey)
+		throws IOException
+	{
+		long[] entry = getIndex().get(normalize(aKey));
+		if (entry == null || entry[1] < 0) {
+			throw new IOException("Key [" + aKey + "] not found in [" + file + "]");
+		}
+		return entry;
+	}
+
+	private static String normalize(String aKey)
+	{
+		String key = aKey.replace(File.separatorChar, '/');
+		// Keys of imports carry a leading slash
+		while (key.startsWith("/")) {
+			key = key.substring(1);
+		}
+		while (key.endsWith("/")) {
+			key = key.substring(0, key.length() - 1);
+		}
+		return key;
+	}
+
+	/**
+	 * Pack all files in the given folder. The pack is first written to a temporary file which is
+	 * renamed once all data is durable.
+	 *
+	 * @param aFolder the context folder.
+	 * @param aTarget the pack file.
+	 * @return the new pack.
+	 */
+	public static ContextPack pack(File aFolder, File aTarget)
+		throws IOException
+	{
+		List<String> keys = new ArrayList<String>();
+		collect(aFolder, "", keys);
+		// Folders come after the files, so their data offsets are not affected
+		List<String> folders = new ArrayList<String>();
+		collectFolders(aFolder, "", folders);
+
+		File tmp = new File(aTarget.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(
+					fos, 65536));
+			DataOutputStream os = new DataOutputStream(counter);
+			List<long[]> entries = new ArrayList<long[]>(keys.size());
+			for (String key : keys) {
+				InputStream is = new FileInputStream(new File(aFolder, key));
+				try {
+					long offset = counter.getByteCount();
+					Util.shove(is, os);
+					entries.add(new long[] { offset, counter.getByteCount() - offset });
+				}
+				finally {
+					Util.close(is);
+				}
+			}
+			long indexOffset = counter.getByteCount();
+			os.writeInt(keys.size() + folders.size());
+			for (int i = 0; i < keys.size(); i++) {
+				byte[] key = keys.get(i).getBytes(StandardCharsets.UTF_8);
+				os.writeInt(key.length);
+				os.write(key);
+				os.writeLong(entries.get(i)[0]);
+				os.writeLong(entries.get(i)[1]);
+			}
+			for (String folder : folders) {
+				byte[] key = folder.getBytes(StandardCharsets.UTF_8);
+				os.writeInt(key.length);
+				os.write(key);
+				os.writeLong(-1);
+				os.writeLong(-1);
+			}
+			os.writeLong(indexOffset);
+			os.writeInt(MAGIC);
+			os.flush();
+			fos.getChannel().force(true);
+		}
+		catch (IOException e) {
+			Util.close(fos);
+			tmp.delete();
+			throw e;
+		}
+		finally {
+			Util.close(fos);
+		}
+
+		if (aTarget.exists()) {
+			aTarget.delete();
+		}
+		if (!tmp.renameTo(aTarget)) {
+			throw new IOException("Unable to rename [" + tmp + "] to [" + aTarget + "]");
+		}
+		return new ContextPack(aTarget);
+	}
+
+	private static void collect(File aFolder, String aPrefix, List<String> aKeys)
+	{
+		File[] children = aFolder.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				collect(child, aPrefix + child.getName() + "/", aKeys);
+			}
+			else {
+				aKeys.add(aPrefix + child.getName());
+			}
+		}
+	}
+
+	private static void collectFolders(File aFolder, String aPrefix, List<String> aFolders)
+	{
+		File[] children = aFolder.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				aFolders.add(aPrefix + child.getName() + "/");
+				collectFolders(child, aPrefix + child.getName() + "/", aFolders);
+			}
+		}
+	}
+}
@@ -17,36 +17,64 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
 
-import static de.tudarmstadt.ukp.dkpro.lab.engine.impl.ImportUtil.matchConstraints;
+import static de.tudarmstadt.ukp.dkpro.lab.storage.filesystem.StorageStatistics.SUMMARY_KEY;
+import static de.tudarmstadt.ukp.dkpro.lab.task.Task.DISCRIMINATORS_KEY;
+import static de.tudarmstadt.ukp.dkpro.lab.task.Task.PROPERTIES_KEY;
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextManifest.MANIFEST_KEY;
 import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.dao.DataAccessResourceFailureException;
 
 import de.tudarmstadt.ukp.dkpro.lab.Util;
 import de.tudarmstadt.ukp.dkpro.lab.engine.impl.ImportUtil;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.IntermediateDataTracker;
 import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
 import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
 import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.filesystem.FolderCopier.Method;
+import de.tudarmstadt.ukp.dkpro.lab.storage.filesystem.StorageStatistics.Operation;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.CompressionCodecs;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.FilteringContextIterator;
 import de.tudarmstadt.ukp.dkpro.lab.storage.impl.PropertiesAdapter;
-import de.tudarmstadt.ukp.dkpro.lab.task.Task;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextManifest;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextManifest.Section;
 import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
 
 /**
@@ -64,9 +92,149 @@ public class FileSystemStorageService
 
 	private File storageRoot;
 
+	private boolean deduplicate = false;
+	private BlobStore blobStore;
+	private FolderCopier folderCopier = new FolderCopier();
+
+	private boolean writeBehind = false;
+	private int writeBehindThreshold = 1024 * 1024;
+	private int writeBehindBatchSize = 256;
+	private WriteBehindQueue writeQueue;
+
+	private long clockSkew = 60 * 1000;
+
+	private StorageStatistics statistics;
+
+	private int prefetchThreads = 2;
+	private long prefetchLimit = 256 * 1024 * 1024;
+	private Prefetcher prefetcher;
+
+	private boolean indexKeys = false;
+	// Keys known to exist in contexts written through this service which are not complete yet
+	private final ConcurrentMap<String, Set<String>> liveKeys =
+	        new ConcurrentHashMap<String, Set<String>>();
+	// Keys of completed contexts handed out as files or folders. Anything may be created there
+	// without the service noticing.
+	private final ConcurrentMap<String, Set<String>> handedOut =
+	        new ConcurrentHashMap<String, Set<String>>();
+
+	static final Comparator<TaskContextMetadata> NEWEST_FIRST = new Comparator<TaskContextMetadata>()
+	{
+		@Override
+		public int compare(TaskContextMetadata aO1, TaskContextMetadata aO2)
+		{
+			return Long.signum(aO2.getEnd() - aO1.getEnd());
+		}
+	};
+
+	/**
+	 * Name of the folder below the storage root into which data from packed contexts is
+	 * extracted when it needs to be accessed as a file.
+	 */
+	public static final String UNPACKED_FOLDER = ".unpacked";
+
+	/**
+	 * Name of the folder below the storage root holding one marker file per completed context.
+	 * The modification time of the marker is the last time data was read from the context.
+	 */
+	public static final String USED_FOLDER = ".used";
+
+	/**
+	 * Name of the folder below the storage root holding the fingerprint index. It contains an
+	 * empty marker file {@code <type>/<fingerprint>/<context id>} per completed context, or
+	 * {@code <type>/none/<context id>} for contexts without a fingerprint. Markers of deleted
+	 * contexts are removed when they are encountered. If the folder is removed, it is rebuilt
+	 * from the metadata of all contexts on the next lookup.
+	 */
+	public static final String FINGERPRINT_FOLDER = ".fingerprints";
+
+	private static final String NO_FINGERPRINT = "none";
+	private static final String FINGERPRINT_INDEX_COMPLETE = ".complete";
+
+	private final Object fingerprintIndexLock = new Object();
+
+	private static final long USED_MARK_INTERVAL = 60 * 1000;
+	private static final int USED_MARK_CACHE_SIZE = 1024;
+
+	// Guarded by itself
+	private final Map<String, Long> usedMarks = new LinkedHashMap<String, Long>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 2395709233532580271L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> aEldest)
+		{
+			return size() > USED_MARK_CACHE_SIZE;
+		}
+	};
+
+	private static final int PACK_CACHE_SIZE = 256;
+
+	// Keys of packed contexts which have been extracted completely, as "contextId/key"
+	private final Set<String> unpackedKeys = Collections
+	        .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// Guarded by itself
+	private final Map<String, ContextPack> packs = new LinkedHashMap<String, ContextPack>(16,
+	        0.75f, true)
+	{
+		private static final long serialVersionUID = -3417238207447702405L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ContextPack> aEldest)
+		{
+			return size() > PACK_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Name of the file listing all keys of a completed context. Folders are listed with a
+	 * trailing slash.
+	 */
+	public static final String KEYS_KEY = "KEYS.txt";
+
+	private static final int KEY_FILTER_CACHE_SIZE = 1024;
+
+	// Guarded by itself. Contexts without a key list are mapped to null.
+	private final Map<String, KeyFilter> keyFilters = new LinkedHashMap<String, KeyFilter>(16,
+	        0.75f, true)
+	{
+		private static final long serialVersionUID = 8712083455937268371L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, KeyFilter> aEldest)
+		{
+			return size() > KEY_FILTER_CACHE_SIZE;
+		}
+	};
+
+	private static final int DISCRIMINATOR_CACHE_SIZE = 1024;
+
+	// Guarded by itself. Only holds the discriminators of completed contexts.
+	private final Map<String, Map<String, String>> discriminatorCache =
+	        new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = -1934577360457230188L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> aEldest)
+		{
+			return size() > DISCRIMINATOR_CACHE_SIZE;
+		}
+	};
+
 	public void setStorageRoot(File aStorageRoot)
 	{
 		storageRoot = aStorageRoot;
+		blobStore = null;
+		liveKeys.clear();
+		handedOut.clear();
+		synchronized (keyFilters) {
+			keyFilters.clear();
+		}
+		synchronized (discriminatorCache) {
+			discriminatorCache.clear();
+		}
 	}
 
 	public File getStorageRoot()
@@ -74,11 +242,480 @@ public class FileSystemStorageService
 		return storageRoot;
 	}
 
+	/**
+	 * Store data only once per content. If enabled, every key written via
+	 * {@link #storeBinary(String, String, StreamWriter)} is kept in a content-addressed
+	 * {@link BlobStore} and hard-linked into the context. When a context is completed, i.e. when
+	 * its {@link TaskContextMetadata#METADATA_KEY} is written, all other files in the context are
+	 * moved to the blob store as well. Files in the blob store are read-only. 
+	 * <p>
+	 * Deduplication requires a file system supporting hard links. Where a link cannot be created,
+	 * data is stored in the context as usual.
+	 */
+	public void setDeduplicate(boolean aDeduplicate)
+	{
+		deduplicate = aDeduplicate;
+	}
+
+	public boolean isDeduplicate()
+	{
+		return deduplicate;
+	}
+
+	/**
+	 * Set the strategy used to copy imported storage folders into a context.
+	 *
+	 * @see #copy(String, String, StorageKey, AccessMode)
+	 */
+	public void setFolderCopier(FolderCopier aFolderCopier)
+	{
+		folderCopier = aFolderCopier;
+	}
+
+	public FolderCopier getFolderCopier()
+	{
+		return folderCopier;
+	}
+
+	/**
+	 * Write data asynchronously. If enabled, data written via
+	 * {@link #storeBinary(String, String, StreamWriter)} is buffered in memory and written to the
+	 * file system in batches by a background thread. Until then, it is served from memory. Data
+	 * exceeding the {@link #setWriteBehindThreshold(int) threshold} is written synchronously.
+	 * <p>
+	 * Data is only guaranteed to be durable after {@link #flush()} or {@link #flush(String)} for
+	 * its context has returned. The {@link TaskContextMetadata#METADATA_KEY} marking a context as
+	 * complete is always written synchronously and only after all pending data of the context has
+	 * been flushed. If a background write to the context has failed, the data remains pending and
+	 * writing the marker fails. Disabling write-behind writes all pending data and stops the
+	 * background thread.
+	 */
+	public void setWriteBehind(boolean aWriteBehind)
+	{
+		WriteBehindQueue queue;
+		synchronized (this) {
+			queue = writeQueue;
+			writeBehind = aWriteBehind;
+			if (!aWriteBehind) {
+				writeQueue = null;
+			}
+		}
+		// Do not hold the lock here, the background writer may need it
+		if (!aWriteBehind && queue != null) {
+			queue.shutdown();
+		}
+	}
+
+	public boolean isWriteBehind()
+	{
+		return writeBehind;
+	}
+
+	/**
+	 * The maximum number of bytes of a single key that are buffered in memory for writing in the
+	 * background.
+	 */
+	public void setWriteBehindThreshold(int aWriteBehindThreshold)
+	{
+		writeBehindThreshold = aWriteBehindThreshold;
+	}
+
+	public int getWriteBehindThreshold()
+	{
+		return writeBehindThreshold;
+	}
+
+	/**
+	 * The maximum number of files that are written and forced to disk together.
+	 */
+	public void setWriteBehindBatchSize(int aWriteBehindBatchSize)
+	{
+		writeBehindBatchSize = aWriteBehindBatchSize;
+	}
+
+	public int getWriteBehindBatchSize()
+	{
+		return writeBehindBatchSize;
+	}
+
+	/**
+	 * The maximum difference in milliseconds by which the clock used to set the end time of a
+	 * context may be ahead of the clock of the file system. This is relevant when iterating over
+	 * contexts in order of their end time (see {@link #iterateContexts(String, Map, int)}).
+	 */
+	public void setClockSkew(long aClockSkew)
+	{
+		clockSkew = aClockSkew;
+	}
+
+	public long getClockSkew()
+	{
+		return clockSkew;
+	}
+
+	/**
+	 * Collect I/O statistics into the given object. The statistics of a context are written into
+	 * the context as {@link StorageStatistics#SUMMARY_KEY} when it is completed. The same object
+	 * may be shared by several storage services. If not set, no statistics are collected.
+	 */
+	public void setStatistics(StorageStatistics aStatistics)
+	{
+		statistics = aStatistics;
+	}
+
+	public StorageStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	/**
+	 * The number of background threads reading data passed to {@link #prefetch(String, String)}.
+	 * If set to {@code 0}, prefetching is disabled.
+	 */
+	public synchronized void setPrefetchThreads(int aPrefetchThreads)
+	{
+		prefetchThreads = aPrefetchThreads;
+		resetPrefetcher();
+	}
+
+	public int getPrefetchThreads()
+	{
+		return prefetchThreads;
+	}
+
+	/**
+	 * The maximum number of bytes read when prefetching a single key. If the key denotes a folder,
+	 * this limit applies to all files in the folder together.
+	 */
+	public synchronized void setPrefetchLimit(long aPrefetchLimit)
+	{
+		prefetchLimit = aPrefetchLimit;
+		resetPrefetcher();
+	}
+
+	public long getPrefetchLimit()
+	{
+		return prefetchLimit;
+	}
+
+	/**
+	 * Answer existence checks from an index of the keys instead of the file system where
+	 * possible. Keys written through this service are remembered while their context is running.
+	 * When a context is completed, its keys are listed in {@link #KEYS_KEY}. This list is loaded
+	 * into a Bloom filter, so checks for keys which do not exist in a completed context need no
+	 * file system access. Checks for keys at or below files and folders of a completed context
+	 * handed out by {@link #locateKey} or {@link #getStorageFolder} fall back to the file system,
+	 * as do all other checks. When a key is added to a completed context through the service, its
+	 * key list is removed.
+	 * <p>
+	 * The Bloom filters are kept in memory. Thus, this is only safe if completed contexts are not
+	 * modified by other processes or outside of the service. Disabled by default.
+	 */
+	public void setIndexKeys(boolean aIndexKeys)
+	{
+		indexKeys = aIndexKeys;
+		liveKeys.clear();
+		handedOut.clear();
+		synchronized (keyFilters) {
+			keyFilters.clear();
+		}
+	}
+
+	public boolean isIndexKeys()
+	{
+		return indexKeys;
+	}
+
+	// Guarded by this
+	private void resetPrefetcher()
+	{
+		if (prefetcher != null) {
+			prefetcher.shutdown();
+			prefetcher = null;
+		}
+	}
+
+	private synchronized Prefetcher getPrefetcher()
+	{
+		if (prefetchThreads > 0 && prefetcher == null) {
+			prefetcher = new Prefetcher(prefetchThreads, prefetchLimit);
+		}
+		return prefetchThreads > 0 ? prefetcher : null;
+	}
+
+	private void record(String aContextId, String aKey, Operation aOperation, long aBytes,
+	        long aStart, long aRetryNanos)
+	{
+		if (statistics != null) {
+			statistics.record(aContextId, aKey, aOperation, aBytes, System.nanoTime() - aStart,
+			        aRetryNanos);
+		}
+	}
+
+	private synchronized WriteBehindQueue getWriteQueue()
+	{
+		if (writeBehind && writeQueue == null) {
+			writeQueue = new WriteBehindQueue(this, writeBehindBatchSize);
+		}
+		return writeQueue;
+	}
+
+	/**
+	 * Wait for pending background writes to the given file or below the given folder.
+	 */
+	private void flush(File aFile)
+	{
+		WriteBehindQueue queue = getWriteQueue();
+		if (queue != null && queue.isPending(aFile)) {
+			queue.flush(aFile);
+		}
+	}
+
+	/**
+	 * Drop pending background writes to the given file or below the given folder.
+	 */
+	private void discard(File aFile)
+	{
+		WriteBehindQueue queue = getWriteQueue();
+		if (queue != null && queue.isPending(aFile)) {
+			queue.discard(aFile);
+		}
+	}
+
+	@Override
+	public void flush()
+	{
+		WriteBehindQueue queue = getWriteQueue();
+		if (queue != null) {
+			queue.flush();
+		}
+	}
+
+	@Override
+	public void flush(String aContextId)
+	{
+		flush(getContextFolder(aContextId, false));
+	}
+
+	/**
+	 * Pack a completed context into a single {@link ContextPack} file stored next to the context
+	 * folders. The context folder is removed afterwards. Packed contexts remain readable, but
+	 * cannot be modified anymore. Data which needs to be accessed as a file (see
+	 * {@link #locateKey(String, String)}) is extracted on demand.
+	 */
+	public void compact(String aContextId)
+	{
+		File context = getContextFolder(aContextId, false);
+		if (!new File(context, METADATA_KEY).exists()) {
+			throw new DataAccessResourceFailureException("Context [" + aContextId
+			        + "] is not complete and cannot be packed");
+		}
+
+		flush(context);
+		try {
+			ContextPack pack = ContextPack.pack(context, getPackFile(aContextId));
+			synchronized (packs) {
+				packs.put(aContextId, pack);
+			}
+			FileUtils.deleteDirectory(context);
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to pack context [" + aContextId
+			        + "]", e);
+		}
+	}
+
+	/**
+	 * Pack all completed contexts.
+	 *
+	 * @return the number of contexts packed.
+	 * @see #compact(String)
+	 */
+	public int compactAll()
+	{
+		int count = 0;
+		for (File child : storageRoot.listFiles()) {
+			if (new File(child, METADATA_KEY).exists()) {
+				compact(child.getName());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private File getPackFile(String aContextId)
+	{
+		return new File(getStorageRoot(), aContextId + ContextPack.SUFFIX);
+	}
+
+	/**
+	 * Get the pack of the given context. A context which exists as a folder is considered not
+	 * to be packed.
+	 *
+	 * @return the pack or {@code null} if the context is not packed.
+	 */
+	protected ContextPack getPack(String aContextId)
+	{
+		if (getContextFolder(aContextId, false).isDirectory()) {
+			return null;
+		}
+
+		File packFile = getPackFile(aContextId);
+		synchronized (packs) {
+			ContextPack pack = packs.get(aContextId);
+			if (pack != null && packFile.isFile()) {
+				return pack;
+			}
+			packs.remove(aContextId);
+		}
+
+		if (!packFile.isFile()) {
+			return null;
+		}
+
+		// Cheap - the index of the pack is only read when it is needed
+		ContextPack pack = new ContextPack(packFile);
+		synchronized (packs) {
+			packs.put(aContextId, pack);
+		}
+		return pack;
+	}
+
+	/**
+	 * Extract the given key from a packed context. Files are extracted atomically. A folder is
+	 * only returned once all its contents have been extracted, even if another thread is
+	 * extracting it concurrently or parts of it have been extracted before.
+	 *
+	 * @return the extracted file or folder. If the key does not exist in the pack, the file does
+	 *         not exist either.
+	 */
+	private File unpack(ContextPack aPack, String aContextId, String aKey)
+	{
+		File target = new File(new File(new File(getStorageRoot(), UNPACKED_FOLDER), aContextId),
+		        aKey);
+		String unpackedKey = aContextId + "/" + normalizeKey(aKey);
+		if (target.isFile() || unpackedKeys.contains(unpackedKey)) {
+			return target;
+		}
+		if (aPack.containsKey(aKey)) {
+			try {
+				// Fills in whatever is missing below the target
+				aPack.extract(aKey, target);
+				unpackedKeys.add(unpackedKey);
+			}
+			catch (IOException e) {
+				throw new DataAccessResourceFailureException("Unable to extract [" + aKey
+				        + "] from context [" + aContextId + "]", e);
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * Delete the data extracted from the pack of the given context. It is extracted again when
+	 * needed.
+	 */
+	public void deleteUnpacked(String aContextId)
+		throws IOException
+	{
+		for (Iterator<String> i = unpackedKeys.iterator(); i.hasNext();) {
+			if (i.next().startsWith(aContextId + "/")) {
+				i.remove();
+			}
+		}
+		FileUtils.deleteDirectory(new File(new File(getStorageRoot(), UNPACKED_FOLDER),
+		        aContextId));
+	}
+
+	private File getUsedMarker(String aContextId)
+	{
+		return new File(new File(getStorageRoot(), USED_FOLDER), aContextId);
+	}
+
+	/**
+	 * Get the last time data was read from the given completed context. This is tracked with a
+	 * resolution of about a minute. Reads of the metadata, properties and discriminators, e.g.
+	 * while looking for a matching context, do not count.
+	 *
+	 * @return the time in milliseconds or {@code 0} if no data has been read from the context
+	 *         since it was completed.
+	 */
+	public long getLastUsed(String aContextId)
+	{
+		return getUsedMarker(aContextId).lastModified();
+	}
+
+	/**
+	 * Update the last-used marker of the given context if data is read from it and it is
+	 * complete. Marking happens at most once per minute per context.
+	 */
+	private void markUsed(String aContextId, String aKey)
+	{
+		if (isManifestKey(aKey) || MANIFEST_KEY.equals(aKey)) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		synchronized (usedMarks) {
+			Long last = usedMarks.get(aContextId);
+			if (last != null && now - last < USED_MARK_INTERVAL) {
+				return;
+			}
+			usedMarks.put(aContextId, now);
+		}
+
+		if (!isComplete(aContextId)) {
+			return;
+		}
+
+		File marker = getUsedMarker(aContextId);
+		try {
+			FileUtils.touch(marker);
+		}
+		catch (IOException e) {
+			log.debug("Unable to mark context [" + aContextId + "] as used: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the blob store used when deduplication is enabled.
+	 */
+	public synchronized BlobStore getBlobStore()
+	{
+		if (blobStore == null) {
+			blobStore = new BlobStore(getStorageRoot());
+		}
+		return blobStore;
+	}
+
 	@Override
 	public void delete(String aContextId)
 	{
+		if (statistics != null) {
+			statistics.complete(aContextId);
+		}
+
+		liveKeys.remove(aContextId);
+		handedOut.remove(aContextId);
+		synchronized (keyFilters) {
+			keyFilters.remove(aContextId);
+		}
+		synchronized (discriminatorCache) {
+			discriminatorCache.remove(aContextId);
+		}
+
 		try {
+			discard(getContextFolder(aContextId, false));
 			FileUtils.deleteDirectory(getContextFolder(aContextId, false));
+			synchronized (packs) {
+				packs.remove(aContextId);
+			}
+			getPackFile(aContextId).delete();
+			deleteUnpacked(aContextId);
+			getUsedMarker(aContextId).delete();
+			synchronized (usedMarks) {
+				usedMarks.remove(aContextId);
+			}
 		}
 		catch (IOException e) {
 			throw new DataAccessResourceFailureException(e.getMessage(), e);
@@ -88,12 +725,30 @@ public class FileSystemStorageService
 	@Override
 	public void delete(String aContextId, String aKey)
 	{
+		if (getPack(aContextId) != null) {
+			throw new DataAccessResourceFailureException("Context [" + aContextId
+			        + "] is packed and cannot be modified");
+		}
+
+		long start = System.nanoTime();
 		try {
-			FileUtils.deleteDirectory(new File(getContextFolder(aContextId, false), aKey));
+			File file = new File(getContextFolder(aContextId, false), aKey);
+			discard(file);
+			// The key may denote a file or a folder
+			if (file.exists()) {
+				FileUtils.forceDelete(file);
+			}
 		}
 		catch (IOException e) {
 			throw new DataAccessResourceFailureException(e.getMessage(), e);
 		}
+		forgetKey(aContextId, aKey);
+		if (DISCRIMINATORS_KEY.equals(aKey)) {
+			synchronized (discriminatorCache) {
+				discriminatorCache.remove(aContextId);
+			}
+		}
+		record(aContextId, aKey, Operation.DELETE, 0, start, 0);
 	}
 
 	@Override
@@ -107,98 +762,465 @@ public class FileSystemStorageService
 	{
 		List<TaskContextMetadata> contexts = new ArrayList<TaskContextMetadata>();
 		for (File child : storageRoot.listFiles()) {
-			if (new File(child, METADATA_KEY).exists()) {
-				contexts.add(retrieveBinary(child.getName(), METADATA_KEY,
-				        new TaskContextMetadata()));
+			String id = getCompletedContextId(child);
+			if (id != null) {
+				contexts.add(retrieveBinary(id, METADATA_KEY, new TaskContextMetadata()));
 			}
 		}
 
-		Collections.sort(contexts, new Comparator<TaskContextMetadata>()
+		Collections.sort(contexts, NEWEST_FIRST);
+
+		return contexts;
+	}
+
+	/**
+	 * Get the id of the completed context stored in the given child of the storage root.
+	 *
+	 * @return the context id or {@code null} if the file does not hold a completed context.
+	 */
+	protected String getCompletedContextId(File aChild)
+	{
+		if (new File(aChild, METADATA_KEY).exists()) {
+			return aChild.getName();
+		}
+		else if (aChild.getName().endsWith(ContextPack.SUFFIX)) {
+			// Packs are only created from completed contexts and only appear under their final
+			// name once complete. A context folder of the same name takes precedence.
+			String id = aChild.getName().substring(0,
+			        aChild.getName().length() - ContextPack.SUFFIX.length());
+			if (!getContextFolder(id, false).isDirectory() && aChild.isFile()) {
+				return id;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContexts(String aTaskType, Map<String, String> aConstraints)
+	{
+		return FilteringContextIterator.toList(iterateContexts(aTaskType, aConstraints, 0));
+	}
+
+	@Override
+	public TaskContextMetadata getLatestContext(String aTaskType, Map<String, String> aConstraints)
+	{
+		Iterator<TaskContextMetadata> i = iterateContexts(aTaskType, aConstraints, 1);
+		if (!i.hasNext()) {
+			throw ImportUtil.createContextNotFoundException(aTaskType, aConstraints);
+		}
+
+		return i.next();
+	}
+
+	@Override
+	public Iterator<TaskContextMetadata> iterateContexts(String aTaskType,
+	        Map<String, String> aConstraints, int aLimit)
+	{
+		return new FilteringContextIterator(this, iterateContexts(), aTaskType, aConstraints,
+		        aLimit);
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContextsByFingerprint(String aTaskType,
+	        String aFingerprint)
+	{
+		buildFingerprintIndex();
+
+		List<TaskContextMetadata> result = new ArrayList<TaskContextMetadata>();
+		for (String fingerprint : new String[] { aFingerprint, null }) {
+			File markers = getFingerprintFolder(aTaskType, fingerprint);
+			String[] ids = markers.list();
+			if (ids == null) {
+				continue;
+			}
+			for (String id : ids) {
+				if (!isComplete(id)) {
+					// The context has been deleted
+					new File(markers, id).delete();
+					continue;
+				}
+				TaskContextMetadata meta = getContext(id);
+				// Different types may map to the same folder name
+				if (aTaskType.equals(meta.getType())
+				        && (fingerprint == null ? meta.getFingerprint() == null
+				                : fingerprint.equals(meta.getFingerprint()))) {
+					result.add(meta);
+				}
+			}
+		}
+		Collections.sort(result, NEWEST_FIRST);
+		return result;
+	}
+
+	private File getFingerprintFolder(String aTaskType, String aFingerprint)
+	{
+		File typeFolder = new File(new File(getStorageRoot(), FINGERPRINT_FOLDER),
+		        aTaskType.replaceAll("[^A-Za-z0-9._-]", "_"));
+		return new File(typeFolder, aFingerprint != null ? aFingerprint : NO_FINGERPRINT);
+	}
+
+	private boolean isComplete(String aContextId)
+	{
+		return new File(getContextFolder(aContextId, false), METADATA_KEY).exists()
+		        || getPackFile(aContextId).isFile();
+	}
+
+	/**
+	 * Add the given completed context to the fingerprint index.
+	 */
+	private void indexFingerprint(String aContextId, TaskContextMetadata aMeta)
+	{
+		// Contexts without a type cannot be looked up anyway
+		if (aMeta.getType() == null) {
+			return;
+		}
+
+		try {
+			FileUtils.touch(new File(getFingerprintFolder(aMeta.getType(),
+			        aMeta.getFingerprint()), aContextId));
+		}
+		catch (IOException e) {
+			log.warn("Unable to index context [" + aContextId + "], rebuilding index: "
+			        + e.getMessage());
+			new File(new File(getStorageRoot(), FINGERPRINT_FOLDER), FINGERPRINT_INDEX_COMPLETE)
+			        .delete();
+		}
+	}
+
+	/**
+	 * Add all contexts completed before the fingerprint index existed to the index. This reads
+	 * the metadata of all contexts, but only once per storage root.
+	 */
+	private void buildFingerprintIndex()
+	{
+		File complete = new File(new File(getStorageRoot(), FINGERPRINT_FOLDER),
+		        FINGERPRINT_INDEX_COMPLETE);
+		synchronized (fingerprintIndexLock) {
+			if (complete.exists()) {
+				return;
+			}
+
+			log.info("Building fingerprint index of [" + getStorageRoot() + "]");
+			for (File child : getStorageRoot().listFiles()) {
+				String id = getCompletedContextId(child);
+				if (id == null) {
+					continue;
+				}
+				try {
+					indexFingerprint(id, getContext(id));
+				}
+				catch (DataAccessResourceFailureException e) {
+					log.warn("Unable to index context [" + id + "]: " + e.getMessage());
+				}
+			}
+
+			try {
+				FileUtils.touch(complete);
+			}
+			catch (IOException e) {
+				log.warn("Unable to mark fingerprint index as complete: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Iterate over all completed contexts, most recent first. The metadata is read lazily in the
+	 * order of the modification times of the metadata files. These are written only after the end
+	 * time of a context has been set, so a context can be returned as soon as its end time is
+	 * later than the modification time of all contexts which have not been read yet (plus the
+	 * {@link #setClockSkew(long) clock skew}).
+	 */
+	protected Iterator<TaskContextMetadata> iterateContexts()
+	{
+		final List<String> ids = new ArrayList<String>();
+		final Map<String, Long> stamps = new HashMap<String, Long>();
+		for (File child : storageRoot.listFiles()) {
+			String id = getCompletedContextId(child);
+			if (id != null) {
+				ids.add(id);
+				stamps.put(id, child.isFile() ? child.lastModified() : new File(child,
+				        METADATA_KEY).lastModified());
+			}
+		}
+		Collections.sort(ids, new Comparator<String>()
+		{
+			@Override
+			public int compare(String aO1, String aO2)
+			{
+				return Long.signum(stamps.get(aO2) - stamps.get(aO1));
+			}
+		});
+
+		return new Iterator<TaskContextMetadata>()
 		{
+			private final PriorityQueue<TaskContextMetadata> loaded = new PriorityQueue<TaskContextMetadata>(
+			        11, NEWEST_FIRST);
+			private int next = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				while (next < ids.size() && (loaded.isEmpty()
+				        || loaded.peek().getEnd() < stamps.get(ids.get(next)) + clockSkew)) {
+					String id = ids.get(next++);
+					try {
+						loaded.add(retrieveBinary(id, METADATA_KEY, new TaskContextMetadata()));
+					}
+					catch (DataAccessResourceFailureException e) {
+						// Context may have been deleted in the meantime
+						if (containsContext(id)) {
+							throw e;
+						}
+					}
+				}
+				return !loaded.isEmpty();
+			}
+
+			@Override
+			public TaskContextMetadata next()
+			{
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return loaded.poll();
+			}
+
 			@Override
-			public int compare(TaskContextMetadata aO1, TaskContextMetadata aO2)
+			public void remove()
 			{
-				return Long.signum(aO2.getEnd() - aO1.getEnd());
+				throw new UnsupportedOperationException();
 			}
-		});
-
-		return contexts;
+		};
 	}
 
 	@Override
-	public List<TaskContextMetadata> getContexts(String aTaskType, Map<String, String> aConstraints)
+	public boolean containsContext(String aContextId)
 	{
-		List<TaskContextMetadata> contexts = new ArrayList<TaskContextMetadata>();
-
-		nextContext: for (TaskContextMetadata e : getContexts()) {
-			// Ignore those that do not match the type
-			if (!aTaskType.equals(e.getType())) {
-				continue;
+		if (liveKeys.containsKey(aContextId)) {
+			return true;
+		}
+		synchronized (keyFilters) {
+			if (keyFilters.get(aContextId) != null) {
+				return true;
 			}
+		}
+		return getContextFolder(aContextId, false).isDirectory()
+		        || getPackFile(aContextId).isFile();
+	}
 
-			// Check the constraints if there are any
-			if (aConstraints.size() > 0) {
-				final Map<String, String> properties = retrieveBinary(e.getId(),
-				        Task.DISCRIMINATORS_KEY, new PropertiesAdapter()).getMap();
-
-				if (!matchConstraints(properties, aConstraints, true)) {
-					continue nextContext;
-				}
+	@Override
+	public boolean containsKey(String aContextId, String aKey)
+	{
+		if (indexKeys) {
+			String key = normalizeKey(aKey);
+			Set<String> known = liveKeys.get(aContextId);
+			if (known != null && known.contains(key)) {
+				return true;
+			}
+			KeyFilter filter = getKeyFilter(aContextId);
+			if (filter != null && !filter.mightContain(key) && !isHandedOut(aContextId, key)) {
+				return false;
 			}
+		}
 
-			contexts.add(e);
+		File file = new File(getContextFolder(aContextId, false), aKey);
+		if (file.exists()) {
+			return true;
 		}
+		WriteBehindQueue queue = getWriteQueue();
+		if (queue != null && queue.isPending(file)) {
+			return true;
+		}
+		ContextPack pack = getPack(aContextId);
+		return pack != null && pack.containsKey(aKey);
+	}
 
-		Collections.sort(contexts, new Comparator<TaskContextMetadata>()
-		{
-			@Override
-			public int compare(TaskContextMetadata aO1, TaskContextMetadata aO2)
-			{
-				return Long.signum(aO2.getEnd() - aO1.getEnd());
+	/**
+	 * Answer reads of the metadata, properties or discriminators from the
+	 * {@link TaskContextManifest} of a context if there is one.
+	 *
+	 * @return whether the data has been passed to the consumer.
+	 */
+	private boolean readFromManifest(String aContextId, String aKey, StreamReader aConsumer)
+	{
+		Section section;
+		if (METADATA_KEY.equals(aKey) && aConsumer.getClass() == TaskContextMetadata.class) {
+			section = Section.METADATA;
+		}
+		else if (PROPERTIES_KEY.equals(aKey) && aConsumer.getClass() == PropertiesAdapter.class) {
+			section = Section.PROPERTIES;
+		}
+		else if (DISCRIMINATORS_KEY.equals(aKey)
+		        && aConsumer.getClass() == PropertiesAdapter.class) {
+			section = Section.DISCRIMINATORS;
+		}
+		else {
+			return false;
+		}
+
+		// Opening the manifest also tells whether there is one, so no separate check is needed
+		TaskContextManifest manifest = new TaskContextManifest(section);
+		long start = System.nanoTime();
+		InputStream is = null;
+		try {
+			is = openManifest(aContextId);
+			if (is == null) {
+				return false;
 			}
-		});
+			CountingInputStream counter = new CountingInputStream(is);
+			is = counter;
+			manifest.read(is);
+			record(aContextId, MANIFEST_KEY, Operation.RETRIEVE, counter.getByteCount(), start,
+			        0);
+		}
+		catch (IOException e) {
+			log.debug("Unable to read manifest of context [" + aContextId
+			        + "], falling back to [" + aKey + "]: " + e.getMessage());
+			return false;
+		}
+		finally {
+			Util.close(is);
+		}
 
-		return contexts;
+		if (section == Section.METADATA) {
+			manifest.copyTo((TaskContextMetadata) aConsumer);
+		}
+		else {
+			PropertiesAdapter adapter = (PropertiesAdapter) aConsumer;
+			if (adapter.getProperties() == null) {
+				adapter.setProperties(new Properties());
+			}
+			adapter.getProperties().putAll(section == Section.PROPERTIES
+			        ? manifest.getProperties() : manifest.getDiscriminators());
+		}
+		return true;
 	}
 
-	@Override
-	public TaskContextMetadata getLatestContext(String aTaskType, Map<String, String> aConstraints)
+	/**
+	 * Open the manifest of the given context wherever it is stored.
+	 *
+	 * @return the stream or {@code null} if the context has no manifest.
+	 */
+	private InputStream openManifest(String aContextId)
+		throws IOException
 	{
-		List<TaskContextMetadata> contexts = getContexts(aTaskType, aConstraints);
+		File file = new File(getContextFolder(aContextId, false), MANIFEST_KEY);
+		WriteBehindQueue queue = getWriteQueue();
+		byte[] pending = queue != null ? queue.get(file) : null;
+		if (pending != null) {
+			return new ByteArrayInputStream(pending);
+		}
 
-		if (contexts.size() == 0) {
-			throw ImportUtil.createContextNotFoundException(aTaskType, aConstraints);
+		try {
+			return new FileInputStream(file);
+		}
+		catch (FileNotFoundException e) {
+			ContextPack pack = getPack(aContextId);
+			return pack != null && pack.containsKey(MANIFEST_KEY) ? pack.open(MANIFEST_KEY)
+			        : null;
 		}
+	}
 
-		return contexts.get(0);
+	private static boolean isManifestKey(String aKey)
+	{
+		return METADATA_KEY.equals(aKey) || PROPERTIES_KEY.equals(aKey)
+		        || DISCRIMINATORS_KEY.equals(aKey);
 	}
 
 	@Override
-	public boolean containsContext(String aContextId)
+	public <T extends StreamReader> T retrieveBinary(String aContextId, String aKey, T aConsumer)
 	{
-		return getContextFolder(aContextId, false).isDirectory();
+		if (DISCRIMINATORS_KEY.equals(aKey) && aConsumer.getClass() == PropertiesAdapter.class) {
+			PropertiesAdapter adapter = (PropertiesAdapter) aConsumer;
+			if (adapter.getProperties() == null) {
+				adapter.setProperties(new Properties());
+			}
+			adapter.getProperties().putAll(getDiscriminators(aContextId));
+			return aConsumer;
+		}
+
+		markUsed(aContextId, aKey);
+		return load(aContextId, aKey, aConsumer);
 	}
 
-	@Override
-	public boolean containsKey(String aContextId, String aKey)
+	/**
+	 * Get the parsed discriminators of the given context. The discriminators of completed
+	 * contexts do not change anymore, so they are cached. Deep pipelines read the discriminators
+	 * of the same upstream contexts over and over again when resolving the discriminators of
+	 * each downstream task.
+	 */
+	private Map<String, String> getDiscriminators(String aContextId)
 	{
-		return new File(getContextFolder(aContextId, false), aKey).exists();
+		Map<String, String> discriminators;
+		synchronized (discriminatorCache) {
+			discriminators = discriminatorCache.get(aContextId);
+		}
+		if (discriminators != null) {
+			return discriminators;
+		}
+
+		discriminators = Collections.unmodifiableMap(load(aContextId, DISCRIMINATORS_KEY,
+		        new PropertiesAdapter()).getMap());
+		if (containsKey(aContextId, METADATA_KEY)) {
+			synchronized (discriminatorCache) {
+				discriminatorCache.put(aContextId, discriminators);
+			}
+		}
+		return discriminators;
 	}
 
-	@Override
-	public <T extends StreamReader> T retrieveBinary(String aContextId, String aKey, T aConsumer)
+	private <T extends StreamReader> T load(String aContextId, String aKey, T aConsumer)
 	{
+		if (readFromManifest(aContextId, aKey, aConsumer)) {
+			return aConsumer;
+		}
+
 		InputStream is = null;
 		int currentTry = 1;
 		IOException lastException = null;
+		long start = System.nanoTime();
+
+		WriteBehindQueue queue = getWriteQueue();
+		byte[] pending = queue != null ? queue.get(new File(getContextFolder(aContextId, false),
+		        aKey)) : null;
+		if (pending != null) {
+			try {
+				is = CompressionCodecs.decompress(aKey, new ByteArrayInputStream(pending));
+				aConsumer.read(is);
+				record(aContextId, aKey, Operation.RETRIEVE, pending.length, start, 0);
+				return aConsumer;
+			}
+			catch (Throwable e) {
+				throw new DataAccessResourceFailureException("Unable to load [" + aKey
+				        + "] from context [" + aContextId + "]", e);
+			}
+			finally {
+				Util.close(is);
+			}
+		}
 
 		while (currentTry <= MAX_RETRIES) {
+			long attemptStart = System.nanoTime();
 			try {
-				is = new FileInputStream(new File(getContextFolder(aContextId, true), aKey));
-				if (aKey.endsWith(".gz")) {
-					is = new GZIPInputStream(is);
+				// The context may be packed concurrently, so check for a pack in every try
+				ContextPack pack = getPack(aContextId);
+				if (pack != null) {
+					is = pack.open(aKey);
+				}
+				else {
+					File file = new File(getContextFolder(aContextId, false), aKey);
+					if (file.isDirectory()) {
+						// Not a transient problem, so there is no point in trying again
+						throw new DataAccessResourceFailureException("Key [" + aKey
+						        + "] in context [" + aContextId + "] is a folder");
+					}
+					is = new FileInputStream(file);
 				}
+				CountingInputStream counter = new CountingInputStream(is);
+				is = CompressionCodecs.decompress(aKey, counter);
 				aConsumer.read(is);
+				record(aContextId, aKey, Operation.RETRIEVE, counter.getByteCount(), start,
+				        attemptStart - start);
 				return aConsumer;
 			}
 			catch (IOException e) {
@@ -226,6 +1248,7 @@ public class FileSystemStorageService
 			}
 		}
 
+		record(aContextId, aKey, Operation.RETRIEVE, 0, start, System.nanoTime() - start);
 		throw new DataAccessResourceFailureException("Unable to access [" + aKey + "] in context ["
 		        + aContextId + "]", lastException);
 	}
@@ -233,21 +1256,76 @@ public class FileSystemStorageService
 	@Override
 	public void storeBinary(String aContextId, String aKey, StreamWriter aProducer)
 	{
+		if (getPack(aContextId) != null) {
+			throw new DataAccessResourceFailureException("Context [" + aContextId
+			        + "] is packed and cannot be modified");
+		}
+
+		// The manifest summarizes these keys, so it must not outlive a change to them
+		if (isManifestKey(aKey) && containsKey(aContextId, MANIFEST_KEY)) {
+			delete(aContextId, MANIFEST_KEY);
+		}
+
+		if (DISCRIMINATORS_KEY.equals(aKey)) {
+			synchronized (discriminatorCache) {
+				discriminatorCache.remove(aContextId);
+			}
+		}
+
 		File context = getContextFolder(aContextId, false);
-		File tmpFile = new File(context, aKey + ".tmp");
 		File finalFile = new File(context, aKey);
+		// Concurrent writers of the same key must not truncate each other's data
+		File tmpFile = new File(finalFile.getPath() + "." + UUID.randomUUID() + ".tmp");
+
+		if (METADATA_KEY.equals(aKey) && statistics != null) {
+			storeSummary(aContextId, context);
+		}
 
+		if (METADATA_KEY.equals(aKey)) {
+			// The completion marker must only be written once all data of the context is
+			// durable
+			flush(context);
+		}
+
+		if (deduplicate && METADATA_KEY.equals(aKey)) {
+			// The context is about to be marked as complete, so nothing should change anymore
+			// and everything can be moved to the blob store.
+			try {
+				long saved = getBlobStore().absorbAll(context, METADATA_KEY);
+				log.debug("Deduplicated [" + saved + "] bytes in context [" + aContextId + "]");
+			}
+			catch (IOException e) {
+				log.warn("Unable to deduplicate context [" + aContextId + "]", e);
+			}
+		}
+
+		WriteBehindQueue queue = METADATA_KEY.equals(aKey) ? null : getWriteQueue();
+		DeferredFileOutputStream buffer = null;
 		OutputStream os = null;
+		MessageDigest digest = null;
+		CountingOutputStream counter = null;
+		long start = System.nanoTime();
 		try {
 			tmpFile.getParentFile().mkdirs(); // Necessary if the key addresses a sub-directory
 			log.debug("Storing to: " + finalFile);
-			os = new FileOutputStream(tmpFile);
-			if (aKey.endsWith(".gz")) {
-				os = new GZIPOutputStream(os);
+			if (queue != null) {
+				// Data is only written to the temporary file if it exceeds the threshold
+				buffer = new DeferredFileOutputStream(writeBehindThreshold, tmpFile);
+				os = buffer;
 			}
+			else {
+				os = new FileOutputStream(tmpFile);
+			}
+			if (deduplicate) {
+				digest = BlobStore.createDigest();
+				os = new DigestOutputStream(os, digest);
+			}
+			counter = new CountingOutputStream(os);
+			os = CompressionCodecs.compress(aKey, counter);
 			aProducer.write(os);
 		}
 		catch (Exception e) {
+			Util.close(os);
 			tmpFile.delete();
 			throw new DataAccessResourceFailureException(e.getMessage(), e);
 		}
@@ -255,22 +1333,319 @@ public class FileSystemStorageService
 			Util.close(os);
 		}
 
-		// On some platforms, it is not possible to rename a file to another one which already
-		// exists. So try to delete the target file before renaming.
-		if (finalFile.exists()) {
-			boolean deleteSuccess = finalFile.delete();
-			if (!deleteSuccess) {
-				throw new DataAccessResourceFailureException("Unable to delete [" + finalFile
-				        + "] in order to replace it with an updated version.");
+		String hash = digest != null ? BlobStore.toHex(digest.digest()) : null;
+		if (buffer != null && buffer.isInMemory()) {
+			queue.submit(finalFile, buffer.getData(), hash);
+		}
+		else {
+			// A write to the same file still pending in the background must not overwrite this
+			// one
+			flush(finalFile);
+			commit(tmpFile, finalFile, hash);
+		}
+		record(aContextId, aKey, Operation.STORE, counter.getByteCount(), start, 0);
+
+		if (METADATA_KEY.equals(aKey)) {
+			storeKeyList(aContextId, context);
+			indexFingerprint(aContextId, aProducer instanceof TaskContextMetadata
+			        ? (TaskContextMetadata) aProducer : getContext(aContextId));
+		}
+		else {
+			rememberKey(aContextId, aKey, false);
+		}
+	}
+
+	/**
+	 * List all keys of the given completed context in {@link #KEYS_KEY}.
+	 */
+	private void storeKeyList(String aContextId, File aContext)
+	{
+		if (!indexKeys) {
+			return;
+		}
+
+		List<String> keys = new ArrayList<String>();
+		listKeys(aContext, "", keys);
+		keys.add(KEYS_KEY);
+		// Keys which may be written after completion without invalidating the list
+		keys.add(MANIFEST_KEY);
+		keys.add(IntermediateDataTracker.CLEANED_KEY);
+		try {
+			File tmpFile = new File(aContext, KEYS_KEY + ".tmp");
+			FileUtils.writeLines(tmpFile, "UTF-8", keys);
+			commit(tmpFile, new File(aContext, KEYS_KEY), null);
+		}
+		catch (IOException e) {
+			log.warn("Unable to store keys of context [" + aContextId + "]", e);
+			return;
+		}
+
+		KeyFilter filter = createKeyFilter(keys);
+		synchronized (keyFilters) {
+			keyFilters.put(aContextId, filter);
+		}
+		liveKeys.remove(aContextId);
+	}
+
+	private void listKeys(File aFolder, String aPrefix, List<String> aKeys)
+	{
+		File[] children = aFolder.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				aKeys.add(aPrefix + child.getName() + "/");
+				listKeys(child, aPrefix + child.getName() + "/", aKeys);
+			}
+			else if (!KEYS_KEY.equals(aPrefix + child.getName())) {
+				aKeys.add(aPrefix + child.getName());
+			}
+		}
+	}
+
+	private static KeyFilter createKeyFilter(List<String> aKeys)
+	{
+		// Leave some room, small filters have a high rate of false positives
+		KeyFilter filter = new KeyFilter(aKeys.size() + 16);
+		for (String key : aKeys) {
+			addToFilter(filter, key);
+		}
+		return filter;
+	}
+
+	private static void addToFilter(KeyFilter aFilter, String aKey)
+	{
+		if (aKey.endsWith("/")) {
+			// Folders can be checked for existence or for being a folder
+			aFilter.add(aKey.substring(0, aKey.length() - 1));
+		}
+		aFilter.add(aKey);
+	}
+
+	/**
+	 * Get the Bloom filter over the keys of the given context.
+	 *
+	 * @return the filter or {@code null} if the context does not have a {@link #KEYS_KEY} list.
+	 */
+	private KeyFilter getKeyFilter(String aContextId)
+	{
+		synchronized (keyFilters) {
+			if (keyFilters.containsKey(aContextId)) {
+				return keyFilters.get(aContextId);
+			}
+		}
+
+		KeyFilter filter = null;
+		InputStream is = null;
+		try {
+			File file = new File(getContextFolder(aContextId, false), KEYS_KEY);
+			if (file.isFile()) {
+				is = new FileInputStream(file);
+			}
+			else {
+				ContextPack pack = getPack(aContextId);
+				if (pack != null && pack.containsKey(KEYS_KEY)) {
+					is = pack.open(KEYS_KEY);
+				}
+			}
+			if (is != null) {
+				filter = createKeyFilter(IOUtils.readLines(is, "UTF-8"));
+			}
+		}
+		catch (IOException e) {
+			log.debug("Unable to read keys of context [" + aContextId + "]: " + e.getMessage());
+		}
+		finally {
+			Util.close(is);
+		}
+
+		synchronized (keyFilters) {
+			keyFilters.put(aContextId, filter);
+		}
+		return filter;
+	}
+
+	/**
+	 * Record that the given key and the folders containing it exist in the given context.
+	 */
+	private void rememberKey(String aContextId, String aKey, boolean aFolder)
+	{
+		if (!indexKeys) {
+			return;
+		}
+
+		List<String> keys = new ArrayList<String>();
+		String key = normalizeKey(aKey);
+		keys.add(aFolder ? key + "/" : key);
+		for (int sep = key.lastIndexOf('/'); sep > 0; sep = key.lastIndexOf('/', sep - 1)) {
+			keys.add(key.substring(0, sep + 1));
+		}
+
+		KeyFilter filter = getKeyFilter(aContextId);
+		if (filter != null) {
+			// The context has already been completed. Its key list is not changed anymore, but
+			// an incomplete list would hide keys, so rather have no list at all.
+			boolean listed = true;
+			for (String k : keys) {
+				listed &= filter.mightContain(k);
+			}
+			if (listed) {
+				return;
+			}
+			log.debug("Key [" + aKey + "] added to completed context [" + aContextId
+			        + "], dropping its key list");
+			new File(getContextFolder(aContextId, false), KEYS_KEY).delete();
+			synchronized (keyFilters) {
+				keyFilters.put(aContextId, null);
+			}
+		}
+
+		Set<String> known = liveKeys.get(aContextId);
+		if (known == null) {
+			Set<String> created = Collections
+			        .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			known = liveKeys.putIfAbsent(aContextId, created);
+			if (known == null) {
+				known = created;
+			}
+		}
+		for (String k : keys) {
+			known.add(k.endsWith("/") ? k.substring(0, k.length() - 1) : k);
+		}
+	}
+
+	/**
+	 * Forget the given key and all keys below it. Bloom filters cannot forget keys, but checks
+	 * passing a filter are confirmed on the file system anyway.
+	 */
+	private void forgetKey(String aContextId, String aKey)
+	{
+		Set<String> known = liveKeys.get(aContextId);
+		if (known == null) {
+			return;
+		}
+		String key = normalizeKey(aKey);
+		Iterator<String> i = known.iterator();
+		while (i.hasNext()) {
+			String k = i.next();
+			if (k.equals(key) || k.startsWith(key + "/")) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Record that the given key of a completed context has been handed out as a file or folder,
+	 * so files may be created at or below it.
+	 */
+	private void handOut(String aContextId, String aKey)
+	{
+		if (!indexKeys || getKeyFilter(aContextId) == null) {
+			return;
+		}
+
+		Set<String> keys = handedOut.get(aContextId);
+		if (keys == null) {
+			Set<String> created = Collections
+			        .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			keys = handedOut.putIfAbsent(aContextId, created);
+			if (keys == null) {
+				keys = created;
+			}
+		}
+		keys.add(normalizeKey(aKey));
+	}
+
+	private boolean isHandedOut(String aContextId, String aKey)
+	{
+		Set<String> keys = handedOut.get(aContextId);
+		if (keys == null) {
+			return false;
+		}
+		for (String k : keys) {
+			if (aKey.equals(k) || aKey.startsWith(k + "/") || k.isEmpty()) {
+				return true;
 			}
 		}
+		return false;
+	}
+
+	private static String normalizeKey(String aKey)
+	{
+		int begin = 0;
+		int end = aKey.length();
+		while (begin < end && aKey.charAt(begin) == '/') {
+			begin++;
+		}
+		while (end > begin && aKey.charAt(end - 1) == '/') {
+			end--;
+		}
+		return aKey.substring(begin, end);
+	}
+
+	/**
+	 * Write the I/O statistics of the given context into it. The summary itself is not recorded
+	 * in the statistics.
+	 */
+	private void storeSummary(String aContextId, File aContext)
+	{
+		try {
+			FileUtils.writeStringToFile(new File(aContext, SUMMARY_KEY),
+			        StorageStatistics.format(statistics.complete(aContextId)), "UTF-8");
+		}
+		catch (IOException e) {
+			log.warn("Unable to store I/O statistics of context [" + aContextId + "]", e);
+		}
+	}
 
+	/**
+	 * Replace the final file with the fully written temporary file.
+	 *
+	 * @param aHash the hash of the data if the file should be published to the blob store.
+	 */
+	void commit(File tmpFile, File finalFile, String aHash)
+	{
 		// Make sure the file is only visible under the final name after all data has been
 		// written into it.
-		boolean renameSuccess = tmpFile.renameTo(finalFile);
-		if (!renameSuccess) {
+		if (aHash != null) {
+			// The final file is linked to the blob, which requires it not to exist. A concurrent
+			// writer of the same file may remove it first.
+			if (finalFile.exists() && !finalFile.delete() && finalFile.exists()) {
+				throw new DataAccessResourceFailureException("Unable to delete [" + finalFile
+				        + "] in order to replace it with an updated version.");
+			}
+			if (publishBlob(tmpFile, finalFile, aHash)) {
+				return;
+			}
+		}
+
+		// Replacing the final file atomically means that a concurrent writer of the same file
+		// cannot make this fail and readers never see the file missing.
+		try {
+			Files.move(tmpFile.toPath(), finalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			        StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			tmpFile.delete();
 			throw new DataAccessResourceFailureException("Unable to rename [" + tmpFile + "] to ["
-			        + finalFile + "]");
+			        + finalFile + "]", e);
+		}
+	}
+
+	/**
+	 * Move the given temporary file into the blob store and link the final file to the blob.
+	 *
+	 * @return if the final file has been created. If not, the temporary file still exists.
+	 */
+	private boolean publishBlob(File aTmpFile, File aFinalFile, String aHash)
+	{
+		try {
+			return getBlobStore().store(aTmpFile, aFinalFile, aHash);
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to store [" + aFinalFile
+			        + "] in blob store", e);
 		}
 	}
 
@@ -293,17 +1668,89 @@ public class FileSystemStorageService
 		}
 	}
 
+	@Override
+	public List<MappedByteBuffer> map(String aContextId, String aKey)
+	{
+		if (CompressionCodecs.forKey(aKey) != null) {
+			throw new DataAccessResourceFailureException("Unable to map compressed key [" + aKey
+			        + "] in context [" + aContextId + "]");
+		}
+
+		markUsed(aContextId, aKey);
+		try {
+			ContextPack pack = getPack(aContextId);
+			if (pack != null) {
+				return pack.map(aKey);
+			}
+			File file = new File(getContextFolder(aContextId, false), aKey);
+			flush(file);
+			return Util.map(file);
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to map [" + aKey
+			        + "] in context [" + aContextId + "]", e);
+		}
+	}
+
+	/**
+	 * Reads the data of the key in the background, so it is in the page cache of the operating
+	 * system when it is read.
+	 *
+	 * @see #setPrefetchThreads(int)
+	 */
+	@Override
+	public void prefetch(String aContextId, String aKey)
+	{
+		Prefetcher p = getPrefetcher();
+		if (p == null) {
+			return;
+		}
+
+		try {
+			ContextPack pack = getPack(aContextId);
+			if (pack != null) {
+				p.prefetch(pack, aKey);
+			}
+			else {
+				p.prefetch(new File(getContextFolder(aContextId, false), aKey));
+			}
+		}
+		catch (DataAccessResourceFailureException e) {
+			// Prefetching is only a hint, the error will surface when the data is actually read
+			log.debug("Unable to prefetch [" + aKey + "] from context [" + aContextId + "]", e);
+		}
+	}
+
     @Override
     public File locateKey(String aContextId, String aKey)
     {
-        return new File(getContextFolder(aContextId, false), aKey);
+        markUsed(aContextId, aKey);
+        ContextPack pack = getPack(aContextId);
+        if (pack != null) {
+            return unpack(pack, aContextId, aKey);
+        }
+        File file = new File(getContextFolder(aContextId, false), aKey);
+        // The caller may access the file directly, so it has to exist
+        flush(file);
+        handOut(aContextId, aKey);
+        return file;
     }
 	
 	@Override
 	public File getStorageFolder(String aContextId, String aKey)
 	{
+		ContextPack pack = getPack(aContextId);
+		if (pack != null) {
+			return unpack(pack, aContextId, aKey);
+		}
 		File folder = new File(getContextFolder(aContextId, false), aKey);
-		folder.mkdirs();
+		flush(folder);
+		handOut(aContextId, aKey);
+		Set<String> known = indexKeys ? liveKeys.get(aContextId) : null;
+		if (known == null || !known.contains(normalizeKey(aKey))) {
+			folder.mkdirs();
+			rememberKey(aContextId, aKey, true);
+		}
 		return folder;
 	}
 
@@ -329,19 +1776,26 @@ public class FileSystemStorageService
 		// copy-on-write strategy as for streams.
 		if (isStorageFolder(key.contextId, key.key)
 		        && (aMode == AccessMode.READWRITE || aMode == AccessMode.ADD_ONLY)) {
+			long start = System.nanoTime();
+			markUsed(key.contextId, key.key);
 			try {
-				File source = new File(getContextFolder(key.contextId, false), key.key);
+				ContextPack pack = getPack(key.contextId);
+				File source = pack != null ? unpack(pack, key.contextId, key.key) : new File(
+				        getContextFolder(key.contextId, false), key.key);
+				flush(source);
 				File target = new File(getContextFolder(aContextId, false), aKey);
 
-				if (Util.isSymlinkSupported() && aMode == AccessMode.ADD_ONLY) {
-					log.info("Write access to imported storage folder [" + aKey
-					        + "] was requested. Linking to current context");
-					Util.copy(source, target, true);
-				}
-				else {
-					log.info("Write access to imported storage folder [" + aKey
-					        + "] was requested. Copying to current context");
-					Util.copy(source, target, false);
+				// In ADD_ONLY mode, existing files are never modified, so they may be shared
+				// with the source context.
+				Method method = getFolderCopier().copy(source, target,
+				        aMode == AccessMode.ADD_ONLY);
+				rememberKey(aContextId, aKey, true);
+				log.info("Write access to imported storage folder [" + aKey
+				        + "] was requested. Copied to current context using [" + method + "]");
+				if (statistics != null) {
+					// Linked or cloned files are not physically copied
+					record(aContextId, aKey, Operation.COPY, method == Method.COPY ? FileUtils
+					        .sizeOf(target) : 0, start, 0);
 				}
 			}
 			catch (IOException e) {
@@ -364,6 +1818,19 @@ public class FileSystemStorageService
 
 	protected boolean isStorageFolder(String aContextId, String aKey)
 	{
+		if (indexKeys) {
+			String key = normalizeKey(aKey);
+			KeyFilter filter = getKeyFilter(aContextId);
+			if (filter != null && !filter.mightContain(key + "/")
+			        && !isHandedOut(aContextId, key)) {
+				return false;
+			}
+		}
+
+		ContextPack pack = getPack(aContextId);
+		if (pack != null) {
+			return pack.isFolder(aKey);
+		}
 		return new File(getContextFolder(aContextId, false), aKey).isDirectory();
 	}
 }
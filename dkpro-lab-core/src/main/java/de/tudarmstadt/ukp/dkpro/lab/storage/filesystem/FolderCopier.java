@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tools.ant.taskdefs.Execute;
+import org.apache.tools.ant.taskdefs.PumpStreamHandler;
+
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+
+/**
+ * Copies folder trees using the cheapest mechanism available. In order of preference:
+ * <ol>
+ * <li><b>reflink</b> - a copy-on-write clone of the tree (e.g. on btrfs, XFS, APFS). The copy
+ * shares all data blocks with the source until either of them is modified.</li>
+ * <li><b>hard links</b> - only if the caller permits it (see
+ * {@link #copy(File, File, boolean)}). Files are shared with the source. A file is only "broken"
+ * out of the link when it is replaced, e.g. through
+ * {@link FileSystemStorageService#storeBinary}, which writes to a temporary file and renames it.
+ * If hard links cannot be created, e.g. because source and target reside on different file
+ * systems, symbolic links are used where supported.</li>
+ * <li><b>parallel copy</b> - the tree is copied by a fork/join pool, each file using
+ * {@link FileChannel#transferTo} which allows the kernel to copy without going through user
+ * space.</li>
+ * </ol>
+ * Whether reflinks work is remembered per file system. A failure on one file system does not
+ * prevent reflinks from being used on another one.
+ *
+ * @since 0.12.0
+ */
+public class FolderCopier
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	public static enum Method
+	{
+		REFLINK, HARDLINK, SYMLINK, COPY
+	}
+
+	private volatile boolean reflink = true;
+	// Reflink support per file store - absent if unknown
+	private final ConcurrentMap<FileStore, Boolean> reflinkSupported =
+			new ConcurrentHashMap<FileStore, Boolean>();
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Whether to try creating copy-on-write clones using the {@code cp} command. If a file
+	 * system turns out not to support this, no further attempts are made on that file system.
+	 */
+	public void setReflink(boolean aReflink)
+	{
+		reflink = aReflink;
+	}
+
+	public boolean isReflink()
+	{
+		return reflink;
+	}
+
+	/**
+	 * The number of threads used when data needs to be physically copied.
+	 */
+	public void setThreads(int aThreads)
+	{
+		threads = Math.max(1, aThreads);
+	}
+
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	/**
+	 * Copy the given source to the target. If the target already exists, the source is merged
+	 * into it, replacing existing files.
+	 *
+	 * @param aSource the source file or folder.
+	 * @param aTarget the target.
+	 * @param aAllowHardLinks whether the target may share files with the source (using hard or
+	 *            symbolic links). This is only safe if files in the target are replaced but never
+	 *            modified in place.
+	 * @return the method which was used to copy the data. If different methods had to be used
+	 *         for different parts of the tree, the most expensive one is returned.
+	 */
+	public Method copy(File aSource, File aTarget, boolean aAllowHardLinks)
+		throws IOException
+	{
+		if (!aTarget.exists()) {
+			return copyNew(aSource, aTarget, aAllowHardLinks);
+		}
+
+		if (aSource.isDirectory() && aTarget.isDirectory()) {
+			Method method = null;
+			for (File child : aSource.listFiles()) {
+				Method m = copy(child, new File(aTarget, child.getName()), aAllowHardLinks);
+				if (method == null || m.ordinal() > method.ordinal()) {
+					method = m;
+				}
+			}
+			return method != null ? method : Method.COPY;
+		}
+
+		FileUtils.forceDelete(aTarget);
+		return copyNew(aSource, aTarget, aAllowHardLinks);
+	}
+
+	private Method copyNew(File aSource, File aTarget, boolean aAllowHardLinks)
+		throws IOException
+	{
+		if (reflink && reflink(aSource, aTarget)) {
+			return Method.REFLINK;
+		}
+
+		if (aAllowHardLinks) {
+			if (link(aSource, aTarget)) {
+				return Method.HARDLINK;
+			}
+			if (Util.isSymlinkSupported()) {
+				Util.copy(aSource, aTarget, true);
+				return Method.SYMLINK;
+			}
+		}
+
+		parallelCopy(aSource, aTarget);
+		return Method.COPY;
+	}
+
+	private boolean reflink(File aSource, File aTarget)
+		throws IOException
+	{
+		aTarget.getAbsoluteFile().getParentFile().mkdirs();
+		FileStore store = Files.getFileStore(aTarget.getAbsoluteFile().getParentFile().toPath());
+		Boolean supported = reflinkSupported.get(store);
+		if (Boolean.FALSE.equals(supported)) {
+			return false;
+		}
+
+		String[] cmdline;
+		if (Util.isUnix()) {
+			cmdline = new String[] { "cp", "-R", "--reflink=always", aSource.getAbsolutePath(),
+					aTarget.getAbsolutePath() };
+		}
+		else if (Util.isMac()) {
+			cmdline = new String[] { "cp", "-R", "-c", aSource.getAbsolutePath(),
+					aTarget.getAbsolutePath() };
+		}
+		else {
+			reflinkSupported.put(store, false);
+			return false;
+		}
+
+		// Failure is an expected outcome here, so we do not want to see the output
+		Execute exe = new Execute(new PumpStreamHandler(new NullOutputStream(),
+				new NullOutputStream()));
+		exe.setVMLauncher(false);
+		exe.setCommandline(cmdline);
+		try {
+			exe.execute();
+		}
+		catch (IOException e) {
+			log.debug("Unable to execute cp: " + e.getMessage());
+		}
+
+		if (exe.isFailure() || exe.getExitValue() != 0 || !aTarget.exists()) {
+			// Once reflinks have worked on a file system, a failure is specific to this copy,
+			// e.g. because the source resides on a different file system.
+			if (supported == null) {
+				log.debug("Reflinks not supported on [" + store + "]");
+				reflinkSupported.putIfAbsent(store, false);
+			}
+			if (aTarget.exists()) {
+				FileUtils.forceDelete(aTarget);
+			}
+			return false;
+		}
+
+		reflinkSupported.put(store, true);
+		// cp carries over the permissions of the source, but the clone must be writable, even if
+		// the source is e.g. a read-only blob.
+		makeWritable(aTarget);
+		return true;
+	}
+
+	private void makeWritable(File aFile)
+	{
+		if (aFile.isDirectory()) {
+			for (File child : aFile.listFiles()) {
+				makeWritable(child);
+			}
+		}
+		else if (!aFile.canWrite()) {
+			aFile.setWritable(true);
+		}
+	}
+
+	private boolean link(File aSource, File aTarget)
+		throws IOException
+	{
+		try {
+			linkRecursive(aSource, aTarget);
+			return true;
+		}
+		catch (IOException e) {
+			log.debug("Unable to hard-link [" + aSource + "]: " + e.getMessage());
+		}
+		catch (UnsupportedOperationException e) {
+			log.debug("Unable to hard-link [" + aSource + "]: " + e.getMessage());
+		}
+
+		if (aTarget.exists()) {
+			FileUtils.forceDelete(aTarget);
+		}
+		return false;
+	}
+
+	private void linkRecursive(File aSource, File aTarget)
+		throws IOException
+	{
+		if (aSource.isDirectory()) {
+			aTarget.mkdirs();
+			for (File child : aSource.listFiles()) {
+				linkRecursive(child, new File(aTarget, child.getName()));
+			}
+		}
+		else {
+			Files.createLink(aTarget.toPath(), aSource.toPath());
+		}
+	}
+
+	private void parallelCopy(File aSource, File aTarget)
+		throws IOException
+	{
+		if (!aSource.isDirectory()) {
+			copyFile(aSource, aTarget);
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new CopyAction(aSource, aTarget));
+		}
+		catch (CopyException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Copy a single file using {@link FileChannel#transferTo}.
+	 */
+	public static void copyFile(File aSource, File aTarget)
+		throws IOException
+	{
+		FileInputStream is = null;
+		FileOutputStream os = null;
+		try {
+			is = new FileInputStream(aSource);
+			os = new FileOutputStream(aTarget);
+			FileChannel in = is.getChannel();
+			FileChannel out = os.getChannel();
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+		finally {
+			Util.close(is);
+			Util.close(os);
+		}
+		aTarget.setLastModified(aSource.lastModified());
+	}
+
+	private static class CopyAction
+		extends RecursiveAction
+	{
+		private static final long serialVersionUID = 4541431052328632946L;
+
+		private final File source;
+		private final File target;
+
+		public CopyAction(File aSource, File aTarget)
+		{
+			source = aSource;
+			target = aTarget;
+		}
+
+		@Override
+		protected void compute()
+		{
+			try {
+				if (source.isDirectory()) {
+					target.mkdirs();
+					List<CopyAction> children = new ArrayList<CopyAction>();
+					for (File child : source.listFiles()) {
+						children.add(new CopyAction(child, new File(target, child.getName())));
+					}
+					invokeAll(children);
+				}
+				else {
+					copyFile(source, target);
+				}
+			}
+			catch (IOException e) {
+				throw new CopyException(e);
+			}
+		}
+	}
+
+	private static class CopyException
+		extends RuntimeException
+	{
+		private static final long serialVersionUID = -2581306427938524011L;
+
+		public CopyException(IOException aCause)
+		{
+			super(aCause);
+		}
+	}
+}
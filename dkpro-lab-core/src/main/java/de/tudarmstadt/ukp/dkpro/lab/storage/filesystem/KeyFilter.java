@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import java.util.BitSet;
+
+/**
+ * Bloom filter over the keys of a context. It answers whether a key might exist without accessing
+ * the file system. A negative answer is definite, a positive answer has to be confirmed.
+ *
+ * @since 0.12.0
+ */
+class KeyFilter
+{
+	private static final int BITS_PER_KEY = 10;
+	private static final int HASHES = 7;
+
+	private final int size;
+	// Guarded by this
+	private final BitSet bits;
+
+	/**
+	 * @param aExpectedKeys the number of keys expected to be added. Adding more keys raises the
+	 *            rate of false positives.
+	 */
+	public KeyFilter(int aExpectedKeys)
+	{
+		size = Math.max(64, aExpectedKeys * BITS_PER_KEY);
+		bits = new BitSet(size);
+	}
+
+	public synchronized void add(String aKey)
+	{
+		int h1 = aKey.hashCode();
+		int h2 = secondaryHash(aKey);
+		for (int i = 0; i < HASHES; i++) {
+			bits.set(index(h1, h2, i));
+		}
+	}
+
+	public synchronized boolean mightContain(String aKey)
+	{
+		int h1 = aKey.hashCode();
+		int h2 = secondaryHash(aKey);
+		for (int i = 0; i < HASHES; i++) {
+			if (!bits.get(index(h1, h2, i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int index(int aHash1, int aHash2, int aRound)
+	{
+		int index = (aHash1 + aRound * aHash2) % size;
+		return index < 0 ? index + size : index;
+	}
+
+	/**
+	 * FNV-1a, which is independent enough of {@link String#hashCode()} for double hashing.
+	 */
+	private static int secondaryHash(String aKey)
+	{
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < aKey.length(); i++) {
+			hash ^= aKey.charAt(i);
+			hash *= 0x01000193;
+		}
+		// An even step could cycle through only part of the bits
+		return hash | 1;
+	}
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+
+/**
+ * Reads files in the background so their data is in the page cache of the operating system when
+ * it is actually needed. The data read is discarded. Java offers no portable way of advising the
+ * operating system to read ahead, so the data is simply read once.
+ *
+ * @since 0.12.0
+ */
+class Prefetcher
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	private final int threads;
+	private final long limit;
+
+	// Guarded by this
+	private final Set<String> pending = new HashSet<String>();
+	private ExecutorService executor;
+	private boolean shutdown;
+
+	/**
+	 * @param aThreads the number of background threads.
+	 * @param aLimit the maximum number of bytes read per prefetched key.
+	 */
+	public Prefetcher(int aThreads, long aLimit)
+	{
+		threads = Math.max(1, aThreads);
+		limit = aLimit;
+	}
+
+	/**
+	 * Read the given file or all files below the given folder.
+	 */
+	public void prefetch(final File aFile)
+	{
+		ExecutorService exec = begin(aFile.getPath());
+		if (exec == null) {
+			return;
+		}
+
+		exec.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					List<File> files = new ArrayList<File>();
+					collect(aFile, files);
+					long budget = limit;
+					for (File file : files) {
+						if (budget <= 0) {
+							break;
+						}
+						budget -= drain(new FileInputStream(file), budget);
+					}
+				}
+				catch (IOException e) {
+					log.debug("Unable to prefetch [" + aFile + "]: " + e.getMessage());
+				}
+				finally {
+					end(aFile.getPath());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Read the data of the given key from a pack. If the key denotes a folder, all files below
+	 * the folder are read.
+	 */
+	public void prefetch(final ContextPack aPack, final String aKey)
+	{
+		final String id = aPack.getFile().getPath() + "!" + aKey;
+		ExecutorService exec = begin(id);
+		if (exec == null) {
+			return;
+		}
+
+		exec.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					long budget = limit;
+					for (String key : aPack.listFiles(aKey)) {
+						if (budget <= 0) {
+							break;
+						}
+						budget -= drain(aPack.open(key), budget);
+					}
+				}
+				catch (IOException e) {
+					log.debug("Unable to prefetch [" + id + "]: " + e.getMessage());
+				}
+				finally {
+					end(id);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stop the background threads. Pending reads are discarded and later requests are ignored.
+	 */
+	public synchronized void shutdown()
+	{
+		shutdown = true;
+		pending.clear();
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the executor to read the given data with or {@code null} if it is already being
+	 *         read or the prefetcher has been shut down.
+	 */
+	private synchronized ExecutorService begin(String aId)
+	{
+		if (shutdown || !pending.add(aId)) {
+			return null;
+		}
+		return getExecutor();
+	}
+
+	private synchronized void end(String aId)
+	{
+		pending.remove(aId);
+	}
+
+	private static void collect(File aFile, List<File> aFiles)
+	{
+		File[] children = aFile.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				collect(child, aFiles);
+			}
+		}
+		else if (aFile.isFile()) {
+			aFiles.add(aFile);
+		}
+	}
+
+	/**
+	 * Read and discard up to the given number of bytes from the stream and close it.
+	 *
+	 * @return the number of bytes read.
+	 */
+	private static long drain(InputStream aStream, long aLimit)
+		throws IOException
+	{
+		try {
+			byte[] buffer = new byte[65536];
+			long total = 0;
+			int read;
+			while (total < aLimit && (read = aStream.read(buffer)) != -1) {
+				total += read;
+			}
+			return total;
+		}
+		finally {
+			Util.close(aStream);
+		}
+	}
+
+	// Guarded by this
+	private ExecutorService getExecutor()
+	{
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable aRunnable)
+				{
+					Thread thread = new Thread(aRunnable, "storage-prefetch");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,432 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import static de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.CONTEXT_ID_SCHEME;
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import de.tudarmstadt.ukp.dkpro.lab.engine.TaskContext;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.DefaultTaskContextFactory;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+/**
+ * Keeps a {@link FileSystemStorageService} repository within a disk budget by deleting completed
+ * contexts which are no longer needed.
+ * <p>
+ * The collector builds the import lineage of all completed contexts from their metadata. Contexts
+ * which are still running, which are registered with the {@link #setTaskContextFactory context
+ * factory}, or which have been completed within the {@link #setMinAge minimum age} are live. Live
+ * contexts and everything they transitively import are never deleted. The imports of running
+ * contexts are only known for contexts registered with the context factory, which is why it is
+ * mandatory. Contexts running in other processes are only protected by the minimum age.
+ * <p>
+ * Other contexts are deleted least-recently-used first, where a context counts as used when it
+ * was completed, when a context importing it was completed, or when data was last read from it
+ * (see {@link FileSystemStorageService#getLastUsed(String)}). A context is only deleted once no
+ * remaining context imports it. Before any context is deleted, data extracted from the packs
+ * of contexts which are not live is removed, since it can be extracted again at any time.
+ * <p>
+ * Sizes are approximate: files shared via hard links (see
+ * {@link FileSystemStorageService#setDeduplicate(boolean)}) are accounted in equal shares to each
+ * of their links.
+ *
+ * @since 0.12.0
+ */
+public class RepositoryGarbageCollector
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	private FileSystemStorageService storageService;
+	private DefaultTaskContextFactory taskContextFactory;
+	private long budget = Long.MAX_VALUE;
+	private long minAge = TimeUnit.HOURS.toMillis(1);
+	private long interval = TimeUnit.MINUTES.toMillis(5);
+
+	private ScheduledExecutorService scheduler;
+
+	@Required
+	public void setStorageService(FileSystemStorageService aStorageService)
+	{
+		storageService = aStorageService;
+	}
+
+	public FileSystemStorageService getStorageService()
+	{
+		return storageService;
+	}
+
+	/**
+	 * Contexts registered with this factory are considered live, as is everything they import.
+	 */
+	@Required
+	public void setTaskContextFactory(DefaultTaskContextFactory aTaskContextFactory)
+	{
+		taskContextFactory = aTaskContextFactory;
+	}
+
+	public DefaultTaskContextFactory getTaskContextFactory()
+	{
+		return taskContextFactory;
+	}
+
+	/**
+	 * The maximum number of bytes the repository may occupy.
+	 */
+	public void setBudget(long aBudget)
+	{
+		budget = aBudget;
+	}
+
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Contexts completed less than this number of milliseconds ago are considered live, because
+	 * running tasks may be about to import them.
+	 */
+	public void setMinAge(long aMinAge)
+	{
+		minAge = aMinAge;
+	}
+
+	public long getMinAge()
+	{
+		return minAge;
+	}
+
+	/**
+	 * The number of milliseconds between two collections when running in the background.
+	 */
+	public void setInterval(long aInterval)
+	{
+		interval = aInterval;
+	}
+
+	public long getInterval()
+	{
+		return interval;
+	}
+
+	/**
+	 * Start collecting periodically in the background.
+	 */
+	public synchronized void start()
+	{
+		if (scheduler != null) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable aRunnable)
+			{
+				Thread thread = new Thread(aRunnable, "repository-gc");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					collect();
+				}
+				catch (Throwable e) {
+					log.error("Repository garbage collection failed", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop collecting in the background.
+	 */
+	public synchronized void stop()
+	{
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Delete contexts until the repository fits the budget or no more contexts can be deleted.
+	 *
+	 * @return the number of bytes freed.
+	 */
+	public synchronized long collect()
+	{
+		if (taskContextFactory == null) {
+			throw new IllegalStateException("A task context factory is required to protect the "
+					+ "imports of running contexts");
+		}
+
+		File root = storageService.getStorageRoot();
+		File[] children = root.listFiles();
+		if (children == null) {
+			return 0;
+		}
+
+		long now = System.currentTimeMillis();
+		Map<String, Node> nodes = new HashMap<String, Node>();
+		Set<String> live = new HashSet<String>();
+		long total = 0;
+
+		for (File child : children) {
+			String name = child.getName();
+			if (name.startsWith(".")) {
+				// Blob store, unpacked data, etc.
+				continue;
+			}
+
+			String id;
+			if (child.isDirectory()) {
+				id = name;
+				if (!new File(child, METADATA_KEY).exists()) {
+					// Running or failed, in any case not ours to delete
+					live.add(id);
+					total += size(child);
+					continue;
+				}
+			}
+			else if (name.endsWith(ContextPack.SUFFIX)) {
+				id = name.substring(0, name.length() - ContextPack.SUFFIX.length());
+			}
+			else {
+				continue;
+			}
+
+			TaskContextMetadata metadata;
+			try {
+				metadata = storageService.getContext(id);
+			}
+			catch (RuntimeException e) {
+				log.warn("Unable to read metadata of context [" + id + "] - skipping");
+				live.add(id);
+				continue;
+			}
+
+			Node node = new Node(id, size(child), metadata);
+			node.lastUsed = Math.max(metadata.getEnd(), storageService.getLastUsed(id));
+			nodes.put(id, node);
+			total += node.size;
+			if (now - metadata.getEnd() < minAge) {
+				live.add(id);
+			}
+		}
+
+		for (TaskContext context : taskContextFactory.getRegisteredContexts()) {
+			live.add(context.getId());
+			// Running contexts have not written their metadata yet
+			for (String producer : getImportedContexts(context.getMetadata())) {
+				live.add(producer);
+			}
+		}
+
+		File blobs = storageService.getBlobStore().getRoot();
+		if (blobs.isDirectory()) {
+			total += size(blobs);
+		}
+
+		// Data extracted from packs
+		Map<String, Long> unpacked = new HashMap<String, Long>();
+		File[] unpackedFolders = new File(root, FileSystemStorageService.UNPACKED_FOLDER)
+				.listFiles();
+		if (unpackedFolders != null) {
+			for (File unpackedFolder : unpackedFolders) {
+				long size = size(unpackedFolder);
+				unpacked.put(unpackedFolder.getName(), size);
+				total += size;
+			}
+		}
+
+		if (total <= budget) {
+			log.debug("Repository size [" + total + "] is within budget [" + budget + "]");
+			return 0;
+		}
+
+		// Link the lineage graph
+		for (Node node : nodes.values()) {
+			for (String producerId : getImportedContexts(node.metadata)) {
+				Node producer = nodes.get(producerId);
+				if (producer != null) {
+					producer.consumers++;
+					node.producers.add(producer);
+					producer.lastUsed = Math.max(producer.lastUsed, node.metadata.getEnd());
+				}
+			}
+		}
+
+		// Protect everything live contexts depend on
+		LinkedList<String> queue = new LinkedList<String>(live);
+		while (!queue.isEmpty()) {
+			Node node = nodes.get(queue.removeFirst());
+			if (node != null && !node.protect) {
+				node.protect = true;
+				for (Node producer : node.producers) {
+					queue.add(producer.id);
+				}
+			}
+		}
+
+		// Drop extracted data first - it can be extracted again from the packs at any time.
+		// Data of contexts which no longer exist is always dropped.
+		long freed = 0;
+		for (Map.Entry<String, Long> e : unpacked.entrySet()) {
+			Node node = nodes.get(e.getKey());
+			boolean orphan = node == null && !live.contains(e.getKey());
+			if (!orphan && (total - freed <= budget || node == null || node.protect)) {
+				continue;
+			}
+			try {
+				storageService.deleteUnpacked(e.getKey());
+				freed += e.getValue();
+				log.info("Deleted data extracted from context [" + e.getKey() + "] ("
+						+ e.getValue() + " bytes)");
+			}
+			catch (IOException ex) {
+				log.warn("Unable to delete data extracted from context [" + e.getKey() + "]", ex);
+			}
+		}
+
+		// Evict least-recently-used contexts nothing depends on anymore
+		PriorityQueue<Node> candidates = new PriorityQueue<Node>();
+		for (Node node : nodes.values()) {
+			if (!node.protect && node.consumers == 0) {
+				candidates.add(node);
+			}
+		}
+
+		while (total - freed > budget && !candidates.isEmpty()) {
+			Node node = candidates.poll();
+			try {
+				storageService.delete(node.id);
+			}
+			catch (RuntimeException e) {
+				log.warn("Unable to delete context [" + node.id + "]", e);
+				continue;
+			}
+			log.info("Deleted context [" + node.id + "] (" + node.size + " bytes)");
+			freed += node.size;
+
+			for (Node producer : node.producers) {
+				producer.consumers--;
+				if (!producer.protect && producer.consumers == 0) {
+					candidates.add(producer);
+				}
+			}
+		}
+
+		if (storageService.isDeduplicate()) {
+			storageService.getBlobStore().purge();
+		}
+
+		log.info("Freed [" + freed + "] bytes, repository size is now approx. [" + (total - freed)
+				+ "], budget is [" + budget + "]");
+		return freed;
+	}
+
+	/**
+	 * Get the IDs of the contexts imported by the given context.
+	 */
+	private static Collection<String> getImportedContexts(TaskContextMetadata aMetadata)
+	{
+		List<String> ids = new ArrayList<String>();
+		for (String rawUri : aMetadata.getImports().values()) {
+			try {
+				URI uri = new URI(rawUri);
+				if (CONTEXT_ID_SCHEME.equals(uri.getScheme())) {
+					ids.add(uri.getAuthority());
+				}
+			}
+			catch (Exception e) {
+				// External or unresolved import - not relevant for the lineage
+			}
+		}
+		return ids;
+	}
+
+	private static long size(File aFile)
+	{
+		if (aFile.isDirectory()) {
+			long size = 0;
+			File[] children = aFile.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					size += size(child);
+				}
+			}
+			return size;
+		}
+		else {
+			int links = BlobStore.linkCount(aFile);
+			return links > 1 ? aFile.length() / links : aFile.length();
+		}
+	}
+
+	private static class Node
+		implements Comparable<Node>
+	{
+		final String id;
+		final long size;
+		final TaskContextMetadata metadata;
+		final List<Node> producers = new ArrayList<Node>();
+		long lastUsed;
+		int consumers;
+		boolean protect;
+
+		public Node(String aId, long aSize, TaskContextMetadata aMetadata)
+		{
+			id = aId;
+			size = aSize;
+			metadata = aMetadata;
+		}
+
+		@Override
+		public int compareTo(Node aOther)
+		{
+			return Long.compare(lastUsed, aOther.lastUsed);
+		}
+	}
+}
@@ -0,0 +1,518 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects I/O statistics of a {@link FileSystemStorageService}. Operations are recorded per
+ * context type, key pattern and {@link Operation}. For each such category, the number of
+ * operations, the number of bytes transferred, the total time, the time spent waiting in the
+ * retry loop of {@link FileSystemStorageService#retrieveBinary} and a histogram of the latencies
+ * are kept.
+ * <p>
+ * The context type is the task name from which the context ID was generated, i.e. the ID without
+ * the trailing UUID. In key patterns, all runs of digits are replaced by {@code #} and keys
+ * addressing a file within a folder are reduced to the top-level folder and the extensions of the
+ * file, e.g. {@code output/doc42.xmi} becomes {@code output/*.xmi}.
+ * <p>
+ * Operations are attributed to the context of the task executing on the current thread, see
+ * {@link #enterContext(String)}, e.g. reading data imported from another context counts towards
+ * the importing context. Operations outside of any task are attributed to the context they access.
+ * <p>
+ * Besides the totals over all contexts, statistics are kept separately for every context which
+ * is being written to until it is completed. When a context is completed, its statistics are
+ * written into it as {@link #SUMMARY_KEY}.
+ *
+ * @since 0.12.0
+ */
+public class StorageStatistics
+{
+	/**
+	 * Key under which the summary of the operations on a context is stored in the context upon
+	 * completion.
+	 */
+	public static final String SUMMARY_KEY = "STORAGE-STATISTICS.txt";
+
+	/**
+	 * Number of buckets of the latency histogram. Bucket {@code i > 0} counts operations which
+	 * took at least 2<sup>i-1</sup> and less than 2<sup>i</sup> microseconds. Bucket 0 counts
+	 * operations which took less than one microsecond, the last bucket all which took longer.
+	 */
+	public static final int BUCKETS = 40;
+
+	private static final int UUID_LENGTH = 36;
+
+	private static final int COMPLETED_CACHE_SIZE = 1024;
+
+	public static enum Operation
+	{
+		STORE, RETRIEVE, COPY, DELETE
+	}
+
+	// Contexts of the tasks executing on the current thread, the innermost last
+	private static final ThreadLocal<LinkedList<String>> executing =
+			new ThreadLocal<LinkedList<String>>()
+	{
+		@Override
+		protected LinkedList<String> initialValue()
+		{
+			return new LinkedList<String>();
+		}
+	};
+
+	private final ConcurrentMap<Category, Entry> totals = new ConcurrentHashMap<Category, Entry>();
+	private final ConcurrentMap<String, ConcurrentMap<Category, Entry>> open =
+			new ConcurrentHashMap<String, ConcurrentMap<Category, Entry>>();
+
+	// Guarded by itself
+	private final Map<String, Boolean> completed = new LinkedHashMap<String, Boolean>()
+	{
+		private static final long serialVersionUID = 6302170949171012486L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> aEldest)
+		{
+			return size() > COMPLETED_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Mark the given context as the context of the task executing on the current thread until
+	 * {@link #leaveContext(String)} is called. Contexts may be nested, e.g. a batch task executing
+	 * its subtasks.
+	 */
+	public static void enterContext(String aContextId)
+	{
+		executing.get().add(aContextId);
+	}
+
+	/**
+	 * Stop attributing operations on the current thread to the given context.
+	 */
+	public static void leaveContext(String aContextId)
+	{
+		LinkedList<String> contexts = executing.get();
+		contexts.removeLastOccurrence(aContextId);
+		if (contexts.isEmpty()) {
+			executing.remove();
+		}
+	}
+
+	/**
+	 * Get the context of the innermost task executing on the current thread.
+	 *
+	 * @return the context ID or {@code null} if no task is executing.
+	 */
+	public static String getExecutingContext()
+	{
+		LinkedList<String> contexts = executing.get();
+		return contexts.isEmpty() ? null : contexts.getLast();
+	}
+
+	/**
+	 * Record an operation. It is attributed to the {@link #getExecutingContext() executing
+	 * context} if there is one, otherwise to the context on which it was performed.
+	 *
+	 * @param aContextId the context on which the operation was performed.
+	 * @param aKey the key on which the operation was performed.
+	 * @param aOperation the operation.
+	 * @param aBytes the number of bytes transferred.
+	 * @param aNanos the duration of the operation in nanoseconds including retries.
+	 * @param aRetryNanos the time in nanoseconds spent on failed attempts and waiting for the
+	 *            next attempt.
+	 */
+	public void record(String aContextId, String aKey, Operation aOperation, long aBytes,
+			long aNanos, long aRetryNanos)
+	{
+		String executingId = getExecutingContext();
+		String contextId = executingId != null ? executingId : aContextId;
+		Category category = new Category(getContextType(contextId), getKeyPattern(aKey),
+				aOperation);
+		add(totals, category, aBytes, aNanos, aRetryNanos);
+
+		// Only executing contexts and operations writing to a context start tracking it.
+		// Accessing a completed context must not start tracking it again because it would never
+		// be completed a second time.
+		ConcurrentMap<Category, Entry> perContext = open.get(contextId);
+		if (perContext == null && (executingId != null || aOperation != Operation.RETRIEVE)
+				&& !isCompleted(contextId)) {
+			ConcurrentMap<Category, Entry> created = new ConcurrentHashMap<Category, Entry>();
+			perContext = open.putIfAbsent(contextId, created);
+			if (perContext == null) {
+				perContext = created;
+			}
+		}
+		if (perContext != null) {
+			add(perContext, category, aBytes, aNanos, aRetryNanos);
+		}
+	}
+
+	private static void add(ConcurrentMap<Category, Entry> aMap, Category aCategory, long aBytes,
+			long aNanos, long aRetryNanos)
+	{
+		Entry entry = aMap.get(aCategory);
+		if (entry == null) {
+			Entry created = new Entry(aCategory);
+			entry = aMap.putIfAbsent(aCategory, created);
+			if (entry == null) {
+				entry = created;
+			}
+		}
+		entry.add(aBytes, aNanos, aRetryNanos);
+	}
+
+	/**
+	 * Get a snapshot of the statistics over all contexts.
+	 */
+	public List<Entry> getEntries()
+	{
+		return snapshot(totals);
+	}
+
+	/**
+	 * Get a snapshot of the statistics of a context which has not been completed yet.
+	 *
+	 * @return the statistics or an empty list if the context is not tracked.
+	 */
+	public List<Entry> getEntries(String aContextId)
+	{
+		ConcurrentMap<Category, Entry> perContext = open.get(aContextId);
+		return perContext != null ? snapshot(perContext) : Collections.<Entry> emptyList();
+	}
+
+	/**
+	 * Get a snapshot of the statistics over all contexts matching the given criteria.
+	 *
+	 * @param aContextType the context type or {@code null} to match any type.
+	 * @param aKeyPattern the key pattern or {@code null} to match any pattern.
+	 * @param aOperation the operation or {@code null} to match any operation.
+	 */
+	public List<Entry> query(String aContextType, String aKeyPattern, Operation aOperation)
+	{
+		List<Entry> result = new ArrayList<Entry>();
+		for (Entry entry : getEntries()) {
+			if ((aContextType == null || aContextType.equals(entry.getContextType()))
+					&& (aKeyPattern == null || aKeyPattern.equals(entry.getKeyPattern()))
+					&& (aOperation == null || aOperation == entry.getOperation())) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sum up the given entries, e.g. to get the total I/O of a context type. The result has the
+	 * type, pattern and operation of the first entry.
+	 *
+	 * @return the sum or {@code null} if the list is empty.
+	 */
+	public static Entry sum(List<Entry> aEntries)
+	{
+		if (aEntries.isEmpty()) {
+			return null;
+		}
+		Entry sum = new Entry(aEntries.get(0).category);
+		for (Entry entry : aEntries) {
+			sum.add(entry);
+		}
+		return sum;
+	}
+
+	/**
+	 * Stop tracking the given context. Later operations on the context, e.g. writing its
+	 * metadata, only count towards the totals.
+	 *
+	 * @return the final statistics of the context.
+	 */
+	public List<Entry> complete(String aContextId)
+	{
+		synchronized (completed) {
+			completed.put(aContextId, Boolean.TRUE);
+		}
+		ConcurrentMap<Category, Entry> perContext = open.remove(aContextId);
+		return perContext != null ? snapshot(perContext) : Collections.<Entry> emptyList();
+	}
+
+	/**
+	 * Discard all statistics.
+	 */
+	public void reset()
+	{
+		totals.clear();
+		open.clear();
+		synchronized (completed) {
+			completed.clear();
+		}
+	}
+
+	private boolean isCompleted(String aContextId)
+	{
+		synchronized (completed) {
+			return completed.containsKey(aContextId);
+		}
+	}
+
+	private static List<Entry> snapshot(Map<Category, Entry> aMap)
+	{
+		List<Entry> result = new ArrayList<Entry>(aMap.size());
+		for (Entry entry : aMap.values()) {
+			result.add(entry.copy());
+		}
+		Collections.sort(result, new Comparator<Entry>()
+		{
+			@Override
+			public int compare(Entry aO1, Entry aO2)
+			{
+				int c = aO1.getContextType().compareTo(aO2.getContextType());
+				if (c == 0) {
+					c = aO1.getKeyPattern().compareTo(aO2.getKeyPattern());
+				}
+				if (c == 0) {
+					c = aO1.getOperation().compareTo(aO2.getOperation());
+				}
+				return c;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Render the given entries as a tab-separated table with a header line.
+	 */
+	public static String format(List<Entry> aEntries)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("# type\tkey\toperation\tcount\tbytes\ttime_ms\tretry_ms\tp50_us\tp99_us\n");
+		for (Entry entry : aEntries) {
+			sb.append(entry.getContextType()).append('\t');
+			sb.append(entry.getKeyPattern()).append('\t');
+			sb.append(entry.getOperation()).append('\t');
+			sb.append(entry.getCount()).append('\t');
+			sb.append(entry.getBytes()).append('\t');
+			sb.append(String.format(Locale.US, "%.3f",
+					entry.getTime(TimeUnit.MICROSECONDS) / 1000.0)).append('\t');
+			sb.append(String.format(Locale.US, "%.3f",
+					entry.getRetryTime(TimeUnit.MICROSECONDS) / 1000.0)).append('\t');
+			sb.append(entry.getPercentile(0.5)).append('\t');
+			sb.append(entry.getPercentile(0.99)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the type of the given context, i.e. the context ID without the trailing UUID.
+	 */
+	public static String getContextType(String aContextId)
+	{
+		int sep = aContextId.length() - UUID_LENGTH - 1;
+		if (sep > 0 && aContextId.charAt(sep) == '-'
+				&& isUuid(aContextId.substring(sep + 1))) {
+			return aContextId.substring(0, sep);
+		}
+		return aContextId;
+	}
+
+	private static boolean isUuid(String aString)
+	{
+		for (int i = 0; i < aString.length(); i++) {
+			char c = aString.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			}
+			else if (Character.digit(c, 16) == -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the pattern under which operations on the given key are recorded.
+	 */
+	public static String getKeyPattern(String aKey)
+	{
+		String key = aKey.replace('\\', '/');
+		int first = key.indexOf('/');
+		if (first != -1 && first < key.length() - 1) {
+			String name = key.substring(key.lastIndexOf('/') + 1);
+			int dot = name.indexOf('.');
+			key = key.substring(0, first) + "/*" + (dot > 0 ? name.substring(dot) : "");
+		}
+		return key.replaceAll("[0-9]+", "#");
+	}
+
+	private static final class Category
+	{
+		final String contextType;
+		final String keyPattern;
+		final Operation operation;
+
+		Category(String aContextType, String aKeyPattern, Operation aOperation)
+		{
+			contextType = aContextType;
+			keyPattern = aKeyPattern;
+			operation = aOperation;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (contextType.hashCode() * 31 + keyPattern.hashCode()) * 31
+					+ operation.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object aObj)
+		{
+			if (!(aObj instanceof Category)) {
+				return false;
+			}
+			Category other = (Category) aObj;
+			return contextType.equals(other.contextType) && keyPattern.equals(other.keyPattern)
+					&& operation == other.operation;
+		}
+	}
+
+	/**
+	 * Statistics of one category of operations. Entries returned by the query methods are
+	 * snapshots which do not change anymore.
+	 */
+	public static final class Entry
+	{
+		private final Category category;
+		private long count;
+		private long bytes;
+		private long nanos;
+		private long retryNanos;
+		private final long[] histogram = new long[BUCKETS];
+
+		private Entry(Category aCategory)
+		{
+			category = aCategory;
+		}
+
+		private synchronized void add(long aBytes, long aNanos, long aRetryNanos)
+		{
+			count++;
+			bytes += aBytes;
+			nanos += aNanos;
+			retryNanos += aRetryNanos;
+			long micros = aNanos / 1000;
+			int bucket = 64 - Long.numberOfLeadingZeros(micros);
+			histogram[Math.min(bucket, BUCKETS - 1)]++;
+		}
+
+		private synchronized void add(Entry aOther)
+		{
+			count += aOther.count;
+			bytes += aOther.bytes;
+			nanos += aOther.nanos;
+			retryNanos += aOther.retryNanos;
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram[i] += aOther.histogram[i];
+			}
+		}
+
+		private synchronized Entry copy()
+		{
+			Entry copy = new Entry(category);
+			copy.add(this);
+			return copy;
+		}
+
+		public String getContextType()
+		{
+			return category.contextType;
+		}
+
+		public String getKeyPattern()
+		{
+			return category.keyPattern;
+		}
+
+		public Operation getOperation()
+		{
+			return category.operation;
+		}
+
+		public synchronized long getCount()
+		{
+			return count;
+		}
+
+		public synchronized long getBytes()
+		{
+			return bytes;
+		}
+
+		public synchronized long getTime(TimeUnit aUnit)
+		{
+			return aUnit.convert(nanos, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Get the time spent on failed attempts and waiting before retrying.
+		 */
+		public synchronized long getRetryTime(TimeUnit aUnit)
+		{
+			return aUnit.convert(retryNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Get the latency histogram.
+		 *
+		 * @see StorageStatistics#BUCKETS
+		 */
+		public synchronized long[] getHistogram()
+		{
+			return histogram.clone();
+		}
+
+		/**
+		 * Get an upper bound in microseconds for the latency below which the given fraction of
+		 * the operations completed.
+		 *
+		 * @param aFraction a value between 0 and 1.
+		 */
+		public synchronized long getPercentile(double aFraction)
+		{
+			long threshold = (long) Math.ceil(count * aFraction);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += histogram[i];
+				if (seen >= threshold && seen > 0) {
+					return 1L << i;
+				}
+			}
+			return 1L << (BUCKETS - 1);
+		}
+	}
+}
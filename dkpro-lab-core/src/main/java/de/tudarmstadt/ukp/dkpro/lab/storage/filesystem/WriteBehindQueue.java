@@ -0,0 +1,511 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+
+/**
+ * Queue of writes which are published to the file system in the background. Data is kept in
+ * memory until it has been written. A background thread writes pending data in batches: all
+ * files of a batch are first written to temporary files, then forced to disk together, then
+ * renamed to their final names, and finally the containing folders are forced to disk once per
+ * batch, making the renames durable.
+ * <p>
+ * If a write fails, the data remains queued and visible. The failure is only reported to
+ * callers flushing the file or a folder containing it, typically the context owning the file.
+ *
+ * @since 0.12.0
+ */
+class WriteBehindQueue
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	private static final long IDLE_SECONDS = 30;
+
+	private final FileSystemStorageService storage;
+	private final int batchSize;
+
+	// Guarded by this
+	private final Map<File, PendingWrite> pending = new LinkedHashMap<File, PendingWrite>();
+	// Number of pending and failed writes below each folder containing a pending write
+	private final Map<File, Counter> folders = new HashMap<File, Counter>();
+	private long sequence = 0;
+	private boolean draining = false;
+	private ThreadPoolExecutor executor;
+
+	public WriteBehindQueue(FileSystemStorageService aStorage, int aBatchSize)
+	{
+		storage = aStorage;
+		batchSize = Math.max(1, aBatchSize);
+	}
+
+	/**
+	 * Queue the given data to be written to the given file. A write still pending for the same
+	 * file is superseded.
+	 */
+	public synchronized void submit(File aFile, byte[] aData, String aHash)
+	{
+		PendingWrite write = new PendingWrite(aData, aHash, sequence++);
+		PendingWrite superseded = remove(aFile);
+		if (superseded != null) {
+			// Whoever waits for the superseded write to become durable now has to wait for
+			// this one.
+			write.sequence = superseded.sequence;
+		}
+		add(aFile, write);
+		startDraining();
+	}
+
+	/**
+	 * Get the data pending to be written to the given file.
+	 *
+	 * @return the data or {@code null} if no write is pending for the file.
+	 */
+	public synchronized byte[] get(File aFile)
+	{
+		PendingWrite write = pending.get(aFile);
+		return write != null ? write.data : null;
+	}
+
+	/**
+	 * Check if a write is pending for the given file or for any file below the given folder.
+	 */
+	public synchronized boolean isPending(File aFile)
+	{
+		return pending.containsKey(aFile) || folders.containsKey(aFile);
+	}
+
+	/**
+	 * Block until all writes to the given file or below the given folder have been made durable.
+	 * Failed writes are retried once.
+	 *
+	 * @throws DataAccessResourceFailureException if a write to the given file or below the given
+	 *             folder has failed. The data remains queued.
+	 */
+	public synchronized void flush(File aFile)
+	{
+		boolean retried = false;
+		while (true) {
+			try {
+				while (countActive(aFile) > 0) {
+					wait();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DataAccessResourceFailureException("Interrupted while flushing writes", e);
+			}
+
+			List<File> failed = getFailed(aFile);
+			if (failed.isEmpty()) {
+				return;
+			}
+			if (retried) {
+				throw pending.get(failed.get(0)).failure;
+			}
+
+			// Give the failed writes another chance, the cause might have been transient
+			for (File file : failed) {
+				setFailure(file, pending.get(file), null);
+			}
+			startDraining();
+			retried = true;
+		}
+	}
+
+	/**
+	 * Block until all writes submitted before this call have been made durable. Writes submitted
+	 * concurrently by other threads are not waited for.
+	 *
+	 * @throws DataAccessResourceFailureException if any background write has failed.
+	 */
+	public synchronized void flush()
+	{
+		long barrier = sequence;
+		try {
+			while (isPendingBefore(barrier)) {
+				wait();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataAccessResourceFailureException("Interrupted while flushing writes", e);
+		}
+
+		for (PendingWrite write : pending.values()) {
+			if (write.failure != null && write.sequence < barrier) {
+				throw write.failure;
+			}
+		}
+	}
+
+	/**
+	 * Wait for all writes submitted before this call and stop the background thread. The thread
+	 * also stops by itself when there has been nothing to write for a while. If writes are
+	 * submitted later on, a new thread is started.
+	 *
+	 * @throws DataAccessResourceFailureException if any background write has failed. The thread
+	 *             is stopped anyway.
+	 */
+	public synchronized void shutdown()
+	{
+		try {
+			flush();
+		}
+		finally {
+			if (executor != null) {
+				executor.shutdown();
+				executor = null;
+			}
+		}
+	}
+
+	/**
+	 * Drop all writes to the given file or below the given folder, e.g. because it is about to be
+	 * deleted. Writes which are currently in progress are waited for.
+	 */
+	public synchronized void discard(File aFile)
+	{
+		try {
+			while (true) {
+				boolean inProgress = false;
+				for (File file : getPending(aFile)) {
+					if (pending.get(file).inProgress) {
+						inProgress = true;
+					}
+					else {
+						remove(file);
+					}
+				}
+				if (!inProgress) {
+					break;
+				}
+				wait();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataAccessResourceFailureException("Interrupted while discarding writes", e);
+		}
+		notifyAll();
+	}
+
+	private boolean isPendingBefore(long aBarrier)
+	{
+		for (PendingWrite write : pending.values()) {
+			if (write.failure == null && write.sequence < aBarrier) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Number of writes to the given file or below the given folder which have not failed.
+	 */
+	private int countActive(File aFile)
+	{
+		PendingWrite write = pending.get(aFile);
+		if (write != null) {
+			return write.failure == null ? 1 : 0;
+		}
+		Counter counter = folders.get(aFile);
+		return counter != null ? counter.pending - counter.failed : 0;
+	}
+
+	private List<File> getFailed(File aFile)
+	{
+		List<File> failed = new ArrayList<File>();
+		PendingWrite write = pending.get(aFile);
+		Counter counter = folders.get(aFile);
+		if ((write != null && write.failure != null) || (counter != null && counter.failed > 0)) {
+			for (File file : getPending(aFile)) {
+				if (pending.get(file).failure != null) {
+					failed.add(file);
+				}
+			}
+		}
+		return failed;
+	}
+
+	private List<File> getPending(File aFile)
+	{
+		List<File> files = new ArrayList<File>();
+		if (pending.containsKey(aFile)) {
+			files.add(aFile);
+		}
+		else if (folders.containsKey(aFile)) {
+			String prefix = aFile.getPath() + File.separator;
+			for (File file : pending.keySet()) {
+				if (file.getPath().startsWith(prefix)) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	private void add(File aFile, PendingWrite aWrite)
+	{
+		pending.put(aFile, aWrite);
+		for (File folder = aFile.getParentFile(); folder != null; folder = folder
+				.getParentFile()) {
+			Counter counter = folders.get(folder);
+			if (counter == null) {
+				counter = new Counter();
+				folders.put(folder, counter);
+			}
+			counter.pending++;
+		}
+	}
+
+	private PendingWrite remove(File aFile)
+	{
+		PendingWrite write = pending.remove(aFile);
+		if (write != null) {
+			for (File folder = aFile.getParentFile(); folder != null; folder = folder
+					.getParentFile()) {
+				Counter counter = folders.get(folder);
+				counter.pending--;
+				if (write.failure != null) {
+					counter.failed--;
+				}
+				if (counter.pending == 0) {
+					folders.remove(folder);
+				}
+			}
+		}
+		return write;
+	}
+
+	private void setFailure(File aFile, PendingWrite aWrite,
+			DataAccessResourceFailureException aFailure)
+	{
+		if ((aWrite.failure == null) == (aFailure == null)) {
+			aWrite.failure = aFailure;
+			return;
+		}
+		for (File folder = aFile.getParentFile(); folder != null; folder = folder
+				.getParentFile()) {
+			folders.get(folder).failed += aFailure != null ? 1 : -1;
+		}
+		aWrite.failure = aFailure;
+	}
+
+	private void startDraining()
+	{
+		if (!draining) {
+			draining = true;
+			getExecutor().execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					drain();
+				}
+			});
+		}
+	}
+
+	private synchronized ExecutorService getExecutor()
+	{
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable aRunnable)
+				{
+					Thread thread = new Thread(aRunnable, "storage-write-behind");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	private void drain()
+	{
+		while (true) {
+			Map<File, PendingWrite> batch = new LinkedHashMap<File, PendingWrite>();
+			synchronized (this) {
+				for (Map.Entry<File, PendingWrite> e : pending.entrySet()) {
+					if (batch.size() >= batchSize) {
+						break;
+					}
+					// Failed writes are only retried when their owner flushes them
+					if (e.getValue().failure == null) {
+						e.getValue().inProgress = true;
+						batch.put(e.getKey(), e.getValue());
+					}
+				}
+				if (batch.isEmpty()) {
+					draining = false;
+					return;
+				}
+			}
+
+			Map<File, Throwable> errors = new HashMap<File, Throwable>();
+			try {
+				write(batch);
+			}
+			catch (Throwable e) {
+				// Write the files of the batch one by one to find out which of them fail, so the
+				// failure is not reported to unrelated contexts
+				for (Map.Entry<File, PendingWrite> entry : batch.entrySet()) {
+					try {
+						write(Collections.singletonMap(entry.getKey(), entry.getValue()));
+					}
+					catch (Throwable e2) {
+						log.error("Unable to write [" + entry.getKey() + "]", e2);
+						errors.put(entry.getKey(), e2);
+					}
+				}
+			}
+
+			synchronized (this) {
+				// Data remains visible until it has been written. Writes superseding those from
+				// the batch remain pending.
+				for (Map.Entry<File, PendingWrite> e : batch.entrySet()) {
+					e.getValue().inProgress = false;
+					if (pending.get(e.getKey()) != e.getValue()) {
+						continue;
+					}
+					Throwable error = errors.get(e.getKey());
+					if (error == null) {
+						remove(e.getKey());
+					}
+					else {
+						setFailure(e.getKey(), e.getValue(),
+								new DataAccessResourceFailureException("Unable to write ["
+										+ e.getKey() + "] in the background", error));
+					}
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	private void write(Map<File, PendingWrite> aBatch)
+		throws IOException
+	{
+		List<File> tmpFiles = new ArrayList<File>();
+		List<FileOutputStream> streams = new ArrayList<FileOutputStream>();
+		try {
+			for (Map.Entry<File, PendingWrite> e : aBatch.entrySet()) {
+				// Not using the same temporary file as synchronous writes, which may happen
+				// concurrently for data exceeding the threshold
+				File tmpFile = new File(e.getKey().getPath() + ".wb.tmp");
+				tmpFile.getParentFile().mkdirs();
+				FileOutputStream os = new FileOutputStream(tmpFile);
+				streams.add(os);
+				tmpFiles.add(tmpFile);
+				os.write(e.getValue().data);
+			}
+
+			// Force all data only after all files have been written, so the device can handle
+			// the batch in one go.
+			for (FileOutputStream os : streams) {
+				os.getChannel().force(false);
+			}
+		}
+		finally {
+			for (FileOutputStream os : streams) {
+				Util.close(os);
+			}
+		}
+
+		Set<File> folders = new LinkedHashSet<File>();
+		int i = 0;
+		for (Map.Entry<File, PendingWrite> e : aBatch.entrySet()) {
+			File finalFile = e.getKey();
+			storage.commit(tmpFiles.get(i), finalFile, e.getValue().hash);
+			folders.add(finalFile.getParentFile());
+			i++;
+		}
+
+		for (File folder : folders) {
+			forceFolder(folder);
+		}
+	}
+
+	/**
+	 * Make the entries of a folder durable. This is not supported on all platforms.
+	 */
+	private void forceFolder(File aFolder)
+	{
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(aFolder.toPath(), StandardOpenOption.READ);
+			channel.force(true);
+		}
+		catch (IOException e) {
+			log.debug("Unable to force folder [" + aFolder + "]: " + e.getMessage());
+		}
+		finally {
+			Util.close(channel);
+		}
+	}
+
+	private static class PendingWrite
+	{
+		final byte[] data;
+		final String hash;
+		long sequence;
+		boolean inProgress;
+		DataAccessResourceFailureException failure;
+
+		public PendingWrite(byte[] aData, String aHash, long aSequence)
+		{
+			data = aData;
+			hash = aHash;
+			sequence = aSequence;
+		}
+	}
+
+	private static class Counter
+	{
+		int pending;
+		int failed;
+	}
+}
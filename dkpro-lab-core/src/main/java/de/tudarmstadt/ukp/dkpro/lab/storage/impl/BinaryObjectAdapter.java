@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.TaggedObjectCodec.ElementHandler;
+
+/**
+ * Adapter to persist/load an object in a compact binary format. This is a replacement for
+ * {@link SerializedObjectAdapter} which is faster, produces smaller files and tolerates changes
+ * to the persisted classes. The format is defined by an {@link ObjectCodec}, by default the
+ * shared {@link TaggedObjectCodec} instance with which custom types should be registered.
+ * <p>
+ * Large collections can be written while they are produced using {@link #stream(Iterator)} and
+ * read one element at a time using {@link #BinaryObjectAdapter(ElementHandler)}. Data written
+ * by the {@link SerializedObjectAdapter} is recognized and read using Java serialization.
+ *
+ * @param <T> the type of object.
+ * @since 0.12.0
+ */
+public class BinaryObjectAdapter<T>
+	implements StreamReader, StreamWriter
+{
+	private static final int SERIALIZATION_MAGIC = 0xACED;
+
+	private ObjectCodec codec = TaggedObjectCodec.getInstance();
+	private T object;
+	private Iterator<?> elements;
+	private ElementHandler elementHandler;
+
+	public BinaryObjectAdapter()
+	{
+		// This is generally used for reader usage.
+	}
+
+	public BinaryObjectAdapter(T aObject)
+	{
+		setObject(aObject);
+	}
+
+	/**
+	 * Create an adapter passing the elements of a stored collection to the given handler one at
+	 * a time instead of collecting them. This requires a {@link TaggedObjectCodec}.
+	 */
+	public BinaryObjectAdapter(ElementHandler aHandler)
+	{
+		elementHandler = aHandler;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void read(InputStream aInputStream)
+		throws IOException
+	{
+		InputStream is = new BufferedInputStream(aInputStream);
+		is.mark(2);
+		int magic = (is.read() << 8) | is.read();
+		is.reset();
+		if (magic == SERIALIZATION_MAGIC && !(codec instanceof JavaSerializationCodec)) {
+			// Data written by the SerializedObjectAdapter
+			Object value = new JavaSerializationCodec().read(is);
+			if (elementHandler != null) {
+				elementHandler.element(value);
+			}
+			else {
+				object = (T) value;
+			}
+		}
+		else if (elementHandler != null) {
+			if (!(codec instanceof TaggedObjectCodec)) {
+				throw new IOException("Reading elements one at a time requires a "
+						+ TaggedObjectCodec.class.getSimpleName());
+			}
+			((TaggedObjectCodec) codec).read(is, elementHandler);
+		}
+		else {
+			object = (T) codec.read(is);
+		}
+	}
+
+	@Override
+	public void write(OutputStream aStream)
+		throws Exception
+	{
+		codec.write(elements != null ? elements : object, aStream);
+	}
+
+	public void setCodec(ObjectCodec aCodec)
+	{
+		codec = aCodec;
+	}
+
+	public ObjectCodec getCodec()
+	{
+		return codec;
+	}
+
+	public void setObject(T aObject)
+	{
+		object = aObject;
+	}
+
+	public T getObject()
+	{
+		return object;
+	}
+
+	public static <V> BinaryObjectAdapter<V> wrap(V aObject)
+	{
+		return new BinaryObjectAdapter<V>(aObject);
+	}
+
+	/**
+	 * Create an adapter writing the elements of the given iterator as a collection. Elements are
+	 * written as the iterator produces them, so they do not need to be held in memory at once.
+	 * Reading the data yields a list.
+	 */
+	public static BinaryObjectAdapter<Object> stream(Iterator<?> aElements)
+	{
+		BinaryObjectAdapter<Object> adapter = new BinaryObjectAdapter<Object>();
+		adapter.elements = aElements;
+		return adapter;
+	}
+}
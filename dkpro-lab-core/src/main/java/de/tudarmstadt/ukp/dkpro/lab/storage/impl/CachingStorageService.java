@@ -0,0 +1,521 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.MappedByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+/**
+ * Storage service decorator caching small keys in memory. Keys like
+ * {@link de.tudarmstadt.ukp.dkpro.lab.task.Task#DISCRIMINATORS_KEY} are read over and over again
+ * by reports and during import resolution, so keeping their data avoids re-opening the
+ * underlying files. The cache holds the data as it is passed to readers, i.e. decompressed.
+ * <p>
+ * Entries are evicted in least-recently-used order once the cache exceeds its size. Writing or
+ * deleting a key through this service invalidates it. Once a caller obtains direct access to
+ * the files of a running context (e.g. through {@link #locateKey(String, String)}), keys of that
+ * context are no longer cached until the context has been completed.
+ *
+ * @since 0.12.0
+ */
+public class CachingStorageService
+	implements StorageService
+{
+	private static final char SEPARATOR = '\u0000';
+
+	private StorageService storageService;
+	private long cacheSize = 16 * 1024 * 1024;
+	private int threshold = 64 * 1024;
+
+	// Guarded by this
+	private final Map<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private final Map<String, Set<String>> keysByContext = new HashMap<String, Set<String>>();
+	private final Set<String> exposed = new HashSet<String>();
+	private final Set<String> completed = new HashSet<String>();
+	private long cachedBytes;
+	private long generation;
+	private long hits;
+	private long misses;
+	private final Set<String> prefetching = new HashSet<String>();
+	private ExecutorService prefetchExecutor;
+
+	@Required
+	public void setStorageService(StorageService aStorageService)
+	{
+		storageService = aStorageService;
+	}
+
+	public StorageService getStorageService()
+	{
+		return storageService;
+	}
+
+	/**
+	 * The number of bytes the cache may hold.
+	 */
+	public void setCacheSize(long aCacheSize)
+	{
+		cacheSize = aCacheSize;
+	}
+
+	public long getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	/**
+	 * The maximum size of keys which are cached.
+	 */
+	public void setThreshold(int aThreshold)
+	{
+		threshold = aThreshold;
+	}
+
+	public int getThreshold()
+	{
+		return threshold;
+	}
+
+	public synchronized long getHitCount()
+	{
+		return hits;
+	}
+
+	public synchronized long getMissCount()
+	{
+		return misses;
+	}
+
+	public synchronized long getCachedBytes()
+	{
+		return cachedBytes;
+	}
+
+	@Override
+	public <T extends StreamReader> T retrieveBinary(final String aContextId, String aKey,
+			final T aConsumer)
+	{
+		final String cacheKey = aContextId + SEPARATOR + aKey;
+		final long gen;
+		byte[] data;
+		boolean cacheable;
+		synchronized (this) {
+			data = cache.get(cacheKey);
+			if (data != null) {
+				hits++;
+			}
+			else {
+				misses++;
+			}
+			gen = generation;
+			cacheable = !exposed.contains(aContextId);
+		}
+
+		if (data != null) {
+			try {
+				aConsumer.read(new ByteArrayInputStream(data));
+			}
+			catch (IOException e) {
+				throw new DataAccessResourceFailureException("Unable to load [" + aKey
+						+ "] from context [" + aContextId + "]", e);
+			}
+			return aConsumer;
+		}
+
+		if (!cacheable) {
+			return storageService.retrieveBinary(aContextId, aKey, aConsumer);
+		}
+
+		// Capture the data while passing it on to the consumer, so it is read only once
+		storageService.retrieveBinary(aContextId, aKey, new StreamReader()
+		{
+			@Override
+			public void read(InputStream aInputStream)
+				throws IOException
+			{
+				byte[] buffer = new byte[threshold + 1];
+				int length = 0;
+				int read;
+				while (length < buffer.length
+						&& (read = aInputStream.read(buffer, length, buffer.length - length)) != -1) {
+					length += read;
+				}
+
+				if (length > threshold) {
+					aConsumer.read(new SequenceInputStream(new ByteArrayInputStream(buffer),
+							aInputStream));
+					return;
+				}
+
+				byte[] captured = new byte[length];
+				System.arraycopy(buffer, 0, captured, 0, length);
+				aConsumer.read(new ByteArrayInputStream(captured));
+				put(aContextId, cacheKey, captured, gen);
+			}
+		});
+		return aConsumer;
+	}
+
+	@Override
+	public void storeBinary(String aContextId, String aKey, InputStream aStream)
+	{
+		invalidate(aContextId, aKey);
+		try {
+			storageService.storeBinary(aContextId, aKey, aStream);
+		}
+		finally {
+			invalidate(aContextId, aKey);
+		}
+	}
+
+	@Override
+	public void storeBinary(String aContextId, String aKey, StreamWriter aStreamProducer)
+	{
+		invalidate(aContextId, aKey);
+		try {
+			storageService.storeBinary(aContextId, aKey, aStreamProducer);
+		}
+		finally {
+			invalidate(aContextId, aKey);
+		}
+
+		if (METADATA_KEY.equals(aKey)) {
+			synchronized (this) {
+				exposed.remove(aContextId);
+				completed.add(aContextId);
+			}
+		}
+	}
+
+	@Override
+	public void delete(String aContextId)
+	{
+		try {
+			storageService.delete(aContextId);
+		}
+		finally {
+			invalidate(aContextId, null);
+			synchronized (this) {
+				exposed.remove(aContextId);
+				completed.remove(aContextId);
+			}
+		}
+	}
+
+	@Override
+	public void delete(String aContextId, String aKey)
+	{
+		try {
+			storageService.delete(aContextId, aKey);
+		}
+		finally {
+			invalidate(aContextId, aKey);
+		}
+	}
+
+	@Override
+	public void copy(String aContextId, String aKey, StorageKey aResolvedKey, AccessMode aMode)
+	{
+		try {
+			storageService.copy(aContextId, aKey, aResolvedKey, aMode);
+		}
+		finally {
+			invalidate(aContextId, aKey);
+		}
+	}
+
+	@Deprecated
+	@Override
+	public File getStorageFolder(String aContextId, String aKey)
+	{
+		expose(aContextId);
+		return storageService.getStorageFolder(aContextId, aKey);
+	}
+
+	@Override
+	public File locateKey(String aContextId, String aKey)
+	{
+		expose(aContextId);
+		return storageService.locateKey(aContextId, aKey);
+	}
+
+	@Override
+	public List<MappedByteBuffer> map(String aContextId, String aKey)
+	{
+		expose(aContextId);
+		return storageService.map(aContextId, aKey);
+	}
+
+	@Override
+	public boolean containsContext(String aContextId)
+	{
+		return storageService.containsContext(aContextId);
+	}
+
+	@Override
+	public boolean containsKey(String aContextId, String aKey)
+	{
+		synchronized (this) {
+			if (cache.containsKey(aContextId + SEPARATOR + aKey)) {
+				return true;
+			}
+		}
+		return storageService.containsKey(aContextId, aKey);
+	}
+
+	@Override
+	public TaskContextMetadata getContext(String aContextId)
+	{
+		return retrieveBinary(aContextId, METADATA_KEY, new TaskContextMetadata());
+	}
+
+	@Override
+	public TaskContextMetadata getLatestContext(String aTaskType, Map<String, String> aConstraints)
+	{
+		return storageService.getLatestContext(aTaskType, aConstraints);
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContexts()
+	{
+		return storageService.getContexts();
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContexts(String aTaskType, Map<String, String> aConstraints)
+	{
+		return storageService.getContexts(aTaskType, aConstraints);
+	}
+
+	@Override
+	public Iterator<TaskContextMetadata> iterateContexts(String aTaskType,
+			Map<String, String> aConstraints, int aLimit)
+	{
+		return storageService.iterateContexts(aTaskType, aConstraints, aLimit);
+	}
+
+	/**
+	 * Loads the key into the cache in the background if it is small enough. Otherwise, the
+	 * request is passed on to the underlying storage.
+	 */
+	@Override
+	public void prefetch(final String aContextId, final String aKey)
+	{
+		final String cacheKey = aContextId + SEPARATOR + aKey;
+		synchronized (this) {
+			if (cache.containsKey(cacheKey)) {
+				return;
+			}
+			if (exposed.contains(aContextId)) {
+				storageService.prefetch(aContextId, aKey);
+				return;
+			}
+			if (!prefetching.add(cacheKey)) {
+				return;
+			}
+		}
+
+		getPrefetchExecutor().execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					if (storageService.containsKey(aContextId, aKey)) {
+						// Data up to the threshold is captured by retrieveBinary, anything
+						// beyond is of no interest here
+						retrieveBinary(aContextId, aKey, new StreamReader()
+						{
+							@Override
+							public void read(InputStream aInputStream)
+							{
+								// Nothing to do
+							}
+						});
+					}
+				}
+				catch (DataAccessResourceFailureException e) {
+					// E.g. the key is a folder
+				}
+				finally {
+					boolean cached;
+					synchronized (CachingStorageService.this) {
+						prefetching.remove(cacheKey);
+						cached = cache.containsKey(cacheKey);
+					}
+					if (!cached) {
+						storageService.prefetch(aContextId, aKey);
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContextsByFingerprint(String aTaskType,
+			String aFingerprint)
+	{
+		return storageService.getContextsByFingerprint(aTaskType, aFingerprint);
+	}
+
+	@Override
+	public void flush()
+	{
+		storageService.flush();
+	}
+
+	@Override
+	public void flush(String aContextId)
+	{
+		storageService.flush(aContextId);
+	}
+
+	/**
+	 * Drop all cached data.
+	 */
+	public synchronized void clear()
+	{
+		cache.clear();
+		keysByContext.clear();
+		cachedBytes = 0;
+		generation++;
+	}
+
+	private synchronized void put(String aContextId, String aCacheKey, byte[] aData,
+			long aGeneration)
+	{
+		// Data loaded concurrently with an invalidation may be stale
+		if (aGeneration != generation || aData.length > cacheSize) {
+			return;
+		}
+
+		byte[] old = cache.put(aCacheKey, aData);
+		if (old != null) {
+			cachedBytes -= old.length;
+		}
+		cachedBytes += aData.length;
+		Set<String> keys = keysByContext.get(aContextId);
+		if (keys == null) {
+			keys = new HashSet<String>();
+			keysByContext.put(aContextId, keys);
+		}
+		keys.add(aCacheKey);
+
+		Iterator<Map.Entry<String, byte[]>> i = cache.entrySet().iterator();
+		while (cachedBytes > cacheSize && i.hasNext()) {
+			Map.Entry<String, byte[]> e = i.next();
+			cachedBytes -= e.getValue().length;
+			i.remove();
+			String contextId = e.getKey().substring(0, e.getKey().indexOf(SEPARATOR));
+			Set<String> contextKeys = keysByContext.get(contextId);
+			contextKeys.remove(e.getKey());
+			if (contextKeys.isEmpty()) {
+				keysByContext.remove(contextId);
+			}
+		}
+	}
+
+	private synchronized ExecutorService getPrefetchExecutor()
+	{
+		if (prefetchExecutor == null) {
+			prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable aRunnable)
+				{
+					Thread thread = new Thread(aRunnable, "storage-cache-prefetch");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return prefetchExecutor;
+	}
+
+	private void expose(String aContextId)
+	{
+		synchronized (this) {
+			if (exposed.contains(aContextId) || completed.contains(aContextId)) {
+				return;
+			}
+		}
+
+		// Files of completed contexts are not modified anymore
+		boolean complete = storageService.containsKey(aContextId, METADATA_KEY);
+		synchronized (this) {
+			if (complete) {
+				completed.add(aContextId);
+			}
+			else {
+				exposed.add(aContextId);
+				invalidate(aContextId, null);
+			}
+		}
+	}
+
+	/**
+	 * Invalidate the given key and all keys below it. If no key is given, all keys of the
+	 * context are invalidated.
+	 */
+	private synchronized void invalidate(String aContextId, String aKey)
+	{
+		generation++;
+		Set<String> keys = keysByContext.get(aContextId);
+		if (keys == null) {
+			return;
+		}
+
+		String prefix = aContextId + SEPARATOR + (aKey != null ? aKey : "");
+		Iterator<String> i = keys.iterator();
+		while (i.hasNext()) {
+			String k = i.next();
+			if (k.startsWith(prefix) && (aKey == null || k.length() == prefix.length()
+					|| k.charAt(prefix.length()) == '/')) {
+				cachedBytes -= cache.remove(k).length;
+				i.remove();
+			}
+		}
+		if (keys.isEmpty()) {
+			keysByContext.remove(aContextId);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.CompressionCodec;
+
+/**
+ * Registry of the {@link CompressionCodec}s used by the storage services. A codec is selected
+ * by the suffix of the storage key. By default, the following codecs are available:
+ * <ul>
+ * <li>{@code .gz} - gzip (always available)</li>
+ * <li>{@code .zst} - Zstandard (requires <a href="https://github.com/luben/zstd-jni">zstd-jni</a>
+ * on the classpath)</li>
+ * <li>{@code .lz4} - LZ4 frame format (requires
+ * <a href="https://github.com/lz4/lz4-java">lz4-java</a> on the classpath)</li>
+ * </ul>
+ * If the library for a codec is missing, keys with its suffix are still treated as compressed,
+ * but reading or writing them fails. Otherwise, the same key would be stored raw on one machine
+ * and compressed on another. Suffixes are matched case-sensitively.
+ * To compress large outputs using multiple threads, register a {@link GzipCodec} with more than
+ * one thread, e.g. {@code CompressionCodecs.register(".gz", new GzipCodec(4))}.
+ *
+ * @since 0.12.0
+ */
+public class CompressionCodecs
+{
+	private static final Map<String, CompressionCodec> codecs = new ConcurrentHashMap<String, CompressionCodec>();
+
+	static {
+		register(".gz", new GzipCodec());
+		registerIfAvailable(".zst", "com.github.luben.zstd.ZstdOutputStream",
+				"com.github.luben.zstd.ZstdInputStream");
+		registerIfAvailable(".lz4", "net.jpountz.lz4.LZ4FrameOutputStream",
+				"net.jpountz.lz4.LZ4FrameInputStream");
+	}
+
+	/**
+	 * Register a codec for all keys ending in the given suffix. An existing registration for the
+	 * suffix is replaced.
+	 */
+	public static void register(String aSuffix, CompressionCodec aCodec)
+	{
+		codecs.put(aSuffix, aCodec);
+	}
+
+	public static void unregister(String aSuffix)
+	{
+		codecs.remove(aSuffix);
+	}
+
+	/**
+	 * Get the codec responsible for the given key.
+	 *
+	 * @return the codec with the longest matching suffix or {@code null} if the data for the key
+	 *         is stored uncompressed.
+	 */
+	public static CompressionCodec forKey(String aKey)
+	{
+		CompressionCodec codec = null;
+		int matchLength = 0;
+		for (Entry<String, CompressionCodec> e : codecs.entrySet()) {
+			if (e.getKey().length() > matchLength && aKey.endsWith(e.getKey())) {
+				codec = e.getValue();
+				matchLength = e.getKey().length();
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * Wrap the given stream in the codec responsible for the given key, if any.
+	 */
+	public static OutputStream compress(String aKey, OutputStream aStream)
+		throws IOException
+	{
+		CompressionCodec codec = forKey(aKey);
+		return codec != null ? codec.compress(aStream) : aStream;
+	}
+
+	/**
+	 * Wrap the given stream in the codec responsible for the given key, if any.
+	 */
+	public static InputStream decompress(String aKey, InputStream aStream)
+		throws IOException
+	{
+		CompressionCodec codec = forKey(aKey);
+		return codec != null ? codec.decompress(aStream) : aStream;
+	}
+
+	private static void registerIfAvailable(String aSuffix, String aOutputStreamClass,
+			String aInputStreamClass)
+	{
+		try {
+			ClassLoader cl = CompressionCodecs.class.getClassLoader();
+			register(aSuffix, new StreamClassCodec(
+					Class.forName(aOutputStreamClass, true, cl).getConstructor(OutputStream.class),
+					Class.forName(aInputStreamClass, true, cl).getConstructor(InputStream.class)));
+		}
+		catch (ClassNotFoundException e) {
+			register(aSuffix, new UnavailableCodec(aSuffix, e));
+		}
+		catch (NoSuchMethodException e) {
+			// Incompatible version of the codec library
+			register(aSuffix, new UnavailableCodec(aSuffix, e));
+		}
+		catch (LinkageError e) {
+			// E.g. native library not available
+			register(aSuffix, new UnavailableCodec(aSuffix, e));
+		}
+	}
+
+	/**
+	 * Placeholder for a codec whose library is not available.
+	 */
+	private static class UnavailableCodec
+		implements CompressionCodec
+	{
+		private final String suffix;
+		private final Throwable cause;
+
+		public UnavailableCodec(String aSuffix, Throwable aCause)
+		{
+			suffix = aSuffix;
+			cause = aCause;
+		}
+
+		@Override
+		public OutputStream compress(OutputStream aStream)
+			throws IOException
+		{
+			throw unavailable();
+		}
+
+		@Override
+		public InputStream decompress(InputStream aStream)
+			throws IOException
+		{
+			throw unavailable();
+		}
+
+		private IOException unavailable()
+		{
+			return new IOException("No codec available for keys ending in [" + suffix
+					+ "]. Please add the codec library to the classpath.", cause);
+		}
+	}
+
+	/**
+	 * Codec using stream classes which wrap the underlying stream through their constructors.
+	 */
+	private static class StreamClassCodec
+		implements CompressionCodec
+	{
+		private final Constructor<?> outputStreamConstructor;
+		private final Constructor<?> inputStreamConstructor;
+
+		public StreamClassCodec(Constructor<?> aOutputStreamConstructor,
+				Constructor<?> aInputStreamConstructor)
+		{
+			outputStreamConstructor = aOutputStreamConstructor;
+			inputStreamConstructor = aInputStreamConstructor;
+		}
+
+		@Override
+		public OutputStream compress(OutputStream aStream)
+			throws IOException
+		{
+			return (OutputStream) create(outputStreamConstructor, aStream);
+		}
+
+		@Override
+		public InputStream decompress(InputStream aStream)
+			throws IOException
+		{
+			return (InputStream) create(inputStreamConstructor, aStream);
+		}
+
+		private Object create(Constructor<?> aConstructor, Object aStream)
+			throws IOException
+		{
+			try {
+				return aConstructor.newInstance(aStream);
+			}
+			catch (InvocationTargetException e) {
+				if (e.getTargetException() instanceof IOException) {
+					throw (IOException) e.getTargetException();
+				}
+				throw new IOException(e.getTargetException());
+			}
+			catch (InstantiationException e) {
+				throw new IOException(e);
+			}
+			catch (IllegalAccessException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+}
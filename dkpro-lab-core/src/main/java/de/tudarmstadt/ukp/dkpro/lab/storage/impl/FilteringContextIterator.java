@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.ConstraintMatcher;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.ImportUtil;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
+import de.tudarmstadt.ukp.dkpro.lab.task.Task;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+/**
+ * Lazily filters contexts by type and discriminator constraints. The discriminators of a context
+ * are only read when the iteration reaches it and the type matches.
+ *
+ * @since 0.12.0
+ */
+public class FilteringContextIterator
+	implements Iterator<TaskContextMetadata>
+{
+	private final StorageService storage;
+	private final Iterator<TaskContextMetadata> contexts;
+	private final String type;
+	private final ConstraintMatcher constraints;
+	private final int limit;
+
+	private TaskContextMetadata next;
+	private int returned;
+
+	/**
+	 * @param aStorage the storage to read the discriminators from.
+	 * @param aContexts the contexts to filter.
+	 * @param aTaskType the task type or {@code null} to accept all types.
+	 * @param aConstraints the constraints or {@code null}.
+	 * @param aLimit the maximum number of contexts to return or {@code 0} for no limit.
+	 */
+	public FilteringContextIterator(StorageService aStorage,
+			Iterator<TaskContextMetadata> aContexts, String aTaskType,
+			Map<String, String> aConstraints, int aLimit)
+	{
+		storage = aStorage;
+		contexts = aContexts;
+		type = aTaskType;
+		constraints = aConstraints != null && aConstraints.size() > 0 ? ImportUtil
+				.compileConstraints(aConstraints) : null;
+		limit = aLimit;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (limit > 0 && returned >= limit) {
+			return false;
+		}
+
+		while (next == null && contexts.hasNext()) {
+			TaskContextMetadata candidate = contexts.next();
+			if (accept(candidate)) {
+				next = candidate;
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public TaskContextMetadata next()
+	{
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		TaskContextMetadata result = next;
+		next = null;
+		returned++;
+		return result;
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	private boolean accept(TaskContextMetadata aContext)
+	{
+		if (type != null && !type.equals(aContext.getType())) {
+			return false;
+		}
+
+		if (constraints != null) {
+			Map<String, String> properties = storage.retrieveBinary(aContext.getId(),
+					Task.DISCRIMINATORS_KEY, new PropertiesAdapter()).getMap();
+			return constraints.matches(properties, true);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Collect the remaining contexts of the given iterator which have the given type and the
+	 * given or no fingerprint into a list.
+	 *
+	 * @see StorageService#getContextsByFingerprint(String, String)
+	 */
+	public static List<TaskContextMetadata> withFingerprint(
+			Iterator<TaskContextMetadata> aIterator, String aTaskType, String aFingerprint)
+	{
+		List<TaskContextMetadata> result = new ArrayList<TaskContextMetadata>();
+		while (aIterator.hasNext()) {
+			TaskContextMetadata context = aIterator.next();
+			if (aTaskType.equals(context.getType())
+					&& (context.getFingerprint() == null
+							|| aFingerprint.equals(context.getFingerprint()))) {
+				result.add(context);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Collect the remaining contexts of the given iterator into a list.
+	 */
+	public static List<TaskContextMetadata> toList(Iterator<TaskContextMetadata> aIterator)
+	{
+		List<TaskContextMetadata> result = new ArrayList<TaskContextMetadata>();
+		while (aIterator.hasNext()) {
+			result.add(aIterator.next());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.CompressionCodec;
+
+/**
+ * gzip codec. If configured with more than one thread, data is compressed in independent blocks
+ * in parallel (see {@link ParallelGzipOutputStream}). The result is still a valid gzip file.
+ *
+ * @since 0.12.0
+ */
+public class GzipCodec
+	implements CompressionCodec
+{
+	private static final int BUFFER_SIZE = 65536;
+
+	private final int threads;
+
+	public GzipCodec()
+	{
+		this(1);
+	}
+
+	/**
+	 * @param aThreads number of threads used for compression.
+	 */
+	public GzipCodec(int aThreads)
+	{
+		threads = aThreads;
+	}
+
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	@Override
+	public OutputStream compress(OutputStream aStream)
+		throws IOException
+	{
+		if (threads > 1) {
+			return new ParallelGzipOutputStream(aStream, threads);
+		}
+		return new GZIPOutputStream(aStream, BUFFER_SIZE);
+	}
+
+	@Override
+	public InputStream decompress(InputStream aStream)
+		throws IOException
+	{
+		return new GZIPInputStream(aStream, BUFFER_SIZE);
+	}
+}
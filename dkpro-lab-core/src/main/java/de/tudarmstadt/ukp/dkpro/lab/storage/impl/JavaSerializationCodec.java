@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec using Java serialization. This produces the same format as
+ * {@link SerializedObjectAdapter}.
+ *
+ * @since 0.12.0
+ */
+public class JavaSerializationCodec
+	implements ObjectCodec
+{
+	@Override
+	public void write(Object aObject, OutputStream aStream)
+		throws IOException
+	{
+		ObjectOutputStream os = new ObjectOutputStream(aStream);
+		os.writeObject(aObject);
+		os.flush();
+	}
+
+	@Override
+	public Object read(InputStream aStream)
+		throws IOException
+	{
+		try {
+			return new ObjectInputStream(aStream).readObject();
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encoding of object graphs to streams, as used by {@link BinaryObjectAdapter}.
+ *
+ * @since 0.12.0
+ */
+public interface ObjectCodec
+{
+	/**
+	 * Write the given object to the stream. The stream must not be closed.
+	 */
+	void write(Object aObject, OutputStream aStream)
+		throws IOException;
+
+	/**
+	 * Read an object from the stream.
+	 */
+	Object read(InputStream aStream)
+		throws IOException;
+}
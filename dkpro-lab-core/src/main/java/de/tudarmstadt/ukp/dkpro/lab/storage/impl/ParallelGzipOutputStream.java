@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses data into gzip format using multiple threads. The data is split into blocks which
+ * are compressed independently and written as consecutive gzip members. Any gzip decoder
+ * supporting multi-member files, including {@link GZIPInputStream}, can read the result.
+ * <p>
+ * The compression ratio is slightly lower than with a single stream since the blocks do not share
+ * a dictionary. At most twice as many blocks as threads are kept in memory at any time.
+ * <p>
+ * Unless an executor is passed explicitly, all streams share a single pool of daemon threads,
+ * one per available processor.
+ *
+ * @since 0.12.0
+ */
+public class ParallelGzipOutputStream
+	extends OutputStream
+{
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	private static ExecutorService sharedExecutor; // Guarded by ParallelGzipOutputStream.class
+
+	private final OutputStream out;
+	private final ExecutorService executor;
+	private final int maxPending;
+	private final Deque<Future<byte[]>> pending;
+
+	private byte[] block;
+	private int fill;
+	private boolean blockWritten;
+	private boolean closed;
+
+	/**
+	 * @param aStream the stream to write the compressed data to.
+	 * @param aThreads the number of blocks to compress in parallel using the shared pool.
+	 */
+	public ParallelGzipOutputStream(OutputStream aStream, int aThreads)
+	{
+		this(aStream, getSharedExecutor(), aThreads);
+	}
+
+	/**
+	 * @param aStream the stream to write the compressed data to.
+	 * @param aExecutor the executor compressing the blocks. It is not shut down by the stream.
+	 * @param aThreads the number of blocks to compress in parallel.
+	 */
+	public ParallelGzipOutputStream(OutputStream aStream, ExecutorService aExecutor, int aThreads)
+	{
+		out = aStream;
+		maxPending = aThreads * 2;
+		pending = new ArrayDeque<Future<byte[]>>();
+		executor = aExecutor;
+		block = new byte[BLOCK_SIZE];
+	}
+
+	private static synchronized ExecutorService getSharedExecutor()
+	{
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime()
+					.availableProcessors(), new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable aRunnable)
+				{
+					// Do not keep the JVM alive because of idle compressor threads
+					Thread thread = new Thread(aRunnable, "gzip-compressor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sharedExecutor;
+	}
+
+	@Override
+	public void write(int aByte)
+		throws IOException
+	{
+		ensureOpen();
+		block[fill++] = (byte) aByte;
+		if (fill == block.length) {
+			submitBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] aBuffer, int aOffset, int aLength)
+		throws IOException
+	{
+		ensureOpen();
+		int offset = aOffset;
+		int remaining = aLength;
+		while (remaining > 0) {
+			int n = Math.min(remaining, block.length - fill);
+			System.arraycopy(aBuffer, offset, block, fill, n);
+			fill += n;
+			offset += n;
+			remaining -= n;
+			if (fill == block.length) {
+				submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Compresses all buffered data and writes it to the underlying stream. This ends the current
+	 * gzip member, so it should not be called too frequently.
+	 */
+	@Override
+	public void flush()
+		throws IOException
+	{
+		ensureOpen();
+		if (fill > 0) {
+			submitBlock();
+		}
+		drain(0);
+		out.flush();
+	}
+
+	@Override
+	public void close()
+		throws IOException
+	{
+		if (closed) {
+			return;
+		}
+
+		try {
+			// An empty stream still needs to be a valid gzip file
+			if (fill > 0 || !blockWritten) {
+				submitBlock();
+			}
+			drain(0);
+		}
+		finally {
+			closed = true;
+			// Do not waste the shared threads on blocks which are never going to be written
+			for (Future<byte[]> f : pending) {
+				f.cancel(true);
+			}
+			pending.clear();
+			out.close();
+		}
+	}
+
+	private void submitBlock()
+		throws IOException
+	{
+		final byte[] data = block;
+		final int length = fill;
+		block = new byte[BLOCK_SIZE];
+		fill = 0;
+		blockWritten = true;
+
+		pending.add(executor.submit(new Callable<byte[]>()
+		{
+			@Override
+			public byte[] call()
+				throws Exception
+			{
+				ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 2 + 64);
+				GZIPOutputStream gzip = new GZIPOutputStream(bos, 65536);
+				gzip.write(data, 0, length);
+				gzip.close();
+				return bos.toByteArray();
+			}
+		}));
+
+		drain(maxPending);
+	}
+
+	/**
+	 * Write compressed blocks in order until at most the given number of blocks is pending.
+	 */
+	private void drain(int aMaxPending)
+		throws IOException
+	{
+		while (pending.size() > aMaxPending) {
+			try {
+				out.write(pending.poll().get());
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	private void ensureOpen()
+		throws IOException
+	{
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+}
@@ -32,6 +32,7 @@ import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
  * persisted classes.
  * 
  * @param <T> the type of object.
+ * @see BinaryObjectAdapter
  */
 public class SerializedObjectAdapter<T>
 	implements StreamReader, StreamWriter
@@ -0,0 +1,1053 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Compact binary codec which tolerates changes to the persisted classes.
+ * <p>
+ * Every value is prefixed by a tag identifying its kind, so values can be decoded without
+ * knowing the classes they were written from. Primitives, strings, arrays, lists, sets and maps
+ * are supported out of the box. Arrays keep their component type and collections and maps keep
+ * their concrete class if it can be instantiated when reading, otherwise they are read as an
+ * {@link ArrayList}, {@link LinkedHashSet} or {@link LinkedHashMap}. Sorted collections and maps
+ * with a comparator are written using Java serialization, since the comparator cannot be
+ * restored otherwise. Other classes must be registered:
+ * <ul>
+ * <li>{@link #register(Class, String)} stores the non-static, non-transient fields of an object
+ * by name. When reading, fields which no longer exist are skipped and fields which did not exist
+ * keep the value assigned by the no-argument constructor. Values are converted to the type of the
+ * field where possible, e.g. a list to an array or an {@code int} to a {@code long}. Objects of
+ * a type which is no longer registered are read as a map of their fields.</li>
+ * <li>{@link #register(Class, String, TypeHandler)} uses a custom encoding.</li>
+ * </ul>
+ * Types are identified by the name they are registered under, so a class can be renamed or moved
+ * as long as it is registered under its old name. Other {@link Serializable} objects fall back to
+ * Java serialization unless this is {@link #setJavaSerializationFallback disabled}.
+ * <p>
+ * An {@link Iterator} or an {@link Iterable} which is not a {@link Collection} is written as an
+ * open-ended sequence, so large collections can be written while they are produced without
+ * holding all of them in memory. Likewise, {@link #read(InputStream, ElementHandler)} passes the
+ * elements of a top-level collection on one at a time.
+ * <p>
+ * The format does not preserve object identity: an object referenced twice is written twice and
+ * cyclic graphs cannot be written.
+ *
+ * @since 0.12.0
+ */
+public class TaggedObjectCodec
+	implements ObjectCodec
+{
+	private static final Log LOG = LogFactory.getLog(TaggedObjectCodec.class);
+
+	private static final int MAGIC = 0x444b4c42;
+	private static final int VERSION = 2;
+
+	private static final int NULL = 0;
+	private static final int TRUE = 1;
+	private static final int FALSE = 2;
+	private static final int BYTE = 3;
+	private static final int SHORT = 4;
+	private static final int CHAR = 5;
+	private static final int INT = 6;
+	private static final int LONG = 7;
+	private static final int FLOAT = 8;
+	private static final int DOUBLE = 9;
+	private static final int STRING = 10;
+	private static final int BYTES = 11;
+	private static final int INTS = 12;
+	private static final int LONGS = 13;
+	private static final int DOUBLES = 14;
+	private static final int LIST = 15;
+	private static final int SET = 16;
+	private static final int MAP = 17;
+	private static final int SEQUENCE = 18;
+	private static final int END = 19;
+	private static final int ENUM = 20;
+	private static final int OBJECT = 21;
+	private static final int CUSTOM = 22;
+	private static final int SERIALIZED = 23;
+	// Since version 2
+	private static final int ARRAY = 24;
+	private static final int TYPED_LIST = 25;
+	private static final int TYPED_SET = 26;
+	private static final int TYPED_MAP = 27;
+
+	private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+	static {
+		for (Class<?> c : new Class<?>[] { boolean.class, byte.class, short.class, char.class,
+				int.class, long.class, float.class, double.class }) {
+			PRIMITIVES.put(c.getName(), c);
+		}
+	}
+
+	private static final TaggedObjectCodec INSTANCE = new TaggedObjectCodec();
+
+	private final Map<Class<?>, Registration> byType = new ConcurrentHashMap<Class<?>, Registration>();
+	private final Map<String, Registration> byName = new ConcurrentHashMap<String, Registration>();
+	private boolean javaSerializationFallback = true;
+
+	/**
+	 * Custom encoding for a registered type.
+	 */
+	public static interface TypeHandler<T>
+	{
+		void write(T aValue, Encoder aEncoder)
+			throws IOException;
+
+		T read(Decoder aDecoder)
+			throws IOException;
+	}
+
+	/**
+	 * Receives the elements of a collection while it is being read.
+	 */
+	public static interface ElementHandler
+	{
+		void element(Object aElement)
+			throws IOException;
+	}
+
+	/**
+	 * Get the shared instance used by {@link BinaryObjectAdapter} by default. Types registered
+	 * with this instance are known to all adapters using it.
+	 */
+	public static TaggedObjectCodec getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * Whether objects of unregistered {@link Serializable} types are stored using Java
+	 * serialization. If disabled, writing such objects fails.
+	 */
+	public void setJavaSerializationFallback(boolean aJavaSerializationFallback)
+	{
+		javaSerializationFallback = aJavaSerializationFallback;
+	}
+
+	public boolean isJavaSerializationFallback()
+	{
+		return javaSerializationFallback;
+	}
+
+	/**
+	 * Register a type to be stored field by field under its class name.
+	 */
+	public void register(Class<?> aType)
+	{
+		register(aType, aType.getName());
+	}
+
+	/**
+	 * Register a type to be stored field by field under the given name. The type must have a
+	 * no-argument constructor, which may be private. Enum types may also be registered, e.g. to
+	 * keep reading them under their old name after they have been renamed.
+	 */
+	public void register(Class<?> aType, String aName)
+	{
+		if (aType.isEnum()) {
+			// Enums are stored by constant name, registration only serves to set the type name
+			add(new Registration(aType, aName, null, null, null));
+			return;
+		}
+
+		Constructor<?> constructor;
+		try {
+			constructor = aType.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		}
+		catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("Type [" + aType.getName()
+					+ "] has no no-argument constructor");
+		}
+
+		Map<String, Field> fields = new LinkedHashMap<String, Field>();
+		for (Class<?> c = aType; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				int mod = f.getModifiers();
+				// Fields of subclasses hide fields of the same name in superclasses
+				if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic()
+						|| fields.containsKey(f.getName())) {
+					continue;
+				}
+				f.setAccessible(true);
+				fields.put(f.getName(), f);
+			}
+		}
+
+		add(new Registration(aType, aName, null, constructor, fields));
+	}
+
+	/**
+	 * Register a type with a custom encoding.
+	 */
+	public <T> void register(Class<T> aType, String aName, TypeHandler<T> aHandler)
+	{
+		add(new Registration(aType, aName, aHandler, null, null));
+	}
+
+	private void add(Registration aRegistration)
+	{
+		byType.put(aRegistration.type, aRegistration);
+		byName.put(aRegistration.name, aRegistration);
+	}
+
+	@Override
+	public void write(Object aObject, OutputStream aStream)
+		throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(aStream, 65536));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		new Encoder(out).writeValue(aObject);
+		out.flush();
+	}
+
+	@Override
+	public Object read(InputStream aStream)
+		throws IOException
+	{
+		return openDecoder(aStream).readValue();
+	}
+
+	/**
+	 * Read a value. If it is a collection, its elements are passed to the given handler one at a
+	 * time instead of being collected. Otherwise, the value itself is passed to the handler.
+	 */
+	public void read(InputStream aStream, ElementHandler aHandler)
+		throws IOException
+	{
+		Decoder decoder = openDecoder(aStream);
+		int tag = decoder.in.readUnsignedByte();
+		switch (tag) {
+		case ARRAY:
+		case TYPED_LIST:
+		case TYPED_SET:
+			decoder.readName();
+			// fall through
+		case LIST:
+		case SET: {
+			int size = decoder.readVarInt();
+			for (int i = 0; i < size; i++) {
+				aHandler.element(decoder.readValue());
+			}
+			break;
+		}
+		case SEQUENCE:
+			while ((tag = decoder.in.readUnsignedByte()) != END) {
+				aHandler.element(decoder.readValue(tag));
+			}
+			break;
+		default:
+			aHandler.element(decoder.readValue(tag));
+		}
+	}
+
+	private Decoder openDecoder(InputStream aStream)
+		throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(aStream, 65536));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Data has not been written by " + getClass().getSimpleName());
+		}
+		int version = in.readUnsignedByte();
+		// Version 1 only lacks some tags
+		if (version != VERSION && version != 1) {
+			throw new IOException("Unsupported format version [" + version + "]");
+		}
+		return new Decoder(in);
+	}
+
+	/**
+	 * Writes tagged values to a stream.
+	 */
+	public class Encoder
+	{
+		private final DataOutputStream out;
+		private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+		Encoder(DataOutputStream aOut)
+		{
+			out = aOut;
+		}
+
+		public DataOutputStream getStream()
+		{
+			return out;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public void writeValue(Object aValue)
+			throws IOException
+		{
+			if (aValue == null) {
+				out.writeByte(NULL);
+				return;
+			}
+
+			Class<?> type = aValue.getClass();
+			if (aValue instanceof String) {
+				out.writeByte(STRING);
+				writeString((String) aValue);
+			}
+			else if (aValue instanceof Integer) {
+				out.writeByte(INT);
+				writeVarLong(zigZag((Integer) aValue));
+			}
+			else if (aValue instanceof Long) {
+				out.writeByte(LONG);
+				writeVarLong(zigZag((Long) aValue));
+			}
+			else if (aValue instanceof Double) {
+				out.writeByte(DOUBLE);
+				out.writeDouble((Double) aValue);
+			}
+			else if (aValue instanceof Boolean) {
+				out.writeByte((Boolean) aValue ? TRUE : FALSE);
+			}
+			else if (aValue instanceof Float) {
+				out.writeByte(FLOAT);
+				out.writeFloat((Float) aValue);
+			}
+			else if (aValue instanceof Byte) {
+				out.writeByte(BYTE);
+				out.writeByte((Byte) aValue);
+			}
+			else if (aValue instanceof Short) {
+				out.writeByte(SHORT);
+				writeVarLong(zigZag((Short) aValue));
+			}
+			else if (aValue instanceof Character) {
+				out.writeByte(CHAR);
+				writeVarInt((Character) aValue);
+			}
+			else if (aValue instanceof Enum) {
+				Class<?> enumType = ((Enum<?>) aValue).getDeclaringClass();
+				Registration r = byType.get(enumType);
+				out.writeByte(ENUM);
+				writeName(r != null ? r.name : enumType.getName());
+				writeName(((Enum<?>) aValue).name());
+			}
+			else if (byType.containsKey(type)) {
+				Registration r = byType.get(type);
+				if (r.handler != null) {
+					// Length-prefixed, so the value can be skipped without knowing the handler
+					ByteArrayOutputStream buf = new ByteArrayOutputStream();
+					DataOutputStream nested = new DataOutputStream(buf);
+					((TypeHandler) r.handler).write(aValue, new Encoder(nested));
+					nested.flush();
+					out.writeByte(CUSTOM);
+					writeName(r.name);
+					writeVarInt(buf.size());
+					buf.writeTo(out);
+				}
+				else {
+					out.writeByte(OBJECT);
+					writeName(r.name);
+					writeVarInt(r.fields.size());
+					for (Field f : r.fields.values()) {
+						writeName(f.getName());
+						try {
+							writeValue(f.get(aValue));
+						}
+						catch (IllegalAccessException e) {
+							throw new IOException(e);
+						}
+					}
+				}
+			}
+			else if (aValue instanceof byte[]) {
+				byte[] array = (byte[]) aValue;
+				out.writeByte(BYTES);
+				writeVarInt(array.length);
+				out.write(array);
+			}
+			else if (aValue instanceof int[]) {
+				int[] array = (int[]) aValue;
+				out.writeByte(INTS);
+				writeVarInt(array.length);
+				for (int v : array) {
+					writeVarLong(zigZag(v));
+				}
+			}
+			else if (aValue instanceof long[]) {
+				long[] array = (long[]) aValue;
+				out.writeByte(LONGS);
+				writeVarInt(array.length);
+				for (long v : array) {
+					writeVarLong(zigZag(v));
+				}
+			}
+			else if (aValue instanceof double[]) {
+				double[] array = (double[]) aValue;
+				out.writeByte(DOUBLES);
+				writeVarInt(array.length);
+				for (double v : array) {
+					out.writeDouble(v);
+				}
+			}
+			else if (type.isArray()) {
+				int length = Array.getLength(aValue);
+				out.writeByte(ARRAY);
+				writeName(getTypeName(type.getComponentType()));
+				writeVarInt(length);
+				for (int i = 0; i < length; i++) {
+					writeValue(Array.get(aValue, i));
+				}
+			}
+			else if (hasComparator(aValue)) {
+				if (!javaSerializationFallback || !(aValue instanceof Serializable)) {
+					throw new IOException("Unable to write sorted [" + type.getName()
+							+ "] with a comparator without Java serialization");
+				}
+				writeSerialized(aValue);
+			}
+			else if (aValue instanceof Collection) {
+				Collection<?> collection = (Collection<?>) aValue;
+				// The default implementations are not named to keep the data compact
+				if (type == ArrayList.class) {
+					out.writeByte(LIST);
+				}
+				else if (type == LinkedHashSet.class) {
+					out.writeByte(SET);
+				}
+				else {
+					out.writeByte(aValue instanceof Set ? TYPED_SET : TYPED_LIST);
+					writeName(type.getName());
+				}
+				writeVarInt(collection.size());
+				int n = 0;
+				for (Object e : collection) {
+					writeValue(e);
+					n++;
+				}
+				if (n != collection.size()) {
+					throw new IOException("Collection was modified while being written");
+				}
+			}
+			else if (aValue instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) aValue;
+				if (type == LinkedHashMap.class) {
+					out.writeByte(MAP);
+				}
+				else {
+					out.writeByte(TYPED_MAP);
+					writeName(type.getName());
+				}
+				writeVarInt(map.size());
+				for (Entry<?, ?> e : map.entrySet()) {
+					writeValue(e.getKey());
+					writeValue(e.getValue());
+				}
+			}
+			else if (aValue instanceof Iterator || aValue instanceof Iterable) {
+				Iterator<?> i = aValue instanceof Iterator ? (Iterator<?>) aValue
+						: ((Iterable<?>) aValue).iterator();
+				out.writeByte(SEQUENCE);
+				while (i.hasNext()) {
+					writeValue(i.next());
+				}
+				out.writeByte(END);
+			}
+			else if (javaSerializationFallback && aValue instanceof Serializable) {
+				writeSerialized(aValue);
+			}
+			else {
+				throw new IOException("Unable to write object of unregistered type ["
+						+ type.getName() + "]");
+			}
+		}
+
+		private void writeSerialized(Object aValue)
+			throws IOException
+		{
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(buf);
+			oos.writeObject(aValue);
+			oos.close();
+			out.writeByte(SERIALIZED);
+			writeVarInt(buf.size());
+			buf.writeTo(out);
+		}
+
+		private String getTypeName(Class<?> aType)
+		{
+			Registration r = byType.get(aType);
+			return r != null ? r.name : aType.getName();
+		}
+
+		public void writeString(String aValue)
+			throws IOException
+		{
+			byte[] bytes = aValue.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length);
+			out.write(bytes);
+		}
+
+		/**
+		 * Write a name, e.g. of a type or field. Each name is written only once per stream and
+		 * referenced by its index afterwards.
+		 */
+		private void writeName(String aName)
+			throws IOException
+		{
+			Integer index = names.get(aName);
+			if (index != null) {
+				writeVarInt(index + 1);
+			}
+			else {
+				writeVarInt(0);
+				writeString(aName);
+				names.put(aName, names.size());
+			}
+		}
+
+		public void writeVarInt(int aValue)
+			throws IOException
+		{
+			writeVarLong(aValue & 0xFFFFFFFFL);
+		}
+
+		private void writeVarLong(long aValue)
+			throws IOException
+		{
+			long v = aValue;
+			while ((v & ~0x7FL) != 0) {
+				out.writeByte((int) ((v & 0x7F) | 0x80));
+				v >>>= 7;
+			}
+			out.writeByte((int) v);
+		}
+	}
+
+	/**
+	 * Reads tagged values from a stream.
+	 */
+	public class Decoder
+	{
+		private final DataInputStream in;
+		private final List<String> names = new ArrayList<String>();
+
+		Decoder(DataInputStream aIn)
+		{
+			in = aIn;
+		}
+
+		public DataInputStream getStream()
+		{
+			return in;
+		}
+
+		public Object readValue()
+			throws IOException
+		{
+			return readValue(in.readUnsignedByte());
+		}
+
+		private Object readValue(int aTag)
+			throws IOException
+		{
+			switch (aTag) {
+			case NULL:
+				return null;
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case BYTE:
+				return in.readByte();
+			case SHORT:
+				return (short) unZigZag(readVarLong());
+			case CHAR:
+				return (char) readVarInt();
+			case INT:
+				return (int) unZigZag(readVarLong());
+			case LONG:
+				return unZigZag(readVarLong());
+			case FLOAT:
+				return in.readFloat();
+			case DOUBLE:
+				return in.readDouble();
+			case STRING:
+				return readString();
+			case BYTES: {
+				byte[] array = new byte[readVarInt()];
+				in.readFully(array);
+				return array;
+			}
+			case INTS: {
+				int[] array = new int[readVarInt()];
+				for (int i = 0; i < array.length; i++) {
+					array[i] = (int) unZigZag(readVarLong());
+				}
+				return array;
+			}
+			case LONGS: {
+				long[] array = new long[readVarInt()];
+				for (int i = 0; i < array.length; i++) {
+					array[i] = unZigZag(readVarLong());
+				}
+				return array;
+			}
+			case DOUBLES: {
+				double[] array = new double[readVarInt()];
+				for (int i = 0; i < array.length; i++) {
+					array[i] = in.readDouble();
+				}
+				return array;
+			}
+			case ARRAY:
+				return readArray();
+			case LIST:
+				return readElements(new ArrayList<Object>());
+			case SET:
+				return readElements(new LinkedHashSet<Object>());
+			case TYPED_LIST:
+			case TYPED_SET: {
+				String name = readName();
+				Collection<Object> collection = newInstance(name, Collection.class);
+				if (collection == null) {
+					collection = aTag == TYPED_SET ? new LinkedHashSet<Object>()
+							: new ArrayList<Object>();
+				}
+				return readElements(collection);
+			}
+			case MAP:
+				return readEntries(new LinkedHashMap<Object, Object>());
+			case TYPED_MAP: {
+				Map<Object, Object> map = newInstance(readName(), Map.class);
+				return readEntries(map != null ? map : new LinkedHashMap<Object, Object>());
+			}
+			case SEQUENCE: {
+				List<Object> list = new ArrayList<Object>();
+				int tag;
+				while ((tag = in.readUnsignedByte()) != END) {
+					list.add(readValue(tag));
+				}
+				return list;
+			}
+			case ENUM:
+				return readEnum(readName(), readName());
+			case OBJECT:
+				return readObject();
+			case CUSTOM:
+				return readCustom();
+			case SERIALIZED: {
+				byte[] data = new byte[readVarInt()];
+				in.readFully(data);
+				try {
+					return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+				}
+				catch (ClassNotFoundException e) {
+					throw new IOException(e);
+				}
+			}
+			default:
+				throw new IOException("Unknown tag [" + aTag + "]");
+			}
+		}
+
+		private Collection<Object> readElements(Collection<Object> aCollection)
+			throws IOException
+		{
+			int size = readVarInt();
+			for (int i = 0; i < size; i++) {
+				aCollection.add(readValue());
+			}
+			return aCollection;
+		}
+
+		private Map<Object, Object> readEntries(Map<Object, Object> aMap)
+			throws IOException
+		{
+			int size = readVarInt();
+			for (int i = 0; i < size; i++) {
+				Object key = readValue();
+				aMap.put(key, readValue());
+			}
+			return aMap;
+		}
+
+		private Object readArray()
+			throws IOException
+		{
+			String name = readName();
+			Class<?> componentType = resolve(name);
+			if (componentType == null) {
+				LOG.debug("Array component type [" + name + "] is unknown, reading as Object[]");
+				componentType = Object.class;
+			}
+
+			int length = readVarInt();
+			Object array = Array.newInstance(componentType, length);
+			for (int i = 0; i < length; i++) {
+				Object value = readValue();
+				try {
+					Array.set(array, i, convert(value, componentType));
+				}
+				catch (Exception e) {
+					throw new IOException("Unable to restore element of [" + name + "] array",
+							e);
+				}
+			}
+			return array;
+		}
+
+		/**
+		 * Create an instance of the named class using its no-argument constructor.
+		 *
+		 * @return the instance or {@code null} if the class is unknown or cannot be instantiated,
+		 *         e.g. because it is an unmodifiable view.
+		 */
+		@SuppressWarnings("unchecked")
+		private <T> T newInstance(String aName, Class<?> aExpected)
+		{
+			Class<?> type = resolve(aName);
+			if (type == null || !aExpected.isAssignableFrom(type)) {
+				LOG.debug("Type [" + aName + "] is unknown, using default implementation");
+				return null;
+			}
+			try {
+				return (T) type.getDeclaredConstructor().newInstance();
+			}
+			catch (Exception e) {
+				LOG.debug("Unable to create instance of [" + aName
+						+ "], using default implementation");
+				return null;
+			}
+		}
+
+		/**
+		 * Resolve a type written by {@link Encoder#getTypeName(Class)}.
+		 *
+		 * @return the type or {@code null} if it is unknown.
+		 */
+		private Class<?> resolve(String aName)
+		{
+			Registration r = byName.get(aName);
+			if (r != null) {
+				return r.type;
+			}
+			Class<?> primitive = PRIMITIVES.get(aName);
+			if (primitive != null) {
+				return primitive;
+			}
+			try {
+				ClassLoader cl = Thread.currentThread().getContextClassLoader();
+				return Class.forName(aName, false, cl != null ? cl
+						: TaggedObjectCodec.class.getClassLoader());
+			}
+			catch (ClassNotFoundException e) {
+				return null;
+			}
+		}
+
+		private Object readObject()
+			throws IOException
+		{
+			String name = readName();
+			int count = readVarInt();
+			Registration r = byName.get(name);
+			if (r == null || r.constructor == null) {
+				LOG.debug("Type [" + name + "] is not registered, reading it as a map");
+				Map<String, Object> fields = new LinkedHashMap<String, Object>();
+				for (int i = 0; i < count; i++) {
+					String field = readName();
+					fields.put(field, readValue());
+				}
+				return fields;
+			}
+
+			Object object;
+			try {
+				object = r.constructor.newInstance();
+			}
+			catch (Exception e) {
+				throw new IOException("Unable to create instance of [" + r.type.getName() + "]",
+						e);
+			}
+			for (int i = 0; i < count; i++) {
+				String fieldName = readName();
+				Object value = readValue();
+				Field field = r.fields.get(fieldName);
+				if (field == null) {
+					LOG.debug("Skipping field [" + fieldName + "] which no longer exists in ["
+							+ r.type.getName() + "]");
+					continue;
+				}
+				set(object, field, value);
+			}
+			return object;
+		}
+
+		private Object readCustom()
+			throws IOException
+		{
+			String name = readName();
+			byte[] data = new byte[readVarInt()];
+			in.readFully(data);
+			Registration r = byName.get(name);
+			if (r == null || r.handler == null) {
+				LOG.warn("No handler registered for type [" + name + "], reading as null");
+				return null;
+			}
+			return r.handler.read(new Decoder(new DataInputStream(new ByteArrayInputStream(
+					data))));
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Object readEnum(String aType, String aConstant)
+			throws IOException
+		{
+			Registration r = byName.get(aType);
+			Class type;
+			try {
+				type = r != null ? r.type : Class.forName(aType, true, Thread.currentThread()
+						.getContextClassLoader());
+			}
+			catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			try {
+				return Enum.valueOf(type, aConstant);
+			}
+			catch (IllegalArgumentException e) {
+				LOG.warn("Constant [" + aConstant + "] no longer exists in [" + aType
+						+ "], reading as null");
+				return null;
+			}
+		}
+
+		public String readString()
+			throws IOException
+		{
+			byte[] bytes = new byte[readVarInt()];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private String readName()
+			throws IOException
+		{
+			int index = readVarInt();
+			if (index == 0) {
+				String name = readString();
+				names.add(name);
+				return name;
+			}
+			return names.get(index - 1);
+		}
+
+		public int readVarInt()
+			throws IOException
+		{
+			return (int) readVarLong();
+		}
+
+		private long readVarLong()
+			throws IOException
+		{
+			long result = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = in.readUnsignedByte();
+				result |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			}
+			while ((b & 0x80) != 0);
+			return result;
+		}
+	}
+
+	private static void set(Object aObject, Field aField, Object aValue)
+	{
+		try {
+			Object value = convert(aValue, aField.getType());
+			if (value == null && aField.getType().isPrimitive()) {
+				return;
+			}
+			aField.set(aObject, value);
+		}
+		catch (Exception e) {
+			LOG.warn("Unable to restore field [" + aField.getName() + "] of ["
+					+ aField.getDeclaringClass().getName() + "]: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Convert a value read from the stream to the type of the field it is assigned to.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Object convert(Object aValue, Class<?> aType)
+		throws Exception
+	{
+		if (aValue == null || aType.isInstance(aValue)) {
+			return aValue;
+		}
+
+		if (aValue instanceof Number) {
+			Number n = (Number) aValue;
+			if (aType == int.class || aType == Integer.class) {
+				return n.intValue();
+			}
+			if (aType == long.class || aType == Long.class) {
+				return n.longValue();
+			}
+			if (aType == double.class || aType == Double.class) {
+				return n.doubleValue();
+			}
+			if (aType == float.class || aType == Float.class) {
+				return n.floatValue();
+			}
+			if (aType == short.class || aType == Short.class) {
+				return n.shortValue();
+			}
+			if (aType == byte.class || aType == Byte.class) {
+				return n.byteValue();
+			}
+		}
+
+		// Arrays may have been turned into collections and vice versa
+		if (!aType.isArray() && aValue.getClass().isArray()) {
+			int length = Array.getLength(aValue);
+			List<Object> list = new ArrayList<Object>(length);
+			for (int i = 0; i < length; i++) {
+				list.add(Array.get(aValue, i));
+			}
+			aValue = list;
+		}
+
+		if (aType.isArray() && aValue instanceof Collection) {
+			Collection<?> c = (Collection<?>) aValue;
+			Object array = Array.newInstance(aType.getComponentType(), c.size());
+			int i = 0;
+			for (Object e : c) {
+				Array.set(array, i++, convert(e, aType.getComponentType()));
+			}
+			return array;
+		}
+
+		if (Collection.class.isAssignableFrom(aType) && aValue instanceof Collection) {
+			Collection target;
+			if (!aType.isInterface() && !Modifier.isAbstract(aType.getModifiers())) {
+				target = (Collection) aType.getDeclaredConstructor().newInstance();
+			}
+			else if (SortedSet.class.isAssignableFrom(aType)) {
+				target = new TreeSet();
+			}
+			else if (Set.class.isAssignableFrom(aType)) {
+				target = new LinkedHashSet();
+			}
+			else {
+				target = new ArrayList();
+			}
+			target.addAll((Collection) aValue);
+			return target;
+		}
+
+		if (Map.class.isAssignableFrom(aType) && aValue instanceof Map) {
+			Map target;
+			if (!aType.isInterface() && !Modifier.isAbstract(aType.getModifiers())) {
+				target = (Map) aType.getDeclaredConstructor().newInstance();
+			}
+			else if (SortedMap.class.isAssignableFrom(aType)) {
+				target = new TreeMap();
+			}
+			else {
+				target = new LinkedHashMap();
+			}
+			target.putAll((Map) aValue);
+			return target;
+		}
+
+		// Let Field.set() handle remaining cases, e.g. boxing
+		return aValue;
+	}
+
+	private static boolean hasComparator(Object aValue)
+	{
+		return (aValue instanceof SortedSet && ((SortedSet<?>) aValue).comparator() != null)
+				|| (aValue instanceof SortedMap && ((SortedMap<?, ?>) aValue).comparator() != null);
+	}
+
+	private static long zigZag(long aValue)
+	{
+		return (aValue << 1) ^ (aValue >> 63);
+	}
+
+	private static long unZigZag(long aValue)
+	{
+		return (aValue >>> 1) ^ -(aValue & 1);
+	}
+
+	private static class Registration
+	{
+		final Class<?> type;
+		final String name;
+		final TypeHandler<?> handler;
+		final Constructor<?> constructor;
+		final Map<String, Field> fields;
+
+		Registration(Class<?> aType, String aName, TypeHandler<?> aHandler,
+				Constructor<?> aConstructor, Map<String, Field> aFields)
+		{
+			type = aType;
+			name = aName;
+			handler = aHandler;
+			constructor = aConstructor;
+			fields = aFields;
+		}
+	}
+}
@@ -0,0 +1,547 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.memory;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.ImportUtil;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.CompressionCodecs;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.FilteringContextIterator;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+/**
+ * Storage service keeping data in memory, e.g. for tests or for experiments on small data where
+ * writing everything to disk is the bottleneck. Nothing is persisted beyond the lifetime of the
+ * service.
+ * <p>
+ * Once the data held in memory exceeds the {@link #setMemoryLimit memory limit}, the largest keys
+ * are spilled to a temporary folder. Keys are also written to that folder when a caller requires
+ * them as files (see {@link #locateKey(String, String)}). From then on, the file is the only copy
+ * of the data, so modifications made by the caller are visible through the service. The folder
+ * uses the same layout as the {@link de.tudarmstadt.ukp.dkpro.lab.storage.filesystem.FileSystemStorageService
+ * FileSystemStorageService}.
+ *
+ * @since 0.12.0
+ */
+public class InMemoryStorageService
+	implements StorageService
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	private long memoryLimit = 256 * 1024 * 1024;
+	private File spillFolder;
+
+	// Guarded by this
+	private final Map<String, TreeMap<String, byte[]>> contexts = new HashMap<String, TreeMap<String, byte[]>>();
+	private long memoryUsed;
+
+	/**
+	 * The number of bytes which may be held in memory. Data beyond this limit is spilled to disk.
+	 */
+	public void setMemoryLimit(long aMemoryLimit)
+	{
+		memoryLimit = aMemoryLimit;
+	}
+
+	public long getMemoryLimit()
+	{
+		return memoryLimit;
+	}
+
+	/**
+	 * The folder to which data is spilled or materialized. If not set, a temporary folder is
+	 * created when needed.
+	 */
+	public void setSpillFolder(File aSpillFolder)
+	{
+		spillFolder = aSpillFolder;
+	}
+
+	public synchronized File getSpillFolder()
+	{
+		if (spillFolder == null) {
+			try {
+				spillFolder = Files.createTempDirectory("dkpro-lab-memory").toFile();
+			}
+			catch (IOException e) {
+				throw new DataAccessResourceFailureException("Unable to create spill folder", e);
+			}
+		}
+		return spillFolder;
+	}
+
+	/**
+	 * Get the number of bytes currently held in memory.
+	 */
+	public synchronized long getMemoryUsed()
+	{
+		return memoryUsed;
+	}
+
+	/**
+	 * Drop all data, including any data spilled to disk.
+	 */
+	public synchronized void clear()
+	{
+		contexts.clear();
+		memoryUsed = 0;
+		if (spillFolder != null) {
+			FileUtils.deleteQuietly(spillFolder);
+		}
+	}
+
+	@Override
+	public synchronized boolean containsContext(String aContextId)
+	{
+		return contexts.containsKey(aContextId) || getFile(aContextId, null).exists();
+	}
+
+	@Override
+	public synchronized boolean containsKey(String aContextId, String aKey)
+	{
+		TreeMap<String, byte[]> context = contexts.get(aContextId);
+		if (context != null && (context.containsKey(aKey) || hasChildren(context, aKey))) {
+			return true;
+		}
+		return getFile(aContextId, aKey).exists();
+	}
+
+	@Override
+	public TaskContextMetadata getContext(String aContextId)
+	{
+		return retrieveBinary(aContextId, METADATA_KEY, new TaskContextMetadata());
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContexts()
+	{
+		Set<String> ids = new TreeSet<String>();
+		synchronized (this) {
+			ids.addAll(contexts.keySet());
+			if (spillFolder != null && spillFolder.isDirectory()) {
+				for (File child : spillFolder.listFiles()) {
+					ids.add(child.getName());
+				}
+			}
+		}
+
+		List<TaskContextMetadata> result = new ArrayList<TaskContextMetadata>();
+		for (String id : ids) {
+			if (containsKey(id, METADATA_KEY)) {
+				result.add(getContext(id));
+			}
+		}
+
+		Collections.sort(result, new Comparator<TaskContextMetadata>()
+		{
+			@Override
+			public int compare(TaskContextMetadata aO1, TaskContextMetadata aO2)
+			{
+				return Long.signum(aO2.getEnd() - aO1.getEnd());
+			}
+		});
+
+		return result;
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContexts(String aTaskType, Map<String, String> aConstraints)
+	{
+		return FilteringContextIterator.toList(iterateContexts(aTaskType, aConstraints, 0));
+	}
+
+	@Override
+	public TaskContextMetadata getLatestContext(String aTaskType, Map<String, String> aConstraints)
+	{
+		Iterator<TaskContextMetadata> i = iterateContexts(aTaskType, aConstraints, 1);
+		if (!i.hasNext()) {
+			throw ImportUtil.createContextNotFoundException(aTaskType, aConstraints);
+		}
+		return i.next();
+	}
+
+	@Override
+	public Iterator<TaskContextMetadata> iterateContexts(String aTaskType,
+			Map<String, String> aConstraints, int aLimit)
+	{
+		return new FilteringContextIterator(this, getContexts().iterator(), aTaskType,
+				aConstraints, aLimit);
+	}
+
+	@Override
+	public synchronized void delete(String aContextId)
+	{
+		TreeMap<String, byte[]> context = contexts.remove(aContextId);
+		if (context != null) {
+			for (byte[] data : context.values()) {
+				memoryUsed -= data.length;
+			}
+		}
+		FileUtils.deleteQuietly(getFile(aContextId, null));
+	}
+
+	@Override
+	public synchronized void delete(String aContextId, String aKey)
+	{
+		TreeMap<String, byte[]> context = contexts.get(aContextId);
+		if (context != null) {
+			remove(context, aKey);
+			Iterator<Entry<String, byte[]>> i = children(context, aKey).entrySet().iterator();
+			while (i.hasNext()) {
+				memoryUsed -= i.next().getValue().length;
+				i.remove();
+			}
+		}
+		FileUtils.deleteQuietly(getFile(aContextId, aKey));
+	}
+
+	@Override
+	public void copy(String aContextId, String aKey, StorageKey aResolvedKey, AccessMode aMode)
+	{
+		if (aMode != AccessMode.READWRITE && aMode != AccessMode.ADD_ONLY) {
+			return;
+		}
+
+		// As in the file system storage, only folders need to be copied. Streams are copied on
+		// write anyway.
+		synchronized (this) {
+			TreeMap<String, byte[]> source = contexts.get(aResolvedKey.contextId);
+			if (source != null) {
+				String sourcePrefix = aResolvedKey.key + "/";
+				TreeMap<String, byte[]> target = getOrCreateContext(aContextId);
+				// Data is never modified in place, so the copy can share the arrays
+				for (Entry<String, byte[]> e : children(source, aResolvedKey.key).entrySet()) {
+					String key = aKey + "/" + e.getKey().substring(sourcePrefix.length());
+					remove(target, key);
+					target.put(key, e.getValue());
+					memoryUsed += e.getValue().length;
+				}
+			}
+
+			try {
+				File sourceFolder = getFile(aResolvedKey.contextId, aResolvedKey.key);
+				if (sourceFolder.isDirectory()) {
+					FileUtils.copyDirectory(sourceFolder, getFile(aContextId, aKey));
+				}
+				spill();
+			}
+			catch (IOException e) {
+				throw new DataAccessResourceFailureException("Unable to copy ["
+						+ aResolvedKey.key + "] from context [" + aResolvedKey.contextId + "]", e);
+			}
+		}
+	}
+
+	@Deprecated
+	@Override
+	public File getStorageFolder(String aContextId, String aKey)
+	{
+		File folder = locateKey(aContextId, aKey);
+		folder.mkdirs();
+		return folder;
+	}
+
+	/**
+	 * Writes the key and everything below it to disk, unless this has already happened. The
+	 * data is then no longer held in memory.
+	 */
+	@Override
+	public synchronized File locateKey(String aContextId, String aKey)
+	{
+		TreeMap<String, byte[]> context = contexts.get(aContextId);
+		if (context != null) {
+			try {
+				if (context.containsKey(aKey)) {
+					write(aContextId, aKey, context);
+				}
+				for (String key : new ArrayList<String>(children(context, aKey).keySet())) {
+					write(aContextId, key, context);
+				}
+			}
+			catch (IOException e) {
+				throw new DataAccessResourceFailureException("Unable to write [" + aKey
+						+ "] in context [" + aContextId + "] to disk", e);
+			}
+		}
+		return getFile(aContextId, aKey);
+	}
+
+	@Override
+	public List<MappedByteBuffer> map(String aContextId, String aKey)
+	{
+		if (CompressionCodecs.forKey(aKey) != null) {
+			throw new DataAccessResourceFailureException("Unable to map compressed key [" + aKey
+					+ "] in context [" + aContextId + "]");
+		}
+
+		try {
+			return Util.map(locateKey(aContextId, aKey));
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to map [" + aKey
+					+ "] in context [" + aContextId + "]", e);
+		}
+	}
+
+	@Override
+	public <T extends StreamReader> T retrieveBinary(String aContextId, String aKey, T aConsumer)
+	{
+		InputStream is = null;
+		try {
+			synchronized (this) {
+				TreeMap<String, byte[]> context = contexts.get(aContextId);
+				byte[] data = context != null ? context.get(aKey) : null;
+				if (data != null) {
+					is = new ByteArrayInputStream(data);
+				}
+				else {
+					File file = getFile(aContextId, aKey);
+					if (!file.isFile()) {
+						throw new DataAccessResourceFailureException("No resource bound to key ["
+								+ aKey + "] in context [" + aContextId + "]");
+					}
+					is = new FileInputStream(file);
+				}
+			}
+			is = CompressionCodecs.decompress(aKey, is);
+			aConsumer.read(is);
+			return aConsumer;
+		}
+		catch (DataAccessResourceFailureException e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new DataAccessResourceFailureException("Unable to load [" + aKey
+					+ "] from context [" + aContextId + "]", e);
+		}
+		finally {
+			Util.close(is);
+		}
+	}
+
+	@Override
+	public void storeBinary(String aContextId, String aKey, final InputStream aStream)
+	{
+		try {
+			storeBinary(aContextId, aKey, new StreamWriter()
+			{
+				@Override
+				public void write(OutputStream aOs)
+					throws Exception
+				{
+					Util.shoveAndClose(aStream, aOs);
+				}
+			});
+		}
+		finally {
+			Util.close(aStream);
+		}
+	}
+
+	@Override
+	public void storeBinary(String aContextId, String aKey, StreamWriter aProducer)
+	{
+		DeferredFileOutputStream buffer = null;
+		OutputStream os = null;
+		try {
+			// Data exceeding the memory limit by itself goes directly to disk
+			File tmpFile = new File(getSpillFolder(), ".store-" + Thread.currentThread().getId()
+					+ "-" + System.nanoTime());
+			buffer = new DeferredFileOutputStream((int) java.lang.Math.min(memoryLimit,
+					Integer.MAX_VALUE - 8), tmpFile);
+			os = CompressionCodecs.compress(aKey, buffer);
+			aProducer.write(os);
+			os.close();
+
+			synchronized (this) {
+				File file = getFile(aContextId, aKey);
+				TreeMap<String, byte[]> context = getOrCreateContext(aContextId);
+				remove(context, aKey);
+				if (buffer.isInMemory()) {
+					FileUtils.deleteQuietly(file);
+					context.put(aKey, buffer.getData());
+					memoryUsed += buffer.getData().length;
+					spill();
+				}
+				else {
+					file.getParentFile().mkdirs();
+					Files.move(tmpFile.toPath(), file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		}
+		catch (Exception e) {
+			throw new DataAccessResourceFailureException("Unable to store [" + aKey
+					+ "] in context [" + aContextId + "]", e);
+		}
+		finally {
+			Util.close(os);
+			if (buffer != null && buffer.getFile() != null) {
+				buffer.getFile().delete();
+			}
+		}
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContextsByFingerprint(String aTaskType,
+			String aFingerprint)
+	{
+		return FilteringContextIterator.withFingerprint(getContexts().iterator(), aTaskType,
+				aFingerprint);
+	}
+
+	@Override
+	public void prefetch(String aContextId, String aKey)
+	{
+		// Data is held in memory anyway
+	}
+
+	@Override
+	public void flush()
+	{
+		// Nothing to do
+	}
+
+	@Override
+	public void flush(String aContextId)
+	{
+		// Nothing to do
+	}
+
+	/**
+	 * Spill the largest keys to disk until the memory limit is no longer exceeded.
+	 */
+	private void spill()
+		throws IOException
+	{
+		if (memoryUsed <= memoryLimit) {
+			return;
+		}
+
+		List<String[]> candidates = new ArrayList<String[]>();
+		for (Entry<String, TreeMap<String, byte[]>> c : contexts.entrySet()) {
+			for (String key : c.getValue().keySet()) {
+				candidates.add(new String[] { c.getKey(), key });
+			}
+		}
+		Collections.sort(candidates, new Comparator<String[]>()
+		{
+			@Override
+			public int compare(String[] aO1, String[] aO2)
+			{
+				long size1 = contexts.get(aO1[0]).get(aO1[1]).length;
+				long size2 = contexts.get(aO2[0]).get(aO2[1]).length;
+				return Long.signum(size2 - size1);
+			}
+		});
+
+		for (String[] candidate : candidates) {
+			if (memoryUsed <= memoryLimit) {
+				break;
+			}
+			log.debug("Spilling [" + candidate[1] + "] of context [" + candidate[0]
+					+ "] to disk");
+			write(candidate[0], candidate[1], contexts.get(candidate[0]));
+		}
+	}
+
+	/**
+	 * Move the given key from memory to disk.
+	 */
+	private void write(String aContextId, String aKey, Map<String, byte[]> aContext)
+		throws IOException
+	{
+		byte[] data = aContext.get(aKey);
+		File file = getFile(aContextId, aKey);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		FileUtils.writeByteArrayToFile(tmpFile, data);
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		remove(aContext, aKey);
+	}
+
+	private void remove(Map<String, byte[]> aContext, String aKey)
+	{
+		byte[] data = aContext.remove(aKey);
+		if (data != null) {
+			memoryUsed -= data.length;
+		}
+	}
+
+	private TreeMap<String, byte[]> getOrCreateContext(String aContextId)
+	{
+		TreeMap<String, byte[]> context = contexts.get(aContextId);
+		if (context == null) {
+			context = new TreeMap<String, byte[]>();
+			contexts.put(aContextId, context);
+		}
+		return context;
+	}
+
+	private File getFile(String aContextId, String aKey)
+	{
+		File folder = new File(getSpillFolder(), aContextId);
+		return aKey != null ? new File(folder, aKey) : folder;
+	}
+
+	private static boolean hasChildren(TreeMap<String, byte[]> aContext, String aKey)
+	{
+		return !children(aContext, aKey).isEmpty();
+	}
+
+	/**
+	 * Get a live view of all keys below the given key.
+	 */
+	private static SortedMap<String, byte[]> children(TreeMap<String, byte[]> aContext,
+			String aKey)
+	{
+		// '/' + 1 == '0', so this covers exactly the keys starting with "aKey/"
+		return aContext.subMap(aKey + "/", aKey + "0");
+	}
+}
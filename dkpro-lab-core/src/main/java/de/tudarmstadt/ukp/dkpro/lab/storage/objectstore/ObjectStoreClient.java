@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.objectstore;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Minimal client API of an object store as required by the {@link ObjectStoreStorageService}.
+ * Object names are relative to the bucket or container the client is configured for.
+ *
+ * @since 0.12.0
+ */
+public interface ObjectStoreClient
+{
+	/**
+	 * Check if an object with the given name exists.
+	 */
+	boolean exists(String aName)
+		throws IOException;
+
+	/**
+	 * Open the given object for reading.
+	 *
+	 * @throws FileNotFoundException if the object does not exist.
+	 */
+	InputStream get(String aName)
+		throws IOException;
+
+	/**
+	 * Upload the given data as an object.
+	 */
+	void put(String aName, byte[] aData)
+		throws IOException;
+
+	/**
+	 * Upload the given file as an object. Implementations may upload large files in multiple
+	 * parts.
+	 */
+	void put(String aName, File aFile)
+		throws IOException;
+
+	/**
+	 * Copy an object within the store.
+	 */
+	void copy(String aSourceName, String aTargetName)
+		throws IOException;
+
+	/**
+	 * Delete the given object. Deleting an object which does not exist is not an error.
+	 */
+	void delete(String aName)
+		throws IOException;
+
+	/**
+	 * List the names of all objects starting with the given prefix.
+	 */
+	List<String> list(String aPrefix)
+		throws IOException;
+}
@@ -0,0 +1,1208 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.objectstore;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.ImportUtil;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.CompressionCodecs;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.FilteringContextIterator;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+/**
+ * Storage service keeping task contexts in an object store, e.g. an S3 bucket. This allows
+ * sharing results across machines without a shared file system. Each key of a context is stored
+ * as an object named {@code <prefix><context-id>/<key>}.
+ * <p>
+ * Streams are read from and written to the object store directly. Callers which require a
+ * {@link File} (see {@link #locateKey(String, String)}) get a copy in a bounded local cache.
+ * Files which are created or modified in the cache for a context which is still running are
+ * uploaded on {@link #flush(String)}, which happens before the context is marked as complete. The
+ * cache evicts the least-recently-used completed contexts when it exceeds its size. Data written
+ * locally counts towards the size once its context is complete. Data of completed contexts left in
+ * the cache folder by earlier instances is counted when the cache is first used.
+ * <p>
+ * To avoid listing the whole store, the metadata of completed contexts is additionally recorded
+ * in a small index object per service instance below {@code <prefix>.index/}. The index objects
+ * of other instances are read again at most once per {@link #setIndexRefreshInterval refresh
+ * interval}. Contexts stored without an index entry can be added using {@link #rebuildIndex()}.
+ * <p>
+ * Files obtained via {@link #locateKey(String, String)} are not evicted from the cache until the
+ * thread which located them calls {@link #flush(String)} or {@link #flush()}, which happens when
+ * its task completes.
+ *
+ * @since 0.12.0
+ */
+public class ObjectStoreStorageService
+	implements StorageService
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	public static final String INDEX_PREFIX = ".index/";
+
+	private static final String DELETED = "deleted";
+	private static final char INDEX_SEPARATOR = '|';
+	private static final String DOWNLOAD_SUFFIX = ".download";
+
+	private ObjectStoreClient client;
+	private String prefix = "";
+	private File cacheFolder = new File(System.getProperty("java.io.tmpdir"), "dkpro-lab-cache");
+	private long cacheSize = 10L * 1024 * 1024 * 1024;
+	private String indexName = getDefaultIndexName();
+	private long indexRefreshInterval = 60 * 1000;
+
+	// Guarded by this
+	private Properties index;
+	private Map<String, Properties> foreignIndexes;
+	private long foreignIndexesLoaded;
+	private final Set<String> completed = new HashSet<String>();
+	private final Map<String, CachedContext> cache = new LinkedHashMap<String, CachedContext>(16,
+			0.75f, true);
+	private long cachedBytes;
+	private boolean cacheLoaded;
+	private final Map<String, Future<?>> prefetching = new HashMap<String, Future<?>>();
+	private ExecutorService prefetchExecutor;
+	private int prefetchThreads = 2;
+
+	// Contexts pinned in the cache by the current thread via locateKey
+	private final ThreadLocal<Set<CachedContext>> located = new ThreadLocal<Set<CachedContext>>()
+	{
+		@Override
+		protected Set<CachedContext> initialValue()
+		{
+			return new HashSet<CachedContext>();
+		}
+	};
+
+	@Required
+	public void setClient(ObjectStoreClient aClient)
+	{
+		client = aClient;
+	}
+
+	public ObjectStoreClient getClient()
+	{
+		return client;
+	}
+
+	/**
+	 * A prefix prepended to all object names, e.g. {@code repository/}.
+	 */
+	public void setPrefix(String aPrefix)
+	{
+		prefix = aPrefix == null ? "" : aPrefix;
+	}
+
+	public String getPrefix()
+	{
+		return prefix;
+	}
+
+	/**
+	 * The local folder caching data which is accessed as files.
+	 */
+	public void setCacheFolder(File aCacheFolder)
+	{
+		cacheFolder = aCacheFolder;
+	}
+
+	public File getCacheFolder()
+	{
+		return cacheFolder;
+	}
+
+	/**
+	 * The number of bytes the local cache may occupy. Data of running contexts is never evicted
+	 * and may exceed this limit.
+	 */
+	public void setCacheSize(long aCacheSize)
+	{
+		cacheSize = aCacheSize;
+	}
+
+	public long getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	/**
+	 * The name of the index object of this service instance. An existing index object is
+	 * continued, which allows an instance to keep adding to the index of an earlier one. By
+	 * default, a new name is generated for each instance from the host and user name and a
+	 * random part. Instances running at the same time must not share an index object, since
+	 * each of them would overwrite the entries added by the other.
+	 */
+	public void setIndexName(String aIndexName)
+	{
+		indexName = aIndexName;
+	}
+
+	public String getIndexName()
+	{
+		return indexName;
+	}
+
+	/**
+	 * The number of milliseconds for which the index objects of other service instances are
+	 * cached. Contexts completed by other instances may not be listed for this long. Changes made
+	 * by this instance are visible immediately.
+	 */
+	public void setIndexRefreshInterval(long aIndexRefreshInterval)
+	{
+		indexRefreshInterval = aIndexRefreshInterval;
+	}
+
+	public long getIndexRefreshInterval()
+	{
+		return indexRefreshInterval;
+	}
+
+	/**
+	 * The number of background threads downloading data passed to
+	 * {@link #prefetch(String, String)} into the local cache. If set to {@code 0}, prefetching is
+	 * disabled.
+	 */
+	public void setPrefetchThreads(int aPrefetchThreads)
+	{
+		prefetchThreads = aPrefetchThreads;
+	}
+
+	public int getPrefetchThreads()
+	{
+		return prefetchThreads;
+	}
+
+	@Override
+	public boolean containsContext(String aContextId)
+	{
+		synchronized (this) {
+			if (completed.contains(aContextId) || cache.containsKey(aContextId)) {
+				return true;
+			}
+		}
+		try {
+			return !client.list(name(aContextId, "")).isEmpty();
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to access context ["
+					+ aContextId + "]", e);
+		}
+	}
+
+	@Override
+	public boolean containsKey(String aContextId, String aKey)
+	{
+		if (isCachedWritable(aContextId) && new File(getCacheFolder(aContextId), aKey).exists()) {
+			return true;
+		}
+		try {
+			String name = name(aContextId, aKey);
+			return client.exists(name) || !client.list(name + "/").isEmpty();
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to access [" + aKey
+					+ "] in context [" + aContextId + "]", e);
+		}
+	}
+
+	@Override
+	public TaskContextMetadata getContext(String aContextId)
+	{
+		return retrieveBinary(aContextId, METADATA_KEY, new TaskContextMetadata());
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContexts()
+	{
+		Map<String, Properties> entries = new HashMap<String, Properties>();
+		Set<String> deleted = new HashSet<String>();
+		try {
+			for (Properties props : getForeignIndexes().values()) {
+				collectIndexEntries(props, entries, deleted);
+			}
+			synchronized (this) {
+				collectIndexEntries(getIndex(), entries, deleted);
+			}
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to read context index", e);
+		}
+
+		List<TaskContextMetadata> contexts = new ArrayList<TaskContextMetadata>();
+		for (Entry<String, Properties> e : entries.entrySet()) {
+			if (deleted.contains(e.getKey())) {
+				continue;
+			}
+			contexts.add(toMetadata(e.getValue()));
+		}
+		sort(contexts);
+		return contexts;
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContexts(String aTaskType, Map<String, String> aConstraints)
+	{
+		return FilteringContextIterator.toList(iterateContexts(aTaskType, aConstraints, 0));
+	}
+
+	@Override
+	public TaskContextMetadata getLatestContext(String aTaskType, Map<String, String> aConstraints)
+	{
+		Iterator<TaskContextMetadata> i = iterateContexts(aTaskType, aConstraints, 1);
+		if (!i.hasNext()) {
+			throw ImportUtil.createContextNotFoundException(aTaskType, aConstraints);
+		}
+		return i.next();
+	}
+
+	@Override
+	public Iterator<TaskContextMetadata> iterateContexts(String aTaskType,
+			Map<String, String> aConstraints, int aLimit)
+	{
+		return new FilteringContextIterator(this, getContexts().iterator(), aTaskType,
+				aConstraints, aLimit);
+	}
+
+	@Override
+	public List<TaskContextMetadata> getContextsByFingerprint(String aTaskType,
+			String aFingerprint)
+	{
+		// The fingerprint is part of the metadata and thus of the index
+		return FilteringContextIterator.withFingerprint(getContexts().iterator(), aTaskType,
+				aFingerprint);
+	}
+
+	/**
+	 * Add all completed contexts found in the object store to the index of this instance. This
+	 * requires listing all objects in the store.
+	 *
+	 * @return the number of contexts found.
+	 */
+	public int rebuildIndex()
+	{
+		int count = 0;
+		try {
+			for (String name : client.list(prefix)) {
+				if (name.endsWith("/" + METADATA_KEY)) {
+					String id = name.substring(prefix.length(),
+							name.length() - METADATA_KEY.length() - 1);
+					TaskContextMetadata metadata = getContext(id);
+					synchronized (this) {
+						addIndexEntry(metadata);
+						completed.add(id);
+					}
+					count++;
+				}
+			}
+			uploadIndex();
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to rebuild context index", e);
+		}
+		return count;
+	}
+
+	@Override
+	public void delete(String aContextId)
+	{
+		try {
+			for (String name : client.list(name(aContextId, ""))) {
+				client.delete(name);
+			}
+
+			synchronized (this) {
+				evict(aContextId);
+				completed.remove(aContextId);
+				// Mark as deleted also in case the context is listed in another index
+				removeIndexEntry(aContextId);
+				getIndex().setProperty(aContextId + INDEX_SEPARATOR + DELETED, "true");
+			}
+			uploadIndex();
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to delete context ["
+					+ aContextId + "]", e);
+		}
+	}
+
+	@Override
+	public void delete(String aContextId, String aKey)
+	{
+		try {
+			String name = name(aContextId, aKey);
+			client.delete(name);
+			for (String child : client.list(name + "/")) {
+				client.delete(child);
+			}
+			FileUtils.deleteQuietly(new File(getCacheFolder(aContextId), aKey));
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to delete [" + aKey
+					+ "] from context [" + aContextId + "]", e);
+		}
+	}
+
+	@Override
+	public void copy(String aContextId, String aKey, StorageKey aResolvedKey, AccessMode aMode)
+	{
+		if (aMode != AccessMode.READWRITE && aMode != AccessMode.ADD_ONLY) {
+			return;
+		}
+
+		// As in the file system storage, only folders need to be copied. Objects are copied
+		// within the store without transferring any data to this machine.
+		try {
+			String source = name(aResolvedKey.contextId, aResolvedKey.key) + "/";
+			String target = name(aContextId, aKey) + "/";
+			for (String name : client.list(source)) {
+				client.copy(name, target + name.substring(source.length()));
+			}
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to copy [" + aResolvedKey.key
+					+ "] from context [" + aResolvedKey.contextId + "]", e);
+		}
+	}
+
+	@Deprecated
+	@Override
+	public File getStorageFolder(String aContextId, String aKey)
+	{
+		File folder = locateKey(aContextId, aKey);
+		folder.mkdirs();
+		return folder;
+	}
+
+	@Override
+	public File locateKey(String aContextId, String aKey)
+	{
+		awaitPrefetch(new File(getCacheFolder(aContextId), aKey));
+
+		// The caller may use the file until its task completes
+		CachedContext context = pin(aContextId);
+		if (!located.get().add(context)) {
+			unpin(context);
+		}
+		return fetch(aContextId, aKey);
+	}
+
+	/**
+	 * Downloads the key of a completed context into the local cache in the background.
+	 */
+	@Override
+	public void prefetch(final String aContextId, final String aKey)
+	{
+		final File file = new File(getCacheFolder(aContextId), aKey);
+		if (prefetchThreads <= 0 || file.exists()) {
+			return;
+		}
+
+		synchronized (this) {
+			if (prefetching.containsKey(file.getPath())) {
+				return;
+			}
+			prefetching.put(file.getPath(), getPrefetchExecutor().submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try {
+						// Data of running contexts is still being written. Checking this needs a
+						// request to the object store, so it must not block the caller.
+						if (isComplete(aContextId)) {
+							fetch(aContextId, aKey);
+						}
+					}
+					catch (IOException e) {
+						log.debug("Unable to prefetch [" + aKey + "] from context ["
+								+ aContextId + "]", e);
+					}
+					catch (DataAccessResourceFailureException e) {
+						log.debug("Unable to prefetch [" + aKey + "] from context ["
+								+ aContextId + "]", e);
+					}
+					finally {
+						synchronized (ObjectStoreStorageService.this) {
+							prefetching.remove(file.getPath());
+						}
+					}
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Wait until a download of the given file in the background has completed. Otherwise, a
+	 * partially downloaded folder might be mistaken as complete.
+	 */
+	private void awaitPrefetch(File aFile)
+	{
+		Future<?> future;
+		synchronized (this) {
+			future = prefetching.get(aFile.getPath());
+		}
+		if (future == null) {
+			return;
+		}
+
+		try {
+			future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			// Failures are logged by the prefetcher, the key is simply downloaded again
+		}
+	}
+
+	private synchronized ExecutorService getPrefetchExecutor()
+	{
+		if (prefetchExecutor == null) {
+			prefetchExecutor = Executors.newFixedThreadPool(Math.max(1, prefetchThreads),
+					new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable aRunnable)
+				{
+					Thread thread = new Thread(aRunnable, "storage-prefetch");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return prefetchExecutor;
+	}
+
+	private File fetch(String aContextId, String aKey)
+	{
+		File file = new File(getCacheFolder(aContextId), aKey);
+		CachedContext context = pin(aContextId);
+		try {
+			if (!file.exists()) {
+				download(context, aKey, file);
+			}
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to download [" + aKey
+					+ "] from context [" + aContextId + "]", e);
+		}
+		finally {
+			unpin(context);
+		}
+		return file;
+	}
+
+	@Override
+	public List<MappedByteBuffer> map(String aContextId, String aKey)
+	{
+		if (CompressionCodecs.forKey(aKey) != null) {
+			throw new DataAccessResourceFailureException("Unable to map compressed key [" + aKey
+					+ "] in context [" + aContextId + "]");
+		}
+
+		try {
+			return Util.map(locateKey(aContextId, aKey));
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to map [" + aKey
+					+ "] in context [" + aContextId + "]", e);
+		}
+	}
+
+	@Override
+	public <T extends StreamReader> T retrieveBinary(String aContextId, String aKey, T aConsumer)
+	{
+		InputStream is = null;
+		try {
+			File local = new File(getCacheFolder(aContextId), aKey);
+			if (isCached(aContextId) && local.isFile()) {
+				is = new FileInputStream(local);
+			}
+			else {
+				is = client.get(name(aContextId, aKey));
+			}
+			is = CompressionCodecs.decompress(aKey, is);
+			aConsumer.read(is);
+			return aConsumer;
+		}
+		catch (FileNotFoundException e) {
+			throw new DataAccessResourceFailureException("No resource bound to key [" + aKey
+					+ "] in context [" + aContextId + "]", e);
+		}
+		catch (Throwable e) {
+			throw new DataAccessResourceFailureException("Unable to load [" + aKey
+					+ "] from context [" + aContextId + "]", e);
+		}
+		finally {
+			Util.close(is);
+		}
+	}
+
+	@Override
+	public void storeBinary(String aContextId, String aKey, final InputStream aStream)
+	{
+		try {
+			storeBinary(aContextId, aKey, new StreamWriter()
+			{
+				@Override
+				public void write(OutputStream aOs)
+					throws Exception
+				{
+					Util.shoveAndClose(aStream, aOs);
+				}
+			});
+		}
+		finally {
+			Util.close(aStream);
+		}
+	}
+
+	@Override
+	public void storeBinary(String aContextId, String aKey, StreamWriter aProducer)
+	{
+		boolean metadata = METADATA_KEY.equals(aKey);
+		File tmpFile = null;
+		OutputStream os = null;
+		try {
+			if (metadata) {
+				// The completion marker must only be written once all data has been uploaded
+				CachedContext context = getCached(aContextId);
+				if (context != null) {
+					upload(context);
+				}
+			}
+
+			cacheFolder.mkdirs();
+			tmpFile = File.createTempFile("store", ".tmp", cacheFolder);
+			os = new FileOutputStream(tmpFile);
+			os = CompressionCodecs.compress(aKey, os);
+			aProducer.write(os);
+			os.close();
+
+			client.put(name(aContextId, aKey), tmpFile);
+
+			if (metadata) {
+				TaskContextMetadata meta = new TaskContextMetadata();
+				InputStream is = new FileInputStream(tmpFile);
+				try {
+					meta.read(is);
+				}
+				finally {
+					Util.close(is);
+				}
+				synchronized (this) {
+					addIndexEntry(meta);
+					completed.add(aContextId);
+					CachedContext context = cache.get(aContextId);
+					if (context != null) {
+						context.writable = false;
+					}
+				}
+				uploadIndex();
+			}
+
+			// Keep the cached copy of the data up to date
+			CachedContext context = getCached(aContextId);
+			if (context != null) {
+				File local = new File(getCacheFolder(aContextId), aKey);
+				local.getParentFile().mkdirs();
+				long previous = local.length();
+				Files.move(tmpFile.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				synchronized (this) {
+					context.record(aKey, local);
+					resize(context, context.size + local.length() - previous);
+				}
+				if (metadata) {
+					// Files written via locateKey are not tracked individually, so count them
+					// now that the context can be evicted
+					synchronized (this) {
+						resize(context, FileUtils.sizeOfDirectory(getCacheFolder(aContextId)));
+					}
+					evict();
+				}
+			}
+		}
+		catch (Exception e) {
+			throw new DataAccessResourceFailureException("Unable to store [" + aKey
+					+ "] in context [" + aContextId + "]", e);
+		}
+		finally {
+			Util.close(os);
+			if (tmpFile != null) {
+				tmpFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Upload all files which have been created or modified in the local cache for contexts
+	 * which are still running. Files located by the current thread may be evicted from the cache
+	 * afterwards.
+	 */
+	@Override
+	public void flush()
+	{
+		unpinLocated();
+
+		List<CachedContext> writable = new ArrayList<CachedContext>();
+		synchronized (this) {
+			for (CachedContext context : cache.values()) {
+				if (context.writable) {
+					writable.add(context);
+				}
+			}
+		}
+
+		for (CachedContext context : writable) {
+			try {
+				upload(context);
+			}
+			catch (IOException e) {
+				throw new DataAccessResourceFailureException("Unable to upload data of context ["
+						+ context.id + "]", e);
+			}
+		}
+	}
+
+	/**
+	 * Upload all files which have been created or modified in the local cache for the given
+	 * context if it is still running. Files located by the current thread may be evicted from the
+	 * cache afterwards.
+	 */
+	@Override
+	public void flush(String aContextId)
+	{
+		unpinLocated();
+
+		CachedContext context;
+		synchronized (this) {
+			context = cache.get(aContextId);
+			if (context == null || !context.writable) {
+				return;
+			}
+		}
+
+		try {
+			upload(context);
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to upload data of context ["
+					+ aContextId + "]", e);
+		}
+	}
+
+	private void unpinLocated()
+	{
+		Set<CachedContext> pinned = located.get();
+		if (pinned.isEmpty()) {
+			return;
+		}
+		for (CachedContext context : pinned) {
+			unpin(context);
+		}
+		pinned.clear();
+		// Contexts which were only kept because they were pinned can go now
+		evict();
+	}
+
+	private void upload(CachedContext aContext)
+		throws IOException
+	{
+		File folder = getCacheFolder(aContext.id);
+		for (File file : FileUtils.listFiles(folder, null, true)) {
+			if (file.getName().endsWith(DOWNLOAD_SUFFIX)) {
+				continue;
+			}
+
+			String key = relativize(folder, file);
+			synchronized (this) {
+				if (!aContext.isModified(key, file)) {
+					continue;
+				}
+			}
+			log.debug("Uploading [" + key + "] of context [" + aContext.id + "]");
+			client.put(name(aContext.id, key), file);
+			synchronized (this) {
+				aContext.record(key, file);
+			}
+		}
+	}
+
+	private void download(CachedContext aContext, String aKey, File aTarget)
+		throws IOException
+	{
+		String name = name(aContext.id, aKey);
+		if (client.exists(name)) {
+			downloadObject(aContext, name, aKey, aTarget);
+		}
+		else {
+			String folder = name + "/";
+			for (String child : client.list(folder)) {
+				String rest = child.substring(folder.length());
+				downloadObject(aContext, child, aKey + "/" + rest, new File(aTarget, rest));
+			}
+		}
+		evict();
+	}
+
+	private void downloadObject(CachedContext aContext, String aName, String aKey, File aTarget)
+		throws IOException
+	{
+		aTarget.getParentFile().mkdirs();
+		File tmp = new File(aTarget.getPath() + DOWNLOAD_SUFFIX);
+		InputStream is = client.get(aName);
+		try {
+			FileUtils.copyInputStreamToFile(is, tmp);
+		}
+		finally {
+			Util.close(is);
+		}
+		Files.move(tmp.toPath(), aTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		synchronized (this) {
+			aContext.record(aKey, aTarget);
+			resize(aContext, aContext.size + aTarget.length());
+		}
+	}
+
+	// Guarded by this
+	private void resize(CachedContext aContext, long aSize)
+	{
+		cachedBytes += aSize - aContext.size;
+		aContext.size = aSize;
+	}
+
+	/**
+	 * Account for the data which earlier instances left in the cache folder. Completed contexts
+	 * are added to the cache, so their data is used and can be evicted. Other contexts may still
+	 * be running elsewhere and are left alone.
+	 */
+	private void loadCache()
+	{
+		synchronized (this) {
+			if (cacheLoaded) {
+				return;
+			}
+			cacheLoaded = true;
+		}
+
+		File[] folders = cacheFolder.listFiles();
+		if (folders == null) {
+			return;
+		}
+
+		// Least recently used first
+		Arrays.sort(folders, new Comparator<File>()
+		{
+			@Override
+			public int compare(File aO1, File aO2)
+			{
+				return Long.signum(aO1.lastModified() - aO2.lastModified());
+			}
+		});
+
+		for (File folder : folders) {
+			if (!folder.isDirectory()) {
+				continue;
+			}
+			String id = folder.getName();
+			try {
+				if (!isComplete(id)) {
+					log.debug("Not adopting cached data of incomplete context [" + id + "]");
+					continue;
+				}
+			}
+			catch (IOException e) {
+				log.debug("Unable to check context [" + id + "]: " + e.getMessage());
+				continue;
+			}
+
+			long size = FileUtils.sizeOfDirectory(folder);
+			synchronized (this) {
+				if (!cache.containsKey(id)) {
+					CachedContext context = new CachedContext(id, false);
+					resize(context, size);
+					cache.put(id, context);
+				}
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Evict least-recently-used completed contexts from the local cache until it fits its size.
+	 */
+	private synchronized void evict()
+	{
+		Iterator<CachedContext> i = cache.values().iterator();
+		while (cachedBytes > cacheSize && i.hasNext()) {
+			CachedContext context = i.next();
+			// Files of pinned contexts are still in use
+			if (!context.writable && context.pins == 0) {
+				log.debug("Evicting context [" + context.id + "] from local cache");
+				FileUtils.deleteQuietly(getCacheFolder(context.id));
+				cachedBytes -= context.size;
+				i.remove();
+			}
+		}
+	}
+
+	private synchronized void evict(String aContextId)
+	{
+		CachedContext context = cache.remove(aContextId);
+		if (context != null) {
+			cachedBytes -= context.size;
+		}
+		FileUtils.deleteQuietly(getCacheFolder(aContextId));
+	}
+
+	/**
+	 * Register access to the given context in the local cache and protect it from eviction until
+	 * {@link #unpin(CachedContext) unpinned}.
+	 */
+	private CachedContext pin(String aContextId)
+	{
+		loadCache();
+
+		synchronized (this) {
+			CachedContext context = cache.get(aContextId);
+			if (context != null) {
+				context.pins++;
+				return context;
+			}
+		}
+
+		// Data in the cache may only be modified if the context is still running
+		boolean writable;
+		try {
+			writable = !isComplete(aContextId);
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to access context ["
+					+ aContextId + "]", e);
+		}
+
+		synchronized (this) {
+			CachedContext context = cache.get(aContextId);
+			if (context == null) {
+				context = new CachedContext(aContextId, writable);
+				cache.put(aContextId, context);
+			}
+			context.pins++;
+			return context;
+		}
+	}
+
+	private synchronized void unpin(CachedContext aContext)
+	{
+		aContext.pins--;
+	}
+
+	private boolean isComplete(String aContextId)
+		throws IOException
+	{
+		synchronized (this) {
+			if (completed.contains(aContextId)) {
+				return true;
+			}
+		}
+		if (client.exists(name(aContextId, METADATA_KEY))) {
+			synchronized (this) {
+				completed.add(aContextId);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private synchronized CachedContext getCached(String aContextId)
+	{
+		return cache.get(aContextId);
+	}
+
+	private synchronized boolean isCached(String aContextId)
+	{
+		return cache.containsKey(aContextId);
+	}
+
+	private synchronized boolean isCachedWritable(String aContextId)
+	{
+		CachedContext context = cache.get(aContextId);
+		return context != null && context.writable;
+	}
+
+	private File getCacheFolder(String aContextId)
+	{
+		return new File(cacheFolder, aContextId);
+	}
+
+	private String name(String aContextId, String aKey)
+	{
+		return prefix + aContextId + "/" + aKey.replace(File.separatorChar, '/');
+	}
+
+	private static String relativize(File aFolder, File aFile)
+	{
+		return aFolder.toURI().relativize(aFile.toURI()).getPath();
+	}
+
+	private Properties getIndex()
+		throws IOException
+	{
+		if (index == null) {
+			// Continue an existing index if the index name has been configured explicitly.
+			// Generated names are unique, so there is nothing to continue.
+			index = new Properties();
+			try {
+				InputStream is = client.get(prefix + INDEX_PREFIX + indexName);
+				try {
+					index.load(is);
+				}
+				finally {
+					Util.close(is);
+				}
+			}
+			catch (FileNotFoundException e) {
+				// New index
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Get the index objects of other service instances by name.
+	 */
+	private Map<String, Properties> getForeignIndexes()
+		throws IOException
+	{
+		synchronized (this) {
+			if (foreignIndexes != null
+					&& System.currentTimeMillis() - foreignIndexesLoaded < indexRefreshInterval) {
+				return foreignIndexes;
+			}
+		}
+
+		String ownName = prefix + INDEX_PREFIX + indexName;
+		Map<String, Properties> indexes = new HashMap<String, Properties>();
+		for (String name : client.list(prefix + INDEX_PREFIX)) {
+			if (name.equals(ownName)) {
+				continue;
+			}
+
+			Properties props = new Properties();
+			try {
+				InputStream is = client.get(name);
+				try {
+					props.load(is);
+				}
+				finally {
+					Util.close(is);
+				}
+			}
+			catch (FileNotFoundException e) {
+				// Removed since listed
+				continue;
+			}
+			indexes.put(name, props);
+		}
+
+		synchronized (this) {
+			foreignIndexes = indexes;
+			foreignIndexesLoaded = System.currentTimeMillis();
+		}
+		return indexes;
+	}
+
+	private static String getDefaultIndexName()
+	{
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		}
+		catch (IOException e) {
+			host = "localhost";
+		}
+		return (host + "-" + System.getProperty("user.name") + "-" + UUID.randomUUID())
+				.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	private void addIndexEntry(TaskContextMetadata aMetadata)
+		throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try {
+			aMetadata.write(bos);
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+		Properties props = new Properties();
+		props.load(new ByteArrayInputStream(bos.toByteArray()));
+
+		Properties entries = getIndex();
+		removeIndexEntry(aMetadata.getId());
+		for (String key : props.stringPropertyNames()) {
+			entries.setProperty(aMetadata.getId() + INDEX_SEPARATOR + key, props.getProperty(key));
+		}
+	}
+
+	private void removeIndexEntry(String aContextId)
+		throws IOException
+	{
+		String entryPrefix = aContextId + INDEX_SEPARATOR;
+		Iterator<Object> i = getIndex().keySet().iterator();
+		while (i.hasNext()) {
+			if (((String) i.next()).startsWith(entryPrefix)) {
+				i.remove();
+			}
+		}
+	}
+
+	private void uploadIndex()
+		throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		synchronized (this) {
+			getIndex().store(bos, null);
+		}
+		client.put(prefix + INDEX_PREFIX + indexName, bos.toByteArray());
+	}
+
+	private static void collectIndexEntries(Properties aIndex, Map<String, Properties> aEntries,
+			Set<String> aDeleted)
+	{
+		for (String key : aIndex.stringPropertyNames()) {
+			int sep = key.indexOf(INDEX_SEPARATOR);
+			if (sep == -1) {
+				continue;
+			}
+			String id = key.substring(0, sep);
+			String property = key.substring(sep + 1);
+			if (DELETED.equals(property)) {
+				aDeleted.add(id);
+				continue;
+			}
+			Properties entry = aEntries.get(id);
+			if (entry == null) {
+				entry = new Properties();
+				aEntries.put(id, entry);
+			}
+			entry.setProperty(property, aIndex.getProperty(key));
+		}
+	}
+
+	private static TaskContextMetadata toMetadata(Properties aEntry)
+	{
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			aEntry.store(bos, null);
+			TaskContextMetadata metadata = new TaskContextMetadata();
+			metadata.read(new ByteArrayInputStream(bos.toByteArray()));
+			return metadata;
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("Unable to read context index", e);
+		}
+	}
+
+	private static void sort(List<TaskContextMetadata> aContexts)
+	{
+		Collections.sort(aContexts, new Comparator<TaskContextMetadata>()
+		{
+			@Override
+			public int compare(TaskContextMetadata aO1, TaskContextMetadata aO2)
+			{
+				return Long.signum(aO2.getEnd() - aO1.getEnd());
+			}
+		});
+	}
+
+	private static class CachedContext
+	{
+		final String id;
+		final Map<String, long[]> synced = new HashMap<String, long[]>();
+		boolean writable;
+		long size;
+		int pins;
+
+		public CachedContext(String aId, boolean aWritable)
+		{
+			id = aId;
+			writable = aWritable;
+		}
+
+		/**
+		 * Record that the given file is in sync with the object store.
+		 */
+		void record(String aKey, File aFile)
+		{
+			synced.put(aKey, new long[] { aFile.length(), aFile.lastModified() });
+		}
+
+		boolean isModified(String aKey, File aFile)
+		{
+			long[] state = synced.get(aKey);
+			return state == null || state[0] != aFile.length()
+					|| state[1] != aFile.lastModified();
+		}
+	}
+}
@@ -0,0 +1,621 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.objectstore;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+
+/**
+ * {@link ObjectStoreClient} for services implementing the Amazon S3 REST API, e.g. Amazon S3
+ * itself, MinIO or Ceph. Requests are signed using AWS signature version 4. Files larger than
+ * the {@link #setMultipartThreshold multipart threshold} are uploaded in parts in parallel.
+ *
+ * @since 0.12.0
+ */
+public class S3ObjectStoreClient
+	implements ObjectStoreClient
+{
+	private final Log log = LogFactory.getLog(getClass());
+
+	private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+	private static final String SERVICE = "s3";
+	private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	private String endpoint = "https://s3.amazonaws.com";
+	private String bucket;
+	private String region = "us-east-1";
+	private String accessKey;
+	private String secretKey;
+	private boolean pathStyle = true;
+	private long multipartThreshold = 16 * 1024 * 1024;
+	private int partSize = 8 * 1024 * 1024;
+	private int uploadThreads = 4;
+
+	/**
+	 * The service endpoint, e.g. {@code http://localhost:9000}.
+	 */
+	public void setEndpoint(String aEndpoint)
+	{
+		endpoint = aEndpoint.endsWith("/") ? aEndpoint.substring(0, aEndpoint.length() - 1)
+				: aEndpoint;
+	}
+
+	public String getEndpoint()
+	{
+		return endpoint;
+	}
+
+	@Required
+	public void setBucket(String aBucket)
+	{
+		bucket = aBucket;
+	}
+
+	public String getBucket()
+	{
+		return bucket;
+	}
+
+	public void setRegion(String aRegion)
+	{
+		region = aRegion;
+	}
+
+	public String getRegion()
+	{
+		return region;
+	}
+
+	/**
+	 * The access key. If no access key is set, requests are not signed.
+	 */
+	public void setAccessKey(String aAccessKey)
+	{
+		accessKey = aAccessKey;
+	}
+
+	public String getAccessKey()
+	{
+		return accessKey;
+	}
+
+	public void setSecretKey(String aSecretKey)
+	{
+		secretKey = aSecretKey;
+	}
+
+	/**
+	 * Whether to address the bucket as part of the path ({@code endpoint/bucket/name}) instead
+	 * of as part of the host name ({@code bucket.endpoint/name}). Most S3-compatible services
+	 * require path-style access.
+	 */
+	public void setPathStyle(boolean aPathStyle)
+	{
+		pathStyle = aPathStyle;
+	}
+
+	public boolean isPathStyle()
+	{
+		return pathStyle;
+	}
+
+	/**
+	 * Files of at least this size are uploaded in multiple parts.
+	 */
+	public void setMultipartThreshold(long aMultipartThreshold)
+	{
+		multipartThreshold = aMultipartThreshold;
+	}
+
+	public long getMultipartThreshold()
+	{
+		return multipartThreshold;
+	}
+
+	/**
+	 * The size of the parts of a multipart upload. S3 requires parts (except the last one) to
+	 * be at least 5 MB.
+	 */
+	public void setPartSize(int aPartSize)
+	{
+		partSize = Math.max(MIN_PART_SIZE, aPartSize);
+	}
+
+	public int getPartSize()
+	{
+		return partSize;
+	}
+
+	/**
+	 * The number of parts uploaded in parallel.
+	 */
+	public void setUploadThreads(int aUploadThreads)
+	{
+		uploadThreads = Math.max(1, aUploadThreads);
+	}
+
+	public int getUploadThreads()
+	{
+		return uploadThreads;
+	}
+
+	@Override
+	public boolean exists(String aName)
+		throws IOException
+	{
+		try {
+			HttpURLConnection conn = execute("HEAD", aName, null, null, null);
+			conn.disconnect();
+			return true;
+		}
+		catch (FileNotFoundException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public InputStream get(String aName)
+		throws IOException
+	{
+		return execute("GET", aName, null, null, null).getInputStream();
+	}
+
+	@Override
+	public void put(String aName, byte[] aData)
+		throws IOException
+	{
+		close(execute("PUT", aName, null, aData, null));
+	}
+
+	@Override
+	public void put(String aName, File aFile)
+		throws IOException
+	{
+		if (aFile.length() < multipartThreshold) {
+			byte[] data = new byte[(int) aFile.length()];
+			read(aFile, 0, data);
+			put(aName, data);
+		}
+		else {
+			putMultipart(aName, aFile);
+		}
+	}
+
+	@Override
+	public void copy(String aSourceName, String aTargetName)
+		throws IOException
+	{
+		Map<String, String> headers = Collections.singletonMap("x-amz-copy-source", "/"
+				+ bucket + "/" + encode(aSourceName, true));
+		HttpURLConnection conn = execute("PUT", aTargetName, null, null, headers);
+		// A copy can fail after the response has been started, so the body must be checked
+		checkBody(aTargetName, conn);
+	}
+
+	@Override
+	public void delete(String aName)
+		throws IOException
+	{
+		try {
+			close(execute("DELETE", aName, null, null, null));
+		}
+		catch (FileNotFoundException e) {
+			// Already gone
+		}
+	}
+
+	@Override
+	public List<String> list(String aPrefix)
+		throws IOException
+	{
+		List<String> names = new ArrayList<String>();
+		String token = null;
+		do {
+			Map<String, String> query = new TreeMap<String, String>();
+			query.put("list-type", "2");
+			query.put("prefix", aPrefix);
+			if (token != null) {
+				query.put("continuation-token", token);
+			}
+
+			Document doc = parse(execute("GET", "", query, null, null));
+			NodeList keys = doc.getElementsByTagName("Key");
+			for (int i = 0; i < keys.getLength(); i++) {
+				names.add(keys.item(i).getTextContent());
+			}
+			token = "true".equals(text(doc, "IsTruncated")) ? text(doc, "NextContinuationToken")
+					: null;
+		}
+		while (token != null);
+		return names;
+	}
+
+	private void putMultipart(final String aName, final File aFile)
+		throws IOException
+	{
+		Map<String, String> query = new TreeMap<String, String>();
+		query.put("uploads", "");
+		final String uploadId = text(parse(execute("POST", aName, query, new byte[0], null)),
+				"UploadId");
+
+		long size = aFile.length();
+		int parts = (int) ((size + partSize - 1) / partSize);
+		log.debug("Uploading [" + aName + "] in " + parts + " parts");
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(uploadThreads, parts));
+		try {
+			List<Future<String>> etags = new ArrayList<Future<String>>();
+			for (int i = 0; i < parts; i++) {
+				final int partNumber = i + 1;
+				final long offset = (long) i * partSize;
+				final int length = (int) Math.min(partSize, size - offset);
+				etags.add(executor.submit(new Callable<String>()
+				{
+					@Override
+					public String call()
+						throws Exception
+					{
+						byte[] data = new byte[length];
+						read(aFile, offset, data);
+						Map<String, String> partQuery = new TreeMap<String, String>();
+						partQuery.put("partNumber", String.valueOf(partNumber));
+						partQuery.put("uploadId", uploadId);
+						HttpURLConnection conn = execute("PUT", aName, partQuery, data, null);
+						String etag = conn.getHeaderField("ETag");
+						close(conn);
+						return etag;
+					}
+				}));
+			}
+
+			StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+			for (int i = 0; i < parts; i++) {
+				body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+						.append(etags.get(i).get()).append("</ETag></Part>");
+			}
+			body.append("</CompleteMultipartUpload>");
+
+			query = new TreeMap<String, String>();
+			query.put("uploadId", uploadId);
+			checkBody(aName, execute("POST", aName, query,
+					body.toString().getBytes(StandardCharsets.UTF_8), null));
+		}
+		catch (Exception e) {
+			abort(aName, uploadId);
+			if (e instanceof IOException) {
+				throw (IOException) e;
+			}
+			throw new IOException("Unable to upload [" + aName + "]", e);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void abort(String aName, String aUploadId)
+	{
+		try {
+			Map<String, String> query = new TreeMap<String, String>();
+			query.put("uploadId", aUploadId);
+			close(execute("DELETE", aName, query, null, null));
+		}
+		catch (IOException e) {
+			log.warn("Unable to abort upload of [" + aName + "]", e);
+		}
+	}
+
+	/**
+	 * Send a signed request.
+	 *
+	 * @return the connection after the response status has been checked.
+	 * @throws FileNotFoundException if the service responds with status 404.
+	 */
+	HttpURLConnection execute(String aMethod, String aName, Map<String, String> aQuery,
+			byte[] aBody, Map<String, String> aHeaders)
+		throws IOException
+	{
+		String path;
+		String host;
+		URL base = new URL(endpoint);
+		if (pathStyle) {
+			host = base.getHost();
+			path = base.getPath() + "/" + bucket + "/" + encode(aName, true);
+		}
+		else {
+			host = bucket + "." + base.getHost();
+			path = base.getPath() + "/" + encode(aName, true);
+		}
+		if (base.getPort() != -1 && base.getPort() != base.getDefaultPort()) {
+			host += ":" + base.getPort();
+		}
+
+		StringBuilder query = new StringBuilder();
+		if (aQuery != null) {
+			// Parameters must be sorted by name for signing
+			for (Entry<String, String> e : new TreeMap<String, String>(aQuery).entrySet()) {
+				if (query.length() > 0) {
+					query.append('&');
+				}
+				query.append(encode(e.getKey(), false)).append('=')
+						.append(encode(e.getValue(), false));
+			}
+		}
+
+		URL url = new URL(base.getProtocol() + "://" + host + path
+				+ (query.length() > 0 ? "?" + query : ""));
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod(aMethod);
+
+		Map<String, String> headers = new TreeMap<String, String>();
+		if (aHeaders != null) {
+			headers.putAll(aHeaders);
+		}
+		headers.put("host", host);
+		headers.put("x-amz-content-sha256", hex(sha256(aBody != null ? aBody : new byte[0])));
+		headers.put("x-amz-date", timestamp("yyyyMMdd'T'HHmmss'Z'"));
+		if (accessKey != null) {
+			headers.put("authorization", sign(aMethod, path, query.toString(), headers));
+		}
+
+		for (Entry<String, String> e : headers.entrySet()) {
+			if (!"host".equals(e.getKey())) {
+				conn.setRequestProperty(e.getKey(), e.getValue());
+			}
+		}
+
+		if (aBody != null) {
+			conn.setDoOutput(true);
+			conn.setFixedLengthStreamingMode(aBody.length);
+			OutputStream os = conn.getOutputStream();
+			try {
+				os.write(aBody);
+			}
+			finally {
+				Util.close(os);
+			}
+		}
+
+		int status = conn.getResponseCode();
+		if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+			close(conn);
+			throw new FileNotFoundException(aMethod + " [" + aName + "]: not found");
+		}
+		if (status >= 300) {
+			String message = "";
+			InputStream es = conn.getErrorStream();
+			if (es != null) {
+				try {
+					message = IOUtils.toString(es, "UTF-8");
+				}
+				finally {
+					Util.close(es);
+				}
+			}
+			throw new IOException(aMethod + " [" + aName + "] failed with status [" + status
+					+ "]: " + message);
+		}
+		return conn;
+	}
+
+	private String sign(String aMethod, String aPath, String aQuery, Map<String, String> aHeaders)
+		throws IOException
+	{
+		String amzDate = aHeaders.get("x-amz-date");
+		String date = amzDate.substring(0, 8);
+		String scope = date + "/" + region + "/" + SERVICE + "/aws4_request";
+
+		StringBuilder canonicalHeaders = new StringBuilder();
+		StringBuilder signedHeaders = new StringBuilder();
+		for (Entry<String, String> e : aHeaders.entrySet()) {
+			canonicalHeaders.append(e.getKey()).append(':').append(e.getValue().trim())
+					.append('\n');
+			if (signedHeaders.length() > 0) {
+				signedHeaders.append(';');
+			}
+			signedHeaders.append(e.getKey());
+		}
+
+		String canonicalRequest = aMethod + "\n" + aPath + "\n" + aQuery + "\n"
+				+ canonicalHeaders + "\n" + signedHeaders + "\n"
+				+ aHeaders.get("x-amz-content-sha256");
+
+		String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n"
+				+ hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+
+		byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+		key = hmac(key, region);
+		key = hmac(key, SERVICE);
+		key = hmac(key, "aws4_request");
+		String signature = hex(hmac(key, stringToSign));
+
+		return ALGORITHM + " Credential=" + accessKey + "/" + scope + ", SignedHeaders="
+				+ signedHeaders + ", Signature=" + signature;
+	}
+
+	private void checkBody(String aName, HttpURLConnection aConnection)
+		throws IOException
+	{
+		InputStream is = aConnection.getInputStream();
+		try {
+			String body = IOUtils.toString(is, "UTF-8");
+			if (body.contains("<Error>")) {
+				throw new IOException("Request for [" + aName + "] failed: " + body);
+			}
+		}
+		finally {
+			Util.close(is);
+		}
+	}
+
+	private static Document parse(HttpURLConnection aConnection)
+		throws IOException
+	{
+		InputStream is = aConnection.getInputStream();
+		try {
+			// Responses never contain a DOCTYPE, so refuse any instead of resolving entities
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			factory.setXIncludeAware(false);
+			factory.setExpandEntityReferences(false);
+			return factory.newDocumentBuilder().parse(is);
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException("Unable to parse response", e);
+		}
+		finally {
+			Util.close(is);
+		}
+	}
+
+	private static String text(Document aDocument, String aElement)
+	{
+		NodeList nodes = aDocument.getElementsByTagName(aElement);
+		return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null;
+	}
+
+	private static void close(HttpURLConnection aConnection)
+		throws IOException
+	{
+		// Consume the response so the connection can be reused
+		InputStream is = aConnection.getInputStream();
+		try {
+			IOUtils.copy(is, new NullOutputStream());
+		}
+		finally {
+			Util.close(is);
+		}
+	}
+
+	private static void read(File aFile, long aOffset, byte[] aData)
+		throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(aFile, "r");
+		try {
+			raf.seek(aOffset);
+			raf.readFully(aData);
+		}
+		finally {
+			Util.close(raf);
+		}
+	}
+
+	private static String timestamp(String aPattern)
+	{
+		SimpleDateFormat format = new SimpleDateFormat(aPattern);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date());
+	}
+
+	/**
+	 * URI-encode the given string as required for signing.
+	 */
+	static String encode(String aValue, boolean aKeepSlash)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (byte b : aValue.getBytes(StandardCharsets.UTF_8)) {
+			char c = (char) (b & 0xFF);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+					|| c == '-' || c == '_' || c == '.' || c == '~' || (aKeepSlash && c == '/')) {
+				sb.append(c);
+			}
+			else {
+				sb.append('%');
+				sb.append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xF, 16)));
+				sb.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static byte[] sha256(byte[] aData)
+	{
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(aData);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] hmac(byte[] aKey, String aData)
+	{
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(aKey, "HmacSHA256"));
+			return mac.doFinal(aData.getBytes(StandardCharsets.UTF_8));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		catch (InvalidKeyException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] aData)
+	{
+		StringBuilder sb = new StringBuilder(aData.length * 2);
+		for (byte b : aData) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.task;
+
+/**
+ * Dimensions which can provide their values by position may implement this interface. This allows
+ * the {@link ParameterSpace} to address configurations by index and to be split into shards
+ * without moving the cursors of its dimensions.
+ *
+ * @since 0.12.0
+ */
+public interface IndexedDimension<T>
+	extends FixedSizeDimension
+{
+	/**
+	 * Size of the dimension. A negative value indicates that the values of the dimension cannot
+	 * currently be accessed by index.
+	 */
+	@Override
+	int size();
+
+	/**
+	 * Get the value at the given position. This neither depends on nor changes the cursor of the
+	 * dimension and may be called concurrently.
+	 *
+	 * @param aIndex the position, between {@code 0} and {@link #size()} (exclusive).
+	 * @throws IndexOutOfBoundsException if the position is out of range.
+	 * @throws UnsupportedOperationException if the dimension does not currently support access
+	 *             by index.
+	 */
+	T valueAt(int aIndex);
+}
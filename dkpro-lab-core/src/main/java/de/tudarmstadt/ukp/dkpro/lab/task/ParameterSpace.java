@@ -17,10 +17,12 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.dkpro.lab.task;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -132,6 +134,243 @@ public class ParameterSpace implements Iterable<Map<String, Object>>
 		}
 	}
 
+	/**
+	 * Get the number of points in the parameter space, i.e. the product of the sizes of all
+	 * dimensions. Points which are rejected by a {@link Constraint} are included. Empty dimensions
+	 * contribute nothing, just as during iteration.
+	 *
+	 * @return the size or {@code -1} if any dimension does not support access by index (see
+	 *         {@link IndexedDimension}).
+	 * @since 0.12.0
+	 */
+	public long size()
+	{
+		long size = 1;
+		for (Dimension<?> d : dimensions) {
+			int dimSize = indexedSize(d);
+			if (dimSize < 0) {
+				return -1;
+			}
+			if (dimSize > 1) {
+				if (size > Long.MAX_VALUE / dimSize) {
+					return -1;
+				}
+				size *= dimSize;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Get the configuration at the given point of the parameter space. Points are numbered in the
+	 * order in which they are visited by {@link #iterator()}. Unlike the iterator, this method does
+	 * not move the cursors of the dimensions and may be called concurrently. Constraints are not
+	 * checked, use {@link #isValid(Map)} for that.
+	 *
+	 * @param aIndex the point, between {@code 0} and {@link #size()} (exclusive).
+	 * @throws UnsupportedOperationException if any dimension does not support access by index.
+	 * @throws IndexOutOfBoundsException if the point is out of range.
+	 * @since 0.12.0
+	 */
+	public Map<String, Object> get(long aIndex)
+	{
+		long size = size();
+		if (size < 0) {
+			throw new UnsupportedOperationException(
+					"Not all dimensions of the parameter space support access by index");
+		}
+		if (aIndex < 0 || aIndex >= size) {
+			throw new IndexOutOfBoundsException("Point [" + aIndex + "] out of range [0-"
+					+ (size - 1) + "]");
+		}
+
+		// The last dimension changes fastest, like in the iterator
+		int[] positions = new int[dimensions.length];
+		long remainder = aIndex;
+		for (int i = dimensions.length - 1; i >= 0; i--) {
+			int dimSize = indexedSize(dimensions[i]);
+			if (dimSize > 0) {
+				positions[i] = (int) (remainder % dimSize);
+				remainder /= dimSize;
+			}
+			else {
+				positions[i] = -1;
+			}
+		}
+
+		Map<String, Object> config = new LinkedHashMap<String, Object>();
+		// Pass 1: no dynamic dimensions
+		for (int i = 0; i < dimensions.length; i++) {
+			Dimension<?> d = dimensions[i];
+			if (positions[i] < 0) {
+				// Empty dimensions contribute nothing
+			}
+			else if (d instanceof DimensionBundle<?>) {
+				DimensionBundle<?> bundle = ((DimensionBundle<?>) d);
+				String bundleId = bundle.getBundleId(positions[i]);
+				if (bundleId != null) {
+					config.put(bundle.getName(), bundleId);
+				}
+				config.putAll(bundle.valueAt(positions[i]));
+			}
+			else if (d instanceof DynamicDimension) {
+				// defer
+			}
+			else {
+				config.put(d.getName(), ((IndexedDimension<?>) d).valueAt(positions[i]));
+			}
+		}
+
+		// Pass 2: dynamic dimensions - those which support access by index do not depend on the
+		// configuration, so there is no need to pass it to them
+		for (int i = 0; i < dimensions.length; i++) {
+			Dimension<?> d = dimensions[i];
+			if (positions[i] >= 0 && d instanceof DynamicDimension) {
+				config.put(d.getName(), ((IndexedDimension<?>) d).valueAt(positions[i]));
+			}
+		}
+		return config;
+	}
+
+	/**
+	 * Check if the given configuration is permitted by the constraints.
+	 *
+	 * @see #getConstraints()
+	 * @since 0.12.0
+	 */
+	public boolean isValid(Map<String, Object> aConfiguration)
+	{
+		// If no constraints are set, run everything
+		if (constraints.isEmpty()) {
+			return true;
+		}
+
+		// If constraints are set, run a configuration if any of them says "ok"
+		for (Constraint c : constraints) {
+			if (c.isValid(aConfiguration)) {
+				return true;
+			}
+		}
+
+		// default to not running
+		return false;
+	}
+
+	/**
+	 * Split the parameter space into the given number of disjoint shards of consecutive points.
+	 * Together, the shards yield the same configurations as {@link #iterator()}. The shards do not
+	 * move the cursors of the dimensions and do not materialize any configurations in advance, so
+	 * they can be iterated concurrently, e.g. by different threads. Since the split only depends on
+	 * the dimensions, separate processes set up with the same parameter space can each pick their
+	 * own shard.
+	 * <p>
+	 * Configurations rejected by a {@link Constraint} are skipped, so shards may differ in the
+	 * number of configurations they yield. The step count of the parameter space is not updated.
+	 *
+	 * @param aShards the number of shards.
+	 * @return the shards. If there are fewer points than shards, some shards are empty.
+	 * @throws UnsupportedOperationException if any dimension does not support access by index.
+	 * @since 0.12.0
+	 */
+	public List<Iterable<Map<String, Object>>> split(int aShards)
+	{
+		if (aShards < 1) {
+			throw new IllegalArgumentException("Number of shards must be at least 1, but was ["
+					+ aShards + "]");
+		}
+
+		long size = size();
+		if (size < 0) {
+			throw new UnsupportedOperationException(
+					"Not all dimensions of the parameter space support access by index");
+		}
+
+		List<Iterable<Map<String, Object>>> shards = new ArrayList<Iterable<Map<String, Object>>>(
+				aShards);
+		for (int i = 0; i < aShards; i++) {
+			// Distribute the remainder over the first shards
+			long begin = (size / aShards) * i + Math.min(i, size % aShards);
+			long end = begin + (size / aShards) + (i < size % aShards ? 1 : 0);
+			shards.add(new Shard(begin, end));
+		}
+		return shards;
+	}
+
+	private static int indexedSize(Dimension<?> aDimension)
+	{
+		if (aDimension instanceof IndexedDimension) {
+			return ((IndexedDimension<?>) aDimension).size();
+		}
+		return -1;
+	}
+
+	private class Shard
+		implements Iterable<Map<String, Object>>
+	{
+		private final long begin;
+		private final long end;
+
+		public Shard(long aBegin, long aEnd)
+		{
+			begin = aBegin;
+			end = aEnd;
+		}
+
+		@Override
+		public Iterator<Map<String, Object>> iterator()
+		{
+			return new Iterator<Map<String, Object>>()
+			{
+				private long index = begin;
+				private Map<String, Object> next = seek();
+
+				private Map<String, Object> seek()
+				{
+					while (index < end) {
+						Map<String, Object> config = get(index);
+						index++;
+						if (isValid(config)) {
+							return config;
+						}
+					}
+					return null;
+				}
+
+				@Override
+				public boolean hasNext()
+				{
+					return next != null;
+				}
+
+				@Override
+				public Map<String, Object> next()
+				{
+					if (next == null) {
+						throw new NoSuchElementException();
+					}
+					try {
+						return next;
+					}
+					finally {
+						next = seek();
+					}
+				}
+
+				@Override
+				public void remove()
+				{
+					throw new UnsupportedOperationException("No no");
+				}
+			};
+		}
+
+		@Override
+		public String toString()
+		{
+			return "[" + begin + "-" + end + ")";
+		}
+	}
+
 	private class ParameterSpaceIterator
 		implements Iterator<Map<String, Object>>
 	{
@@ -196,20 +435,7 @@ public class ParameterSpace implements Iterable<Map<String, Object>>
 
 			stepCount++;
 
-			// If no constraints are set, run everything
-			if (constraints.isEmpty()) {
-				return true;
-			}
-			
-			// If constraints are set, run a configuration if any of them says "ok"
-			for (Constraint c : constraints) {
-				if (c.isValid(config)) {
-					return true;
-				}
-			}
-			
-			// default to not running
-			return false;
+			return isValid(config);
 		}
 
 		@Override
@@ -35,6 +35,15 @@ public interface Task
 {
 	public static final String PROPERTIES_KEY = "PROPERTIES.txt";
 	public static final String DISCRIMINATORS_KEY = "DISCRIMINATORS.txt";
+	/**
+	 * Storage context holding the full text of property and discriminator values which exceed
+	 * {@link de.tudarmstadt.ukp.dkpro.lab.Util#MAX_VALUE_LENGTH} and are thus represented by
+	 * their hash. The texts are addressed by their hash, so each is stored only once no matter
+	 * how many task contexts use it.
+	 *
+	 * @since 0.12.0
+	 */
+	public static final String VALUES_CONTEXT_ID = ".values";
 
 	String getType();
 
@@ -187,4 +196,22 @@ public interface Task
 	void removeReport(Class<? extends Report> aReport);
 
 	Set<Class<? extends Report>> getReports();
+
+	/**
+	 * Check if the output of the task is only intermediate data. Intermediate data is deleted by
+	 * the batch engine as soon as all other tasks of the batch importing from this task have
+	 * finished. If it is needed again later, the task is executed again.
+	 *
+	 * @see #getIntermediateKeys()
+	 * @since 0.12.0
+	 */
+	boolean isIntermediate();
+
+	/**
+	 * Get the keys holding intermediate data. If the task is {@link #isIntermediate()
+	 * intermediate} but no keys are specified, the whole task context is intermediate.
+	 *
+	 * @since 0.12.0
+	 */
+	Set<String> getIntermediateKeys();
 }
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+
+import de.tudarmstadt.ukp.dkpro.lab.engine.TaskContext;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.PropertiesAdapter;
+
+/**
+ * Binary summary of a completed task context, holding the {@link TaskContextMetadata} as well as
+ * the task properties and discriminators. Storage services may use it to answer reads of
+ * {@link TaskContextMetadata#METADATA_KEY}, {@link Task#PROPERTIES_KEY} and
+ * {@link Task#DISCRIMINATORS_KEY} with a single sequential read instead of parsing three
+ * properties files. The text files remain the authoritative version of this data.
+ * <p>
+ * The format is: a magic number, a version and the offsets of the properties and discriminators,
+ * followed by the metadata and then the entries of the imports, properties and discriminators
+ * maps, each prefixed by their count. Strings are written as their length in bytes followed by
+ * their UTF-8 encoding, or {@code -1} for {@code null}. The offsets allow reading a single
+ * {@link Section} without decoding the others.
+ *
+ * @since 0.12.0
+ */
+public class TaskContextManifest
+	implements StreamReader, StreamWriter
+{
+	public static final String MANIFEST_KEY = "MANIFEST.bin";
+
+	private static final int MAGIC = 0x444b4c4d;
+	private static final int VERSION = 1;
+
+	/**
+	 * The parts of a manifest which can be read separately.
+	 */
+	public static enum Section
+	{
+		METADATA, PROPERTIES, DISCRIMINATORS
+	}
+
+	private final Section section;
+	private TaskContextMetadata metadata;
+	private Map<String, String> properties;
+	private Map<String, String> discriminators;
+
+	public TaskContextManifest()
+	{
+		this(new TaskContextMetadata(), new HashMap<String, String>(),
+				new HashMap<String, String>());
+	}
+
+	/**
+	 * Create a manifest which only reads the given section. The other sections are {@code null}
+	 * after reading.
+	 */
+	public TaskContextManifest(Section aSection)
+	{
+		section = aSection;
+	}
+
+	public TaskContextManifest(TaskContextMetadata aMetadata, Map<String, String> aProperties,
+			Map<String, String> aDiscriminators)
+	{
+		section = null;
+		metadata = aMetadata;
+		properties = aProperties;
+		discriminators = aDiscriminators;
+	}
+
+	/**
+	 * Create the manifest for the given context from its metadata and the task properties and
+	 * discriminators stored in it.
+	 */
+	public static TaskContextManifest create(TaskContext aContext)
+	{
+		StorageService storage = aContext.getStorageService();
+		return new TaskContextManifest(aContext.getMetadata(),
+				load(storage, aContext.getId(), Task.PROPERTIES_KEY),
+				load(storage, aContext.getId(), Task.DISCRIMINATORS_KEY));
+	}
+
+	private static Map<String, String> load(StorageService aStorage, String aContextId,
+			String aKey)
+	{
+		if (!aStorage.containsKey(aContextId, aKey)) {
+			return new HashMap<String, String>();
+		}
+		return aStorage.retrieveBinary(aContextId, aKey, new PropertiesAdapter()).getMap();
+	}
+
+	public TaskContextMetadata getMetadata()
+	{
+		return metadata;
+	}
+
+	public Map<String, String> getProperties()
+	{
+		return properties;
+	}
+
+	public Map<String, String> getDiscriminators()
+	{
+		return discriminators;
+	}
+
+	/**
+	 * Copy the metadata held in this manifest to the given metadata object.
+	 */
+	public void copyTo(TaskContextMetadata aTarget)
+	{
+		aTarget.setId(metadata.getId());
+		aTarget.setType(metadata.getType());
+		aTarget.setLabel(metadata.getLabel());
+		aTarget.setFingerprint(metadata.getFingerprint());
+		aTarget.setStart(metadata.getStart());
+		aTarget.setEnd(metadata.getEnd());
+		aTarget.getImports().putAll(metadata.getImports());
+	}
+
+	@Override
+	public void read(InputStream aInputStream)
+		throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.wrap(IOUtils.toByteArray(aInputStream));
+		try {
+			if (buf.getInt() != MAGIC) {
+				throw new IOException("Not a task context manifest");
+			}
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported task context manifest version [" + version
+						+ "]");
+			}
+
+			metadata = null;
+			properties = null;
+			discriminators = null;
+			int propertiesOffset = buf.getInt();
+			int discriminatorsOffset = buf.getInt();
+			if (section == Section.PROPERTIES) {
+				buf.position(propertiesOffset);
+			}
+			else if (section == Section.DISCRIMINATORS) {
+				buf.position(discriminatorsOffset);
+			}
+
+			if (section == null || section == Section.METADATA) {
+				metadata = readMetadata(buf);
+			}
+			if (section == null || section == Section.PROPERTIES) {
+				properties = readMap(buf, new HashMap<String, String>());
+			}
+			if (section == null || section == Section.DISCRIMINATORS) {
+				discriminators = readMap(buf, new HashMap<String, String>());
+			}
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Truncated task context manifest", e);
+		}
+		catch (IllegalArgumentException e) {
+			// Invalid offset
+			throw new IOException("Corrupt task context manifest", e);
+		}
+	}
+
+	private static TaskContextMetadata readMetadata(ByteBuffer aBuffer)
+		throws IOException
+	{
+		TaskContextMetadata meta = new TaskContextMetadata();
+		meta.setId(readString(aBuffer));
+		meta.setType(readString(aBuffer));
+		meta.setLabel(readString(aBuffer));
+		meta.setFingerprint(readString(aBuffer));
+		meta.setStart(aBuffer.getLong());
+		meta.setEnd(aBuffer.getLong());
+		readMap(aBuffer, meta.getImports());
+		return meta;
+	}
+
+	@Override
+	public void write(OutputStream aStream)
+		throws Exception
+	{
+		// The offsets are only known once the preceding sections have been written
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream bos = new DataOutputStream(body);
+		writeString(bos, metadata.getId());
+		writeString(bos, metadata.getType());
+		writeString(bos, metadata.getLabel());
+		writeString(bos, metadata.getFingerprint());
+		bos.writeLong(metadata.getStart());
+		bos.writeLong(metadata.getEnd());
+		writeMap(bos, metadata.getImports());
+		int headerSize = 16;
+		int propertiesOffset = headerSize + bos.size();
+		writeMap(bos, properties);
+		int discriminatorsOffset = headerSize + bos.size();
+		writeMap(bos, discriminators);
+		bos.flush();
+
+		DataOutputStream os = new DataOutputStream(aStream);
+		os.writeInt(MAGIC);
+		os.writeInt(VERSION);
+		os.writeInt(propertiesOffset);
+		os.writeInt(discriminatorsOffset);
+		body.writeTo(os);
+		os.flush();
+	}
+
+	private static String readString(ByteBuffer aBuffer)
+		throws IOException
+	{
+		int length = aBuffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > aBuffer.remaining()) {
+			throw new IOException("Corrupt task context manifest: invalid string length ["
+					+ length + "]");
+		}
+		String value = new String(aBuffer.array(), aBuffer.position(), length,
+				StandardCharsets.UTF_8);
+		aBuffer.position(aBuffer.position() + length);
+		return value;
+	}
+
+	private static Map<String, String> readMap(ByteBuffer aBuffer, Map<String, String> aMap)
+		throws IOException
+	{
+		int count = aBuffer.getInt();
+		// Each entry takes at least two lengths
+		if (count < 0 || count > aBuffer.remaining() / 8) {
+			throw new IOException("Corrupt task context manifest: invalid entry count [" + count
+					+ "]");
+		}
+		for (int i = 0; i < count; i++) {
+			String key = readString(aBuffer);
+			aMap.put(key, readString(aBuffer));
+		}
+		return aMap;
+	}
+
+	private static void writeString(DataOutputStream aOs, String aValue)
+		throws IOException
+	{
+		if (aValue == null) {
+			aOs.writeInt(-1);
+			return;
+		}
+		byte[] bytes = aValue.getBytes(StandardCharsets.UTF_8);
+		aOs.writeInt(bytes.length);
+		aOs.write(bytes);
+	}
+
+	private static void writeMap(DataOutputStream aOs, Map<String, String> aMap)
+		throws IOException
+	{
+		// Sorted to produce the same file for the same data
+		Map<String, String> sorted = new TreeMap<String, String>(aMap);
+		aOs.writeInt(sorted.size());
+		for (Entry<String, String> e : sorted.entrySet()) {
+			writeString(aOs, e.getKey());
+			writeString(aOs, e.getValue());
+		}
+	}
+}
@@ -20,11 +20,15 @@ package de.tudarmstadt.ukp.dkpro.lab.task;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
 
 import de.tudarmstadt.ukp.dkpro.lab.engine.TaskContextFactory;
 import de.tudarmstadt.ukp.dkpro.lab.reporting.LabelFunction;
@@ -50,6 +54,7 @@ public class TaskContextMetadata
 	private String type;
 	private long start;
 	private long end;
+	private String fingerprint;
 	private Map<String, String> imports;
 
 	{
@@ -140,6 +145,71 @@ public class TaskContextMetadata
 		end = aEnd;
 	}
 
+	/**
+	 * Get the fingerprint of the discriminators of the task.
+	 *
+	 * @return the fingerprint or {@code null} if the context was created without a fingerprint.
+	 * @see #fingerprint(Map)
+	 * @since 0.12.0
+	 */
+	public String getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	/**
+	 * Set the fingerprint of the discriminators of the task.
+	 *
+	 * @see #fingerprint(Map)
+	 * @since 0.12.0
+	 */
+	public void setFingerprint(String aFingerprint)
+	{
+		fingerprint = aFingerprint;
+	}
+
+	/**
+	 * Calculate a canonical hash of the given discriminators. The hash does not depend on the
+	 * order of the discriminators. Two tasks of the same type with the same fingerprint have been
+	 * configured with the same discriminator values.
+	 *
+	 * @param aDiscriminators the discriminators as returned by {@link Task#getDescriminators()}.
+	 * @return the fingerprint as hexadecimal string.
+	 * @since 0.12.0
+	 */
+	public static String fingerprint(Map<String, String> aDiscriminators)
+	{
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		for (Entry<String, String> e : new TreeMap<String, String>(aDiscriminators).entrySet()) {
+			update(digest, e.getKey());
+			update(digest, e.getValue());
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static void update(MessageDigest aDigest, String aValue)
+	{
+		// Length-prefixed, so the boundaries between keys and values are unambiguous
+		byte[] bytes = aValue != null ? aValue.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		int length = aValue != null ? bytes.length : -1;
+		aDigest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16),
+				(byte) (length >>> 8), (byte) length });
+		aDigest.update(bytes);
+	}
+
 	/**
 	 * Set the data-dependencies of the task.
 	 */
@@ -181,6 +251,7 @@ public class TaskContextMetadata
 		setType(props.getProperty("type"));
 		setId(props.getProperty("uuid"));
 		setLabel(props.getProperty("label"));
+		setFingerprint(props.getProperty("fingerprint"));
 
 		for (String key : (Set<String>) (Set<?>) props.keySet()) {
 			if (!key.startsWith(IMPORT)) {
@@ -205,6 +276,9 @@ public class TaskContextMetadata
 		if (getLabel() != null) {
 			props.setProperty("label", getLabel());
 		}
+		if (getFingerprint() != null) {
+			props.setProperty("fingerprint", getFingerprint());
+		}
 		props.setProperty("duration", ((getEnd() - getStart()) / 1000) + "s");
 
 		for (Entry<String, String> e : imports.entrySet()) {
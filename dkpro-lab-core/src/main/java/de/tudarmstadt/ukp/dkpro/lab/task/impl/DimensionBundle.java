@@ -23,11 +23,11 @@ import java.util.NoSuchElementException;
 
 import de.tudarmstadt.ukp.dkpro.lab.Util;
 import de.tudarmstadt.ukp.dkpro.lab.task.Dimension;
-import de.tudarmstadt.ukp.dkpro.lab.task.FixedSizeDimension;
+import de.tudarmstadt.ukp.dkpro.lab.task.IndexedDimension;
 
 public class DimensionBundle<T>
 	extends Dimension<Map<String, T>>
-	implements FixedSizeDimension
+	implements IndexedDimension<Map<String, T>>
 {
 	public static final String KEY_BUNDLE_ID = "__bundleId";
 
@@ -77,11 +77,7 @@ public class DimensionBundle<T>
 			throw new NoSuchElementException("Dimension [" + getName() + "] is empty");
 		}
 		
-		// Remove the bundle key from the values
-		Map<String, T> mapCopy = new HashMap<String, T>(values[current]);
-		mapCopy.remove(KEY_BUNDLE_ID);
-		
-		return mapCopy;
+		return valueAt(current);
 	}
 
 	@Override
@@ -101,10 +97,31 @@ public class DimensionBundle<T>
 		return values.length;
 	}
 
+	@Override
+	public Map<String, T> valueAt(int aIndex)
+	{
+		// Remove the bundle key from the values
+		Map<String, T> mapCopy = new HashMap<String, T>(values[aIndex]);
+		mapCopy.remove(KEY_BUNDLE_ID);
+
+		return mapCopy;
+	}
+
 	public String getBundleId()
 	{
-		if (current >= 0 && current < values.length) {
-			Object id = values[current].get(KEY_BUNDLE_ID);
+		return getBundleId(current);
+	}
+
+	/**
+	 * Get the ID of the bundle at the given position without moving the cursor.
+	 *
+	 * @return the bundle ID or {@code null} if the bundle has no ID.
+	 * @since 0.12.0
+	 */
+	public String getBundleId(int aIndex)
+	{
+		if (aIndex >= 0 && aIndex < values.length) {
+			Object id = values[aIndex].get(KEY_BUNDLE_ID);
 			if (id != null) {
 				return Util.toString(id);
 			}
@@ -20,11 +20,11 @@ package de.tudarmstadt.ukp.dkpro.lab.task.impl;
 import java.util.NoSuchElementException;
 
 import de.tudarmstadt.ukp.dkpro.lab.task.Dimension;
-import de.tudarmstadt.ukp.dkpro.lab.task.FixedSizeDimension;
+import de.tudarmstadt.ukp.dkpro.lab.task.IndexedDimension;
 
 public class DiscreteDimension<T>
 	extends Dimension<T>
-	implements FixedSizeDimension
+	implements IndexedDimension<T>
 {
 	private T[] values;
 	private int current;
@@ -75,6 +75,12 @@ public class DiscreteDimension<T>
 		return values.length;
 	}
 
+	@Override
+	public T valueAt(int aIndex)
+	{
+		return values[aIndex];
+	}
+
 	@Override
 	public String toString()
 	{
@@ -21,10 +21,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import de.tudarmstadt.ukp.dkpro.lab.task.Dimension;
+import de.tudarmstadt.ukp.dkpro.lab.task.IndexedDimension;
 
 public class FoldDimensionBundle<T> extends DimensionBundle<Collection<T>> implements DynamicDimension
 {
@@ -33,6 +35,7 @@ public class FoldDimensionBundle<T> extends DimensionBundle<Collection<T>> imple
 	private int validationBucket = -1;
 	private int folds;
 	private Comparator<T> comparator;
+	private List<T>[] indexedBuckets; // Guarded by this
 	
     public FoldDimensionBundle(String aName, Dimension<T> aFoldedDimension, int aFolds, Comparator<T> aComparator)
     {
@@ -49,19 +52,24 @@ public class FoldDimensionBundle<T> extends DimensionBundle<Collection<T>> imple
 	
 	private void init()
 	{
-		buckets = new List[folds];
+		// Capture all data from the dimension into buckets, one per fold
+		foldedDimension.rewind();
+		buckets = createBuckets(foldedDimension);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<T>[] createBuckets(Iterator<T> aValues)
+	{
+		List<T>[] buckets = new List[folds];
 		for(int bucket=0;bucket<buckets.length;bucket++){
 			buckets[bucket] = new ArrayList<T>();
 		}
 		
-		// Capture all data from the dimension into buckets, one per fold
-		foldedDimension.rewind();
-		
 		//User controls instances across folds
 		if(comparator != null){
 		
-	        while (foldedDimension.hasNext()) {
-	            T newItem = foldedDimension.next();
+	        while (aValues.hasNext()) {
+	            T newItem = aValues.next();
 	            
 	            // Check every bucket if the current object belongs there
 	            boolean found = false;
@@ -71,7 +79,7 @@ public class FoldDimensionBundle<T> extends DimensionBundle<Collection<T>> imple
 	                    if (comparator.compare(item, newItem) == 0) {
 	                        // has to go into this bucket!
 	                        found = true;
-	                        addToBucket(newItem, bucket);
+	                        addToBucket(buckets, newItem, bucket);
 	                        break;
 	                    }
 	                }
@@ -92,7 +100,7 @@ public class FoldDimensionBundle<T> extends DimensionBundle<Collection<T>> imple
 	                		smallestBucketSize = buckets[smallestBucket].size();
 	                	}
 	                }
-	                addToBucket(newItem, smallestBucket);
+	                addToBucket(buckets, newItem, smallestBucket);
 	            }
 	        }
 
@@ -100,14 +108,14 @@ public class FoldDimensionBundle<T> extends DimensionBundle<Collection<T>> imple
 		}else{
 		
 			int i = 0;
-			while (foldedDimension.hasNext()) {
+			while (aValues.hasNext()) {
 				int bucket = i % folds;
 				
 				if (buckets[bucket] == null) {
 					buckets[bucket] = new ArrayList<T>();
 				}
 				
-				buckets[bucket].add(foldedDimension.next());
+				buckets[bucket].add(aValues.next());
 				i++;
 			}
 		
@@ -126,8 +134,9 @@ public class FoldDimensionBundle<T> extends DimensionBundle<Collection<T>> imple
 						"Previous folds and buckets: " + foldsAndSizes);
 			}
 		}
+		return buckets;
 	}
-    private void addToBucket(T newItem, int bucket){
+    private void addToBucket(List<T>[] buckets, T newItem, int bucket){
 		if (buckets[bucket] == null) {
 			buckets[bucket] = new ArrayList<T>();
 		}
@@ -157,21 +166,73 @@ public class FoldDimensionBundle<T> extends DimensionBundle<Collection<T>> imple
 
 	@Override
 	public Map<String, Collection<T>> current()
+	{
+		return fold(buckets, validationBucket);
+	}
+
+	private Map<String, Collection<T>> fold(List<T>[] aBuckets, int aValidationBucket)
 	{
 		List<T> trainingData = new ArrayList<T>();
-		for (int i = 0; i < buckets.length; i++) {
-			if (i != validationBucket) {
-				trainingData.addAll(buckets[i]);
+		for (int i = 0; i < aBuckets.length; i++) {
+			if (i != aValidationBucket) {
+				trainingData.addAll(aBuckets[i]);
 			}
 		}
 		
 		Map<String, Collection<T>> data = new HashMap<String, Collection<T>>();
 		data.put(getName()+"_training", trainingData);
-		data.put(getName()+"_validation", buckets[validationBucket]);
+		data.put(getName()+"_validation", aBuckets[aValidationBucket]);
 		
 		return data;
 	}
 
+	/**
+	 * The number of folds if the folded dimension supports access by index and does not depend on
+	 * the configuration, otherwise {@code -1}.
+	 */
+	@Override
+	public int size()
+	{
+		if (foldedDimension instanceof IndexedDimension
+				&& !(foldedDimension instanceof DynamicDimension)
+				&& ((IndexedDimension<?>) foldedDimension).size() >= 0) {
+			return folds;
+		}
+		return -1;
+	}
+
+	@Override
+	public Map<String, Collection<T>> valueAt(int aIndex)
+	{
+		if (size() < 0) {
+			throw new UnsupportedOperationException("Folded dimension ["
+					+ foldedDimension.getName() + "] does not support access by index");
+		}
+		if (aIndex < 0 || aIndex >= folds) {
+			throw new IndexOutOfBoundsException("Fold [" + aIndex + "] out of range [0-"
+					+ (folds - 1) + "]");
+		}
+		return fold(getIndexedBuckets(), aIndex);
+	}
+
+	/**
+	 * The buckets used for access by index are computed separately from those used by the cursor,
+	 * so the folded dimension is never rewound here.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized List<T>[] getIndexedBuckets()
+	{
+		if (indexedBuckets == null) {
+			IndexedDimension<T> dim = (IndexedDimension<T>) foldedDimension;
+			List<T> values = new ArrayList<T>(dim.size());
+			for (int i = 0; i < dim.size(); i++) {
+				values.add(dim.valueAt(i));
+			}
+			indexedBuckets = createBuckets(values.iterator());
+		}
+		return indexedBuckets;
+	}
+
 	@Override
 	public void setConfiguration(Map<String, Object> aConfig)
 	{
@@ -43,6 +43,7 @@ import de.tudarmstadt.ukp.dkpro.lab.engine.TaskContext;
 import de.tudarmstadt.ukp.dkpro.lab.reporting.Report;
 import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
 import de.tudarmstadt.ukp.dkpro.lab.storage.impl.PropertiesAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
 import de.tudarmstadt.ukp.dkpro.lab.task.Discriminator;
 import de.tudarmstadt.ukp.dkpro.lab.task.Property;
 import de.tudarmstadt.ukp.dkpro.lab.task.Task;
@@ -58,12 +59,17 @@ public class TaskBase
 	private Map<String, String> properties;
 	private Map<String, String> discriminators;
 	private Set<Class<? extends Report>> reports;
+	private boolean intermediate;
+	private Set<String> intermediateKeys;
+	private Map<String, RenderedValue> renderedValues;
 
 	{
+		intermediateKeys = new HashSet<String>();
 		properties = new HashMap<String, String>();
 		discriminators = new HashMap<String, String>();
 		reports = new HashSet<Class<? extends Report>>();
 		imports = new HashMap<String, String>();
+		renderedValues = new HashMap<String, RenderedValue>();
 	}
 
 	/**
@@ -165,7 +171,11 @@ public class TaskBase
 		descs.putAll(getDescriminators());
 
 		// Load previous discriminators and check that the do not conflict with discriminators
-		// defined in this task
+		// defined in this task. The discriminators of a context already include those of all
+		// contexts it imports from, so each context only needs to be merged once, even if
+		// several keys are imported from it.
+		Set<String> resolvedUris = new HashSet<String>();
+		Set<String> resolvedContexts = new HashSet<String>();
 		for (String rawUri : aContext.getMetadata().getImports().values()) {
 			URI uri = URI.create(rawUri);
 
@@ -173,7 +183,17 @@ public class TaskBase
 				continue;
 			}
 
+			// Imports only differing in the key resolve to the same context
+			String contextUri = uri.getScheme() + "://" + uri.getRawAuthority()
+					+ (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+			if (!resolvedUris.add(contextUri)) {
+				continue;
+			}
+
 			final TaskContextMetadata meta = aContext.resolve(uri);
+			if (!resolvedContexts.add(meta.getId())) {
+				continue;
+			}
 
 			Map<String, String> prerequisiteDiscriminators = storageService.retrieveBinary(
 					meta.getId(), DISCRIMINATORS_KEY, new PropertiesAdapter()).getMap();
@@ -342,6 +362,42 @@ public class TaskBase
 		return reports;
 	}
 
+	/**
+	 * Mark the whole output of the task as intermediate data.
+	 *
+	 * @see Task#isIntermediate()
+	 */
+	public void setIntermediate(boolean aIntermediate)
+	{
+		intermediate = aIntermediate;
+	}
+
+	@Override
+	public boolean isIntermediate()
+	{
+		return intermediate || !intermediateKeys.isEmpty();
+	}
+
+	/**
+	 * Mark the given key as intermediate data. Only the marked keys are deleted once they are no
+	 * longer needed, the rest of the task context is retained.
+	 *
+	 * @see Task#isIntermediate()
+	 */
+	public void addIntermediateKey(String aKey)
+	{
+		if (aKey == null) {
+			throw new IllegalArgumentException("Must specify a key");
+		}
+		intermediateKeys.add(aKey);
+	}
+
+	@Override
+	public Set<String> getIntermediateKeys()
+	{
+		return intermediateKeys;
+	}
+
 	@Override
 	public void persist(final TaskContext aContext)
 		throws IOException
@@ -349,6 +405,49 @@ public class TaskBase
 		aContext.storeBinary(PROPERTIES_KEY, new PropertiesAdapter(getAttributes(), "Task properties"));
 
 		aContext.storeBinary(DISCRIMINATORS_KEY, new PropertiesAdapter(getResolvedDescriminators(aContext)));
+
+		// Values which are too long are only represented by their hash in the properties and
+		// discriminators. Their full text is stored once for all contexts.
+		StorageService storage = aContext.getStorageService();
+		for (RenderedValue value : renderedValues.values()) {
+			String key = getHashedValueKey(value.bounded);
+			if (key != null && !storage.containsKey(VALUES_CONTEXT_ID, key)) {
+				storage.storeBinary(VALUES_CONTEXT_ID, key, new StringAdapter(value.text));
+			}
+		}
+	}
+
+	/**
+	 * Get the key under which the full text of a value is stored in {@link #VALUES_CONTEXT_ID}
+	 * which has been replaced by its hash.
+	 *
+	 * @param aHashedValue a property or discriminator value.
+	 * @return the key or {@code null} if the value has not been replaced by its hash.
+	 * @see Util#toBoundedString(Object)
+	 * @since 0.12.0
+	 */
+	public static String getHashedValueKey(String aHashedValue)
+	{
+		if (!Util.isHashedValue(aHashedValue)) {
+			return null;
+		}
+		return aHashedValue.substring(Util.HASHED_VALUE_PREFIX.length()) + ".txt";
+	}
+
+	/**
+	 * Render the value of a field like {@link Util#toBoundedString(Object)}. Rendering and hashing
+	 * large values is expensive and the properties and discriminators are requested many times
+	 * while a task is run, so the result is remembered as long as the field holds the same
+	 * instance. A value which is modified in place without being replaced is not rendered again.
+	 */
+	private String render(String aField, Object aValue)
+	{
+		RenderedValue rendered = renderedValues.get(aField);
+		if (rendered == null || rendered.value != aValue) {
+			rendered = new RenderedValue(aValue);
+			renderedValues.put(aField, rendered);
+		}
+		return rendered.bounded;
 	}
 
 	protected void analyze(Class<?> aClazz, Class<? extends Annotation> aAnnotation, Map<String, String> props)
@@ -362,7 +461,8 @@ public class TaskBase
 			try {
 				if (field.isAnnotationPresent(aAnnotation)) {
 					String name = getClass().getName()+"|"+field.getName();
-					String value = Util.toString(field.get(this));
+					String value = render(aClazz.getName() + "|" + field.getName(),
+							field.get(this));
 					props.put(name, value);
 					log.debug("Found "+aAnnotation.getSimpleName()+" ["+name+"]: "+value);
 				}
@@ -375,4 +475,21 @@ public class TaskBase
 			}
 		}
 	}
+
+	private static class RenderedValue
+	{
+		final Object value;
+		final String bounded;
+		// The full text is only retained if it has been replaced by its hash, so it can be
+		// persisted
+		final String text;
+
+		public RenderedValue(Object aValue)
+		{
+			value = aValue;
+			String fullText = Util.toString(aValue);
+			bounded = Util.bound(fullText);
+			text = Util.isHashedValue(bounded) ? fullText : null;
+		}
+	}
 }
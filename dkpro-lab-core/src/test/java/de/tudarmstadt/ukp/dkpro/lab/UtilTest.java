@@ -18,6 +18,12 @@
 package de.tudarmstadt.ukp.dkpro.lab;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -37,4 +43,26 @@ public class UtilTest
 		Class<?> data = Util.class;
 		assertEquals(Util.class.toString(), Util.toString(data));
 	}
+
+	@Test
+	public void testToBoundedString()
+	{
+		List<String> small = Arrays.asList("a", "b");
+		assertEquals("[a, b]", Util.toBoundedString(small));
+
+		List<String> large = new ArrayList<String>();
+		for (int i = 0; i < 10000; i++) {
+			large.add("file" + i + ".txt");
+		}
+		String value = Util.toBoundedString(large);
+		assertTrue(Util.isHashedValue(value));
+		assertEquals(Util.bound(Util.toString(large)), value);
+		// The same content yields the same hash, independent of the instance
+		assertEquals(value, Util.toBoundedString(new ArrayList<String>(large)));
+		assertFalse(value.equals(Util.toBoundedString(large.subList(1, large.size()))));
+
+		// Modifications are reflected in the result
+		large.add("late.txt");
+		assertFalse(value.equals(Util.toBoundedString(large)));
+	}
 }
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.engine.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConstraintMatcherTest
+{
+	@Test
+	public void testShortAndFullNames()
+	{
+		Map<String, String> discriminators = map("de.Task|param", "1", "de.Task|other", "2");
+
+		assertTrue(matches(discriminators, true, "param", "1"));
+		assertTrue(matches(discriminators, true, "de.Task|param", "1"));
+		assertTrue(matches(discriminators, true, "param", "1", "other", "2"));
+		assertFalse(matches(discriminators, true, "param", "2"));
+		assertFalse(matches(discriminators, true, "de.Task|param", "2"));
+	}
+
+	@Test
+	public void testMissingKey()
+	{
+		Map<String, String> discriminators = map("de.Task|param", "1");
+
+		assertFalse(matches(discriminators, true, "missing", "1"));
+		assertTrue(matches(discriminators, false, "missing", "1"));
+		// A short name must match the full field name, not just a part of it
+		assertFalse(matches(discriminators, true, "aram", "1"));
+	}
+
+	@Test
+	public void testFirstMatchingKeyDecides()
+	{
+		Map<String, String> discriminators = map("de.A|param", "1", "de.B|param", "2");
+
+		assertTrue(matches(discriminators, true, "param", "1"));
+		assertFalse(matches(discriminators, true, "param", "2"));
+		assertTrue(matches(discriminators, true, "de.B|param", "2"));
+	}
+
+	@Test
+	public void testPattern()
+	{
+		Map<String, String> discriminators = map("de.Task|param1", "1", "de.Task|param2", "2");
+
+		assertTrue(matches(discriminators, true, "param[0-9]", "1"));
+		assertFalse(matches(discriminators, true, "param[2-9]", "1"));
+	}
+
+	private static boolean matches(Map<String, String> aDiscriminators, boolean aStrict,
+			String... aConstraints)
+	{
+		boolean compiled = new ConstraintMatcher(map(aConstraints)).matches(aDiscriminators,
+				aStrict);
+		boolean cached = ImportUtil.matchConstraints(aDiscriminators, map(aConstraints),
+				aStrict);
+		assertTrue(compiled == cached);
+		return compiled;
+	}
+
+	private static Map<String, String> map(String... aKeyValues)
+	{
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		for (int i = 0; i < aKeyValues.length; i += 2) {
+			map.put(aKeyValues[i], aKeyValues[i + 1]);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.engine.impl;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.AccessMode;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.StorageKey;
+import de.tudarmstadt.ukp.dkpro.lab.storage.filesystem.FileSystemStorageService;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+public class DefaultTaskContextTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private int lookups;
+
+	@Test
+	public void testResolutionIsRemembered()
+	{
+		FileSystemStorageService storage = new FileSystemStorageService()
+		{
+			@Override
+			public TaskContextMetadata getLatestContext(String aTaskType,
+					Map<String, String> aConstraints)
+			{
+				lookups++;
+				return super.getLatestContext(aTaskType, aConstraints);
+			}
+		};
+		storage.setStorageRoot(folder.getRoot());
+
+		TaskContextMetadata producer = new TaskContextMetadata();
+		producer.setId("producer");
+		producer.setType("Producer");
+		storage.storeBinary("producer", "output/data.txt", new StringAdapter("data"));
+		storage.storeBinary("producer", METADATA_KEY, producer);
+
+		DefaultTaskContext ctx = new DefaultTaskContext(null);
+		ctx.setStorageService(storage);
+		ctx.getMetadata().setId("consumer");
+		ctx.getMetadata().getImports().put("input", "task-latest://Producer/output");
+
+		File expected = storage.locateKey("producer", "output");
+		for (int i = 0; i < 10; i++) {
+			assertEquals(expected, ctx.getFolder("input", AccessMode.READONLY));
+			StorageKey key = ctx.resolve("input", AccessMode.READONLY, false);
+			assertEquals("producer", key.contextId);
+		}
+		assertEquals(1, lookups);
+
+		// Data stored locally supersedes the import
+		ctx.storeBinary("input/data.txt", new StringAdapter("local"));
+		assertEquals("consumer", ctx.resolve("input", AccessMode.READONLY, false).contextId);
+		assertEquals(storage.locateKey("consumer", "input"),
+				ctx.getFolder("input", AccessMode.READONLY));
+	}
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+public class CachedFileSystemStorageServiceTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testScan()
+	{
+		FileSystemStorageService fs = new FileSystemStorageService();
+		fs.setStorageRoot(folder.getRoot());
+		for (int i = 0; i < 50; i++) {
+			fs.storeBinary("ctx" + i, METADATA_KEY, metadata("ctx" + i, i));
+		}
+		// Incomplete context
+		fs.storeBinary("running", "data.txt", new StringAdapter("x"));
+
+		CachedFileSystemStorageService storage = new CachedFileSystemStorageService();
+		storage.setStorageRoot(folder.getRoot());
+		storage.setScanThreads(4);
+		storage.startScan();
+
+		// Lookups do not need to wait for the scan
+		assertEquals("ctx7", storage.getContext("ctx7").getId());
+
+		List<TaskContextMetadata> contexts = storage.getContexts();
+		assertEquals(50, contexts.size());
+		assertEquals("ctx49", contexts.get(0).getId());
+		assertEquals("ctx0", contexts.get(49).getId());
+
+		// New contexts are added without another scan
+		storage.storeBinary("ctx50", METADATA_KEY, metadata("ctx50", 50));
+		assertEquals("ctx50", storage.getContexts().get(0).getId());
+		assertTrue(storage.containsContext("running"));
+	}
+
+	@Test
+	public void testIterateDuringScan()
+		throws Exception
+	{
+		FileSystemStorageService fs = new FileSystemStorageService();
+		fs.setStorageRoot(folder.getRoot());
+		for (int i = 0; i < 10; i++) {
+			TaskContextMetadata meta = metadata("ctx" + i, i);
+			meta.setFingerprint("fingerprint");
+			fs.storeBinary("ctx" + i, METADATA_KEY, meta);
+		}
+
+		// Block the scan until the iteration is done
+		final CountDownLatch iterated = new CountDownLatch(1);
+		CachedFileSystemStorageService storage = new CachedFileSystemStorageService()
+		{
+			@Override
+			protected String getCompletedContextId(File aChild)
+			{
+				if (Thread.currentThread().getName().startsWith("storage-scan")) {
+					try {
+						iterated.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.getCompletedContextId(aChild);
+			}
+		};
+		storage.setStorageRoot(folder.getRoot());
+
+		long start = System.currentTimeMillis();
+		Iterator<TaskContextMetadata> i = storage.iterateContexts("Task",
+				new HashMap<String, String>(), 0);
+		for (int n = 9; n >= 0; n--) {
+			assertEquals("ctx" + n, i.next().getId());
+		}
+		assertFalse(i.hasNext());
+		assertEquals("ctx9", storage.getContextsByFingerprint("Task", "fingerprint").get(0).getId());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		iterated.countDown();
+
+		assertEquals(10, storage.getContexts().size());
+	}
+
+	@Test
+	public void testContextsByFingerprint()
+	{
+		Map<String, String> discriminators = new HashMap<String, String>();
+		discriminators.put("Task|param", "1");
+		String fingerprint = TaskContextMetadata.fingerprint(discriminators);
+		assertEquals(fingerprint,
+				TaskContextMetadata.fingerprint(new TreeMap<String, String>(discriminators)));
+
+		FileSystemStorageService fs = new FileSystemStorageService();
+		fs.setStorageRoot(folder.getRoot());
+		for (int i = 0; i < 10; i++) {
+			TaskContextMetadata meta = metadata("ctx" + i, i);
+			meta.setFingerprint(i % 2 == 0 ? fingerprint : null);
+			fs.storeBinary("ctx" + i, METADATA_KEY, meta);
+		}
+
+		CachedFileSystemStorageService storage = new CachedFileSystemStorageService();
+		storage.setStorageRoot(folder.getRoot());
+		// Contexts without a fingerprint may match as well
+		List<TaskContextMetadata> contexts = storage.getContextsByFingerprint("Task", fingerprint);
+		assertEquals(10, contexts.size());
+		assertEquals("ctx9", contexts.get(0).getId());
+		assertEquals(fs.getContextsByFingerprint("Task", fingerprint).size(), contexts.size());
+		assertTrue(storage.getContextsByFingerprint("Other", fingerprint).isEmpty());
+
+		discriminators.put("Task|param", "2");
+		String other = TaskContextMetadata.fingerprint(discriminators);
+		assertFalse(fingerprint.equals(other));
+		assertEquals(5, storage.getContextsByFingerprint("Task", other).size());
+
+		storage.delete("ctx9");
+		assertEquals("ctx8", storage.getContextsByFingerprint("Task", fingerprint).get(0).getId());
+	}
+
+	private static TaskContextMetadata metadata(String aId, long aEnd)
+	{
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId(aId);
+		metadata.setType("Task");
+		metadata.setEnd(aEnd);
+		return metadata;
+	}
+}
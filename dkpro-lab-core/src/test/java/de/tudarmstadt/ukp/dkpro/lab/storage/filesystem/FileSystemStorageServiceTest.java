@@ -0,0 +1,671 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.IntermediateDataTracker;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.AccessMode;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.StorageKey;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.PropertiesAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.task.Task;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextManifest;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+public class FileSystemStorageServiceTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystemStorageService storage;
+
+	@Before
+	public void setup()
+	{
+		storage = new FileSystemStorageService();
+		storage.setStorageRoot(folder.getRoot());
+	}
+
+	@Test
+	public void testDeduplicate()
+	{
+		storage.setDeduplicate(true);
+
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("same content"));
+		storage.storeBinary("ctx2", "data.txt", new StringAdapter("same content"));
+		storage.storeBinary("ctx2", "other.txt", new StringAdapter("other content"));
+
+		File file1 = storage.locateKey("ctx1", "data.txt");
+		assumeTrue(BlobStore.linkCount(file1) != -1);
+
+		// Two contexts and the blob store share the same data
+		assertEquals(3, BlobStore.linkCount(file1));
+		assertEquals("same content", storage.retrieveBinary("ctx2", "data.txt",
+				new StringAdapter()).getString());
+
+		// Replacing a key must not affect the other context
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("new content"));
+		assertEquals("same content", storage.retrieveBinary("ctx2", "data.txt",
+				new StringAdapter()).getString());
+		assertEquals("new content", storage.retrieveBinary("ctx1", "data.txt",
+				new StringAdapter()).getString());
+
+		// Blobs no longer linked from any context are purged
+		storage.delete("ctx2");
+		storage.getBlobStore().purge();
+		assertEquals(1, new File(folder.getRoot(), BlobStore.BLOB_FOLDER).list().length);
+	}
+
+	@Test
+	public void testConcurrentStoreOfSameKey()
+		throws Exception
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			sb.append("value").append(i);
+		}
+		final String content = sb.toString();
+
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try {
+						for (int i = 0; i < 10; i++) {
+							storage.storeBinary(Task.VALUES_CONTEXT_ID, "value.txt",
+									new StringAdapter(content));
+						}
+					}
+					catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			});
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(Collections.emptyList(), failures);
+		assertEquals(content, storage.retrieveBinary(Task.VALUES_CONTEXT_ID, "value.txt",
+				new StringAdapter()).getString());
+		assertEquals(1, new File(folder.getRoot(), Task.VALUES_CONTEXT_ID).list().length);
+	}
+
+	@Test
+	public void testBlobPublish()
+		throws Exception
+	{
+		BlobStore store = storage.getBlobStore();
+		File first = new File(folder.getRoot(), "first.tmp");
+		FileUtils.writeStringToFile(first, "first");
+		assumeTrue(store.publish(first, "abcd"));
+
+		// An existing blob is never replaced
+		File second = new File(folder.getRoot(), "second.tmp");
+		FileUtils.writeStringToFile(second, "second");
+		assertFalse(store.publish(second, "abcd"));
+		assertEquals("first", FileUtils.readFileToString(store.getBlob("abcd")));
+
+		// The temporary file is only consumed after the target has been linked, so a blob that
+		// is being stored always survives a purge
+		File target = new File(folder.getRoot(), "target.txt");
+		assertTrue(store.store(second, target, "abcd"));
+		assertFalse(second.exists());
+		first.delete();
+		store.purge();
+		assertTrue(store.getBlob("abcd").exists());
+		assertEquals("first", FileUtils.readFileToString(target));
+	}
+
+	@Test
+	public void testCopyFolder()
+		throws Exception
+	{
+		File source = storage.getStorageFolder("source", "folder");
+		FileUtils.writeStringToFile(new File(source, "a.txt"), "a");
+		FileUtils.writeStringToFile(new File(source, "sub/b.txt"), "b");
+
+		storage.copy("rw", "folder", new StorageKey("source", "folder"), AccessMode.READWRITE);
+		File copy = storage.locateKey("rw", "folder");
+		assertEquals("b", FileUtils.readFileToString(new File(copy, "sub/b.txt")));
+
+		// Modifying the copy must not affect the source
+		FileUtils.writeStringToFile(new File(copy, "a.txt"), "modified");
+		assertEquals("a", FileUtils.readFileToString(new File(source, "a.txt")));
+
+		storage.copy("add", "folder", new StorageKey("source", "folder"), AccessMode.ADD_ONLY);
+		assertEquals("a", FileUtils.readFileToString(new File(storage.locateKey("add",
+				"folder"), "a.txt")));
+
+		// Copying onto an existing folder replaces the files in it
+		storage.copy("rw", "folder", new StorageKey("source", "folder"), AccessMode.READWRITE);
+		assertEquals("a", FileUtils.readFileToString(new File(copy, "a.txt")));
+	}
+
+	@Test
+	public void testMap()
+	{
+		storage.storeBinary("ctx", "data.txt", new StringAdapter("mapped content"));
+
+		List<MappedByteBuffer> buffers = storage.map("ctx", "data.txt");
+		assertEquals(1, buffers.size());
+		byte[] data = new byte[buffers.get(0).remaining()];
+		buffers.get(0).get(data);
+		assertEquals("mapped content", new String(data, StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = DataAccessResourceFailureException.class)
+	public void testMapCompressed()
+	{
+		storage.storeBinary("ctx", "data.txt.gz", new StringAdapter("compressed"));
+		storage.map("ctx", "data.txt.gz");
+	}
+
+	@Test
+	public void testWriteBehind()
+	{
+		storage.setWriteBehind(true);
+		storage.setWriteBehindThreshold(16);
+
+		for (int i = 0; i < 100; i++) {
+			storage.storeBinary("ctx", "small-" + i + ".txt", new StringAdapter("data " + i));
+		}
+		storage.storeBinary("ctx", "large.txt", new StringAdapter("data exceeding the threshold"));
+
+		// Pending data is visible before it has been written
+		assertTrue(storage.containsKey("ctx", "small-99.txt"));
+		assertEquals("data 42", storage.retrieveBinary("ctx", "small-42.txt",
+				new StringAdapter()).getString());
+
+		storage.flush();
+		for (int i = 0; i < 100; i++) {
+			assertTrue(new File(folder.getRoot(), "ctx/small-" + i + ".txt").isFile());
+		}
+		assertEquals("data exceeding the threshold", storage.retrieveBinary("ctx", "large.txt",
+				new StringAdapter()).getString());
+	}
+
+	@Test
+	public void testWriteBehindFailure()
+		throws Exception
+	{
+		storage.setWriteBehind(true);
+
+		// The background write fails because "sub" is a file and not a folder
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "bad/sub"), "blocker");
+		storage.storeBinary("bad", "sub/data.txt", new StringAdapter("lost?"));
+		storage.storeBinary("good", "data.txt", new StringAdapter("fine"));
+
+		// Only a global flush reports the failure
+		try {
+			storage.flush();
+			fail("Expected a DataAccessResourceFailureException");
+		}
+		catch (DataAccessResourceFailureException e) {
+			// Expected
+		}
+
+		// Completing an unrelated context is not affected by the failure
+		storage.flush("good");
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId("good");
+		metadata.setType("type");
+		storage.storeBinary("good", METADATA_KEY, metadata);
+		assertTrue(new File(folder.getRoot(), "good/data.txt").isFile());
+
+		// The context owning the failed write cannot be completed
+		metadata.setId("bad");
+		try {
+			storage.storeBinary("bad", METADATA_KEY, metadata);
+			fail("Expected a DataAccessResourceFailureException");
+		}
+		catch (DataAccessResourceFailureException e) {
+			// Expected
+		}
+		assertFalse(new File(folder.getRoot(), "bad/" + METADATA_KEY).exists());
+
+		// The data has not been lost
+		assertEquals("lost?", storage.retrieveBinary("bad", "sub/data.txt",
+				new StringAdapter()).getString());
+
+		// Once the cause is gone, the write succeeds on the next flush
+		new File(folder.getRoot(), "bad/sub").delete();
+		storage.storeBinary("bad", METADATA_KEY, metadata);
+		assertEquals("lost?", FileUtils.readFileToString(new File(folder.getRoot(),
+				"bad/sub/data.txt")));
+
+		// Nothing is pending anymore, so the background thread can be stopped
+		storage.setWriteBehind(false);
+	}
+
+	@Test
+	public void testCompact()
+		throws Exception
+	{
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId("ctx");
+		metadata.setType("type");
+		storage.storeBinary("ctx", "data.txt", new StringAdapter("data"));
+		storage.storeBinary("ctx", "folder/sub/file.txt", new StringAdapter("nested"));
+		storage.storeBinary("ctx", "folder/other.txt", new StringAdapter("other"));
+		storage.getStorageFolder("ctx", "empty");
+		storage.storeBinary("ctx", METADATA_KEY, metadata);
+
+		storage.compact("ctx");
+		assertFalse(new File(folder.getRoot(), "ctx").exists());
+
+		assertTrue(storage.containsContext("ctx"));
+		assertTrue(storage.containsKey("ctx", "data.txt"));
+		assertTrue(storage.containsKey("ctx", "folder"));
+		assertFalse(storage.containsKey("ctx", "missing.txt"));
+		assertTrue(storage.containsKey("ctx", "empty"));
+		assertTrue(storage.locateKey("ctx", "empty").isDirectory());
+		assertEquals("data", storage.retrieveBinary("ctx", "data.txt", new StringAdapter())
+				.getString());
+		assertEquals("type", storage.getContexts().get(0).getType());
+
+		// Files are only extracted when needed. A folder is complete even if some of its files
+		// have been extracted before.
+		storage.locateKey("ctx", "folder/sub/file.txt");
+		File extracted = storage.locateKey("ctx", "folder");
+		assertEquals("nested", FileUtils.readFileToString(new File(extracted, "sub/file.txt")));
+		assertEquals("other", FileUtils.readFileToString(new File(extracted, "other.txt")));
+
+		storage.delete("ctx");
+		assertFalse(storage.containsContext("ctx"));
+	}
+
+	@Test
+	public void testConcurrentExtraction()
+		throws Exception
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 300000; i++) {
+			sb.append("data").append(i);
+		}
+		final String content = sb.toString();
+		File data = new File(folder.getRoot(), "ctx/data.txt");
+		FileUtils.writeStringToFile(data, content);
+		final ContextPack pack = ContextPack.pack(data.getParentFile(), new File(folder.getRoot(),
+				"ctx" + ContextPack.SUFFIX));
+		final File targets = folder.newFolder();
+
+		final int rounds = 5;
+		final CyclicBarrier barrier = new CyclicBarrier(8);
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			threads.add(new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try {
+						for (int i = 0; i < rounds; i++) {
+							File target = new File(targets, "data-" + i + ".txt");
+							// A failing thread must not leave the others waiting forever
+							barrier.await(10, TimeUnit.SECONDS);
+							pack.extract("data.txt", target);
+							// Whoever finds the file must see all of its data
+							assertEquals(content, FileUtils.readFileToString(target));
+						}
+					}
+					catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			});
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(Collections.emptyList(), failures);
+		assertEquals(rounds, targets.list().length);
+	}
+
+	@Test
+	public void testIterateContexts()
+		throws Exception
+	{
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			TaskContextMetadata metadata = new TaskContextMetadata();
+			metadata.setId("ctx" + i);
+			metadata.setType(i % 2 == 0 ? "even" : "odd");
+			metadata.setEnd(now - (10 - i) * 3600000L);
+			storage.storeBinary("ctx" + i, METADATA_KEY, metadata);
+			new File(folder.getRoot(), "ctx" + i + "/" + METADATA_KEY).setLastModified(
+					metadata.getEnd());
+		}
+		// A copied context has a modification time later than its end time
+		new File(folder.getRoot(), "ctx1/" + METADATA_KEY).setLastModified(now);
+
+		Iterator<TaskContextMetadata> i = storage.iterateContexts(null, null, 0);
+		for (int n = 4; n >= 0; n--) {
+			assertEquals("ctx" + n, i.next().getId());
+		}
+		assertFalse(i.hasNext());
+
+		assertEquals("ctx3", storage.getLatestContext("odd", new HashMap<String, String>())
+				.getId());
+
+		// Old contexts are not even read if the newest one matches
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "ctx0/" + METADATA_KEY),
+				"broken");
+		new File(folder.getRoot(), "ctx0/" + METADATA_KEY).setLastModified(now - 10 * 3600000L);
+		i = storage.iterateContexts("even", null, 1);
+		assertEquals("ctx4", i.next().getId());
+		assertFalse(i.hasNext());
+	}
+
+	@Test
+	public void testFingerprintIndex()
+		throws Exception
+	{
+		storage.storeBinary("old", METADATA_KEY, metadata("old", "Task", null, 1));
+		storage.storeBinary("match", METADATA_KEY, metadata("match", "Task", "fp", 2));
+		storage.storeBinary("other", METADATA_KEY, metadata("other", "Task", "fp2", 3));
+
+		// Contexts completed before the index existed are indexed on the first lookup
+		FileUtils.deleteDirectory(new File(folder.getRoot(),
+				FileSystemStorageService.FINGERPRINT_FOLDER));
+		List<TaskContextMetadata> contexts = storage.getContextsByFingerprint("Task", "fp");
+		assertEquals(2, contexts.size());
+		assertEquals("match", contexts.get(0).getId());
+		assertEquals("old", contexts.get(1).getId());
+
+		// Contexts with other fingerprints are not accessed anymore
+		storage.storeBinary("new", METADATA_KEY, metadata("new", "Task", "fp", 4));
+		storage.setStatistics(new StorageStatistics());
+		contexts = storage.getContextsByFingerprint("Task", "fp");
+		assertEquals(3, contexts.size());
+		assertEquals("new", contexts.get(0).getId());
+		assertTrue(storage.getStatistics().query("other", null, null).isEmpty());
+		assertTrue(storage.getContextsByFingerprint("Other", "fp").isEmpty());
+
+		// Deleted contexts are dropped from the index
+		storage.delete("match");
+		assertEquals(2, storage.getContextsByFingerprint("Task", "fp").size());
+	}
+
+	private static TaskContextMetadata metadata(String aId, String aType, String aFingerprint,
+			long aEnd)
+	{
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId(aId);
+		metadata.setType(aType);
+		metadata.setFingerprint(aFingerprint);
+		metadata.setEnd(aEnd);
+		return metadata;
+	}
+
+	@Test
+	public void testManifest()
+		throws Exception
+	{
+		Map<String, String> discriminators = new HashMap<String, String>();
+		discriminators.put("Task|param", "välue\nwith=special:chars");
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId("ctx");
+		metadata.setType("type");
+		metadata.setEnd(42);
+		metadata.setFingerprint(TaskContextMetadata.fingerprint(discriminators));
+		metadata.getImports().put("input", "task-id://other/output");
+		storage.storeBinary("ctx", Task.DISCRIMINATORS_KEY, new PropertiesAdapter(discriminators));
+		storage.storeBinary("ctx", METADATA_KEY, metadata);
+		storage.storeBinary("ctx", TaskContextManifest.MANIFEST_KEY, new TaskContextManifest(
+				metadata, new HashMap<String, String>(), discriminators));
+
+		// Reads are answered from the manifest, not from the text files
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "ctx/"
+				+ Task.DISCRIMINATORS_KEY), "Task|param=stale");
+		assertEquals(discriminators, storage.retrieveBinary("ctx", Task.DISCRIMINATORS_KEY,
+				new PropertiesAdapter()).getMap());
+		TaskContextMetadata read = storage.getContext("ctx");
+		assertEquals("type", read.getType());
+		assertEquals(42, read.getEnd());
+		assertEquals("task-id://other/output", read.getImports().get("input"));
+		assertEquals(metadata.getFingerprint(), read.getFingerprint());
+
+		// Sections can be read without decoding the others
+		File manifestFile = new File(folder.getRoot(), "ctx/" + TaskContextManifest.MANIFEST_KEY);
+		TaskContextManifest section = new TaskContextManifest(
+				TaskContextManifest.Section.DISCRIMINATORS);
+		section.read(new ByteArrayInputStream(FileUtils.readFileToByteArray(manifestFile)));
+		assertEquals(discriminators, section.getDiscriminators());
+		assertNull(section.getMetadata());
+
+		// A corrupt manifest is ignored
+		byte[] corrupt = FileUtils.readFileToByteArray(manifestFile);
+		ByteBuffer.wrap(corrupt).putInt(16, Integer.MAX_VALUE);
+		FileUtils.writeByteArrayToFile(manifestFile, corrupt);
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "ctx/" + METADATA_KEY),
+				FileUtils.readFileToString(new File(folder.getRoot(), "ctx/" + METADATA_KEY))
+						.replace("=type", "=fallback"));
+		assertEquals("fallback", storage.getContext("ctx").getType());
+
+		// Changing one of the summarized keys invalidates the manifest
+		storage.storeBinary("ctx", Task.DISCRIMINATORS_KEY, new PropertiesAdapter(
+				new HashMap<String, String>()));
+		assertFalse(storage.containsKey("ctx", TaskContextManifest.MANIFEST_KEY));
+		assertTrue(storage.retrieveBinary("ctx", Task.DISCRIMINATORS_KEY,
+				new PropertiesAdapter()).getMap().isEmpty());
+	}
+
+	@Test
+	public void testDiscriminatorCache()
+		throws Exception
+	{
+		Map<String, String> discriminators = new HashMap<String, String>();
+		discriminators.put("Task|param", "1");
+		storage.storeBinary("ctx", Task.DISCRIMINATORS_KEY, new PropertiesAdapter(discriminators));
+
+		// Discriminators of running contexts are not cached
+		assertEquals(discriminators, storage.retrieveBinary("ctx", Task.DISCRIMINATORS_KEY,
+				new PropertiesAdapter()).getMap());
+		File file = new File(folder.getRoot(), "ctx/" + Task.DISCRIMINATORS_KEY);
+		FileUtils.writeStringToFile(file, "Task|param=2");
+		assertEquals("2", storage.retrieveBinary("ctx", Task.DISCRIMINATORS_KEY,
+				new PropertiesAdapter()).getMap().get("Task|param"));
+
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId("ctx");
+		metadata.setType("type");
+		storage.storeBinary("ctx", METADATA_KEY, metadata);
+		assertEquals("2", storage.retrieveBinary("ctx", Task.DISCRIMINATORS_KEY,
+				new PropertiesAdapter()).getMap().get("Task|param"));
+		FileUtils.writeStringToFile(file, "Task|param=3");
+		assertEquals("2", storage.retrieveBinary("ctx", Task.DISCRIMINATORS_KEY,
+				new PropertiesAdapter()).getMap().get("Task|param"));
+
+		// Storing through the service invalidates the cache
+		storage.storeBinary("ctx", Task.DISCRIMINATORS_KEY, new PropertiesAdapter(discriminators));
+		assertEquals(discriminators, storage.retrieveBinary("ctx", Task.DISCRIMINATORS_KEY,
+				new PropertiesAdapter()).getMap());
+	}
+
+	@Test
+	public void testKeyIndex()
+		throws Exception
+	{
+		assertFalse(storage.isIndexKeys());
+		storage.setIndexKeys(true);
+		storage.storeBinary("ctx", "folder/data.txt", new StringAdapter("data"));
+		storage.getStorageFolder("ctx", "output");
+		assertTrue(storage.containsKey("ctx", "/folder/data.txt"));
+		assertTrue(storage.containsKey("ctx", "folder"));
+		assertTrue(storage.isStorageFolder("ctx", "output"));
+
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId("ctx");
+		metadata.setType("type");
+		storage.storeBinary("ctx", METADATA_KEY, metadata);
+		File keys = new File(folder.getRoot(), "ctx/" + FileSystemStorageService.KEYS_KEY);
+		assertTrue(keys.isFile());
+		String list = FileUtils.readFileToString(keys);
+
+		// Keys written as part of the life cycle after completion do not change the key list
+		storage.storeBinary("ctx", IntermediateDataTracker.CLEANED_KEY, new StringAdapter(""));
+		assertEquals(list, FileUtils.readFileToString(keys));
+
+		// A fresh service only knows the key list
+		FileSystemStorageService other = new FileSystemStorageService();
+		other.setStorageRoot(folder.getRoot());
+		other.setIndexKeys(true);
+		assertTrue(other.containsKey("ctx", "folder/data.txt"));
+		assertTrue(other.containsKey("ctx", IntermediateDataTracker.CLEANED_KEY));
+		assertTrue(other.containsKey("ctx", METADATA_KEY));
+		assertTrue(other.isStorageFolder("ctx", "output"));
+		assertFalse(other.isStorageFolder("ctx", "folder/data.txt"));
+		assertFalse(other.containsKey("ctx", "missing.txt"));
+
+		// Negative answers for completed contexts come from the key list alone
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "ctx/sneaked-in.txt"), "x");
+		assertFalse(other.containsKey("ctx", "sneaked-in.txt"));
+
+		// ... except below folders handed out to the caller
+		File output = other.getStorageFolder("ctx", "output");
+		FileUtils.writeStringToFile(new File(output, "new.txt"), "x");
+		assertTrue(other.containsKey("ctx", "output/new.txt"));
+		File file = other.locateKey("ctx", "located.txt");
+		FileUtils.writeStringToFile(file, "x");
+		assertTrue(other.containsKey("ctx", "located.txt"));
+
+		// Positive answers are confirmed on the file system
+		other.delete("ctx", IntermediateDataTracker.CLEANED_KEY);
+		assertFalse(other.containsKey("ctx", IntermediateDataTracker.CLEANED_KEY));
+
+		// Adding a key to a completed context drops its key list instead of extending it
+		storage.storeBinary("ctx", "late.txt", new StringAdapter("late"));
+		assertFalse(keys.exists());
+		assertTrue(storage.containsKey("ctx", "late.txt"));
+		assertTrue(storage.containsKey("ctx", "sneaked-in.txt"));
+	}
+
+	@Test
+	public void testStatistics()
+		throws Exception
+	{
+		String id = "MyTask-0b8e8c4a-6f2a-11e5-9d70-feff819cdc9f";
+		storage.setStatistics(new StorageStatistics());
+		storage.storeBinary(id, "output/doc1.txt", new StringAdapter("12345"));
+		storage.storeBinary(id, "output/doc2.txt", new StringAdapter("1234567890"));
+		storage.retrieveBinary(id, "output/doc1.txt", new StringAdapter());
+		storage.delete(id, "output/doc2.txt");
+
+		List<StorageStatistics.Entry> stores = storage.getStatistics().query("MyTask",
+				"output/*.txt", StorageStatistics.Operation.STORE);
+		assertEquals(1, stores.size());
+		assertEquals(2, stores.get(0).getCount());
+		assertEquals(15, stores.get(0).getBytes());
+		assertEquals(5, StorageStatistics.sum(storage.getStatistics().query("MyTask", null,
+				StorageStatistics.Operation.RETRIEVE)).getBytes());
+		assertEquals(3, storage.getStatistics().getEntries(id).size());
+
+		// The summary is written into the context when it is completed
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId(id);
+		metadata.setType("MyTask");
+		storage.storeBinary(id, METADATA_KEY, metadata);
+		String summary = storage.retrieveBinary(id, StorageStatistics.SUMMARY_KEY,
+				new StringAdapter()).getString();
+		assertTrue(summary.contains("MyTask\toutput/*.txt\tSTORE\t2\t15\t"));
+		assertTrue(storage.getStatistics().getEntries(id).isEmpty());
+	}
+
+	@Test
+	public void testStatisticsExecutingContext()
+		throws Exception
+	{
+		String producer = "Producer-0b8e8c4a-6f2a-11e5-9d70-feff819cdc9f";
+		String consumer = "Consumer-1c9f9d5b-6f2a-11e5-9d70-feff819cdc9f";
+		storage.setStatistics(new StorageStatistics());
+		storage.storeBinary(producer, "output/doc1.txt", new StringAdapter("12345"));
+
+		// Reading the imported data is charged to the consumer executing it
+		StorageStatistics.enterContext(consumer);
+		try {
+			assertEquals(consumer, StorageStatistics.getExecutingContext());
+			storage.retrieveBinary(producer, "output/doc1.txt", new StringAdapter());
+		}
+		finally {
+			StorageStatistics.leaveContext(consumer);
+		}
+		assertNull(StorageStatistics.getExecutingContext());
+
+		assertEquals(5, StorageStatistics.sum(storage.getStatistics().query("Consumer", null,
+				StorageStatistics.Operation.RETRIEVE)).getBytes());
+		assertTrue(storage.getStatistics().query("Producer", null,
+				StorageStatistics.Operation.RETRIEVE).isEmpty());
+		assertEquals(1, storage.getStatistics().getEntries(consumer).size());
+		assertEquals(1, storage.getStatistics().getEntries(producer).size());
+	}
+
+	@Test
+	public void testStatisticsKeyPattern()
+	{
+		assertEquals("MyTask", StorageStatistics.getContextType(
+				"MyTask-0b8e8c4a-6f2a-11e5-9d70-feff819cdc9f"));
+		assertEquals("ctx", StorageStatistics.getContextType("ctx"));
+		assertEquals("DISCRIMINATORS.txt", StorageStatistics.getKeyPattern("DISCRIMINATORS.txt"));
+		assertEquals("fold#.bin", StorageStatistics.getKeyPattern("fold12.bin"));
+		assertEquals("output/*.xmi.gz", StorageStatistics.getKeyPattern("output/a/doc7.xmi.gz"));
+		assertEquals("output/*", StorageStatistics.getKeyPattern("output/README"));
+		assertEquals("output/", StorageStatistics.getKeyPattern("output/"));
+	}
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.filesystem;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.DefaultTaskContext;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.DefaultTaskContextFactory;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+public class RepositoryGarbageCollectorTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystemStorageService storage;
+	private DefaultTaskContextFactory contextFactory;
+	private RepositoryGarbageCollector gc;
+
+	@Before
+	public void setup()
+	{
+		storage = new FileSystemStorageService();
+		storage.setStorageRoot(folder.getRoot());
+		contextFactory = new DefaultTaskContextFactory();
+		gc = new RepositoryGarbageCollector();
+		gc.setStorageService(storage);
+		gc.setTaskContextFactory(contextFactory);
+		gc.setMinAge(0);
+	}
+
+	@Test
+	public void testCollect()
+		throws Exception
+	{
+		createContext("producer", 1000, null);
+		createContext("consumer", 2000, "producer");
+		createContext("unrelated", 1500, null);
+		// A running context is never touched
+		storage.storeBinary("running", "data.txt", new StringAdapter("data"));
+
+		gc.setBudget(Long.MAX_VALUE);
+		gc.collect();
+		assertTrue(storage.containsContext("unrelated"));
+
+		// The least recently used context nothing depends on goes first
+		gc.setBudget(size() - 1);
+		gc.collect();
+		assertFalse(storage.containsContext("unrelated"));
+		assertTrue(storage.containsContext("consumer"));
+		assertTrue(storage.containsContext("producer"));
+
+		// The producer can only go after its consumer
+		gc.setBudget(0);
+		gc.collect();
+		assertFalse(storage.containsContext("consumer"));
+		assertFalse(storage.containsContext("producer"));
+		assertTrue(storage.containsContext("running"));
+	}
+
+	@Test
+	public void testRunningContextImports()
+		throws Exception
+	{
+		createContext("producer", 1000, null);
+
+		// A running context which has not written its metadata yet protects its imports
+		DefaultTaskContext running = new DefaultTaskContext(contextFactory);
+		running.setMetadata(createMetadata("running", 0, "producer"));
+		contextFactory.registerContext(running);
+
+		gc.setBudget(0);
+		gc.collect();
+		assertTrue(storage.containsContext("producer"));
+
+		contextFactory.unregisterContext(running);
+		gc.collect();
+		assertFalse(storage.containsContext("producer"));
+	}
+
+	@Test
+	public void testLastUsed()
+		throws Exception
+	{
+		createContext("old", 1000, null);
+		createContext("new", 2000, null);
+
+		// Reading data counts as use, reading metadata does not
+		storage.getContext("new");
+		storage.retrieveBinary("old", "data.txt", new StringAdapter());
+		assertTrue(storage.getLastUsed("old") > 0);
+		assertTrue(storage.getLastUsed("new") == 0);
+
+		gc.setBudget(size() - 1);
+		gc.collect();
+		assertTrue(storage.containsContext("old"));
+		assertFalse(storage.containsContext("new"));
+	}
+
+	@Test
+	public void testUnpacked()
+		throws Exception
+	{
+		createContext("packed", 1000, null);
+		storage.compact("packed");
+		File extracted = storage.locateKey("packed", "data.txt");
+		assertTrue(extracted.isFile());
+
+		// Extracted data is dropped before the context itself
+		gc.setBudget(new File(folder.getRoot(), "packed" + ContextPack.SUFFIX).length());
+		gc.collect();
+		assertFalse(extracted.exists());
+		assertTrue(storage.containsContext("packed"));
+
+		// ... and can be extracted again
+		assertTrue(storage.locateKey("packed", "data.txt").isFile());
+	}
+
+	private void createContext(String aId, long aEnd, String aImport)
+		throws Exception
+	{
+		storage.storeBinary(aId, "data.txt", new StringAdapter("data of " + aId));
+		storage.storeBinary(aId, TaskContextMetadata.METADATA_KEY, createMetadata(aId, aEnd,
+				aImport));
+	}
+
+	private TaskContextMetadata createMetadata(String aId, long aEnd, String aImport)
+	{
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId(aId);
+		metadata.setType("type");
+		metadata.setStart(aEnd);
+		metadata.setEnd(aEnd);
+		if (aImport != null) {
+			metadata.setImports(Collections.singletonMap("data.txt",
+					StorageService.CONTEXT_ID_SCHEME + "://" + aImport + "/data.txt"));
+		}
+		return metadata;
+	}
+
+	private long size()
+	{
+		long size = 0;
+		for (File ctx : folder.getRoot().listFiles()) {
+			if (ctx.getName().startsWith(".")) {
+				continue;
+			}
+			for (File file : ctx.listFiles()) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+}
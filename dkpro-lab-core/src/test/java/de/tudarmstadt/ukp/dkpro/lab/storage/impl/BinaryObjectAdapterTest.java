@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamReader;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StreamWriter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.TaggedObjectCodec.ElementHandler;
+
+public class BinaryObjectAdapterTest
+{
+	@Test
+	public void testRoundTrip()
+		throws Exception
+	{
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("int", -42);
+		data.put("long", Long.MAX_VALUE);
+		data.put("double", 0.5);
+		data.put("string", "välue");
+		data.put("bool", true);
+		data.put("null", null);
+		data.put("list", Arrays.asList(1, "two", 3.0));
+		data.put("doubles", new double[] { 1.0, 2.0 });
+		data.put("enum", Kind.B);
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> read = (Map<String, Object>) roundTrip(
+				new BinaryObjectAdapter<Object>(data), new BinaryObjectAdapter<Object>())
+				.getObject();
+		assertEquals(-42, read.get("int"));
+		assertEquals(Long.MAX_VALUE, read.get("long"));
+		assertEquals("välue", read.get("string"));
+		assertEquals(Arrays.asList(1, "two", 3.0), read.get("list"));
+		assertArrayEquals(new double[] { 1.0, 2.0 }, (double[]) read.get("doubles"), 0.0);
+		assertEquals(Kind.B, read.get("enum"));
+		assertEquals(data.keySet(), read.keySet());
+	}
+
+	@Test
+	public void testContainerTypes()
+		throws Exception
+	{
+		Set<String> sorted = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		sorted.addAll(Arrays.asList("b", "A", "c"));
+
+		List<Object> data = new ArrayList<Object>();
+		data.add(new HashSet<String>(Arrays.asList("x", "y")));
+		data.add(new TreeMap<String, Integer>(Collections.singletonMap("k", 1)));
+		data.add(new LinkedList<Integer>(Arrays.asList(1, 2)));
+		data.add(sorted);
+		data.add(new String[] { "a", null });
+		data.add(new Object[] { 1, "two" });
+		data.add(new float[] { 0.5f });
+		data.add(new boolean[] { true, false });
+		data.add(new short[] { -1, 2 });
+		data.add(new char[] { 'a', 'ü' });
+		data.add(new int[][] { { 1 }, { 2, 3 } });
+
+		List<?> read = (List<?>) roundTrip(new BinaryObjectAdapter<Object>(data),
+				new BinaryObjectAdapter<Object>()).getObject();
+		assertEquals(HashSet.class, read.get(0).getClass());
+		assertEquals(data.get(0), read.get(0));
+		assertEquals(TreeMap.class, read.get(1).getClass());
+		assertEquals(data.get(1), read.get(1));
+		assertEquals(LinkedList.class, read.get(2).getClass());
+		assertEquals(data.get(2), read.get(2));
+		TreeSet<?> readSorted = (TreeSet<?>) read.get(3);
+		assertEquals(String.CASE_INSENSITIVE_ORDER, readSorted.comparator());
+		assertEquals(Arrays.asList("A", "b", "c"), new ArrayList<Object>(readSorted));
+		assertArrayEquals(new String[] { "a", null }, (String[]) read.get(4));
+		assertArrayEquals(new Object[] { 1, "two" }, (Object[]) read.get(5));
+		assertArrayEquals(new float[] { 0.5f }, (float[]) read.get(6), 0.0f);
+		assertTrue(Arrays.equals(new boolean[] { true, false }, (boolean[]) read.get(7)));
+		assertArrayEquals(new short[] { -1, 2 }, (short[]) read.get(8));
+		assertArrayEquals(new char[] { 'a', 'ü' }, (char[]) read.get(9));
+		assertArrayEquals(new int[][] { { 1 }, { 2, 3 } }, (int[][]) read.get(10));
+	}
+
+	@Test
+	public void testSchemaChange()
+		throws Exception
+	{
+		TaggedObjectCodec codec = new TaggedObjectCodec();
+		OldModel old = new OldModel();
+		old.name = "model";
+		old.weights = Arrays.asList(1.0, 2.0);
+		old.removed = 5;
+		codec.register(OldModel.class, "model");
+		BinaryObjectAdapter<Object> writer = new BinaryObjectAdapter<Object>(old);
+		writer.setCodec(codec);
+
+		// The class changed: a field was removed, one was added and one changed its type
+		TaggedObjectCodec newCodec = new TaggedObjectCodec();
+		newCodec.register(NewModel.class, "model");
+		BinaryObjectAdapter<NewModel> reader = new BinaryObjectAdapter<NewModel>();
+		reader.setCodec(newCodec);
+		NewModel model = roundTrip(writer, reader).getObject();
+		assertEquals("model", model.name);
+		assertArrayEquals(new double[] { 1.0, 2.0 }, model.weights, 0.0);
+		assertEquals(7, model.added);
+	}
+
+	@Test
+	public void testStreaming()
+		throws Exception
+	{
+		Iterator<Object> producer = new Iterator<Object>()
+		{
+			private int i = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return i < 1000;
+			}
+
+			@Override
+			public Object next()
+			{
+				return i++;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		final List<Object> received = new ArrayList<Object>();
+		roundTrip(BinaryObjectAdapter.stream(producer), new BinaryObjectAdapter<Object>(
+				new ElementHandler()
+				{
+					@Override
+					public void element(Object aElement)
+					{
+						received.add(aElement);
+					}
+				}));
+		assertEquals(1000, received.size());
+		assertEquals(999, received.get(999));
+	}
+
+	@Test
+	public void testReadSerializedObject()
+		throws Exception
+	{
+		TreeMap<String, String> data = new TreeMap<String, String>();
+		data.put("key", "value");
+		assertEquals(data, roundTrip(new SerializedObjectAdapter<Object>(data),
+				new BinaryObjectAdapter<Object>()).getObject());
+	}
+
+	@Test
+	public void testUnknownType()
+		throws Exception
+	{
+		TaggedObjectCodec codec = new TaggedObjectCodec();
+		codec.register(OldModel.class, "model");
+		BinaryObjectAdapter<Object> writer = new BinaryObjectAdapter<Object>(new OldModel());
+		writer.setCodec(codec);
+
+		BinaryObjectAdapter<Object> reader = new BinaryObjectAdapter<Object>();
+		reader.setCodec(new TaggedObjectCodec());
+		Map<?, ?> fields = (Map<?, ?>) roundTrip(writer, reader).getObject();
+		assertNull(fields.get("name"));
+		assertEquals(0, fields.get("removed"));
+	}
+
+	private static <R extends StreamReader> R roundTrip(StreamWriter aWriter, R aReader)
+		throws Exception
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		aWriter.write(bos);
+		aReader.read(new ByteArrayInputStream(bos.toByteArray()));
+		return aReader;
+	}
+
+	public static enum Kind
+	{
+		A, B
+	}
+
+	private static class OldModel
+	{
+		String name;
+		List<Double> weights;
+		int removed;
+	}
+
+	private static class NewModel
+	{
+		String name;
+		double[] weights;
+		int added = 7;
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.filesystem.FileSystemStorageService;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+public class CachingStorageServiceTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CachingStorageService storage;
+
+	@Before
+	public void setup()
+	{
+		FileSystemStorageService fs = new FileSystemStorageService();
+		fs.setStorageRoot(folder.getRoot());
+		storage = new CachingStorageService();
+		storage.setStorageService(fs);
+		storage.setThreshold(100);
+	}
+
+	@Test
+	public void testCache()
+	{
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("content"));
+
+		assertEquals("content", read("ctx1", "data.txt"));
+		assertEquals("content", read("ctx1", "data.txt"));
+		assertEquals(1, storage.getMissCount());
+		assertEquals(1, storage.getHitCount());
+
+		// Writing a key invalidates it
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("new content"));
+		assertEquals("new content", read("ctx1", "data.txt"));
+		assertEquals(2, storage.getMissCount());
+	}
+
+	@Test
+	public void testPrefetch()
+		throws Exception
+	{
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("content"));
+		storage.getStorageFolder("ctx2", "folder");
+
+		storage.prefetch("ctx1", "data.txt");
+		// Folders and missing keys are ignored
+		storage.prefetch("ctx2", "folder");
+		storage.prefetch("ctx1", "missing.txt");
+		for (int i = 0; i < 100 && storage.getCachedBytes() == 0; i++) {
+			Thread.sleep(10);
+		}
+
+		assertEquals("content", read("ctx1", "data.txt"));
+		assertEquals(1, storage.getHitCount());
+	}
+
+	@Test
+	public void testLargeKeysAreNotCached()
+	{
+		String large = StringUtils.repeat("x", 1000);
+		storage.storeBinary("ctx1", "large.txt", new StringAdapter(large));
+
+		assertEquals(large, read("ctx1", "large.txt"));
+		assertEquals(large, read("ctx1", "large.txt"));
+		assertEquals(0, storage.getCachedBytes());
+		assertEquals(2, storage.getMissCount());
+	}
+
+	@Test
+	public void testEviction()
+	{
+		storage.setCacheSize(15);
+		storage.storeBinary("ctx1", "a.txt", new StringAdapter("0123456789"));
+		storage.storeBinary("ctx1", "b.txt", new StringAdapter("0123456789"));
+
+		read("ctx1", "a.txt");
+		read("ctx1", "b.txt");
+		assertEquals(10, storage.getCachedBytes());
+		read("ctx1", "b.txt");
+		assertEquals(1, storage.getHitCount());
+	}
+
+	@Test
+	public void testExposedFiles()
+		throws Exception
+	{
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("content"));
+		read("ctx1", "data.txt");
+
+		// Files of running contexts may be modified directly
+		File file = storage.locateKey("ctx1", "data.txt");
+		FileUtils.writeStringToFile(file, "modified");
+		assertEquals("modified", read("ctx1", "data.txt"));
+
+		// Once the context is complete, its keys are cached again
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId("ctx1");
+		metadata.setType("Task");
+		storage.storeBinary("ctx1", METADATA_KEY, metadata);
+		read("ctx1", "data.txt");
+		read("ctx1", "data.txt");
+		assertEquals(1, storage.getHitCount());
+	}
+
+	private String read(String aContextId, String aKey)
+	{
+		return storage.retrieveBinary(aContextId, aKey, new StringAdapter()).getString();
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class CompressionCodecsTest
+{
+	@Test
+	public void testCodecSelection()
+	{
+		assertTrue(CompressionCodecs.forKey("data.xmi.gz") instanceof GzipCodec);
+		assertNull(CompressionCodecs.forKey("DATA.GZ"));
+		assertNull(CompressionCodecs.forKey("data.xmi"));
+
+		// Keys are treated as compressed even if the codec library is missing
+		assertNotNull(CompressionCodecs.forKey("data.zst"));
+		assertNotNull(CompressionCodecs.forKey("data.lz4"));
+	}
+
+	@Test
+	public void testUnavailableCodec()
+		throws Exception
+	{
+		assumeTrue(!isPresent("com.github.luben.zstd.ZstdOutputStream"));
+		try {
+			CompressionCodecs.compress("data.zst", new ByteArrayOutputStream());
+			fail("Expected an IOException");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static boolean isPresent(String aClass)
+	{
+		try {
+			Class.forName(aClass);
+			return true;
+		}
+		catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	@Test
+	public void testParallelGzip()
+		throws Exception
+	{
+		// More than one block and some compressible content
+		byte[] data = new byte[3 * 1024 * 1024 + 17];
+		Random rnd = new Random(42);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + rnd.nextInt(4));
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new GzipCodec(4).compress(bos);
+		os.write(data, 0, 1000);
+		os.write(data, 1000, data.length - 1000);
+		os.close();
+
+		assertArrayEquals(data, IOUtils.toByteArray(new GZIPInputStream(
+				new ByteArrayInputStream(bos.toByteArray()))));
+	}
+
+	@Test
+	public void testParallelGzipEmpty()
+		throws Exception
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		new GzipCodec(2).compress(bos).close();
+
+		assertArrayEquals(new byte[0], IOUtils.toByteArray(new GZIPInputStream(
+				new ByteArrayInputStream(bos.toByteArray()))));
+	}
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.memory;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.AccessMode;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.StorageKey;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+public class InMemoryStorageServiceTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private InMemoryStorageService storage;
+
+	@Before
+	public void setup()
+	{
+		storage = new InMemoryStorageService();
+		storage.setSpillFolder(folder.getRoot());
+	}
+
+	@Test
+	public void testStoreRetrieve()
+	{
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("content"));
+		storage.storeBinary("ctx1", "data.txt.gz", new StringAdapter("compressed"));
+
+		assertTrue(storage.containsContext("ctx1"));
+		assertTrue(storage.containsKey("ctx1", "data.txt"));
+		assertFalse(storage.containsKey("ctx1", "other.txt"));
+		assertEquals("content", storage.retrieveBinary("ctx1", "data.txt", new StringAdapter())
+				.getString());
+		assertEquals("compressed", storage.retrieveBinary("ctx1", "data.txt.gz",
+				new StringAdapter()).getString());
+
+		// Nothing has been written to disk
+		assertFalse(new File(folder.getRoot(), "ctx1").exists());
+	}
+
+	@Test
+	public void testSpill()
+	{
+		storage.setMemoryLimit(20);
+		storage.storeBinary("ctx1", "small.txt", new StringAdapter("small"));
+		storage.storeBinary("ctx1", "large.txt", new StringAdapter("0123456789abcdef"));
+
+		// The largest key has been moved to disk
+		assertTrue(new File(folder.getRoot(), "ctx1/large.txt").exists());
+		assertFalse(new File(folder.getRoot(), "ctx1/small.txt").exists());
+		assertEquals(5, storage.getMemoryUsed());
+		assertEquals("0123456789abcdef", storage.retrieveBinary("ctx1", "large.txt",
+				new StringAdapter()).getString());
+
+		// Data exceeding the limit by itself goes to disk directly
+		storage.storeBinary("ctx1", "huge.txt", new StringAdapter("0123456789abcdef0123456789"));
+		assertTrue(new File(folder.getRoot(), "ctx1/huge.txt").exists());
+		assertEquals(5, storage.getMemoryUsed());
+	}
+
+	@Test
+	public void testLocateKey()
+		throws Exception
+	{
+		storage.storeBinary("ctx1", "output/a.txt", new StringAdapter("a"));
+		storage.storeBinary("ctx1", "output/b.txt", new StringAdapter("b"));
+
+		File output = storage.getStorageFolder("ctx1", "output");
+		assertEquals("a", FileUtils.readFileToString(new File(output, "a.txt")));
+		assertEquals(0, storage.getMemoryUsed());
+
+		// Files written by the caller are visible through the service
+		FileUtils.writeStringToFile(new File(output, "c.txt"), "c");
+		assertEquals("c", storage.retrieveBinary("ctx1", "output/c.txt", new StringAdapter())
+				.getString());
+	}
+
+	@Test
+	public void testCopy()
+	{
+		storage.storeBinary("ctx1", "output/a.txt", new StringAdapter("a"));
+		storage.copy("ctx2", "input", new StorageKey("ctx1", "output"), AccessMode.READWRITE);
+		storage.delete("ctx1");
+
+		assertFalse(storage.containsContext("ctx1"));
+		assertEquals("a", storage.retrieveBinary("ctx2", "input/a.txt", new StringAdapter())
+				.getString());
+	}
+
+	@Test
+	public void testGetContexts()
+	{
+		storage.storeBinary("ctx1", METADATA_KEY, metadata("ctx1", 1));
+		storage.storeBinary("ctx2", METADATA_KEY, metadata("ctx2", 2));
+		storage.locateKey("ctx1", METADATA_KEY);
+
+		assertEquals(2, storage.getContexts().size());
+		assertEquals("ctx2", storage.getContexts().get(0).getId());
+	}
+
+	private static TaskContextMetadata metadata(String aId, long aEnd)
+	{
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId(aId);
+		metadata.setType("Task");
+		metadata.setEnd(aEnd);
+		return metadata;
+	}
+}
@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.objectstore;
+
+import static de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata.METADATA_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.AccessMode;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService.StorageKey;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.task.TaskContextMetadata;
+
+public class ObjectStoreStorageServiceTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private InMemoryClient client;
+	private ObjectStoreStorageService storage;
+	private int instances;
+
+	@Before
+	public void setup()
+		throws IOException
+	{
+		client = new InMemoryClient();
+		storage = createStorage();
+	}
+
+	private ObjectStoreStorageService createStorage()
+		throws IOException
+	{
+		ObjectStoreStorageService s = new ObjectStoreStorageService();
+		s.setClient(client);
+		s.setPrefix("repo/");
+		s.setIndexName("instance" + instances++);
+		s.setCacheFolder(folder.newFolder());
+		return s;
+	}
+
+	@Test
+	public void testStoreRetrieve()
+	{
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("content"));
+		storage.storeBinary("ctx1", "data.txt.gz", new StringAdapter("compressed"));
+
+		assertTrue(client.objects.containsKey("repo/ctx1/data.txt"));
+		assertTrue(storage.containsContext("ctx1"));
+		assertTrue(storage.containsKey("ctx1", "data.txt"));
+		assertFalse(storage.containsKey("ctx1", "other.txt"));
+		assertEquals("content", storage.retrieveBinary("ctx1", "data.txt", new StringAdapter())
+				.getString());
+		assertEquals("compressed", storage.retrieveBinary("ctx1", "data.txt.gz",
+				new StringAdapter()).getString());
+	}
+
+	@Test
+	public void testLocalFilesAreUploaded()
+		throws Exception
+	{
+		File output = storage.getStorageFolder("ctx1", "output");
+		FileUtils.writeStringToFile(new File(output, "a.txt"), "a");
+		File file = storage.locateKey("ctx1", "single.txt");
+		FileUtils.writeStringToFile(file, "single");
+		assertFalse(client.objects.containsKey("repo/ctx1/output/a.txt"));
+
+		// Completing the context uploads everything written locally
+		storage.storeBinary("ctx1", METADATA_KEY, metadata("ctx1", "Task", 1));
+		assertEquals("a", new String(client.objects.get("repo/ctx1/output/a.txt"), "UTF-8"));
+		assertEquals("single", new String(client.objects.get("repo/ctx1/single.txt"), "UTF-8"));
+
+		// Another instance gets the data from the object store
+		ObjectStoreStorageService other = createStorage();
+		File copy = other.getStorageFolder("ctx1", "output");
+		assertEquals("a", FileUtils.readFileToString(new File(copy, "a.txt")));
+	}
+
+	@Test
+	public void testIndex()
+		throws Exception
+	{
+		storage.storeBinary("ctx1", METADATA_KEY, metadata("ctx1", "Task", 1));
+		ObjectStoreStorageService other = createStorage();
+		other.storeBinary("ctx2", METADATA_KEY, metadata("ctx2", "Task", 2));
+
+		// The contexts of both instances are listed without scanning the store
+		List<String> ids = new ArrayList<String>();
+		for (TaskContextMetadata m : storage.getContexts()) {
+			ids.add(m.getId());
+		}
+		assertEquals(2, ids.size());
+		assertEquals("ctx2", ids.get(0));
+		assertEquals("ctx2", storage.getLatestContext("Task", new TreeMap<String, String>())
+				.getId());
+
+		// Deleting a context hides it also from the index of the other instance
+		storage.delete("ctx2");
+		assertEquals(1, other.getContexts().size());
+		assertFalse(storage.containsContext("ctx2"));
+	}
+
+	@Test
+	public void testIndexRefresh()
+		throws Exception
+	{
+		ObjectStoreStorageService other = createStorage();
+		other.storeBinary("ctx1", METADATA_KEY, metadata("ctx1", "Task", 1));
+		assertEquals(1, storage.getContexts().size());
+
+		// Index objects of other instances are not read again within the refresh interval, but
+		// own changes are visible immediately
+		int gets = client.gets;
+		other.storeBinary("ctx2", METADATA_KEY, metadata("ctx2", "Task", 2));
+		storage.storeBinary("ctx3", METADATA_KEY, metadata("ctx3", "Task", 3));
+		assertEquals(2, storage.getContexts().size());
+		assertEquals(gets, client.gets);
+
+		storage.setIndexRefreshInterval(0);
+		assertEquals(3, storage.getContexts().size());
+
+		// The index object of an instance is continued by the next instance of the same name
+		ObjectStoreStorageService next = new ObjectStoreStorageService();
+		next.setClient(client);
+		next.setPrefix("repo/");
+		next.setIndexName(storage.getIndexName());
+		next.storeBinary("ctx4", METADATA_KEY, metadata("ctx4", "Task", 4));
+		assertEquals(2, client.list("repo/" + ObjectStoreStorageService.INDEX_PREFIX).size());
+		assertEquals(4, next.getContexts().size());
+	}
+
+	@Test
+	public void testRebuildIndex()
+		throws Exception
+	{
+		client.put("repo/ctx1/" + METADATA_KEY, metadataBytes("ctx1", "Task", 1));
+		assertEquals(0, storage.getContexts().size());
+		assertEquals(1, storage.rebuildIndex());
+		assertEquals("ctx1", storage.getContexts().get(0).getId());
+	}
+
+	@Test
+	public void testCopy()
+		throws Exception
+	{
+		File output = storage.getStorageFolder("ctx1", "output");
+		FileUtils.writeStringToFile(new File(output, "a.txt"), "a");
+		storage.flush();
+
+		storage.copy("ctx2", "input", new StorageKey("ctx1", "output"), AccessMode.READWRITE);
+		assertEquals("a", storage.retrieveBinary("ctx2", "input/a.txt", new StringAdapter())
+				.getString());
+	}
+
+	@Test
+	public void testEviction()
+		throws Exception
+	{
+		storage.setCacheSize(10);
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("0123456789"));
+		storage.storeBinary("ctx1", METADATA_KEY, metadata("ctx1", "Task", 1));
+		storage.storeBinary("ctx2", "data.txt", new StringAdapter("0123456789"));
+		storage.storeBinary("ctx2", METADATA_KEY, metadata("ctx2", "Task", 2));
+
+		File file1 = storage.locateKey("ctx1", "data.txt");
+		assertTrue(file1.exists());
+		File file2 = storage.locateKey("ctx2", "data.txt");
+		assertTrue(file2.exists());
+		// Located files are kept while they may still be in use
+		assertTrue(file1.exists());
+
+		// Once the task completes, the least-recently-used completed contexts are removed from
+		// the cache
+		storage.flush();
+		storage.storeBinary("ctx3", "data.txt", new StringAdapter("0123456789"));
+		storage.storeBinary("ctx3", METADATA_KEY, metadata("ctx3", "Task", 3));
+		File file3 = storage.locateKey("ctx3", "data.txt");
+		assertFalse(file1.exists());
+		assertFalse(file2.exists());
+		assertTrue(file3.exists());
+		assertEquals("0123456789", storage.retrieveBinary("ctx1", "data.txt",
+				new StringAdapter()).getString());
+	}
+
+	@Test
+	public void testLocallyWrittenDataIsEvicted()
+		throws Exception
+	{
+		storage.setCacheSize(10);
+		File output = storage.getStorageFolder("ctx1", "output");
+		FileUtils.writeStringToFile(new File(output, "a.txt"), "0123456789");
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("0123456789"));
+		storage.storeBinary("ctx1", METADATA_KEY, metadata("ctx1", "Task", 1));
+		assertTrue(output.exists());
+
+		// The data written by the context counts towards the cache size once it is complete
+		storage.flush("ctx1");
+		assertFalse(new File(storage.getCacheFolder(), "ctx1").exists());
+		assertEquals("0123456789", FileUtils.readFileToString(new File(storage.getStorageFolder(
+				"ctx1", "output"), "a.txt")));
+	}
+
+	@Test
+	public void testExistingCacheContentIsCounted()
+		throws Exception
+	{
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("0123456789"));
+		storage.storeBinary("ctx1", METADATA_KEY, metadata("ctx1", "Task", 1));
+		File file = storage.locateKey("ctx1", "data.txt");
+		assertTrue(file.exists());
+		// Data of a context which has not been completed may still be in use elsewhere
+		File incomplete = new File(storage.getCacheFolder(), "ctx2/data.txt");
+		FileUtils.writeStringToFile(incomplete, "0123456789");
+
+		ObjectStoreStorageService next = createStorage();
+		next.setCacheFolder(storage.getCacheFolder());
+		next.setCacheSize(10);
+		next.storeBinary("ctx3", "data.txt", new StringAdapter("0123456789"));
+		next.storeBinary("ctx3", METADATA_KEY, metadata("ctx3", "Task", 3));
+		next.locateKey("ctx3", "data.txt");
+		assertFalse(file.exists());
+		assertTrue(incomplete.exists());
+	}
+
+	@Test
+	public void testDefaultIndexNamesAreUnique()
+	{
+		// Concurrent instances would otherwise overwrite each other's index entries
+		assertFalse(new ObjectStoreStorageService().getIndexName().equals(
+				new ObjectStoreStorageService().getIndexName()));
+	}
+
+	@Test(timeout = 10000)
+	public void testPrefetchDoesNotBlock()
+		throws Exception
+	{
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("content"));
+		storage.storeBinary("ctx1", METADATA_KEY, metadata("ctx1", "Task", 1));
+
+		// Checking whether the context is complete happens in the background
+		ObjectStoreStorageService other = createStorage();
+		client.gate = new CountDownLatch(1);
+		other.prefetch("ctx1", "data.txt");
+		client.gate.countDown();
+
+		File file = other.locateKey("ctx1", "data.txt");
+		assertEquals("content", FileUtils.readFileToString(file));
+	}
+
+	private static TaskContextMetadata metadata(String aId, String aType, long aEnd)
+	{
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId(aId);
+		metadata.setType(aType);
+		metadata.setEnd(aEnd);
+		return metadata;
+	}
+
+	private static byte[] metadataBytes(String aId, String aType, long aEnd)
+		throws Exception
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		metadata(aId, aType, aEnd).write(bos);
+		return bos.toByteArray();
+	}
+
+	private static class InMemoryClient
+		implements ObjectStoreClient
+	{
+		final Map<String, byte[]> objects = new TreeMap<String, byte[]>();
+		int gets;
+		// If set, existence checks wait until it is opened
+		volatile CountDownLatch gate;
+
+		@Override
+		public boolean exists(String aName)
+			throws IOException
+		{
+			CountDownLatch g = gate;
+			if (g != null) {
+				try {
+					g.await();
+				}
+				catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			synchronized (this) {
+				return objects.containsKey(aName);
+			}
+		}
+
+		@Override
+		public synchronized InputStream get(String aName)
+			throws IOException
+		{
+			gets++;
+			byte[] data = objects.get(aName);
+			if (data == null) {
+				throw new FileNotFoundException(aName);
+			}
+			return new ByteArrayInputStream(data);
+		}
+
+		@Override
+		public synchronized void put(String aName, byte[] aData)
+		{
+			objects.put(aName, aData.clone());
+		}
+
+		@Override
+		public synchronized void put(String aName, File aFile)
+			throws IOException
+		{
+			objects.put(aName, FileUtils.readFileToByteArray(aFile));
+		}
+
+		@Override
+		public synchronized void copy(String aSource, String aTarget)
+			throws IOException
+		{
+			put(aTarget, objects.get(aSource));
+		}
+
+		@Override
+		public synchronized void delete(String aName)
+		{
+			objects.remove(aName);
+		}
+
+		@Override
+		public synchronized List<String> list(String aPrefix)
+		{
+			List<String> names = new ArrayList<String>();
+			for (String name : objects.keySet()) {
+				if (name.startsWith(aPrefix)) {
+					names.add(name);
+				}
+			}
+			return names;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.dkpro.lab.storage.objectstore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+
+public class S3ObjectStoreClientTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private StubS3 s3;
+	private HttpServer server;
+	private S3ObjectStoreClient client;
+
+	@Before
+	public void setup()
+		throws IOException
+	{
+		s3 = new StubS3();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", s3);
+		server.start();
+
+		client = new S3ObjectStoreClient();
+		client.setEndpoint("http://127.0.0.1:" + server.getAddress().getPort());
+		client.setBucket("bucket");
+		client.setAccessKey("access");
+		client.setSecretKey("secret");
+	}
+
+	@After
+	public void teardown()
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public void testPutGetDelete()
+		throws Exception
+	{
+		client.put("ctx/a b+c.txt", "data".getBytes("UTF-8"));
+		assertArrayEquals("data".getBytes("UTF-8"), s3.objects.get("ctx/a b+c.txt"));
+		assertTrue(s3.authorization.startsWith("AWS4-HMAC-SHA256 Credential=access/"));
+
+		assertTrue(client.exists("ctx/a b+c.txt"));
+		assertFalse(client.exists("ctx/other.txt"));
+		assertEquals("data", IOUtils.toString(client.get("ctx/a b+c.txt"), "UTF-8"));
+		try {
+			client.get("ctx/other.txt");
+			fail("Missing object must not be found");
+		}
+		catch (FileNotFoundException e) {
+			// Expected
+		}
+
+		client.copy("ctx/a b+c.txt", "ctx2/copy.txt");
+		assertArrayEquals("data".getBytes("UTF-8"), s3.objects.get("ctx2/copy.txt"));
+
+		client.delete("ctx/a b+c.txt");
+		client.delete("ctx/a b+c.txt");
+		assertFalse(s3.objects.containsKey("ctx/a b+c.txt"));
+	}
+
+	@Test
+	public void testList()
+		throws Exception
+	{
+		for (int i = 0; i < 5; i++) {
+			client.put("ctx/" + i, new byte[0]);
+		}
+		client.put("other/0", new byte[0]);
+
+		// The stub returns at most two keys per response
+		assertEquals(Arrays.asList("ctx/0", "ctx/1", "ctx/2", "ctx/3", "ctx/4"),
+				client.list("ctx/"));
+		assertTrue(s3.listRequests >= 3);
+	}
+
+	@Test
+	public void testMultipart()
+		throws Exception
+	{
+		byte[] data = new byte[client.getPartSize() + 1000];
+		new Random(0).nextBytes(data);
+		File file = folder.newFile();
+		FileUtils.writeByteArrayToFile(file, data);
+
+		client.setMultipartThreshold(1);
+		client.put("large", file);
+		assertArrayEquals(data, s3.objects.get("large"));
+		assertEquals(2, s3.parts);
+	}
+
+	@Test
+	public void testExternalEntitiesAreRejected()
+		throws Exception
+	{
+		File secret = folder.newFile();
+		FileUtils.writeStringToFile(secret, "secret");
+		s3.listResponse = "<?xml version=\"1.0\"?>"
+				+ "<!DOCTYPE r [<!ENTITY x SYSTEM \"" + secret.toURI() + "\">]>"
+				+ "<ListBucketResult><Contents><Key>&x;</Key></Contents></ListBucketResult>";
+		try {
+			List<String> names = client.list("");
+			fail("Response with DOCTYPE must be rejected, but got " + names);
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testStorageService()
+		throws Exception
+	{
+		ObjectStoreStorageService storage = new ObjectStoreStorageService();
+		storage.setClient(client);
+		storage.setPrefix("repo/");
+		storage.setCacheFolder(folder.newFolder());
+		storage.storeBinary("ctx1", "data.txt", new StringAdapter("content"));
+
+		assertTrue(storage.containsKey("ctx1", "data.txt"));
+		assertEquals("content", storage.retrieveBinary("ctx1", "data.txt", new StringAdapter())
+				.getString());
+		assertEquals("content", FileUtils.readFileToString(storage.locateKey("ctx1",
+				"data.txt")));
+		storage.delete("ctx1");
+		assertFalse(storage.containsContext("ctx1"));
+	}
+
+	/**
+	 * Minimal in-memory implementation of the S3 REST API for a single bucket.
+	 */
+	private static class StubS3
+		implements HttpHandler
+	{
+		final Map<String, byte[]> objects = new TreeMap<String, byte[]>();
+		final Map<Integer, byte[]> uploadParts = new TreeMap<Integer, byte[]>();
+		String listResponse;
+		String authorization;
+		int listRequests;
+		int parts;
+
+		@Override
+		public synchronized void handle(HttpExchange aExchange)
+			throws IOException
+		{
+			try {
+				authorization = aExchange.getRequestHeaders().getFirst("Authorization");
+				String method = aExchange.getRequestMethod();
+				String name = aExchange.getRequestURI().getPath().substring("/bucket/".length());
+				Map<String, String> query = parseQuery(aExchange.getRequestURI().getRawQuery());
+				byte[] body = IOUtils.toByteArray(aExchange.getRequestBody());
+
+				if ("GET".equals(method) && name.isEmpty()) {
+					listRequests++;
+					respond(aExchange, 200, listResponse != null ? listResponse
+							: list(query.get("prefix"), query.get("continuation-token")));
+				}
+				else if ("HEAD".equals(method)) {
+					aExchange.sendResponseHeaders(objects.containsKey(name) ? 200 : 404, -1);
+				}
+				else if ("GET".equals(method)) {
+					byte[] data = objects.get(name);
+					if (data == null) {
+						respond(aExchange, 404, "<Error><Code>NoSuchKey</Code></Error>");
+					}
+					else {
+						respond(aExchange, 200, data);
+					}
+				}
+				else if ("PUT".equals(method) && query.containsKey("partNumber")) {
+					parts++;
+					uploadParts.put(Integer.valueOf(query.get("partNumber")), body);
+					aExchange.getResponseHeaders().add("ETag", "\"part" + parts + "\"");
+					respond(aExchange, 200, "");
+				}
+				else if ("PUT".equals(method)) {
+					String source = aExchange.getRequestHeaders().getFirst("x-amz-copy-source");
+					if (source != null) {
+						source = URLDecoder.decode(source.substring("/bucket/".length()),
+								"UTF-8");
+						objects.put(name, objects.get(source));
+						respond(aExchange, 200, "<CopyObjectResult/>");
+					}
+					else {
+						objects.put(name, body);
+						respond(aExchange, 200, "");
+					}
+				}
+				else if ("POST".equals(method) && query.containsKey("uploads")) {
+					uploadParts.clear();
+					respond(aExchange, 200, "<InitiateMultipartUploadResult><UploadId>upload"
+							+ "</UploadId></InitiateMultipartUploadResult>");
+				}
+				else if ("POST".equals(method)) {
+					ByteArrayOutputStream bos = new ByteArrayOutputStream();
+					for (byte[] part : uploadParts.values()) {
+						bos.write(part);
+					}
+					objects.put(name, bos.toByteArray());
+					respond(aExchange, 200, "<CompleteMultipartUploadResult/>");
+				}
+				else if ("DELETE".equals(method)) {
+					objects.remove(name);
+					aExchange.sendResponseHeaders(204, -1);
+				}
+				else {
+					respond(aExchange, 400, "<Error><Code>BadRequest</Code></Error>");
+				}
+			}
+			finally {
+				aExchange.close();
+			}
+		}
+
+		private String list(String aPrefix, String aToken)
+		{
+			List<String> names = new ArrayList<String>();
+			for (String name : objects.keySet()) {
+				if (name.startsWith(aPrefix) && (aToken == null || name.compareTo(aToken) > 0)) {
+					names.add(name);
+				}
+			}
+
+			boolean truncated = names.size() > 2;
+			StringBuilder sb = new StringBuilder("<ListBucketResult>");
+			for (String name : names.subList(0, Math.min(2, names.size()))) {
+				sb.append("<Contents><Key>").append(name).append("</Key></Contents>");
+			}
+			sb.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+			if (truncated) {
+				sb.append("<NextContinuationToken>").append(names.get(1))
+						.append("</NextContinuationToken>");
+			}
+			sb.append("</ListBucketResult>");
+			return sb.toString();
+		}
+
+		private static Map<String, String> parseQuery(String aQuery)
+			throws IOException
+		{
+			Map<String, String> query = new HashMap<String, String>();
+			if (aQuery != null) {
+				for (String param : aQuery.split("&")) {
+					int eq = param.indexOf('=');
+					query.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+							URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+				}
+			}
+			return query;
+		}
+
+		private static void respond(HttpExchange aExchange, int aStatus, String aBody)
+			throws IOException
+		{
+			respond(aExchange, aStatus, aBody.getBytes("UTF-8"));
+		}
+
+		private static void respond(HttpExchange aExchange, int aStatus, byte[] aBody)
+			throws IOException
+		{
+			aExchange.sendResponseHeaders(aStatus, aBody.length > 0 ? aBody.length : -1);
+			if (aBody.length > 0) {
+				OutputStream os = aExchange.getResponseBody();
+				os.write(aBody);
+				os.close();
+			}
+		}
+	}
+}
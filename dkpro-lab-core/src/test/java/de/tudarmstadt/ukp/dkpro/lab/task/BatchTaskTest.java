@@ -18,8 +18,14 @@
 package de.tudarmstadt.ukp.dkpro.lab.task;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
@@ -29,8 +35,15 @@ import org.junit.Test;
 import org.junit.rules.TestName;
 
 import de.tudarmstadt.ukp.dkpro.lab.Lab;
+import de.tudarmstadt.ukp.dkpro.lab.engine.ExecutionException;
+import de.tudarmstadt.ukp.dkpro.lab.engine.LifeCycleException;
 import de.tudarmstadt.ukp.dkpro.lab.engine.TaskContext;
+import de.tudarmstadt.ukp.dkpro.lab.engine.TaskExecutionEngine;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.BatchTaskEngine;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.MultiThreadBatchTaskEngine;
+import de.tudarmstadt.ukp.dkpro.lab.storage.StorageService;
 import de.tudarmstadt.ukp.dkpro.lab.storage.impl.PropertiesAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
 import de.tudarmstadt.ukp.dkpro.lab.task.impl.DefaultBatchTask;
 import de.tudarmstadt.ukp.dkpro.lab.task.impl.ExecutableTaskBase;
 
@@ -217,6 +230,258 @@ public class BatchTaskTest
         Lab.getInstance().run(batchTask);
     }
 
+    @Test
+    public void testDeferredImport()
+        throws Exception
+    {
+        runDeferredImport(Lab.getInstance().getTaskExecutionService().createEngine(
+                new DefaultBatchTask()));
+    }
+
+    @Test
+    public void testDeferredImportMultiThread()
+        throws Exception
+    {
+        TaskExecutionEngine engine = new MultiThreadBatchTaskEngine();
+        engine.setContextFactory(Lab.getInstance().getTaskContextFactory());
+        runDeferredImport(engine);
+    }
+
+    private void runDeferredImport(TaskExecutionEngine aEngine)
+        throws Exception
+    {
+        final List<String> executed = new ArrayList<String>();
+        final List<String> consumerContexts = new ArrayList<String>();
+
+        Task producer = new ExecutableTaskBase()
+        {
+            @Override
+            public void execute(TaskContext aContext)
+                throws Exception
+            {
+                executed.add("producer");
+                aContext.storeBinary("DATA", new StringAdapter("data"));
+            }
+        };
+
+        Task consumer = new ExecutableTaskBase()
+        {
+            @Override
+            public void persist(TaskContext aContext)
+                throws IOException
+            {
+                consumerContexts.add(aContext.getId());
+                super.persist(aContext);
+            }
+
+            @Override
+            public void execute(TaskContext aContext)
+                throws Exception
+            {
+                executed.add("consumer");
+                Assert.assertEquals("data", aContext.retrieveBinary("DATA",
+                        new StringAdapter()).getString());
+            }
+        };
+        consumer.addImport(producer, "DATA");
+
+        // The consumer comes first, so it has to be deferred until the producer has run
+        DefaultBatchTask batch = new DefaultBatchTask();
+        batch.addTask(consumer);
+        batch.addTask(producer);
+        aEngine.run(batch);
+
+        Assert.assertEquals(2, executed.size());
+        Assert.assertEquals("producer", executed.get(0));
+        Assert.assertEquals("consumer", executed.get(1));
+        // No context has been initialized for the deferred attempt
+        Assert.assertEquals(1, consumerContexts.size());
+    }
+
+    @Test
+    public void testResolvedImportsArePassedOn()
+        throws Exception
+    {
+        final Map<String, CountingMap> resolvedByTask = new HashMap<String, CountingMap>();
+        BatchTaskEngine engine = new BatchTaskEngine()
+        {
+            @Override
+            protected TaskContextMetadata runNewExecution(TaskContext aContext, Task aTask,
+                    Map<String, Object> aConfig, Set<String> aScope,
+                    Map<String, TaskContextMetadata> aResolved)
+                throws ExecutionException, LifeCycleException
+            {
+                CountingMap resolved = new CountingMap(aResolved);
+                resolvedByTask.put(aTask.getType(), resolved);
+                return super.runNewExecution(aContext, aTask, aConfig, aScope, resolved);
+            }
+        };
+        engine.setContextFactory(Lab.getInstance().getTaskContextFactory());
+
+        final List<String> producerIds = new ArrayList<String>();
+        Task producer = new ExecutableTaskBase()
+        {
+            @Override
+            public void execute(TaskContext aContext)
+                throws Exception
+            {
+                producerIds.add(aContext.getId());
+                aContext.storeBinary("DATA", new StringAdapter("data"));
+            }
+        };
+
+        Task consumer = new ExecutableTaskBase()
+        {
+            @Override
+            public void execute(TaskContext aContext)
+                throws Exception
+            {
+                Assert.assertEquals("data", aContext.retrieveBinary("DATA",
+                        new StringAdapter()).getString());
+            }
+        };
+        consumer.addImport(producer, "DATA");
+
+        DefaultBatchTask batch = new DefaultBatchTask();
+        batch.addTask(producer);
+        batch.addTask(consumer);
+        engine.run(batch);
+
+        // The context of the consumer uses the context resolved while checking its imports
+        // instead of resolving the import again
+        CountingMap resolved = resolvedByTask.get(consumer.getType());
+        Assert.assertTrue(resolved.hits > 0);
+        Assert.assertEquals(0, resolved.misses);
+        Assert.assertEquals(producerIds.get(0), resolved.get("task-latest://"
+                + producer.getType()).getId());
+    }
+
+    private static class CountingMap
+        extends ConcurrentHashMap<String, TaskContextMetadata>
+    {
+        private static final long serialVersionUID = 1L;
+
+        int hits;
+        int misses;
+
+        public CountingMap(Map<String, TaskContextMetadata> aMap)
+        {
+            super(aMap);
+        }
+
+        @Override
+        public TaskContextMetadata get(Object aKey)
+        {
+            TaskContextMetadata meta = super.get(aKey);
+            if (meta != null) {
+                hits++;
+            }
+            else {
+                misses++;
+            }
+            return meta;
+        }
+    }
+
+    @Test
+    public void testIntermediate()
+        throws Exception
+    {
+        final List<String> producerIds = new ArrayList<String>();
+
+        ExecutableTaskBase producer = new ExecutableTaskBase()
+        {
+            @Override
+            public void execute(TaskContext aContext)
+                throws Exception
+            {
+                producerIds.add(aContext.getId());
+                aContext.storeBinary("DATA", new StringAdapter("intermediate"));
+                aContext.storeBinary("RESULT", new StringAdapter("result"));
+            }
+        };
+        producer.addIntermediateKey("DATA");
+
+        Task consumer = new ExecutableTaskBase()
+        {
+            @Override
+            public void execute(TaskContext aContext)
+                throws Exception
+            {
+                Assert.assertEquals("intermediate", aContext.retrieveBinary("DATA",
+                        new StringAdapter()).getString());
+            }
+        };
+        consumer.addImport(producer, "DATA");
+
+        DefaultBatchTask batch = new DefaultBatchTask();
+        batch.addTask(producer);
+        batch.addTask(consumer);
+        Lab.getInstance().run(batch);
+
+        // Only the intermediate key is gone
+        StorageService storage = Lab.getInstance().getStorageService();
+        Assert.assertTrue(storage.containsKey(producerIds.get(0), "RESULT"));
+        Assert.assertFalse(storage.containsKey(producerIds.get(0), "DATA"));
+
+        // The producer is not reused since its data is incomplete, the whole context is deleted
+        // this time
+        producer.getIntermediateKeys().clear();
+        producer.setIntermediate(true);
+        Lab.getInstance().run(batch);
+        Assert.assertEquals(2, producerIds.size());
+        Assert.assertFalse(storage.containsContext(producerIds.get(1)));
+    }
+
+    @Test
+    public void testIntermediateAcrossConfigurations()
+        throws Exception
+    {
+        final List<String> producerIds = new ArrayList<String>();
+
+        // The producer has no discriminators, so every configuration reuses its execution
+        ExecutableTaskBase producer = new ExecutableTaskBase()
+        {
+            @Override
+            public void execute(TaskContext aContext)
+                throws Exception
+            {
+                producerIds.add(aContext.getId());
+                aContext.storeBinary("DATA", new StringAdapter("intermediate"));
+            }
+        };
+        producer.addIntermediateKey("DATA");
+
+        Task consumer = new IntermediateConsumerTask();
+        consumer.addImport(producer, "DATA");
+
+        DefaultBatchTask batch = new DefaultBatchTask();
+        batch.setParameterSpace(new ParameterSpace(Dimension.create("value", "1", "2", "3")));
+        batch.addTask(producer);
+        batch.addTask(consumer);
+        Lab.getInstance().run(batch);
+
+        // The data is only deleted after the last configuration
+        Assert.assertEquals(1, producerIds.size());
+        StorageService storage = Lab.getInstance().getStorageService();
+        Assert.assertFalse(storage.containsKey(producerIds.get(0), "DATA"));
+    }
+
+    public static class IntermediateConsumerTask
+        extends ExecutableTaskBase
+    {
+        @Discriminator
+        private String value;
+
+        @Override
+        public void execute(TaskContext aContext)
+            throws Exception
+        {
+            Assert.assertEquals("intermediate", aContext.retrieveBinary("DATA",
+                    new StringAdapter()).getString());
+        }
+    }
+
     public static class ConfigDumperTask1
         extends ExecutableTaskBase
         implements ConfigurationAware
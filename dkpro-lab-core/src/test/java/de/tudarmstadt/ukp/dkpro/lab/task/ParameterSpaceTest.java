@@ -18,12 +18,19 @@
 package de.tudarmstadt.ukp.dkpro.lab.task;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.junit.Test;
 
+import de.tudarmstadt.ukp.dkpro.lab.task.impl.DimensionBundle;
+import de.tudarmstadt.ukp.dkpro.lab.task.impl.FoldDimensionBundle;
+
 public class ParameterSpaceTest
 {
 	@Test
@@ -86,4 +93,120 @@ public class ParameterSpaceTest
 		assertEquals((3 * 2 * 2) - 2, n);
 		assertEquals((3 * 2 * 2), pSpace.getStepCount());
 	}
+
+	@Test
+	public void testGet()
+	{
+		Dimension<String> letters = Dimension.create("letters", "a", "b", "c");
+		Dimension<Integer> empty = Dimension.create("empty");
+		Dimension<Map<String, Object>> bundle = Dimension.createBundle("bundle",
+				new Object[] { DimensionBundle.KEY_BUNDLE_ID, "one", "p", 1 },
+				new Object[] { DimensionBundle.KEY_BUNDLE_ID, "two", "p", 2 });
+		Dimension<String> files = Dimension.create("files", "1", "2", "3", "4");
+		FoldDimensionBundle<String> folds = new FoldDimensionBundle<String>("folds", files, 2);
+
+		ParameterSpace pSpace = new ParameterSpace(letters, empty, bundle, folds);
+		assertEquals(3 * 2 * 2, pSpace.size());
+
+		List<Map<String, Object>> iterated = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> config : pSpace) {
+			iterated.add(config);
+		}
+
+		List<Map<String, Object>> indexed = new ArrayList<Map<String, Object>>();
+		for (long i = 0; i < pSpace.size(); i++) {
+			indexed.add(pSpace.get(i));
+		}
+
+		assertEquals(iterated, indexed);
+	}
+
+	@Test
+	public void testGetWithoutDimensions()
+	{
+		ParameterSpace pSpace = new ParameterSpace();
+		assertEquals(1, pSpace.size());
+		assertTrue(pSpace.get(0).isEmpty());
+	}
+
+	@Test
+	public void testSplit()
+	{
+		Dimension<String> letters = Dimension.create("letters", "a", "b", "c");
+		Dimension<Integer> numbers = Dimension.create("numbers", 1, 2);
+		Dimension<Character> symbols = Dimension.create("symbols", '!', '&');
+
+		ParameterSpace pSpace = new ParameterSpace(letters, numbers, symbols);
+		pSpace.addConstraint(new Constraint()
+		{
+			@Override
+			public boolean isValid(Map<String, Object> aConfiguration)
+			{
+				return !aConfiguration.get("letters").equals("a")
+						|| aConfiguration.get("symbols").equals('!');
+			}
+		});
+
+		List<Map<String, Object>> iterated = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> config : pSpace) {
+			iterated.add(config);
+		}
+		pSpace.reset();
+
+		List<Iterable<Map<String, Object>>> shards = pSpace.split(5);
+		assertEquals(5, shards.size());
+
+		List<Map<String, Object>> sharded = new ArrayList<Map<String, Object>>();
+		for (Iterable<Map<String, Object>> shard : shards) {
+			for (Map<String, Object> config : shard) {
+				sharded.add(config);
+			}
+		}
+
+		assertEquals((3 * 2 * 2) - 2, sharded.size());
+		assertEquals(iterated, sharded);
+		assertEquals(0, pSpace.getStepCount());
+	}
+
+	@Test
+	public void testNotIndexed()
+	{
+		Dimension<String> letters = Dimension.create("letters", "a", "b", "c");
+		Dimension<Object> dynamic = new Dimension<Object>("dynamic")
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return false;
+			}
+
+			@Override
+			public void rewind()
+			{
+				// Nothing to do
+			}
+
+			@Override
+			public Object next()
+			{
+				throw new NoSuchElementException();
+			}
+
+			@Override
+			public Object current()
+			{
+				throw new NoSuchElementException();
+			}
+		};
+
+		ParameterSpace pSpace = new ParameterSpace(letters, dynamic);
+		assertEquals(-1, pSpace.size());
+		try {
+			pSpace.split(2);
+			fail("Expected an UnsupportedOperationException");
+		}
+		catch (UnsupportedOperationException e) {
+			// Expected
+		}
+	}
 }
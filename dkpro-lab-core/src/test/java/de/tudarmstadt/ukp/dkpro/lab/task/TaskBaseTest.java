@@ -17,8 +17,19 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.dkpro.lab.task;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
+import de.tudarmstadt.ukp.dkpro.lab.Util;
+import de.tudarmstadt.ukp.dkpro.lab.engine.impl.DefaultTaskContext;
+import de.tudarmstadt.ukp.dkpro.lab.storage.impl.StringAdapter;
+import de.tudarmstadt.ukp.dkpro.lab.storage.memory.InMemoryStorageService;
 import de.tudarmstadt.ukp.dkpro.lab.task.impl.TaskBase;
 
 public class TaskBaseTest {
@@ -28,4 +39,77 @@ public class TaskBaseTest {
 		TaskBase base = new TaskBase();
 		base.addReport(null);
 	}
+
+	@Test
+	public void testHashedValuesAreSharedAcrossContexts() throws Exception {
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < 10000; i++) {
+			files.add("file" + i + ".txt");
+		}
+
+		InMemoryStorageService storage = new InMemoryStorageService();
+		String hashed = null;
+		for (String id : new String[] { "ctx1", "ctx2" }) {
+			LargeValueTask task = new LargeValueTask();
+			task.files = files;
+			TaskContextMetadata metadata = new TaskContextMetadata();
+			metadata.setId(id);
+			DefaultTaskContext ctx = new DefaultTaskContext(null);
+			ctx.setStorageService(storage);
+			ctx.setMetadata(metadata);
+			task.persist(ctx);
+			hashed = task.getDescriminators().get(LargeValueTask.class.getName() + "|files");
+		}
+
+		assertTrue(Util.isHashedValue(hashed));
+		String key = TaskBase.getHashedValueKey(hashed);
+		assertEquals(Util.toString(files), storage.retrieveBinary(Task.VALUES_CONTEXT_ID, key,
+				new StringAdapter()).getString());
+		assertFalse(storage.containsKey("ctx1", key));
+		assertFalse(storage.containsKey("ctx2", key));
+	}
+
+	@Test
+	public void testValuesAreRenderedOncePerInstance() throws Exception {
+		CountingList files = new CountingList();
+		for (int i = 0; i < 10000; i++) {
+			files.add("file" + i + ".txt");
+		}
+
+		LargeValueTask task = new LargeValueTask();
+		task.files = files;
+		TaskContextMetadata metadata = new TaskContextMetadata();
+		metadata.setId("ctx1");
+		DefaultTaskContext ctx = new DefaultTaskContext(null);
+		ctx.setStorageService(new InMemoryStorageService());
+		ctx.setMetadata(metadata);
+		String hashed = task.getDescriminators().get(LargeValueTask.class.getName() + "|files");
+		task.getDescriminators();
+		task.persist(ctx);
+		assertEquals(1, files.rendered);
+
+		CountingList otherFiles = new CountingList();
+		otherFiles.addAll(files.subList(1, files.size()));
+		task.files = otherFiles;
+		assertFalse(hashed.equals(task.getDescriminators().get(
+				LargeValueTask.class.getName() + "|files")));
+		assertEquals(1, otherFiles.rendered);
+	}
+
+	public static class CountingList extends ArrayList<String> {
+		private static final long serialVersionUID = 1L;
+
+		int rendered;
+
+		@Override
+		public String toString() {
+			rendered++;
+			return super.toString();
+		}
+	}
+
+	public static class LargeValueTask extends TaskBase {
+		@Discriminator
+		private List<String> files;
+	}
 }